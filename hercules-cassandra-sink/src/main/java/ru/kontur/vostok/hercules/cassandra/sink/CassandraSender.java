@@ -1,13 +1,23 @@
 package ru.kontur.vostok.hercules.cassandra.sink;
 
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
 import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.DriverTimeoutException;
+import com.datastax.oss.driver.api.core.RequestThrottlingException;
+import com.datastax.oss.driver.api.core.connection.BusyConnectionException;
 import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
 import com.datastax.oss.driver.api.core.cql.BatchStatement;
 import com.datastax.oss.driver.api.core.cql.BatchStatementBuilder;
 import com.datastax.oss.driver.api.core.cql.BoundStatement;
 import com.datastax.oss.driver.api.core.cql.DefaultBatchType;
 import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.cql.Statement;
+import com.datastax.oss.driver.api.core.servererrors.BootstrappingException;
+import com.datastax.oss.driver.api.core.servererrors.OverloadedException;
 import com.datastax.oss.driver.api.core.servererrors.QueryValidationException;
+import com.datastax.oss.driver.api.core.servererrors.UnavailableException;
+import com.datastax.oss.driver.api.core.servererrors.WriteTimeoutException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ru.kontur.vostok.hercules.cassandra.util.CassandraConnector;
@@ -16,26 +26,34 @@ import ru.kontur.vostok.hercules.configuration.util.PropertiesUtil;
 import ru.kontur.vostok.hercules.health.MetricsCollector;
 import ru.kontur.vostok.hercules.kafka.util.processing.BackendServiceFailedException;
 import ru.kontur.vostok.hercules.protocol.Event;
+import ru.kontur.vostok.hercules.sink.PartialSendFailureException;
 import ru.kontur.vostok.hercules.sink.Sender;
 import ru.kontur.vostok.hercules.util.properties.PropertyDescription;
 import ru.kontur.vostok.hercules.util.properties.PropertyDescriptions;
 import ru.kontur.vostok.hercules.util.time.StopwatchUtil;
 import ru.kontur.vostok.hercules.util.validation.IntegerValidators;
 import ru.kontur.vostok.hercules.util.validation.LongValidators;
+import ru.kontur.vostok.hercules.util.validation.Validators;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 /**
  * Base Cassandra Sender.
  * <p>
- * Sends events with batches.
+ * Sends events with single-partition batches.
  *
  * @author Gregory Koshelev
  */
@@ -46,6 +64,13 @@ public abstract class CassandraSender extends Sender {
 
     private final long timeoutMs;
     private final int batchSize;
+    private final int retryLimit;
+    private final long retryBackoffMs;
+
+    private final Semaphore inFlightRequests;
+    private final Timer requestTimeMsTimer;
+    private final Meter requestErrorsMeter;
+    private final Meter retriedStatementsMeter;
 
     private volatile PreparedStatement preparedStatement;
 
@@ -60,13 +85,30 @@ public abstract class CassandraSender extends Sender {
      * @param metricsCollector metrics collector
      */
     public CassandraSender(Properties properties, MetricsCollector metricsCollector) {
+        this(properties, new CassandraConnector(PropertiesUtil.ofScope(properties, Scopes.CASSANDRA)), metricsCollector);
+    }
+
+    /**
+     * Base Cassandra Sender.
+     *
+     * @param properties         sender's properties.
+     * @param cassandraConnector the Cassandra connector
+     * @param metricsCollector   metrics collector
+     */
+    protected CassandraSender(Properties properties, CassandraConnector cassandraConnector, MetricsCollector metricsCollector) {
         super(properties, metricsCollector);
 
-        Properties cassandraProperties = PropertiesUtil.ofScope(properties, Scopes.CASSANDRA);
-        cassandraConnector = new CassandraConnector(cassandraProperties);
+        this.cassandraConnector = cassandraConnector;
 
         timeoutMs = Props.SEND_TIMEOUT_MS.extract(properties);
         batchSize = Props.BATCH_SIZE.extract(properties);
+        retryLimit = Props.RETRY_LIMIT.extract(properties);
+        retryBackoffMs = Props.RETRY_BACKOFF_MS.extract(properties);
+
+        inFlightRequests = new Semaphore(Props.MAX_IN_FLIGHT_REQUESTS.extract(properties));
+        requestTimeMsTimer = metricsCollector.timer("cassandraRequestTimeMs");
+        requestErrorsMeter = metricsCollector.meter("cassandraRequestErrors");
+        retriedStatementsMeter = metricsCollector.meter("cassandraRetriedStatements");
     }
 
     @Override
@@ -79,22 +121,54 @@ public abstract class CassandraSender extends Sender {
         batchSizeBytesLimit = cassandraConnector.batchSizeBytesLimit();
         batchSizeBytesMinimum = cassandraConnector.batchSizeBytesMinimum();
 
+        prepare(cassandraConnector);
+
         super.start();
     }
 
     @Override
     protected int send(List<Event> events) throws BackendServiceFailedException {
-        CqlSession session = cassandraConnector.session();
+        return send(events, new ArrayList<>());
+    }
 
-        int rejectedEvents = 0;
+    /**
+     * Send events to Cassandra in batches.
+     * <p>
+     * Each batch contains statements of the same partition, so it is routed to a replica of this partition.
+     * <p>
+     * If a batch failed due to transient error (write timeout, unavailable or overloaded nodes and so on),
+     * then the batch is split into single statements which are retried individually with exponential backoff.
+     * Thus, already persisted statements of other batches are not rewritten.
+     * <p>
+     * If some statements still failed after retries are exhausted, then their events are reported as failed,
+     * so only they will be sent again.
+     * Events are rejected if they cannot be converted or their batches are invalid.
+     *
+     * @param events         events to be sent
+     * @param rejectedEvents collection of rejected events
+     * @return count of events were successfully processed by Cassandra
+     * @throws PartialSendFailureException   if some batches failed
+     * @throws BackendServiceFailedException if all batches failed
+     */
+    @Override
+    protected int send(List<Event> events, List<Event> rejectedEvents) throws BackendServiceFailedException {
+        CqlSession session = cassandraConnector.session();
+        final long startedAtMs = System.currentTimeMillis();
 
-        List<CompletionStage<AsyncResultSet>> asyncTasks = new ArrayList<>(events.size());
-        BatchStatementBuilder batchBuilder = BatchStatement.builder(DefaultBatchType.UNLOGGED);
-        int batchSizeBytes = batchSizeBytesMinimum;
+        /*
+         * Batches are executed as soon as they are built, the count of in-flight requests is bounded
+         */
+        List<Batch> batches = new ArrayList<>();
+        /*
+         * Statements are grouped by routing key (partition key) to make batches single-partition.
+         * Thus, batch is routed to a replica of its partition and no coordinator fan out occurs.
+         * Statements without routing key are batched together.
+         */
+        Map<ByteBuffer, PartitionBatch> partitionBatches = new LinkedHashMap<>();
         for (Event event : events) {
             Optional<Object[]> converted = convert(event);
             if (!converted.isPresent()) {
-                rejectedEvents++;
+                rejectedEvents.add(event);
                 continue;
             }
 
@@ -102,52 +176,235 @@ public abstract class CassandraSender extends Sender {
             int statementSizeBytes = cassandraConnector.computeInnerBatchStatementSizeBytes(statement);
 
             if (statementSizeBytes + batchSizeBytesMinimum >= batchSizeBytesLimit) {
-                asyncTasks.add(session.executeAsync(statement));
+                batches.add(execute(session, new Batch(statement, event), startedAtMs));
                 continue;
             }
 
-            if (statementSizeBytes + batchSizeBytes > batchSizeBytesLimit || batchBuilder.getStatementsCount() >= batchSize) {
-                asyncTasks.add(session.executeAsync(batchBuilder.build()));
-
-                batchBuilder = BatchStatement.builder(DefaultBatchType.UNLOGGED);
-                batchSizeBytes = batchSizeBytesMinimum;
+            PartitionBatch partitionBatch =
+                    partitionBatches.computeIfAbsent(statement.getRoutingKey(), key -> new PartitionBatch());
+            if (statementSizeBytes + partitionBatch.sizeBytes > batchSizeBytesLimit
+                    || partitionBatch.builder.getStatementsCount() >= batchSize) {
+                batches.add(execute(session, partitionBatch.build(), startedAtMs));
+                partitionBatch.reset();
+            }
+            partitionBatch.add(statement, event, statementSizeBytes);
+        }
+        for (PartitionBatch partitionBatch : partitionBatches.values()) {
+            if (partitionBatch.builder.getStatementsCount() > 0) {
+                batches.add(execute(session, partitionBatch.build(), startedAtMs));
             }
+        }
+
+        List<Batch> rejectedBatches = new ArrayList<>();
+        List<Batch> failedBatches = new ArrayList<>();
+        Throwable failureCause = await(session, batches, startedAtMs, rejectedBatches, failedBatches);
 
-            batchBuilder.addStatement(statement);
-            batchSizeBytes += statementSizeBytes;
+        for (Batch batch : rejectedBatches) {
+            rejectedEvents.addAll(batch.events);
+        }
+        List<Event> failedEvents = new ArrayList<>();
+        for (Batch batch : failedBatches) {
+            failedEvents.addAll(batch.events);
         }
 
-        if (batchBuilder.getStatementsCount() > 0) {
-            asyncTasks.add(session.executeAsync(batchBuilder.build()));
+        if (!failedEvents.isEmpty()) {
+            int processedEvents = events.size() - rejectedEvents.size() - failedEvents.size();
+            if (processedEvents == 0) {
+                throw new BackendServiceFailedException(failureCause);
+            }
+            throw new PartialSendFailureException(processedEvents, rejectedEvents.size(), failedEvents, failureCause);
         }
 
-        long elapsedTimeMs = 0L;
-        long remainingTimeMs = timeoutMs;
+        return events.size() - rejectedEvents.size();
+    }
+
+    /**
+     * Execute auxiliary statements (e.g. index entries) which are not bound to events.
+     * <p>
+     * Statements are executed individually with the same limit of in-flight requests, send timeout and retries
+     * as batches of events.
+     *
+     * @param statements statements to execute
+     * @throws BackendServiceFailedException if some statements failed or the send timeout elapsed
+     */
+    protected final void executeAll(List<BoundStatement> statements) throws BackendServiceFailedException {
+        CqlSession session = cassandraConnector.session();
         final long startedAtMs = System.currentTimeMillis();
 
-        for (CompletionStage<AsyncResultSet> asyncTask : asyncTasks) {
-            try {
-                asyncTask.toCompletableFuture().get(remainingTimeMs, TimeUnit.MILLISECONDS);
-            } catch (TimeoutException | InterruptedException ex) {
-                throw new BackendServiceFailedException(ex);
-            } catch (ExecutionException ex) {
-                Throwable cause = ex.getCause();
-                if (cause instanceof QueryValidationException) {
-                    LOGGER.warn("Event dropped due to exception", cause);
-                    rejectedEvents++;
-                } else {
-                    throw new BackendServiceFailedException(cause);
+        List<Batch> batches = new ArrayList<>(statements.size());
+        for (BoundStatement statement : statements) {
+            batches.add(execute(session, new Batch(statement), startedAtMs));
+        }
+
+        List<Batch> failedBatches = new ArrayList<>();
+        Throwable failureCause = await(session, batches, startedAtMs, failedBatches, failedBatches);
+        if (!failedBatches.isEmpty()) {
+            throw new BackendServiceFailedException(failureCause);
+        }
+    }
+
+    /**
+     * Wait for results of batches within the send timeout and retry failed ones if the error is transient.
+     *
+     * @param session         the session
+     * @param batches         executed batches
+     * @param startedAtMs     the time when sending is started
+     * @param rejectedBatches collection of batches are invalid and should not be retried
+     * @param failedBatches   collection of batches are failed after retries or due to the timeout
+     * @return the cause of the last failure or {@code null} if there are no failed batches
+     * @throws BackendServiceFailedException if interrupted
+     */
+    private Throwable await(
+            CqlSession session,
+            List<Batch> batches,
+            long startedAtMs,
+            List<Batch> rejectedBatches,
+            List<Batch> failedBatches) throws BackendServiceFailedException {
+        Throwable failureCause = null;
+
+        for (int attempt = 0; !batches.isEmpty(); attempt++) {
+            List<Batch> retryableBatches = new ArrayList<>();
+            for (Batch batch : batches) {
+                long remainingTimeMs = StopwatchUtil.remainingTimeOrZero(timeoutMs, StopwatchUtil.elapsedTime(startedAtMs));
+                try {
+                    batch.result.get(remainingTimeMs, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new BackendServiceFailedException(ex);
+                } catch (TimeoutException ex) {
+                    failedBatches.add(batch);
+                    failureCause = ex;
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    if (cause instanceof QueryValidationException) {
+                        LOGGER.warn("Events dropped due to exception", cause);
+                        rejectedBatches.add(batch);
+                    } else if (attempt < retryLimit && isRetryable(cause)) {
+                        retryableBatches.add(batch);
+                        failureCause = cause;
+                    } else {
+                        failedBatches.add(batch);
+                        failureCause = cause;
+                    }
+                } catch (RuntimeException ex) {
+                    LOGGER.warn("Events dropped due to exception", ex);
+                    rejectedBatches.add(batch);
                 }
-            } catch (RuntimeException ex) {
-                LOGGER.warn("Event dropped due to exception", ex);
-                rejectedEvents++;
             }
 
-            elapsedTimeMs = StopwatchUtil.elapsedTime(startedAtMs);
-            remainingTimeMs = StopwatchUtil.remainingTimeOrZero(timeoutMs, elapsedTimeMs);
+            batches = retry(session, retryableBatches, attempt, startedAtMs, failedBatches);
+        }
+
+        return failureCause;
+    }
+
+    /**
+     * Retry failed batches statement by statement after the backoff.
+     * <p>
+     * If the send timeout elapses during the backoff, then failed batches are reported as failed.
+     *
+     * @param session       the session
+     * @param batches       failed batches to retry
+     * @param attempt       the number of the failed attempt starting from {@code 0}
+     * @param startedAtMs   the time when sending is started
+     * @param failedBatches collection of failed batches
+     * @return retried single-statement batches
+     * @throws BackendServiceFailedException if interrupted
+     */
+    private List<Batch> retry(
+            CqlSession session,
+            List<Batch> batches,
+            int attempt,
+            long startedAtMs,
+            List<Batch> failedBatches) throws BackendServiceFailedException {
+        if (batches.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        long backoffMs = Math.min(retryBackoffMs << Math.min(attempt, 30), timeoutMs);
+        long remainingTimeMs = StopwatchUtil.remainingTimeOrZero(timeoutMs, StopwatchUtil.elapsedTime(startedAtMs));
+        if (backoffMs >= remainingTimeMs) {
+            failedBatches.addAll(batches);
+            return Collections.emptyList();
+        }
+        try {
+            Thread.sleep(backoffMs);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new BackendServiceFailedException(ex);
+        }
+
+        List<Batch> retriedBatches = new ArrayList<>();
+        for (Batch batch : batches) {
+            for (Batch single : batch.split()) {
+                retriedBatches.add(execute(session, single, startedAtMs));
+            }
+            retriedStatementsMeter.mark(batch.statements.size());
+        }
+        return retriedBatches;
+    }
+
+    /**
+     * Check if the error is transient, thus the request can be retried.
+     * <p>
+     * Statements are idempotent inserts, so write timeouts are retryable as well.
+     *
+     * @param throwable the error
+     * @return {@code true} if the request can be retried, otherwise {@code false}
+     */
+    private static boolean isRetryable(Throwable throwable) {
+        return throwable instanceof WriteTimeoutException
+                || throwable instanceof UnavailableException
+                || throwable instanceof OverloadedException
+                || throwable instanceof BootstrappingException
+                || throwable instanceof DriverTimeoutException
+                || throwable instanceof BusyConnectionException
+                || throwable instanceof RequestThrottlingException;
+    }
+
+    /**
+     * Execute the batch asynchronously as soon as the count of in-flight requests is less than the limit.
+     * <p>
+     * If the limit is not freed up until the send timeout elapsed, then the batch result is {@link TimeoutException}.
+     *
+     * @param session     the session
+     * @param batch       the batch to execute
+     * @param startedAtMs the time when sending is started
+     * @return the batch
+     * @throws BackendServiceFailedException if interrupted
+     */
+    private Batch execute(CqlSession session, Batch batch, long startedAtMs) throws BackendServiceFailedException {
+        long remainingTimeMs = StopwatchUtil.remainingTimeOrZero(timeoutMs, StopwatchUtil.elapsedTime(startedAtMs));
+        try {
+            if (!inFlightRequests.tryAcquire(remainingTimeMs, TimeUnit.MILLISECONDS)) {
+                batch.result.completeExceptionally(new TimeoutException("Too many in-flight requests"));
+                return batch;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new BackendServiceFailedException(ex);
         }
 
-        return events.size() - rejectedEvents;
+        final long requestStartedAtNanos = System.nanoTime();
+        CompletionStage<AsyncResultSet> request;
+        try {
+            request = session.executeAsync(batch.statement);
+        } catch (RuntimeException ex) {
+            inFlightRequests.release();
+            batch.result.completeExceptionally(ex);
+            return batch;
+        }
+        request.whenComplete((resultSet, throwable) -> {
+            inFlightRequests.release();
+            requestTimeMsTimer.update(System.nanoTime() - requestStartedAtNanos, TimeUnit.NANOSECONDS);
+            if (throwable != null) {
+                requestErrorsMeter.mark();
+                batch.result.completeExceptionally(throwable);
+            } else {
+                batch.result.complete(resultSet);
+            }
+        });
+        return batch;
     }
 
     @Override
@@ -161,6 +418,14 @@ public abstract class CassandraSender extends Sender {
         return stopped;
     }
 
+    /**
+     * Prepare additional statements if needed. Is called on start when the session is established.
+     *
+     * @param connector the Cassandra connector
+     */
+    protected void prepare(CassandraConnector connector) {
+    }
+
     /**
      * Query template to build {@link PreparedStatement}.
      *
@@ -177,6 +442,78 @@ public abstract class CassandraSender extends Sender {
      */
     protected abstract Optional<Object[]> convert(Event event);
 
+    /**
+     * Statement with events it was built from.
+     * <p>
+     * Auxiliary statements are not bound to events, so their events are empty.
+     */
+    private static class Batch {
+        private final Statement<?> statement;
+        private final List<BoundStatement> statements;
+        private final List<Event> events;
+        private final CompletableFuture<AsyncResultSet> result = new CompletableFuture<>();
+
+        Batch(BoundStatement statement) {
+            this(statement, Collections.singletonList(statement), Collections.emptyList());
+        }
+
+        Batch(BoundStatement statement, Event event) {
+            this(statement, Collections.singletonList(statement), Collections.singletonList(event));
+        }
+
+        Batch(Statement<?> statement, List<BoundStatement> statements, List<Event> events) {
+            this.statement = statement;
+            this.statements = statements;
+            this.events = events;
+        }
+
+        /**
+         * Split the batch into single-statement batches to execute them again.
+         *
+         * @return single-statement batches
+         */
+        List<Batch> split() {
+            List<Batch> batches = new ArrayList<>(statements.size());
+            for (int i = 0; i < statements.size(); i++) {
+                BoundStatement statement = statements.get(i);
+                batches.add(events.isEmpty() ? new Batch(statement) : new Batch(statement, events.get(i)));
+            }
+            return batches;
+        }
+    }
+
+    /**
+     * Builder of batches of the same partition.
+     */
+    private class PartitionBatch {
+        private BatchStatementBuilder builder;
+        private List<BoundStatement> statements;
+        private List<Event> events;
+        private int sizeBytes;
+
+        PartitionBatch() {
+            reset();
+        }
+
+        void add(BoundStatement statement, Event event, int statementSizeBytes) {
+            builder.addStatement(statement);
+            statements.add(statement);
+            events.add(event);
+            sizeBytes += statementSizeBytes;
+        }
+
+        Batch build() {
+            return new Batch(builder.build(), statements, events);
+        }
+
+        void reset() {
+            builder = BatchStatement.builder(DefaultBatchType.UNLOGGED);
+            statements = new ArrayList<>(batchSize);
+            events = new ArrayList<>(batchSize);
+            sizeBytes = batchSizeBytesMinimum;
+        }
+    }
+
     private static class Props {
         static final PropertyDescription<Long> SEND_TIMEOUT_MS =
                 PropertyDescriptions.longProperty("sendTimeoutMs").
@@ -189,5 +526,23 @@ public abstract class CassandraSender extends Sender {
                         withDefaultValue(10).
                         withValidator(IntegerValidators.positive()).
                         build();
+
+        static final PropertyDescription<Integer> MAX_IN_FLIGHT_REQUESTS =
+                PropertyDescriptions.integerProperty("maxInFlightRequests").
+                        withDefaultValue(256).
+                        withValidator(IntegerValidators.positive()).
+                        build();
+
+        static final PropertyDescription<Integer> RETRY_LIMIT =
+                PropertyDescriptions.integerProperty("retryLimit").
+                        withDefaultValue(3).
+                        withValidator(Validators.greaterOrEquals(0)).
+                        build();
+
+        static final PropertyDescription<Long> RETRY_BACKOFF_MS =
+                PropertyDescriptions.longProperty("retryBackoffMs").
+                        withDefaultValue(100L).
+                        withValidator(LongValidators.positive()).
+                        build();
     }
 }
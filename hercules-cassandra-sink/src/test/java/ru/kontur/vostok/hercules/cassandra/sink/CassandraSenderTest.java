@@ -0,0 +1,366 @@
+package ru.kontur.vostok.hercules.cassandra.sink;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.DriverTimeoutException;
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
+import com.datastax.oss.driver.api.core.cql.BatchStatement;
+import com.datastax.oss.driver.api.core.cql.BatchableStatement;
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.DefaultBatchType;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.cql.Statement;
+import com.datastax.oss.driver.api.core.servererrors.InvalidQueryException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import ru.kontur.vostok.hercules.cassandra.util.CassandraConnector;
+import ru.kontur.vostok.hercules.health.MetricsCollector;
+import ru.kontur.vostok.hercules.kafka.util.processing.BackendServiceFailedException;
+import ru.kontur.vostok.hercules.protocol.Event;
+import ru.kontur.vostok.hercules.protocol.Variant;
+import ru.kontur.vostok.hercules.protocol.util.EventBuilder;
+import ru.kontur.vostok.hercules.sink.PartialSendFailureException;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CassandraSenderTest {
+    private CqlSession session = mock(CqlSession.class);
+    private PreparedStatement insertEvent = mock(PreparedStatement.class);
+    private CassandraConnector connector = mock(CassandraConnector.class);
+    private MetricsCollector metricsCollector = mock(MetricsCollector.class);
+
+    /**
+     * Result of the request by the statement, requests succeed by default
+     */
+    private Function<Statement<?>, CompletionStage<AsyncResultSet>> executor = statement -> completed();
+    /**
+     * Bound statements in order of binding
+     */
+    private List<BoundStatement> boundStatements = new ArrayList<>();
+
+    private TestSender sender;
+
+    @Before
+    public void setUp() {
+        when(connector.session()).thenReturn(session);
+        when(connector.batchSizeBytesLimit()).thenReturn(50 * 1024);
+        when(connector.batchSizeBytesMinimum()).thenReturn(12);
+        when(connector.computeInnerBatchStatementSizeBytes(any())).thenReturn(100);
+
+        when(metricsCollector.meter(anyString())).thenReturn(new Meter());
+        when(metricsCollector.timer(anyString())).thenReturn(new Timer());
+
+        when(session.prepare(anyString())).thenReturn(insertEvent);
+        when(insertEvent.bind(any())).thenAnswer(invocation -> {
+            int partition = invocation.getArgument(0);
+            BoundStatement statement = mock(BoundStatement.class);
+            when(statement.getRoutingKey()).thenReturn(ByteBuffer.allocate(4).putInt(0, partition));
+            boundStatements.add(statement);
+            return statement;
+        });
+        when(session.executeAsync(any(Statement.class))).thenAnswer(invocation -> executor.apply(invocation.getArgument(0)));
+    }
+
+    @After
+    public void tearDown() {
+        if (sender != null) {
+            sender.stop(1, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void shouldGroupStatementsByRoutingKeyIntoUnloggedBatches() throws Exception {
+        start(new Properties());
+
+        List<Event> events = events(1, 2, 1, 2, 1);
+        assertEquals(5, sender.send(events, new ArrayList<>()));
+
+        List<Statement<?>> statements = executedStatements(2);
+        assertBatch(statements.get(0), 3);
+        assertBatch(statements.get(1), 2);
+    }
+
+    @Test
+    public void shouldLimitStatementsInBatchByBatchSize() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("batchSize", "2");
+        start(properties);
+
+        assertEquals(5, sender.send(events(1, 1, 1, 1, 1), new ArrayList<>()));
+
+        List<Statement<?>> statements = executedStatements(3);
+        assertBatch(statements.get(0), 2);
+        assertBatch(statements.get(1), 2);
+        assertBatch(statements.get(2), 1);
+    }
+
+    @Test
+    public void shouldExecuteLargeStatementWithoutBatch() throws Exception {
+        when(connector.computeInnerBatchStatementSizeBytes(any())).thenReturn(50 * 1024);
+        start(new Properties());
+
+        assertEquals(2, sender.send(events(1, 1), new ArrayList<>()));
+
+        for (Statement<?> statement : executedStatements(2)) {
+            assertTrue(statement instanceof BoundStatement);
+        }
+    }
+
+    @Test
+    public void shouldRejectEventsCannotBeConverted() throws Exception {
+        start(new Properties());
+
+        List<Event> events = events(1, -1, 1);
+        List<Event> rejectedEvents = new ArrayList<>();
+        assertEquals(2, sender.send(events, rejectedEvents));
+
+        assertEquals(1, rejectedEvents.size());
+        assertBatch(executedStatements(1).get(0), 2);
+    }
+
+    @Test
+    public void shouldBoundInFlightRequests() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("maxInFlightRequests", "1");
+        properties.setProperty("sendTimeoutMs", "200");
+        start(properties);
+        executor = statement -> new CompletableFuture<>();
+
+        try {
+            sender.send(events(1, 2), new ArrayList<>());
+            fail("Send should fail due to the timeout");
+        } catch (BackendServiceFailedException ex) {
+            assertTrue(ex.getCause() instanceof TimeoutException);
+        }
+
+        executedStatements(1);
+    }
+
+    @Test
+    public void shouldReleaseInFlightRequestIfRequestFailed() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("maxInFlightRequests", "1");
+        properties.setProperty("sendTimeoutMs", "1000");
+        properties.setProperty("retryLimit", "0");
+        start(properties);
+        AtomicInteger requests = new AtomicInteger();
+        executor = statement -> requests.getAndIncrement() == 0
+                ? failed(new IllegalStateException("Request failed"))
+                : completed();
+
+        List<Event> events = events(1, 2);
+        try {
+            sender.send(events, new ArrayList<>());
+            fail("Send should fail partially");
+        } catch (PartialSendFailureException ex) {
+            assertEquals(1, ex.getProcessedEvents());
+            assertEquals(Collections.singletonList(events.get(0)), ex.getFailedEvents());
+        }
+
+        executedStatements(2);
+    }
+
+    @Test
+    public void shouldReleaseInFlightRequestIfRequestCannotBeExecuted() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("maxInFlightRequests", "1");
+        properties.setProperty("sendTimeoutMs", "1000");
+        properties.setProperty("retryLimit", "0");
+        start(properties);
+        AtomicInteger requests = new AtomicInteger();
+        executor = statement -> {
+            if (requests.getAndIncrement() == 0) {
+                throw new IllegalStateException("Session is closed");
+            }
+            return completed();
+        };
+
+        try {
+            sender.send(events(1, 2), new ArrayList<>());
+            fail("Send should fail partially");
+        } catch (PartialSendFailureException ex) {
+            assertEquals(1, ex.getProcessedEvents());
+            assertEquals(1, ex.getFailedEvents().size());
+        }
+
+        executedStatements(2);
+    }
+
+    @Test
+    public void shouldRetryFailedBatchStatementByStatement() throws Exception {
+        start(retryProperties(3));
+        executor = statement -> statement instanceof BatchStatement
+                ? failed(new DriverTimeoutException("Query timed out"))
+                : completed();
+
+        assertEquals(3, sender.send(events(1, 1, 1), new ArrayList<>()));
+
+        List<Statement<?>> statements = executedStatements(4);
+        assertBatch(statements.get(0), 3);
+        assertEquals(boundStatements, statements.subList(1, 4));
+    }
+
+    @Test
+    public void shouldReportOnlyStatementsFailedOnRetryAsFailed() throws Exception {
+        start(retryProperties(3));
+        executor = statement -> {
+            if (statement instanceof BatchStatement) {
+                return failed(new DriverTimeoutException("Query timed out"));
+            }
+            return statement == boundStatements.get(1) ? failed(new IllegalStateException("Request failed")) : completed();
+        };
+
+        List<Event> events = events(1, 1, 1);
+        try {
+            sender.send(events, new ArrayList<>());
+            fail("Send should fail partially");
+        } catch (PartialSendFailureException ex) {
+            assertEquals(2, ex.getProcessedEvents());
+            assertEquals(Collections.singletonList(events.get(1)), ex.getFailedEvents());
+        }
+    }
+
+    @Test
+    public void shouldNotRetryIfErrorIsNotTransient() throws Exception {
+        start(retryProperties(3));
+        executor = statement -> failed(new IllegalStateException("Request failed"));
+
+        try {
+            sender.send(events(1, 1), new ArrayList<>());
+            fail("Send should fail");
+        } catch (BackendServiceFailedException ex) {
+            assertTrue(ex.getCause() instanceof IllegalStateException);
+        }
+
+        executedStatements(1);
+    }
+
+    @Test
+    public void shouldRejectEventsOfInvalidBatch() throws Exception {
+        start(retryProperties(3));
+        executor = statement -> failed(new InvalidQueryException(null, "Invalid query"));
+
+        List<Event> rejectedEvents = new ArrayList<>();
+        assertEquals(0, sender.send(events(1, 1), rejectedEvents));
+
+        assertEquals(2, rejectedEvents.size());
+        executedStatements(1);
+    }
+
+    @Test
+    public void shouldFailAfterRetryLimit() throws Exception {
+        start(retryProperties(1));
+        executor = statement -> failed(new DriverTimeoutException("Query timed out"));
+
+        try {
+            sender.send(events(1, 1, 1), new ArrayList<>());
+            fail("Send should fail");
+        } catch (BackendServiceFailedException ex) {
+            assertTrue(ex.getCause() instanceof DriverTimeoutException);
+        }
+
+        executedStatements(4);
+    }
+
+    private void start(Properties properties) {
+        sender = new TestSender(properties, connector, metricsCollector);
+        sender.start();
+    }
+
+    private static Properties retryProperties(int retryLimit) {
+        Properties properties = new Properties();
+        properties.setProperty("retryLimit", String.valueOf(retryLimit));
+        properties.setProperty("retryBackoffMs", "1");
+        return properties;
+    }
+
+    private List<Statement<?>> executedStatements(int count) {
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Statement<?>> captor = ArgumentCaptor.forClass(Statement.class);
+        verify(session, times(count)).executeAsync(captor.capture());
+        return captor.getAllValues();
+    }
+
+    /**
+     * Assert the statement is the unlogged batch of the single partition.
+     */
+    private static void assertBatch(Statement<?> statement, int size) {
+        assertTrue(statement instanceof BatchStatement);
+        BatchStatement batch = (BatchStatement) statement;
+        assertEquals(DefaultBatchType.UNLOGGED, batch.getBatchType());
+        assertEquals(size, batch.size());
+
+        Set<ByteBuffer> routingKeys = new HashSet<>();
+        for (BatchableStatement<?> inner : batch) {
+            routingKeys.add(inner.getRoutingKey());
+        }
+        assertEquals(1, routingKeys.size());
+    }
+
+    /**
+     * Create events of partitions, the event of negative partition cannot be converted.
+     */
+    private static List<Event> events(int... partitions) {
+        List<Event> events = new ArrayList<>(partitions.length);
+        for (int partition : partitions) {
+            events.add(EventBuilder.create(0, UUID.randomUUID())
+                    .tag("partition", Variant.ofInteger(partition))
+                    .build());
+        }
+        return events;
+    }
+
+    private static CompletableFuture<AsyncResultSet> completed() {
+        return CompletableFuture.completedFuture(mock(AsyncResultSet.class));
+    }
+
+    private static CompletableFuture<AsyncResultSet> failed(Throwable throwable) {
+        CompletableFuture<AsyncResultSet> future = new CompletableFuture<>();
+        future.completeExceptionally(throwable);
+        return future;
+    }
+
+    private static class TestSender extends CassandraSender {
+        TestSender(Properties properties, CassandraConnector cassandraConnector, MetricsCollector metricsCollector) {
+            super(properties, cassandraConnector, metricsCollector);
+        }
+
+        @Override
+        protected String query() {
+            return "INSERT INTO test (partition) VALUES (?)";
+        }
+
+        @Override
+        protected Optional<Object[]> convert(Event event) {
+            int partition = (Integer) event.getPayload().get("partition").getValue();
+            return partition >= 0 ? Optional.of(new Object[]{partition}) : Optional.empty();
+        }
+    }
+}
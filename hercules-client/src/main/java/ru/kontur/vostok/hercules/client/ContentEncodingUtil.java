@@ -0,0 +1,59 @@
+package ru.kontur.vostok.hercules.client;
+
+import net.jpountz.lz4.LZ4FrameInputStream;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.util.EntityUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Compression of responses of Hercules APIs.
+ * <p>
+ * Gzip content can be decoded by the http client itself if content compression is enabled in it,
+ * LZ4 content is always decoded by Hercules clients.
+ */
+public final class ContentEncodingUtil {
+
+    /**
+     * Value of {@code Accept-Encoding} header
+     */
+    public static final String ACCEPT_ENCODING = "lz4, gzip";
+
+    private static final String GZIP = "gzip";
+    private static final String LZ4 = "lz4";
+
+    /**
+     * Read the entity content and decode it according to the content encoding.
+     *
+     * @param entity the entity
+     * @return decoded content
+     * @throws IOException in case of IO errors or if the content cannot be decoded
+     */
+    public static byte[] toByteArray(HttpEntity entity) throws IOException {
+        Header header = entity.getContentEncoding();
+        String contentEncoding = (header != null) ? header.getValue().trim().toLowerCase() : null;
+        if (!GZIP.equals(contentEncoding) && !LZ4.equals(contentEncoding)) {
+            return EntityUtils.toByteArray(entity);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (InputStream stream = GZIP.equals(contentEncoding)
+                ? new GZIPInputStream(entity.getContent())
+                : new LZ4FrameInputStream(entity.getContent())) {
+            byte[] buffer = new byte[8192];
+            int length;
+            while ((length = stream.read(buffer)) != -1) {
+                bytes.write(buffer, 0, length);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private ContentEncodingUtil() {
+        /* static class */
+    }
+}
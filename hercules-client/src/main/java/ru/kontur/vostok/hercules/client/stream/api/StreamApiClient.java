@@ -1,6 +1,7 @@
 package ru.kontur.vostok.hercules.client.stream.api;
 
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
@@ -10,6 +11,7 @@ import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
 import ru.kontur.vostok.hercules.client.CommonHeaders;
 import ru.kontur.vostok.hercules.client.CommonParameters;
+import ru.kontur.vostok.hercules.client.ContentEncodingUtil;
 import ru.kontur.vostok.hercules.client.LogicalShardState;
 import ru.kontur.vostok.hercules.client.exceptions.BadRequestException;
 import ru.kontur.vostok.hercules.client.exceptions.ForbiddenException;
@@ -133,6 +135,7 @@ public class StreamApiClient {
 
         HttpPost httpPost = new HttpPost(uri);
         httpPost.setHeader(CommonHeaders.API_KEY, apiKey);
+        httpPost.setHeader(HttpHeaders.ACCEPT_ENCODING, ContentEncodingUtil.ACCEPT_ENCODING);
         httpPost.setEntity(new ByteArrayEntity(bytes.toByteArray()));
 
         try (CloseableHttpResponse response = httpClient.execute(httpPost)) {
@@ -147,9 +150,7 @@ public class StreamApiClient {
             }
 
             HttpEntity entity = response.getEntity();
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream((int) entity.getContentLength());
-            entity.writeTo(outputStream);
-            return CONTENT_READER.read(new Decoder(outputStream.toByteArray()));
+            return CONTENT_READER.read(new Decoder(ContentEncodingUtil.toByteArray(entity)));
         } catch (IOException e) {
             throw new HerculesClientException("IOException occurred", e);
         }
@@ -1,6 +1,7 @@
 package ru.kontur.vostok.hercules.client.timeline.api;
 
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
@@ -10,6 +11,7 @@ import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
 import ru.kontur.vostok.hercules.client.CommonHeaders;
 import ru.kontur.vostok.hercules.client.CommonParameters;
+import ru.kontur.vostok.hercules.client.ContentEncodingUtil;
 import ru.kontur.vostok.hercules.client.LogicalShardState;
 import ru.kontur.vostok.hercules.client.exceptions.BadRequestException;
 import ru.kontur.vostok.hercules.client.exceptions.ForbiddenException;
@@ -21,8 +23,10 @@ import ru.kontur.vostok.hercules.protocol.TimelineContent;
 import ru.kontur.vostok.hercules.protocol.TimelineState;
 import ru.kontur.vostok.hercules.protocol.decoder.Decoder;
 import ru.kontur.vostok.hercules.protocol.decoder.EventReader;
+import ru.kontur.vostok.hercules.protocol.decoder.Reader;
 import ru.kontur.vostok.hercules.protocol.decoder.SizeOf;
 import ru.kontur.vostok.hercules.protocol.decoder.TimelineContentReader;
+import ru.kontur.vostok.hercules.protocol.decoder.TimelineStreamContentReader;
 import ru.kontur.vostok.hercules.protocol.encoder.Encoder;
 import ru.kontur.vostok.hercules.protocol.encoder.TimelineStateWriter;
 import ru.kontur.vostok.hercules.util.throwable.ThrowableUtil;
@@ -42,6 +46,8 @@ public class TimelineApiClient {
 
     private static final TimelineStateWriter STATE_WRITER = new TimelineStateWriter();
     private static final TimelineContentReader CONTENT_READER = new TimelineContentReader(EventReader.readAllTags());
+    private static final TimelineStreamContentReader STREAM_CONTENT_READER =
+            new TimelineStreamContentReader(EventReader.readAllTags());
 
     private final CloseableHttpClient httpClient;
     private final URI server;
@@ -124,8 +130,50 @@ public class TimelineApiClient {
             UnauthorizedException,
             ForbiddenException,
             NotFoundException {
+        return getTimelineContent(Resources.TIMELINE_READ, CONTENT_READER, timeline, timelineState, timeInterval, count);
+    }
 
-        URI uri = ThrowableUtil.toUnchecked(() -> new URIBuilder(server.resolve(Resources.TIMELINE_READ))
+    /**
+     * Request timeline content from timeline API, the content is streamed by the server as soon as events are read
+     *
+     * @param timeline      timeline name
+     * @param timelineState read state
+     * @param timeInterval  time interval
+     * @param count         count of events
+     * @return timeline content
+     * @throws HerculesClientException in case of unspecified error
+     * @throws BadRequestException     in case of incorrect parameters
+     * @throws UnauthorizedException   in case of missing authorization data
+     * @throws ForbiddenException      in case of request of forbidden resource
+     * @throws NotFoundException       in case of not found resource
+     */
+    public TimelineContent streamTimelineContent(
+            final String timeline,
+            final TimelineState timelineState,
+            final TimeInterval timeInterval,
+            final int count
+    ) throws HerculesClientException,
+            BadRequestException,
+            UnauthorizedException,
+            ForbiddenException,
+            NotFoundException {
+        return getTimelineContent(Resources.TIMELINE_STREAM, STREAM_CONTENT_READER, timeline, timelineState, timeInterval, count);
+    }
+
+    private TimelineContent getTimelineContent(
+            final URI resource,
+            final Reader<TimelineContent> contentReader,
+            final String timeline,
+            final TimelineState timelineState,
+            final TimeInterval timeInterval,
+            final int count
+    ) throws HerculesClientException,
+            BadRequestException,
+            UnauthorizedException,
+            ForbiddenException,
+            NotFoundException {
+
+        URI uri = ThrowableUtil.toUnchecked(() -> new URIBuilder(server.resolve(resource))
                 .addParameter(Parameters.TIMELINE, timeline)
                 .addParameter(Parameters.RESPONSE_EVENTS_COUNT, String.valueOf(count))
                 .addParameter(CommonParameters.LOGICAL_SHARD_ID, String.valueOf(shardState.getShardId()))
@@ -139,6 +187,7 @@ public class TimelineApiClient {
 
         HttpPost httpPost = new HttpPost(uri);
         httpPost.setHeader(CommonHeaders.API_KEY, apiKey);
+        httpPost.setHeader(HttpHeaders.ACCEPT_ENCODING, ContentEncodingUtil.ACCEPT_ENCODING);
         httpPost.setEntity(new ByteArrayEntity(bytes.toByteArray()));
 
         try (CloseableHttpResponse response = httpClient.execute(httpPost)) {
@@ -153,9 +202,7 @@ public class TimelineApiClient {
             }
 
             HttpEntity entity = response.getEntity();
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream((int) entity.getContentLength());
-            entity.writeTo(outputStream);
-            return CONTENT_READER.read(new Decoder(outputStream.toByteArray()));
+            return contentReader.read(new Decoder(ContentEncodingUtil.toByteArray(entity)));
         } catch (IOException e) {
             throw new HerculesClientException("IO Exception occurred", e);
         }
@@ -212,6 +259,11 @@ public class TimelineApiClient {
          */
         static final URI TIMELINE_READ = URI.create("./timeline/read");
 
+        /**
+         * Get streamed timeline content
+         */
+        static final URI TIMELINE_STREAM = URI.create("./timeline/stream");
+
         /**
          * Ping stream API
          */
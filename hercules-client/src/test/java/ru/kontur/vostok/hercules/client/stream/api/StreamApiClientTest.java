@@ -1,5 +1,6 @@
 package ru.kontur.vostok.hercules.client.stream.api;
 
+import net.jpountz.lz4.LZ4FrameOutputStream;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.entity.ByteArrayEntity;
@@ -14,6 +15,7 @@ import ru.kontur.vostok.hercules.protocol.StreamShardReadState;
 import ru.kontur.vostok.hercules.protocol.encoder.EventStreamContentWriter;
 import ru.kontur.vostok.hercules.protocol.util.EventBuilder;
 
+import java.io.ByteArrayOutputStream;
 import java.net.URI;
 import java.util.UUID;
 
@@ -83,4 +85,48 @@ public class StreamApiClientTest {
         assertEquals(UUID.fromString("05bd046a-ecc0-11e8-8eb2-f2801f1b9fd1"), content.getEvents()[0].getUuid());
         assertEquals(UUID.fromString("0b9e32b4-ecc0-11e8-8eb2-f2801f1b9fd1"), content.getEvents()[1].getUuid());
     }
+
+    @Test
+    public void readLz4Content() throws Exception {
+        CloseableHttpResponse responseMock = mock(CloseableHttpResponse.class);
+        when(responseMock.getStatusLine()).thenReturn(TestUtil._200_OK);
+
+        byte[] content = TestUtil.toBytes(
+                new EventStreamContent(
+                        new StreamReadState(
+                                new StreamShardReadState[]{
+                                        new StreamShardReadState(0, 1)
+                                }),
+                        new Event[]{
+                                EventBuilder.create(0, "05bd046a-ecc0-11e8-8eb2-f2801f1b9fd1").build()
+                        }),
+                new EventStreamContentWriter()
+        );
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (LZ4FrameOutputStream stream = new LZ4FrameOutputStream(compressed)) {
+            stream.write(content);
+        }
+        ByteArrayEntity entity = new ByteArrayEntity(compressed.toByteArray());
+        entity.setContentEncoding("lz4");
+        when(responseMock.getEntity()).thenReturn(entity);
+
+        CloseableHttpClient clientMock = mock(CloseableHttpClient.class);
+        when(clientMock.execute(any(HttpUriRequest.class))).thenReturn(responseMock);
+
+        StreamApiClient client = new StreamApiClient(
+                () -> clientMock,
+                URI.create("http://test/"),
+                new LogicalShardState(0, 1),
+                "test"
+        );
+
+        EventStreamContent result = client.getStreamContent(
+                "test",
+                new StreamReadState(new StreamShardReadState[]{}),
+                1
+        );
+
+        assertEquals(1, result.getEvents().length);
+        assertEquals(UUID.fromString("05bd046a-ecc0-11e8-8eb2-f2801f1b9fd1"), result.getEvents()[0].getUuid());
+    }
 }
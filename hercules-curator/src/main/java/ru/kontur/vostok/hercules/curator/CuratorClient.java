@@ -64,6 +64,28 @@ public class CuratorClient {
         }
     }
 
+    /**
+     * Read data of the node and set the watcher on it.
+     * <p>
+     * The watcher is triggered once when the node is changed or deleted. It is not set if the node doesn't exist.
+     *
+     * @param path    path
+     * @param watcher watcher
+     * @return read result
+     */
+    public ReadResult read(String path, CuratorWatcher watcher) throws CuratorInternalException, CuratorUnknownException {
+        try {
+            byte[] bytes = curatorFramework.getData().usingWatcher(watcher).forPath(path);
+            return ReadResult.found(bytes);
+        } catch (KeeperException.NoNodeException ex) {
+            return ReadResult.notFound();
+        } catch (KeeperException ex) {
+            throw new CuratorInternalException("Read failed with KeeperException", ex);
+        } catch (Exception ex) {
+            throw new CuratorUnknownException("Read failed with Exception", ex);
+        }
+    }
+
     /**
      * @param path path
      * @return unordered list of children
@@ -0,0 +1,44 @@
+package ru.kontur.vostok.hercules.elastic.sink;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of fixed-size byte chunks.
+ * <p>
+ * Chunks are allocated if the pool is empty. Released chunks are retained up to {@code maxPooledChunks},
+ * extra ones are left to the garbage collector.
+ */
+class BufferPool {
+    private final int chunkSize;
+    private final int maxPooledChunks;
+
+    private final ConcurrentLinkedQueue<byte[]> chunks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooledChunks = new AtomicInteger();
+
+    BufferPool(int chunkSize, int maxPooledChunks) {
+        this.chunkSize = chunkSize;
+        this.maxPooledChunks = maxPooledChunks;
+    }
+
+    int chunkSize() {
+        return chunkSize;
+    }
+
+    byte[] acquire() {
+        byte[] chunk = chunks.poll();
+        if (chunk == null) {
+            return new byte[chunkSize];
+        }
+        pooledChunks.decrementAndGet();
+        return chunk;
+    }
+
+    void release(byte[] chunk) {
+        if (pooledChunks.incrementAndGet() <= maxPooledChunks) {
+            chunks.offer(chunk);
+        } else {
+            pooledChunks.decrementAndGet();
+        }
+    }
+}
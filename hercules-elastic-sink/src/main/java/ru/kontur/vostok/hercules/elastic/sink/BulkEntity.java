@@ -0,0 +1,98 @@
+package ru.kontur.vostok.hercules.elastic.sink;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Repeatable HTTP entity of the bulk request over ranges of the {@link ChunkedOutputStream}.
+ * <p>
+ * Data is streamed from chunks, thus the entity must not outlive the underlying stream.
+ * If gzip compression is enabled, data is compressed on the fly each time the content is streamed,
+ * so no additional buffers are allocated. The content length of the compressed entity is unknown.
+ */
+class BulkEntity extends AbstractHttpEntity {
+    private static final int GZIP_BUFFER_SIZE = 8 * 1024;
+
+    private final ChunkedOutputStream buffer;
+    private final int[] ranges;
+    private final boolean gzip;
+    private final long contentLength;
+
+    /**
+     * @param buffer the buffer
+     * @param ranges pairs of start (inclusive) and end (exclusive) offsets of the buffer
+     * @param gzip   compress data with gzip
+     */
+    BulkEntity(ChunkedOutputStream buffer, int[] ranges, boolean gzip) {
+        this.buffer = buffer;
+        this.ranges = ranges;
+        this.gzip = gzip;
+
+        long length = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            length += ranges[i + 1] - ranges[i];
+        }
+        this.contentLength = gzip ? -1 : length;
+
+        setContentType(ContentType.APPLICATION_JSON.toString());
+        if (gzip) {
+            setContentEncoding("gzip");
+            setChunked(true);
+        }
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    @Override
+    public InputStream getContent() {
+        InputStream content;
+        if (ranges.length == 2) {
+            content = buffer.newInputStream(ranges[0], ranges[1]);
+        } else {
+            List<InputStream> streams = new ArrayList<>(ranges.length / 2);
+            for (int i = 0; i < ranges.length; i += 2) {
+                streams.add(buffer.newInputStream(ranges[i], ranges[i + 1]));
+            }
+            content = new SequenceInputStream(Collections.enumeration(streams));
+        }
+        return gzip ? new GzipCompressingInputStream(content, GZIP_BUFFER_SIZE) : content;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        if (!gzip) {
+            for (int i = 0; i < ranges.length; i += 2) {
+                buffer.writeTo(out, ranges[i], ranges[i + 1]);
+            }
+            return;
+        }
+        try (InputStream content = getContent()) {
+            byte[] bytes = new byte[GZIP_BUFFER_SIZE];
+            int length;
+            while ((length = content.read(bytes)) != -1) {
+                out.write(bytes, 0, length);
+            }
+        }
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+}
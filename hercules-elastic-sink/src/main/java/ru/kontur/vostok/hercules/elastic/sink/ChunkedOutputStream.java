@@ -0,0 +1,132 @@
+package ru.kontur.vostok.hercules.elastic.sink;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Output stream which stores data in chunks are borrowed from the {@link BufferPool}.
+ * <p>
+ * Unlike {@link java.io.ByteArrayOutputStream} it never copies written data on growth,
+ * and written data can be read or written to another stream by ranges without copying to a single array.
+ * <p>
+ * Chunks must be returned to the pool by {@link #release()} when the data is no longer needed.
+ */
+class ChunkedOutputStream extends OutputStream {
+    private final BufferPool pool;
+    private final int chunkSize;
+    private final List<byte[]> chunks = new ArrayList<>();
+    private int size;
+
+    ChunkedOutputStream(BufferPool pool) {
+        this.pool = pool;
+        this.chunkSize = pool.chunkSize();
+    }
+
+    @Override
+    public void write(int b) {
+        int offset = size % chunkSize;
+        if (offset == 0 && size / chunkSize == chunks.size()) {
+            chunks.add(pool.acquire());
+        }
+        chunks.get(size / chunkSize)[offset] = (byte) b;
+        size++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        while (len > 0) {
+            int offset = size % chunkSize;
+            if (offset == 0 && size / chunkSize == chunks.size()) {
+                chunks.add(pool.acquire());
+            }
+            int length = Math.min(len, chunkSize - offset);
+            System.arraycopy(b, off, chunks.get(size / chunkSize), offset, length);
+            size += length;
+            off += length;
+            len -= length;
+        }
+    }
+
+    /**
+     * Size of written data in bytes.
+     *
+     * @return size of written data
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Write the range of data to the stream.
+     *
+     * @param out  the output stream
+     * @param from the start offset of the range, inclusive
+     * @param to   the end offset of the range, exclusive
+     * @throws IOException if I/O error occurred
+     */
+    void writeTo(OutputStream out, int from, int to) throws IOException {
+        while (from < to) {
+            int offset = from % chunkSize;
+            int length = Math.min(to - from, chunkSize - offset);
+            out.write(chunks.get(from / chunkSize), offset, length);
+            from += length;
+        }
+    }
+
+    /**
+     * Create input stream over the range of data.
+     *
+     * @param from the start offset of the range, inclusive
+     * @param to   the end offset of the range, exclusive
+     * @return input stream
+     */
+    InputStream newInputStream(int from, int to) {
+        return new InputStream() {
+            private int position = from;
+
+            @Override
+            public int read() {
+                if (position >= to) {
+                    return -1;
+                }
+                int b = chunks.get(position / chunkSize)[position % chunkSize] & 0xFF;
+                position++;
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (len == 0) {
+                    return 0;
+                }
+                if (position >= to) {
+                    return -1;
+                }
+                int offset = position % chunkSize;
+                int length = Math.min(Math.min(len, to - position), chunkSize - offset);
+                System.arraycopy(chunks.get(position / chunkSize), offset, b, off, length);
+                position += length;
+                return length;
+            }
+
+            @Override
+            public int available() {
+                return to - position;
+            }
+        };
+    }
+
+    /**
+     * Return chunks to the pool. The stream must not be used after release.
+     */
+    void release() {
+        for (byte[] chunk : chunks) {
+            pool.release(chunk);
+        }
+        chunks.clear();
+        size = 0;
+    }
+}
@@ -3,6 +3,7 @@ package ru.kontur.vostok.hercules.elastic.sink;
 import com.codahale.metrics.Meter;
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.TreeNode;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -12,11 +13,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ru.kontur.vostok.hercules.health.MetricsCollector;
 import ru.kontur.vostok.hercules.util.metrics.GraphiteMetricsUtil;
-import ru.kontur.vostok.hercules.util.text.StringUtil;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
@@ -29,55 +32,66 @@ public class ElasticResponseHandler {
     public static class Result {
 
         public static final Result OK = new Result(
-                0,
-                0,
-                0,
-                Collections.emptySet()
+                Collections.emptyList(),
+                Collections.emptyList(),
+                Collections.emptyList()
         );
 
-        private final int retryableErrorCount;
-        private final int nonRetryableErrorCount;
-        private final int unknownErrorCount;
-        private final Set<String> badIds;
-
+        private final List<Integer> retryableErrorPositions;
+        private final List<Integer> nonRetryableErrorPositions;
+        private final List<Integer> unknownErrorPositions;
+
+        /**
+         * Positions are zero-based indices of failed items in the bulk request.
+         *
+         * @param retryableErrorPositions    positions of items failed with retryable errors
+         * @param nonRetryableErrorPositions positions of items failed with non retryable errors
+         * @param unknownErrorPositions      positions of items failed with unknown errors
+         */
         public Result(
-                int retryableErrorCount,
-                int nonRetryableErrorCount,
-                int unknownErrorCount,
-                Set<String> badIds
+                List<Integer> retryableErrorPositions,
+                List<Integer> nonRetryableErrorPositions,
+                List<Integer> unknownErrorPositions
         ) {
-            this.retryableErrorCount = retryableErrorCount;
-            this.nonRetryableErrorCount = nonRetryableErrorCount;
-            this.unknownErrorCount = unknownErrorCount;
-            this.badIds = badIds;
+            this.retryableErrorPositions = retryableErrorPositions;
+            this.nonRetryableErrorPositions = nonRetryableErrorPositions;
+            this.unknownErrorPositions = unknownErrorPositions;
         }
 
         public int getRetryableErrorCount() {
-            return retryableErrorCount;
+            return retryableErrorPositions.size();
         }
 
         public int getNonRetryableErrorCount() {
-            return nonRetryableErrorCount;
+            return nonRetryableErrorPositions.size();
         }
 
         public int getUnknownErrorCount() {
-            return unknownErrorCount;
+            return unknownErrorPositions.size();
         }
 
         public boolean hasRetryableErrors() {
-            return retryableErrorCount != 0;
+            return !retryableErrorPositions.isEmpty();
         }
 
         public boolean hasUnknownErrors() {
-            return unknownErrorCount != 0;
+            return !unknownErrorPositions.isEmpty();
         }
 
         public int getTotalErrors() {
-            return retryableErrorCount + nonRetryableErrorCount + unknownErrorCount;
+            return getRetryableErrorCount() + getNonRetryableErrorCount() + getUnknownErrorCount();
+        }
+
+        public List<Integer> getRetryableErrorPositions() {
+            return retryableErrorPositions;
+        }
+
+        public List<Integer> getNonRetryableErrorPositions() {
+            return nonRetryableErrorPositions;
         }
 
-        public Set<String> getBadIds() {
-            return badIds;
+        public List<Integer> getUnknownErrorPositions() {
+            return unknownErrorPositions;
         }
     }
 
@@ -248,20 +262,29 @@ public class ElasticResponseHandler {
         this.unknownErrorsMeter = metricsCollector.meter(METRIC_PREFIX + "unknownErrors");
     }
 
-    // TODO: Replace with a good parser
+    /**
+     * Process bulk response.
+     * <p>
+     * Items of the bulk response are in the same order as actions of the bulk request,
+     * thus failed items are identified by positions.
+     *
+     * @param httpEntity          bulk response entity
+     * @param redefinedExceptions exceptions for overriding
+     * @return positions of failed items grouped by error type
+     */
     public Result process(HttpEntity httpEntity, Set<String> redefinedExceptions) {
         return toUnchecked(() -> {
-            int retryableErrorCount = 0;
-            int nonRetryableErrorCount = 0;
-            int unknownErrorCount = 0;
-            Set<String> badIds = new HashSet<>();
+            List<Integer> retryableErrorPositions = new ArrayList<>();
+            List<Integer> nonRetryableErrorPositions = new ArrayList<>();
+            List<Integer> unknownErrorPositions = new ArrayList<>();
 
             JsonParser parser = FACTORY.createParser(httpEntity.getContent());
 
-            String currentId = "";
-            String currentIndex = "";
-
-            while (Objects.nonNull(parser.nextToken())) {
+            JsonToken token;
+            while (Objects.nonNull(token = parser.nextToken())) {
+                if (token != JsonToken.FIELD_NAME) {
+                    continue;
+                }
                 /*
                  * No errors in response, so processing can be skipped
                  */
@@ -269,42 +292,46 @@ public class ElasticResponseHandler {
                     if (Boolean.FALSE.equals(parser.nextBooleanValue())) {
                         return Result.OK;
                     }
+                    continue;
                 }
-
-                if ("_id".equals(parser.getCurrentName())) {
-                    currentId = parser.getValueAsString("");
+                if (!"items".equals(parser.getCurrentName()) || parser.nextToken() != JsonToken.START_ARRAY) {
+                    continue;
                 }
-                if ("_index".equals(parser.getCurrentName())) {
-                    currentIndex = parser.getValueAsString("");
-                }
-                if ("error".equals(parser.getCurrentName())) {
-                    parser.nextToken(); // Skip name
-                    final ErrorType errorType = processError(MAPPER.readTree(parser), currentId, currentIndex, redefinedExceptions);
-                    switch (errorType) {
-                        case RETRYABLE:
-                            retryableErrorCount++;
-                            break;
-                        case NON_RETRYABLE:
-                            nonRetryableErrorCount++;
-                            break;
-                        case UNKNOWN:
-                            unknownErrorCount++;
-                            if (!StringUtil.isNullOrEmpty(currentId)) {
-                                badIds.add(currentId);
-                            }
-                            break;
-                        default:
-                            throw new RuntimeException(String.format("Unsupported error type '%s'", errorType));
-                    }
 
+                int position = 0;
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    // Item is an object with the single field of action type (index, create and so on)
+                    JsonNode item = MAPPER.readTree(parser);
+                    Iterator<JsonNode> actions = item.elements();
+                    JsonNode action = actions.hasNext() ? actions.next() : null;
+                    JsonNode error = (action != null) ? action.get("error") : null;
+                    if (error != null) {
+                        final String id = Optional.ofNullable(action.get("_id")).map(JsonNode::asText).orElse("");
+                        final String index = Optional.ofNullable(action.get("_index")).map(JsonNode::asText).orElse("");
+                        final ErrorType errorType = processError(error, id, index, redefinedExceptions);
+                        switch (errorType) {
+                            case RETRYABLE:
+                                retryableErrorPositions.add(position);
+                                break;
+                            case NON_RETRYABLE:
+                                nonRetryableErrorPositions.add(position);
+                                break;
+                            case UNKNOWN:
+                                unknownErrorPositions.add(position);
+                                break;
+                            default:
+                                throw new RuntimeException(String.format("Unsupported error type '%s'", errorType));
+                        }
+                    }
+                    position++;
                 }
             }
 
-            retryableErrorsMeter.mark(retryableErrorCount);
-            nonRetryableErrorsMeter.mark(nonRetryableErrorCount);
-            unknownErrorsMeter.mark(unknownErrorCount);
+            retryableErrorsMeter.mark(retryableErrorPositions.size());
+            nonRetryableErrorsMeter.mark(nonRetryableErrorPositions.size());
+            unknownErrorsMeter.mark(unknownErrorPositions.size());
 
-            return new Result(retryableErrorCount, nonRetryableErrorCount, unknownErrorCount, badIds);
+            return new Result(retryableErrorPositions, nonRetryableErrorPositions, unknownErrorPositions);
         });
     }
 
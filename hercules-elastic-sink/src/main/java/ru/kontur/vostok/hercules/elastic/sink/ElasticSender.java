@@ -2,20 +2,18 @@ package ru.kontur.vostok.hercules.elastic.sink;
 
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.Timer;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpHost;
-import org.apache.http.entity.ByteArrayEntity;
-import org.apache.http.entity.ContentType;
 import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
 import org.elasticsearch.client.RestClient;
 import org.elasticsearch.client.RestClientBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import ru.kontur.vostok.hercules.health.AutoMetricStopwatch;
 import ru.kontur.vostok.hercules.health.MetricsCollector;
 import ru.kontur.vostok.hercules.kafka.util.processing.BackendServiceFailedException;
 import ru.kontur.vostok.hercules.protocol.Event;
-import ru.kontur.vostok.hercules.protocol.format.EventFormatter;
-import ru.kontur.vostok.hercules.protocol.util.EventUtil;
+import ru.kontur.vostok.hercules.sink.PartialSendFailureException;
 import ru.kontur.vostok.hercules.sink.Sender;
 import ru.kontur.vostok.hercules.sink.ProcessorStatus;
 import ru.kontur.vostok.hercules.util.functional.Result;
@@ -26,8 +24,8 @@ import ru.kontur.vostok.hercules.util.properties.PropertyDescriptions;
 import ru.kontur.vostok.hercules.util.validation.Validators;
 
 import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -35,7 +33,11 @@ import java.util.HashSet;
 import java.util.Set;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static ru.kontur.vostok.hercules.util.throwable.ThrowableUtil.toUnchecked;
 
@@ -49,15 +51,23 @@ public class ElasticSender extends Sender {
     private static final Logger PROCESSED_EVENT_LOGGER = LoggerFactory.getLogger(LoggingConstants.PROCESSED_EVENT_LOGGER_NAME);
     private static final Logger DROPPED_EVENT_LOGGER = LoggerFactory.getLogger(LoggingConstants.DROPPED_EVENT_LOGGER_NAME);
 
-    private static final int EXPECTED_EVENT_SIZE_BYTES = 2_048;
-
     private final RestClient restClient;
     private final ElasticResponseHandler elasticResponseHandler;
 
     private final int retryLimit;
+    private final int retryTimeoutMs;
+    private final long retryBackoffMs;
+    private final long maxRetryBackoffMs;
     private final boolean retryOnUnknownErrors;
     private final boolean mergePropertiesTagToRoot;
 
+    private final int maxBulkSizeBytes;
+    private final int maxBulkDocs;
+    private final Semaphore inFlightRequests;
+
+    private final BufferPool bufferPool;
+    private final boolean compressionGzipEnable;
+
     private final Timer elasticsearchRequestTimeTimer;
     private final Meter elasticsearchRequestErrorsMeter;
 
@@ -67,11 +77,13 @@ public class ElasticSender extends Sender {
         super(properties, metricsCollector);
 
         this.retryLimit = Props.RETRY_LIMIT.extract(properties);
+        this.retryBackoffMs = Props.RETRY_BACKOFF_MS.extract(properties);
+        this.maxRetryBackoffMs = Props.MAX_RETRY_BACKOFF_MS.extract(properties);
 
         HttpHost[] hosts = Props.HOSTS.extract(properties);
         final int maxConnections = Props.MAX_CONNECTIONS.extract(properties);
         final int maxConnectionsPerRoute = Props.MAX_CONNECTIONS_PER_ROUTE.extract(properties);
-        final int retryTimeoutMs = Props.RETRY_TIMEOUT_MS.extract(properties);
+        this.retryTimeoutMs = Props.RETRY_TIMEOUT_MS.extract(properties);
         final int connectionTimeout = Props.CONNECTION_TIMEOUT_MS.extract(properties);
         final int connectionRequestTimeout = Props.CONNECTION_REQUEST_TIMEOUT_MS.extract(properties);
         final int socketTimeout = Props.SOCKET_TIMEOUT_MS.extract(properties);
@@ -94,6 +106,16 @@ public class ElasticSender extends Sender {
         this.retryOnUnknownErrors = Props.RETRY_ON_UNKNOWN_ERRORS.extract(properties);
         this.mergePropertiesTagToRoot = Props.MERGE_PROPERTIES_TAG_TO_ROOT.extract(properties);
 
+        this.maxBulkSizeBytes = Props.MAX_BULK_SIZE_BYTES.extract(properties);
+        this.maxBulkDocs = Props.MAX_BULK_DOCS.extract(properties);
+        this.inFlightRequests = new Semaphore(Props.MAX_IN_FLIGHT_REQUESTS.extract(properties));
+
+        final int bufferChunkSizeBytes = Props.BUFFER_CHUNK_SIZE_BYTES.extract(properties);
+        this.bufferPool = new BufferPool(
+                bufferChunkSizeBytes,
+                (int) (Props.MAX_POOLED_BUFFER_SIZE_BYTES.extract(properties) / bufferChunkSizeBytes));
+        this.compressionGzipEnable = Props.COMPRESSION_GZIP_ENABLE.extract(properties);
+
         this.elasticResponseHandler = new ElasticResponseHandler(metricsCollector);
 
         this.elasticsearchRequestTimeTimer = metricsCollector.timer("elasticsearchRequestTimeMs");
@@ -112,6 +134,11 @@ public class ElasticSender extends Sender {
 
     @Override
     protected int send(List<Event> events) throws BackendServiceFailedException {
+        return send(events, new ArrayList<>());
+    }
+
+    @Override
+    protected int send(List<Event> events, List<Event> rejectedEvents) throws BackendServiceFailedException {
         if (events.size() == 0) {
             return 0;
         }
@@ -120,96 +147,314 @@ public class ElasticSender extends Sender {
             events.forEach(event -> RECEIVED_EVENT_LOGGER.trace("{},{}", event.getTimestamp(), event.getUuid()));
         }
 
-        ByteArrayOutputStream stream = new ByteArrayOutputStream(events.size() * EXPECTED_EVENT_SIZE_BYTES);
-        int droppedCount = writeEventRecords(stream, events);
-        if (stream.size() == 0) {
+        ChunkedOutputStream bulk = new ChunkedOutputStream(bufferPool);
+        List<Event> indexedEvents = new ArrayList<>(events.size());
+        List<Integer> offsets = new ArrayList<>(events.size() + 1);
+        writeEventRecords(bulk, events, indexedEvents, offsets, rejectedEvents);
+        if (bulk.size() == 0) {
+            bulk.release();
             return 0;
         }
 
-        ElasticResponseHandler.Result result;
+        List<Bulk> requests = new ArrayList<>();
+
+        /*
+         * Positions of events from indexedEvents are sent in the current round of bulk requests
+         */
+        List<Integer> positions = new ArrayList<>(indexedEvents.size());
+        for (int i = 0; i < indexedEvents.size(); i++) {
+            positions.add(i);
+        }
+        List<Event> failedEvents = new ArrayList<>();
         try {
-            ByteArrayEntity body = new ByteArrayEntity(stream.toByteArray(), ContentType.APPLICATION_JSON);
+            int attempt = 0;
+            while (true) {
+                List<Integer> retryPositions = new ArrayList<>();
+                int sentRequests = requests.size();
+                performBulkRequests(bulk, offsets, positions, requests);
+                /*
+                 * Requests are sent concurrently, thus they are awaited for the retry timeout in total
+                 */
+                long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(retryTimeoutMs);
+                for (Bulk request : requests.subList(sentRequests, requests.size())) {
+                    ElasticResponseHandler.Result result;
+                    try {
+                        result = request.result(deadlineNanos);
+                    } catch (Exception ex) {
+                        LOGGER.warn("Bulk request of " + request.positions.size() + " events failed", ex);
+                        for (int position : request.positions) {
+                            failedEvents.add(indexedEvents.get(position));
+                        }
+                        continue;
+                    }
+                    if (result.getTotalErrors() != 0) {
+                        LOGGER.info(
+                                "Error statistics (retryanble/non retyable/unknown/total): {}/{}/{}/{}",
+                                result.getRetryableErrorCount(),
+                                result.getNonRetryableErrorCount(),
+                                result.getUnknownErrorCount(),
+                                result.getTotalErrors()
+                        );
+                    }
 
-            int retryCount = retryLimit;
-            boolean needToRetry;
-            do {
-                Response response;
-                try (AutoMetricStopwatch requestTime = new AutoMetricStopwatch(elasticsearchRequestTimeTimer, TimeUnit.MILLISECONDS)) {
-                    response = restClient.performRequest(
-                            "POST",
-                            "/_bulk",
-                            Collections.emptyMap(),
-                            body
-
-                    );
-                } catch (IOException ex) {
-                    elasticsearchRequestErrorsMeter.mark();
-                    throw ex;
-                }
-                if (response.getStatusLine().getStatusCode() != 200) {
-                    elasticsearchRequestErrorsMeter.mark();
-                    throw new RuntimeException("Bad response");
+                    for (int position : result.getNonRetryableErrorPositions()) {
+                        rejectedEvents.add(indexedEvents.get(request.positions.get(position)));
+                    }
+                    for (int position : result.getRetryableErrorPositions()) {
+                        retryPositions.add(request.positions.get(position));
+                    }
+                    for (int position : result.getUnknownErrorPositions()) {
+                        Event event = indexedEvents.get(request.positions.get(position));
+                        if (LOGGER.isInfoEnabled()) {
+                            LOGGER.info("Event caused unknown error: {}", bulkItem(bulk, offsets, request.positions.get(position)));
+                        }
+                        if (retryOnUnknownErrors) {
+                            retryPositions.add(request.positions.get(position));
+                        } else {
+                            rejectedEvents.add(event);
+                        }
+                    }
                 }
-                result = elasticResponseHandler.process(response.getEntity(), redefinedExceptions);
-                if (result.getTotalErrors() != 0) {
-                    LOGGER.info(
-                            "Error statistics (retryanble/non retyable/unknown/total): {}/{}/{}/{}",
-                            result.getRetryableErrorCount(),
-                            result.getNonRetryableErrorCount(),
-                            result.getUnknownErrorCount(),
-                            result.getTotalErrors()
-                    );
+                if (retryPositions.isEmpty()) {
+                    break;
                 }
-                if (result.hasUnknownErrors() && LOGGER.isInfoEnabled()) {
-                    for (Event event : events) {
-                        if (result.getBadIds().contains(EventUtil.extractStringId(event))) {
-                            LOGGER.info("Event caused unknown error: {}", EventFormatter.format(event, false));
-                        }
+                retryPositions.sort(null);
+
+                if (attempt++ >= retryLimit) {
+                    for (int position : retryPositions) {
+                        failedEvents.add(indexedEvents.get(position));
                     }
+                    break;
                 }
-                needToRetry = result.hasRetryableErrors() || (result.hasUnknownErrors() && retryOnUnknownErrors);
-            } while (0 < retryCount-- && needToRetry);
-            if (needToRetry) {
-                throw new Exception("Have retryable errors in elasticsearch response");
+
+                /*
+                 * Only failed items are sent again, since successfully indexed ones must not be reindexed
+                 */
+                LOGGER.info("Retry {} of {} events after {} ms", attempt, retryPositions.size(), retryBackoffMs(attempt));
+                TimeUnit.MILLISECONDS.sleep(retryBackoffMs(attempt));
+                positions = retryPositions;
             }
-        } catch (Exception e) {
-            throw new BackendServiceFailedException(e);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new BackendServiceFailedException(ex);
+        } catch (Exception ex) {
+            throw new BackendServiceFailedException(ex);
+        } finally {
+            /*
+             * Buffer is returned to the pool only after all requests are completed,
+             * since timed out requests still may read it
+             */
+            CompletableFuture.allOf(requests.stream().map(request -> request.response).toArray(CompletableFuture[]::new)).
+                    whenComplete((r, ex) -> bulk.release());
         }
 
         if (PROCESSED_EVENT_LOGGER.isTraceEnabled()) {
             events.forEach(event -> PROCESSED_EVENT_LOGGER.trace("{},{}", event.getTimestamp(), event.getUuid()));
         }
 
-        droppedCount += result.getTotalErrors();
+        if (!failedEvents.isEmpty()) {
+            Exception cause = new Exception("Have failed bulk requests or retryable errors in elasticsearch response");
+            int processedEvents = events.size() - rejectedEvents.size() - failedEvents.size();
+            if (processedEvents == 0) {
+                throw new BackendServiceFailedException(cause);
+            }
+            throw new PartialSendFailureException(processedEvents, rejectedEvents.size(), failedEvents, cause);
+        }
+
+        return events.size() - rejectedEvents.size();
+    }
+
+    /**
+     * Split items into bulk requests are bounded by size in bytes and count of documents and send them concurrently.
+     * <p>
+     * Total count of in-flight requests to all Elasticsearch nodes is limited by {@code maxInFlightRequests}.
+     *
+     * @param bulk      bulk body of all items
+     * @param offsets   offsets of items in the bulk body, the last one is the bulk body length
+     * @param positions positions of items to be sent in ascending order
+     * @param requests  sent bulk requests are added to
+     * @throws InterruptedException if interrupted while waiting for in-flight requests
+     */
+    private void performBulkRequests(
+            ChunkedOutputStream bulk,
+            List<Integer> offsets,
+            List<Integer> positions,
+            List<Bulk> requests) throws InterruptedException {
+        int from = 0;
+        while (from < positions.size()) {
+            int to = from;
+            long size = 0;
+            do {
+                int position = positions.get(to);
+                size += offsets.get(position + 1) - offsets.get(position);
+                to++;
+            } while (to < positions.size()
+                    && to - from < maxBulkDocs
+                    && size + offsets.get(positions.get(to) + 1) - offsets.get(positions.get(to)) <= maxBulkSizeBytes);
+
+            List<Integer> requestPositions = positions.subList(from, to);
+            requests.add(performBulkRequest(createBulkBody(bulk, offsets, requestPositions), requestPositions));
+            from = to;
+        }
+    }
+
+    private Bulk performBulkRequest(HttpEntity body, List<Integer> positions) throws InterruptedException {
+        inFlightRequests.acquire();
+        Bulk request = new Bulk(positions);
+        final long startedAt = System.nanoTime();
+        restClient.performRequestAsync(
+                "POST",
+                "/_bulk",
+                Collections.emptyMap(),
+                body,
+                new ResponseListener() {
+                    @Override
+                    public void onSuccess(Response response) {
+                        inFlightRequests.release();
+                        elasticsearchRequestTimeTimer.update(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+                        request.response.complete(response);
+                    }
+
+                    @Override
+                    public void onFailure(Exception exception) {
+                        inFlightRequests.release();
+                        elasticsearchRequestErrorsMeter.mark();
+                        request.response.completeExceptionally(exception);
+                    }
+                });
+        return request;
+    }
 
-        return events.size() - droppedCount;
+    /**
+     * Get the bulk item as it has been sent to Elasticsearch. The item consists of the action and the document lines.
+     * <p>
+     * Events are not fully deserialized by the sink, thus the bulk item is used to describe the event.
+     *
+     * @param bulk     bulk body of all items
+     * @param offsets  offsets of items in the bulk body, the last one is the bulk body length
+     * @param position position of the item
+     * @return the bulk item
+     */
+    private static String bulkItem(ChunkedOutputStream bulk, List<Integer> offsets, int position) {
+        ByteArrayOutputStream item = new ByteArrayOutputStream();
+        toUnchecked(() -> bulk.writeTo(item, offsets.get(position), offsets.get(position + 1)));
+        return new String(item.toByteArray(), StandardCharsets.UTF_8).trim();
+    }
 
+    private long retryBackoffMs(int attempt) {
+        return Math.min(retryBackoffMs << Math.min(attempt - 1, 30), maxRetryBackoffMs);
     }
 
-    private int writeEventRecords(OutputStream stream, Collection<Event> events) {
-        return toUnchecked(() -> {
-            int droppedCount = 0;
+    /**
+     * Build bulk body from the subset of items.
+     * <p>
+     * Items are not copied. If compression is enabled, they are compressed on the fly while the request is being sent.
+     *
+     * @param bulk      original bulk body
+     * @param offsets   offsets of items in the original bulk body, the last one is the bulk body length
+     * @param positions positions of items to be included in ascending order
+     * @return bulk body
+     */
+    private HttpEntity createBulkBody(
+            ChunkedOutputStream bulk,
+            List<Integer> offsets,
+            List<Integer> positions) {
+        /*
+         * Contiguous items are merged into a single range
+         */
+        int[] ranges = new int[positions.size() * 2];
+        int count = 0;
+        for (int position : positions) {
+            int from = offsets.get(position);
+            if (count > 0 && ranges[count - 1] == from) {
+                ranges[count - 1] = offsets.get(position + 1);
+            } else {
+                ranges[count++] = from;
+                ranges[count++] = offsets.get(position + 1);
+            }
+        }
+        return new BulkEntity(bulk, Arrays.copyOf(ranges, count), compressionGzipEnable);
+    }
+
+    private void writeEventRecords(
+            ChunkedOutputStream stream,
+            Collection<Event> events,
+            List<Event> indexedEvents,
+            List<Integer> offsets,
+            List<Event> rejectedEvents) {
+        toUnchecked(() -> {
             for (Event event : events) {
+                int offset = stream.size();
                 boolean result = IndexToElasticJsonWriter.tryWriteIndex(stream, event);
                 if (result) {
                     stream.write('\n');
                     EventToElasticJsonWriter.writeEvent(stream, event, mergePropertiesTagToRoot);
                     stream.write('\n');
+                    indexedEvents.add(event);
+                    offsets.add(offset);
                 } else {
-                    droppedCount++;
+                    rejectedEvents.add(event);
                     DROPPED_EVENT_LOGGER.trace("{},{}", event.getTimestamp(), event.getUuid());
                 }
             }
-            return droppedCount;
+            offsets.add(stream.size());
         });
     }
 
+    /**
+     * Bulk request of items at specified positions.
+     */
+    private class Bulk {
+        private final List<Integer> positions;
+        private final CompletableFuture<Response> response = new CompletableFuture<>();
+
+        Bulk(List<Integer> positions) {
+            this.positions = positions;
+        }
+
+        /**
+         * Wait for the response and process it.
+         *
+         * @param deadlineNanos the deadline to wait for the response in terms of {@link System#nanoTime()}
+         * @return positions of failed items in this bulk request
+         * @throws Exception if request failed or timed out
+         */
+        ElasticResponseHandler.Result result(long deadlineNanos) throws Exception {
+            Response response;
+            try {
+                response = this.response.get(Math.max(deadlineNanos - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+            } catch (ExecutionException ex) {
+                throw (ex.getCause() instanceof Exception) ? (Exception) ex.getCause() : ex;
+            } catch (TimeoutException ex) {
+                elasticsearchRequestErrorsMeter.mark();
+                throw ex;
+            }
+            if (response.getStatusLine().getStatusCode() != 200) {
+                elasticsearchRequestErrorsMeter.mark();
+                throw new RuntimeException("Bad response");
+            }
+            return elasticResponseHandler.process(response.getEntity(), redefinedExceptions);
+        }
+    }
+
     private static class Props {
         static final PropertyDescription<Integer> RETRY_LIMIT = PropertyDescriptions
                 .integerProperty("retryLimit")
                 .withDefaultValue(3)
                 .build();
 
+        static final PropertyDescription<Long> RETRY_BACKOFF_MS = PropertyDescriptions
+                .longProperty("retryBackoffMs")
+                .withDefaultValue(100L)
+                .withValidator(Validators.greaterOrEquals(0L))
+                .build();
+
+        static final PropertyDescription<Long> MAX_RETRY_BACKOFF_MS = PropertyDescriptions
+                .longProperty("maxRetryBackoffMs")
+                .withDefaultValue(5_000L)
+                .withValidator(Validators.greaterOrEquals(0L))
+                .build();
+
         static final PropertyDescription<Boolean> RETRY_ON_UNKNOWN_ERRORS = PropertyDescriptions
                 .booleanProperty("retryOnUnknownErrors")
                 .withDefaultValue(Boolean.FALSE)
@@ -262,6 +507,41 @@ public class ElasticSender extends Sender {
                 .withDefaultValue(RestClientBuilder.DEFAULT_SOCKET_TIMEOUT_MILLIS)
                 .build();
 
+        static final PropertyDescription<Integer> MAX_BULK_SIZE_BYTES = PropertyDescriptions
+                .integerProperty("elastic.maxBulkSizeBytes")
+                .withValidator(Validators.greaterThan(0))
+                .withDefaultValue(10 * 1024 * 1024)
+                .build();
+
+        static final PropertyDescription<Integer> MAX_BULK_DOCS = PropertyDescriptions
+                .integerProperty("elastic.maxBulkDocs")
+                .withValidator(Validators.greaterThan(0))
+                .withDefaultValue(10_000)
+                .build();
+
+        static final PropertyDescription<Integer> MAX_IN_FLIGHT_REQUESTS = PropertyDescriptions
+                .integerProperty("elastic.maxInFlightRequests")
+                .withValidator(Validators.greaterThan(0))
+                .withDefaultValue(1)
+                .build();
+
+        static final PropertyDescription<Integer> BUFFER_CHUNK_SIZE_BYTES = PropertyDescriptions
+                .integerProperty("elastic.bufferChunkSizeBytes")
+                .withValidator(Validators.greaterThan(0))
+                .withDefaultValue(64 * 1024)
+                .build();
+
+        static final PropertyDescription<Long> MAX_POOLED_BUFFER_SIZE_BYTES = PropertyDescriptions
+                .longProperty("elastic.maxPooledBufferSizeBytes")
+                .withValidator(Validators.greaterOrEquals(0L))
+                .withDefaultValue(64L * 1024 * 1024)
+                .build();
+
+        static final PropertyDescription<Boolean> COMPRESSION_GZIP_ENABLE = PropertyDescriptions
+                .booleanProperty("elastic.compression.gzip.enable")
+                .withDefaultValue(Boolean.FALSE)
+                .build();
+
         static final PropertyDescription<Boolean> MERGE_PROPERTIES_TAG_TO_ROOT = PropertyDescriptions
                 .booleanProperty("elastic.mergePropertiesTagToRoot")
                 .withDefaultValue(Boolean.FALSE)
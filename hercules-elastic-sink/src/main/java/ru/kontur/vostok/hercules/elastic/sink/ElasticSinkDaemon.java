@@ -1,9 +1,12 @@
 package ru.kontur.vostok.hercules.elastic.sink;
 
 import ru.kontur.vostok.hercules.health.MetricsCollector;
+import ru.kontur.vostok.hercules.kafka.util.serialization.EventDeserializer;
 import ru.kontur.vostok.hercules.sink.AbstractSinkDaemon;
 import ru.kontur.vostok.hercules.sink.Sender;
+import ru.kontur.vostok.hercules.tags.CommonTags;
 
+import java.util.Collections;
 import java.util.Properties;
 
 /**
@@ -19,6 +22,14 @@ public class ElasticSinkDaemon extends AbstractSinkDaemon {
         return new ElasticSender(elasticProperties, metricsCollector);
     }
 
+    /**
+     * Events are transcoded to JSON from the binary form, thus only {@code properties} tag is parsed to get the index.
+     */
+    @Override
+    protected EventDeserializer createDeserializer() {
+        return EventDeserializer.parseTags(Collections.singleton(CommonTags.PROPERTIES_TAG.getName()));
+    }
+
     @Override
     protected String getDaemonId() {
         return "sink.elastic";
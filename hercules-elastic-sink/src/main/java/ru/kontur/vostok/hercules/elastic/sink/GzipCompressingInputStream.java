@@ -0,0 +1,110 @@
+package ru.kontur.vostok.hercules.elastic.sink;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Input stream which compresses data of the underlying stream in gzip format on the fly.
+ * <p>
+ * Unlike {@link java.util.zip.GZIPOutputStream}, compressed data is not buffered,
+ * it is produced in portions as the stream is being read.
+ */
+class GzipCompressingInputStream extends InputStream {
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final byte[] HEADER = {
+            (byte) GZIP_MAGIC,
+            (byte) (GZIP_MAGIC >> 8),
+            Deflater.DEFLATED,
+            0, 0, 0, 0, 0, 0, 0
+    };
+    private static final int TRAILER_SIZE = 8;
+
+    private final InputStream in;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final CRC32 crc = new CRC32();
+    private final byte[] buffer;
+    private final byte[] singleByte = new byte[1];
+
+    private int headerPosition;
+    private byte[] trailer;
+    private int trailerPosition;
+
+    /**
+     * @param in         the underlying stream
+     * @param bufferSize size of the buffer for uncompressed data
+     */
+    GzipCompressingInputStream(InputStream in, int bufferSize) {
+        this.in = in;
+        this.buffer = new byte[bufferSize];
+    }
+
+    @Override
+    public int read() throws IOException {
+        int length;
+        while ((length = read(singleByte, 0, 1)) == 0) {
+            /* Compressed data is not available yet */
+        }
+        return (length == -1) ? -1 : singleByte[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        if (headerPosition < HEADER.length) {
+            int length = Math.min(len, HEADER.length - headerPosition);
+            System.arraycopy(HEADER, headerPosition, b, off, length);
+            headerPosition += length;
+            return length;
+        }
+
+        if (trailer == null) {
+            while (!deflater.finished()) {
+                int length = deflater.deflate(b, off, len);
+                if (length > 0) {
+                    return length;
+                }
+                if (deflater.needsInput()) {
+                    int read = in.read(buffer);
+                    if (read == -1) {
+                        deflater.finish();
+                    } else if (read > 0) {
+                        crc.update(buffer, 0, read);
+                        deflater.setInput(buffer, 0, read);
+                    }
+                }
+            }
+            trailer = trailer(crc.getValue(), deflater.getBytesRead());
+        }
+
+        if (trailerPosition == TRAILER_SIZE) {
+            return -1;
+        }
+        int length = Math.min(len, TRAILER_SIZE - trailerPosition);
+        System.arraycopy(trailer, trailerPosition, b, off, length);
+        trailerPosition += length;
+        return length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        deflater.end();
+        in.close();
+    }
+
+    /**
+     * Gzip trailer consists of CRC-32 and size of uncompressed data modulo 2^32 in little-endian byte order.
+     */
+    private static byte[] trailer(long crc, long size) {
+        byte[] trailer = new byte[TRAILER_SIZE];
+        for (int i = 0; i < 4; i++) {
+            trailer[i] = (byte) (crc >> (8 * i));
+            trailer[i + 4] = (byte) (size >> (8 * i));
+        }
+        return trailer;
+    }
+}
@@ -2,9 +2,13 @@ package ru.kontur.vostok.hercules.elastic.sink;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import ru.kontur.vostok.hercules.protocol.Container;
 import ru.kontur.vostok.hercules.protocol.Event;
+import ru.kontur.vostok.hercules.protocol.Type;
+import ru.kontur.vostok.hercules.protocol.Variant;
 import ru.kontur.vostok.hercules.protocol.util.ContainerUtil;
 import ru.kontur.vostok.hercules.protocol.util.EventUtil;
+import ru.kontur.vostok.hercules.protocol.util.TagDescription;
 import ru.kontur.vostok.hercules.tags.CommonTags;
 import ru.kontur.vostok.hercules.tags.ElasticSearchTags;
 import ru.kontur.vostok.hercules.util.time.TimeUtil;
@@ -13,11 +17,15 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 public final class IndexToElasticJsonWriter {
     private static final Logger LOGGER = LoggerFactory.getLogger(IndexToElasticJsonWriter.class);
@@ -26,58 +34,161 @@ public final class IndexToElasticJsonWriter {
 
     private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy.MM.dd").withZone(ZoneId.of("UTC"));
 
+    private static final long TICKS_IN_DAY = TimeUtil.secondsToTicks(TimeUnit.DAYS.toSeconds(1));
+
+    /**
+     * Cache is cleared on overflow, since only a few indices are actual at the same time.
+     */
+    private static final int INDEX_CACHE_MAX_SIZE = 10_000;
+    private static final ConcurrentHashMap<IndexKey, byte[]> INDEX_CACHE = new ConcurrentHashMap<>();
+
+    private static volatile FormattedDay lastFormattedDay;
+
     private static final byte[] START_BYTES = "{\"index\":{\"_index\":\"".getBytes(ENCODING);
     private static final byte[] MIDDLE_BYTES = "\",\"_type\":\"LogEvent\",\"_id\":\"".getBytes(ENCODING);
     private static final byte[] END_BYTES = "\"}}".getBytes(ENCODING);
 
     public static boolean tryWriteIndex(OutputStream stream, Event event) throws IOException {
-        Optional<String> index;
+        byte[] index;
         try {
             index = extractIndex(event);
         } catch (Exception ex) {
             LOGGER.warn("Cannot extract index from event", ex);
             return false;
         }
-        if (!index.isPresent()) {
+        if (index == null) {
             return false;
         }
 
         stream.write(START_BYTES);
-        stream.write(index.get().getBytes(ENCODING));
+        stream.write(index);
         stream.write(MIDDLE_BYTES);
         stream.write(EventUtil.extractStringId(event).getBytes(ENCODING));
         stream.write(END_BYTES);
         return true;
     }
 
-    private static Optional<String> extractIndex(final Event event) {
-        return ContainerUtil.extract(event.getPayload(), CommonTags.PROPERTIES_TAG)
-                .flatMap(properties -> {
-                    final List<String> parts = new ArrayList<>(4);
-
-                    final Optional<String> index = ContainerUtil.extract(properties, ElasticSearchTags.ELK_INDEX_TAG);
-                    if (index.isPresent()) {
-                        parts.add(index.get());
-                    } else {
-                        final Optional<String> project = ContainerUtil.extract(properties, CommonTags.PROJECT_TAG);
-                        if (project.isPresent()) {
-                            parts.add(project.get());
-                            Optional<String> application = ContainerUtil.extract(properties, CommonTags.APPLICATION_TAG);
-                            application.ifPresent(parts::add);
-                            if (!application.isPresent()) {//FIXME: backward compatibility
-                                ContainerUtil.extract(properties, ElasticSearchTags.ELK_SCOPE_TAG).ifPresent(parts::add);
-                            }
-                            ContainerUtil.extract(properties, CommonTags.ENVIRONMENT_TAG).ifPresent(parts::add);
-                        }
-                    }
-
-                    if (parts.size() != 0) {
-                        parts.add(DATE_FORMATTER.format(TimeUtil.unixTicksToInstant(event.getTimestamp())));
-                        return Optional.of(String.join("-", parts).toLowerCase());
-                    }  else {
-                        return Optional.empty();
-                    }
-                });
+    /**
+     * Extract index name of the event.
+     * <p>
+     * Index name is resolved from raw values of tags and the UTC day of the event,
+     * resolved names are cached since they are the same for most of the events.
+     *
+     * @param event the event
+     * @return UTF-8 encoded index name or {@code null} if there are no suitable tags
+     */
+    private static byte[] extractIndex(final Event event) {
+        Optional<Container> properties = ContainerUtil.extract(event.getPayload(), CommonTags.PROPERTIES_TAG);
+        if (!properties.isPresent()) {
+            return null;
+        }
+
+        final byte[][] parts;
+        final byte[] index = extractRaw(properties.get(), ElasticSearchTags.ELK_INDEX_TAG);
+        if (index != null) {
+            parts = new byte[][]{index};
+        } else {
+            final byte[] project = extractRaw(properties.get(), CommonTags.PROJECT_TAG);
+            if (project == null) {
+                return null;
+            }
+            byte[] application = extractRaw(properties.get(), CommonTags.APPLICATION_TAG);
+            if (application == null) {//FIXME: backward compatibility
+                application = extractRaw(properties.get(), ElasticSearchTags.ELK_SCOPE_TAG);
+            }
+            final byte[] environment = extractRaw(properties.get(), CommonTags.ENVIRONMENT_TAG);
+            parts = new byte[][]{project, application, environment};
+        }
+
+        IndexKey key = new IndexKey(parts, Math.floorDiv(event.getTimestamp(), TICKS_IN_DAY));
+        byte[] indexName = INDEX_CACHE.get(key);
+        if (indexName != null) {
+            return indexName;
+        }
+
+        indexName = resolveIndex(key);
+        if (INDEX_CACHE.size() >= INDEX_CACHE_MAX_SIZE) {
+            INDEX_CACHE.clear();
+        }
+        INDEX_CACHE.put(key, indexName);
+        return indexName;
+    }
+
+    private static byte[] resolveIndex(IndexKey key) {
+        final List<String> parts = new ArrayList<>(4);
+        for (byte[] part : key.parts) {
+            if (part != null) {
+                parts.add(new String(part, ENCODING));
+            }
+        }
+        parts.add(formatDay(key.day));
+        return String.join("-", parts).toLowerCase().getBytes(ENCODING);
+    }
+
+    private static String formatDay(long day) {
+        FormattedDay formattedDay = lastFormattedDay;
+        if (formattedDay == null || formattedDay.day != day) {
+            formattedDay = new FormattedDay(day, DATE_FORMATTER.format(LocalDate.ofEpochDay(day)));
+            lastFormattedDay = formattedDay;
+        }
+        return formattedDay.value;
+    }
+
+    /**
+     * Extract raw value of the string tag.
+     *
+     * @param container the container
+     * @param tag       the string tag
+     * @return UTF-8 encoded value or {@code null} if tag is absent
+     */
+    private static byte[] extractRaw(Container container, TagDescription<Optional<String>> tag) {
+        Variant variant = container.get(tag.getName());
+        if (variant == null) {
+            return null;
+        }
+        if (variant.getType() != Type.STRING) {
+            throw new IllegalArgumentException(String.format("Tag '%s' cannot contain value of type '%s'", tag.getName(), variant.getType()));
+        }
+        return (byte[]) variant.getValue();
+    }
+
+    private static final class IndexKey {
+        private final byte[][] parts;
+        private final long day;
+        private final int hash;
+
+        IndexKey(byte[][] parts, long day) {
+            this.parts = parts;
+            this.day = day;
+            this.hash = 31 * Arrays.deepHashCode(parts) + Long.hashCode(day);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof IndexKey)) {
+                return false;
+            }
+            IndexKey other = (IndexKey) o;
+            return day == other.day && Arrays.deepEquals(parts, other.parts);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class FormattedDay {
+        private final long day;
+        private final String value;
+
+        FormattedDay(long day, String value) {
+            this.day = day;
+            this.value = value;
+        }
     }
 
     private IndexToElasticJsonWriter() {
@@ -0,0 +1,72 @@
+package ru.kontur.vostok.hercules.elastic.sink;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+public class BulkEntityTest {
+    @Test
+    public void shouldStreamRangesAcrossChunks() throws IOException {
+        BufferPool pool = new BufferPool(4, 16);
+        ChunkedOutputStream buffer = new ChunkedOutputStream(pool);
+        buffer.write("0123456789".getBytes(StandardCharsets.UTF_8));
+        buffer.write('a');
+        buffer.write("bcdef".getBytes(StandardCharsets.UTF_8), 1, 4);
+        Assert.assertEquals(15, buffer.size());
+
+        BulkEntity entity = new BulkEntity(buffer, new int[]{1, 6, 9, 15}, false);
+        Assert.assertEquals(11, entity.getContentLength());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entity.writeTo(out);
+        Assert.assertEquals("123459acdef", new String(out.toByteArray(), StandardCharsets.UTF_8));
+
+        Assert.assertEquals("123459acdef", read(entity.getContent()));
+        Assert.assertEquals("Entity should be repeatable", "123459acdef", read(entity.getContent()));
+    }
+
+    @Test
+    public void shouldCompressRangesWithGzip() throws IOException {
+        BufferPool pool = new BufferPool(4, 16);
+        ChunkedOutputStream buffer = new ChunkedOutputStream(pool);
+        buffer.write("0123456789abcdef".getBytes(StandardCharsets.UTF_8));
+
+        BulkEntity entity = new BulkEntity(buffer, new int[]{1, 6, 9, 15}, true);
+        Assert.assertEquals(-1, entity.getContentLength());
+        Assert.assertEquals("gzip", entity.getContentEncoding().getValue());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entity.writeTo(out);
+        Assert.assertEquals("123459abcde", read(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()))));
+
+        Assert.assertEquals("123459abcde", read(new GZIPInputStream(entity.getContent())));
+        Assert.assertEquals("Entity should be repeatable", "123459abcde", read(new GZIPInputStream(entity.getContent())));
+    }
+
+    @Test
+    public void shouldReuseReleasedChunks() {
+        BufferPool pool = new BufferPool(4, 1);
+        byte[] chunk = pool.acquire();
+        pool.release(chunk);
+        pool.release(new byte[4]);
+
+        Assert.assertSame(chunk, pool.acquire());
+        Assert.assertNotSame(chunk, pool.acquire());
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[3];
+        int length;
+        while ((length = in.read(buffer)) != -1) {
+            out.write(buffer, 0, length);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -1,8 +1,20 @@
 package ru.kontur.vostok.hercules.elastic.sink;
 
+import com.codahale.metrics.Meter;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
 import org.junit.Test;
+import ru.kontur.vostok.hercules.health.MetricsCollector;
 
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 import static ru.kontur.vostok.hercules.elastic.sink.ElasticResponseHandler.NON_RETRYABLE_ERRORS_CODES;
 import static ru.kontur.vostok.hercules.elastic.sink.ElasticResponseHandler.RETRYABLE_ERRORS_CODES;
 
@@ -15,4 +27,54 @@ public class ElasticResponseHandlerTest {
     public void shouldNotHaveEqualsErrors(){
         assertFalse(NON_RETRYABLE_ERRORS_CODES.stream().anyMatch(RETRYABLE_ERRORS_CODES::contains));
     }
+
+    @Test
+    public void shouldSkipResponseWithoutErrors() {
+        ElasticResponseHandler.Result result = createHandler().process(
+                new StringEntity("{\"took\":1,\"errors\":false,\"items\":[{\"index\":{\"_id\":\"a\",\"status\":201}}]}", ContentType.APPLICATION_JSON),
+                Collections.emptySet());
+
+        assertSame(ElasticResponseHandler.Result.OK, result);
+    }
+
+    @Test
+    public void shouldReturnPositionsOfFailedItems() {
+        String response = "{\"took\":1,\"errors\":true,\"items\":[" +
+                "{\"index\":{\"_index\":\"i\",\"_id\":\"0\",\"status\":201}}," +
+                "{\"index\":{\"_index\":\"i\",\"_id\":\"1\",\"status\":429,\"error\":{\"type\":\"es_rejected_execution_exception\",\"reason\":\"rejected\"}}}," +
+                "{\"index\":{\"_index\":\"i\",\"_id\":\"2\",\"status\":400,\"error\":{\"type\":\"mapper_parsing_exception\",\"reason\":\"failed to parse\",\"caused_by\":{\"type\":\"illegal_argument_exception\"}}}}," +
+                "{\"index\":{\"_index\":\"i\",\"_id\":\"3\",\"status\":500,\"error\":{\"type\":\"some_new_exception\",\"reason\":\"unknown\"}}}," +
+                "{\"index\":{\"_index\":\"i\",\"_id\":\"4\",\"status\":429,\"error\":{\"type\":\"es_rejected_execution_exception\",\"reason\":\"rejected\"}}}," +
+                "{\"index\":{\"_index\":\"i\",\"_id\":\"5\",\"status\":201}}" +
+                "]}";
+
+        ElasticResponseHandler.Result result = createHandler().process(
+                new StringEntity(response, ContentType.APPLICATION_JSON),
+                Collections.emptySet());
+
+        assertEquals(Arrays.asList(1, 4), result.getRetryableErrorPositions());
+        assertEquals(Collections.singletonList(2), result.getNonRetryableErrorPositions());
+        assertEquals(Collections.singletonList(3), result.getUnknownErrorPositions());
+        assertEquals(4, result.getTotalErrors());
+    }
+
+    @Test
+    public void shouldTreatRedefinedExceptionsAsNonRetryable() {
+        String response = "{\"took\":1,\"errors\":true,\"items\":[" +
+                "{\"index\":{\"_index\":\"i\",\"_id\":\"0\",\"status\":429,\"error\":{\"type\":\"es_rejected_execution_exception\",\"reason\":\"rejected\"}}}" +
+                "]}";
+
+        ElasticResponseHandler.Result result = createHandler().process(
+                new StringEntity(response, ContentType.APPLICATION_JSON),
+                Collections.singleton("es_rejected_execution_exception"));
+
+        assertFalse(result.hasRetryableErrors());
+        assertEquals(Collections.singletonList(0), result.getNonRetryableErrorPositions());
+    }
+
+    private static ElasticResponseHandler createHandler() {
+        MetricsCollector metricsCollector = mock(MetricsCollector.class);
+        when(metricsCollector.meter(anyString())).thenReturn(new Meter());
+        return new ElasticResponseHandler(metricsCollector);
+    }
 }
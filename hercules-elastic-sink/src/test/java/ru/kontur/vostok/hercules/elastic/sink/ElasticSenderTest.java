@@ -0,0 +1,292 @@
+package ru.kontur.vostok.hercules.elastic.sink;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.SlidingWindowReservoir;
+import com.codahale.metrics.Timer;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ru.kontur.vostok.hercules.health.MetricsCollector;
+import ru.kontur.vostok.hercules.kafka.util.serialization.EventDeserializer;
+import ru.kontur.vostok.hercules.kafka.util.processing.BackendServiceFailedException;
+import ru.kontur.vostok.hercules.protocol.Event;
+import ru.kontur.vostok.hercules.protocol.Variant;
+import ru.kontur.vostok.hercules.protocol.util.ContainerBuilder;
+import ru.kontur.vostok.hercules.protocol.util.EventBuilder;
+import ru.kontur.vostok.hercules.sink.PartialSendFailureException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Bulk requests are sent to the local HTTP server which acts as Elasticsearch.
+ */
+public class ElasticSenderTest {
+    private static final Pattern EVENT_INDEX = Pattern.compile("\"index\":(\\d+)");
+
+    private final ExecutorService serverExecutor = Executors.newCachedThreadPool();
+    private HttpServer server;
+
+    /**
+     * Indices of events in each received bulk request
+     */
+    private final List<List<Integer>> requests = new CopyOnWriteArrayList<>();
+    /**
+     * Body sizes of received bulk requests
+     */
+    private final List<Integer> requestSizes = new CopyOnWriteArrayList<>();
+    /**
+     * Content encodings of received bulk requests
+     */
+    private final List<String> requestEncodings = new CopyOnWriteArrayList<>();
+    /**
+     * Indices of events are rejected by Elasticsearch with retryable error once
+     */
+    private final Set<Integer> failedOnce = Collections.synchronizedSet(new HashSet<>());
+    /**
+     * Indices of events are always rejected by Elasticsearch with retryable error
+     */
+    private final Set<Integer> failedAlways = Collections.synchronizedSet(new HashSet<>());
+    private volatile long responseDelayMs;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/_bulk", this::handleBulk);
+        server.setExecutor(serverExecutor);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Test
+    public void shouldSplitBulkByMaxDocs() throws Exception {
+        Properties properties = properties();
+        properties.setProperty("elastic.maxBulkDocs", "3");
+
+        assertEquals(7, createSender(properties).send(createEvents(7)));
+
+        assertEquals(
+                Arrays.asList(Arrays.asList(0, 1, 2), Arrays.asList(3, 4, 5), Collections.singletonList(6)),
+                requests);
+    }
+
+    @Test
+    public void shouldSplitBulkByMaxSizeBytes() throws Exception {
+        createSender(properties()).send(createEvents(1));
+        int itemSizeBytes = requestSizes.get(0);
+        requests.clear();
+        requestSizes.clear();
+
+        Properties properties = properties();
+        properties.setProperty("elastic.maxBulkSizeBytes", String.valueOf(2 * itemSizeBytes + itemSizeBytes / 2));
+
+        assertEquals(5, createSender(properties).send(createEvents(5)));
+
+        assertEquals(
+                Arrays.asList(Arrays.asList(0, 1), Arrays.asList(2, 3), Collections.singletonList(4)),
+                requests);
+    }
+
+    @Test
+    public void shouldSendItemExceedingMaxSizeBytesAlone() throws Exception {
+        Properties properties = properties();
+        properties.setProperty("elastic.maxBulkSizeBytes", "1");
+
+        assertEquals(3, createSender(properties).send(createEvents(3)));
+
+        assertEquals(
+                Arrays.asList(Collections.singletonList(0), Collections.singletonList(1), Collections.singletonList(2)),
+                requests);
+    }
+
+    @Test
+    public void shouldRetryOnlyFailedItems() throws Exception {
+        failedOnce.addAll(Arrays.asList(1, 3));
+
+        assertEquals(5, createSender(properties()).send(createEvents(5)));
+
+        assertEquals(Arrays.asList(Arrays.asList(0, 1, 2, 3, 4), Arrays.asList(1, 3)), requests);
+    }
+
+    @Test
+    public void shouldReturnFailedItemsIfRetryLimitIsExceeded() throws Exception {
+        failedAlways.add(2);
+        Properties properties = properties();
+        properties.setProperty("retryLimit", "1");
+        List<Event> events = createEvents(4);
+
+        try {
+            createSender(properties).send(events);
+            fail("Send should fail partially");
+        } catch (PartialSendFailureException ex) {
+            assertEquals(3, ex.getProcessedEvents());
+            assertEquals(Collections.singletonList(events.get(2)), ex.getFailedEvents());
+        }
+        assertEquals(Arrays.asList(Arrays.asList(0, 1, 2, 3), Collections.singletonList(2)), requests);
+    }
+
+    @Test
+    public void shouldAwaitConcurrentRequestsForRetryTimeoutInTotal() throws Exception {
+        responseDelayMs = 5_000;
+        Properties properties = properties();
+        properties.setProperty("elastic.maxBulkDocs", "1");
+        properties.setProperty("elastic.maxInFlightRequests", "4");
+        properties.setProperty("elastic.retryTimeoutMs", "500");
+
+        long startedAtMs = System.currentTimeMillis();
+        try {
+            createSender(properties).send(createEvents(4));
+            fail("Send should fail since requests are timed out");
+        } catch (BackendServiceFailedException ex) {
+            long elapsedMs = System.currentTimeMillis() - startedAtMs;
+            assertTrue("Requests were awaited for " + elapsedMs + " ms", elapsedMs < 1_500);
+        }
+    }
+
+    @Test
+    public void shouldSendEventsWithOnlyPropertiesTagParsed() throws Exception {
+        EventDeserializer deserializer = new ElasticSinkDaemon().createDeserializer();
+        List<Event> events = new ArrayList<>();
+        for (Event event : createEvents(3)) {
+            Event deserialized = deserializer.deserialize("test", event.getBytes());
+            assertNull(deserialized.getPayload().get("index"));
+            events.add(deserialized);
+        }
+
+        assertEquals(3, createSender(properties()).send(events));
+
+        assertEquals(Collections.singletonList(Arrays.asList(0, 1, 2)), requests);
+    }
+
+    @Test
+    public void shouldCompressBulkWithGzip() throws Exception {
+        Properties properties = properties();
+        properties.setProperty("elastic.maxBulkDocs", "2");
+        properties.setProperty("elastic.compression.gzip.enable", "true");
+        failedOnce.add(1);
+
+        assertEquals(4, createSender(properties).send(createEvents(4)));
+
+        assertEquals(Arrays.asList(Arrays.asList(0, 1), Arrays.asList(2, 3), Collections.singletonList(1)), requests);
+        assertEquals(Arrays.asList("gzip", "gzip", "gzip"), requestEncodings);
+    }
+
+    private void handleBulk(HttpExchange exchange) throws IOException {
+        String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+        requestEncodings.add(String.valueOf(encoding));
+        InputStream requestBody = "gzip".equals(encoding)
+                ? new GZIPInputStream(exchange.getRequestBody())
+                : exchange.getRequestBody();
+        String body = new String(readAll(requestBody), StandardCharsets.UTF_8);
+        requestSizes.add(body.length());
+
+        List<Integer> indices = new ArrayList<>();
+        StringBuilder response = new StringBuilder("{\"took\":1,\"errors\":true,\"items\":[");
+        String[] lines = body.split("\n");
+        for (int i = 1; i < lines.length; i += 2) {
+            Matcher matcher = EVENT_INDEX.matcher(lines[i]);
+            assertTrue(matcher.find());
+            int index = Integer.parseInt(matcher.group(1));
+            indices.add(index);
+
+            if (i > 1) {
+                response.append(',');
+            }
+            if (failedAlways.contains(index) || failedOnce.remove(index)) {
+                response.append("{\"index\":{\"_index\":\"i\",\"_id\":\"").append(index).append("\",\"status\":429,")
+                        .append("\"error\":{\"type\":\"es_rejected_execution_exception\",\"reason\":\"rejected\"}}}");
+            } else {
+                response.append("{\"index\":{\"_index\":\"i\",\"_id\":\"").append(index).append("\",\"status\":201}}");
+            }
+        }
+        response.append("]}");
+        requests.add(indices);
+
+        try {
+            TimeUnit.MILLISECONDS.sleep(responseDelayMs);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        byte[] bytes = response.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream stream = exchange.getResponseBody()) {
+            stream.write(bytes);
+        }
+    }
+
+    private Properties properties() {
+        Properties properties = new Properties();
+        properties.setProperty("elastic.hosts", "http://localhost:" + server.getAddress().getPort());
+        properties.setProperty("retryBackoffMs", "0");
+        return properties;
+    }
+
+    private static ElasticSender createSender(Properties properties) {
+        MetricsCollector metricsCollector = mock(MetricsCollector.class);
+        when(metricsCollector.meter(anyString())).thenReturn(new Meter());
+        when(metricsCollector.timer(anyString())).thenReturn(new Timer());
+        when(metricsCollector.histogram(anyString())).thenReturn(new Histogram(new SlidingWindowReservoir(1)));
+        return new ElasticSender(properties, metricsCollector);
+    }
+
+    private static List<Event> createEvents(int count) {
+        List<Event> events = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            events.add(EventBuilder.create(0, UUID.randomUUID())
+                    .tag("properties", Variant.ofContainer(ContainerBuilder.create()
+                            .tag("elk-index", Variant.ofString("test"))
+                            .build()))
+                    .tag("index", Variant.ofInteger(i))
+                    .build());
+        }
+        return events;
+    }
+
+    private static byte[] readAll(InputStream stream) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int length;
+        while ((length = stream.read(buffer)) != -1) {
+            bytes.write(buffer, 0, length);
+        }
+        return bytes.toByteArray();
+    }
+}
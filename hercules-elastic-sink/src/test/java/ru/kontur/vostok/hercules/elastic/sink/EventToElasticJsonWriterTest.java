@@ -2,6 +2,7 @@ package ru.kontur.vostok.hercules.elastic.sink;
 
 import org.junit.Test;
 import ru.kontur.vostok.hercules.protocol.Container;
+import ru.kontur.vostok.hercules.protocol.Type;
 import ru.kontur.vostok.hercules.protocol.Variant;
 import ru.kontur.vostok.hercules.protocol.Vector;
 import ru.kontur.vostok.hercules.protocol.util.ContainerBuilder;
@@ -232,6 +233,53 @@ public class EventToElasticJsonWriterTest {
         );
     }
 
+    @Test
+    public void shouldEscapeStrings() throws Exception {
+        assertVariantConverted(
+                "\"quote \\\" backslash \\\\ tab \\t newline \\n bell \\u0007 cyrillic Жж\"",
+                Variant.ofString("quote \" backslash \\ tab \t newline \n bell \u0007 cyrillic Жж"));
+    }
+
+    @Test
+    public void shouldReplaceMalformedUtf8() throws Exception {
+        assertVariantConverted(
+                "\"a\uFFFDb\"",
+                new Variant(Type.STRING, new byte[]{'a', (byte) 0xC3, 'b'}));
+    }
+
+    @Test
+    public void shouldQuoteNonFiniteNumbers() throws Exception {
+        assertVariantConverted("\"NaN\"", Variant.ofDouble(Double.NaN));
+        assertVariantConverted("\"-Infinity\"", Variant.ofFloat(Float.NEGATIVE_INFINITY));
+    }
+
+    @Test
+    public void shouldConvertExtremeIntegers() throws Exception {
+        assertVariantConverted("-9223372036854775808", Variant.ofLong(Long.MIN_VALUE));
+        assertVariantConverted("-32768", Variant.ofShort(Short.MIN_VALUE));
+        assertVariantConverted("-128", Variant.ofByte(Byte.MIN_VALUE));
+    }
+
+    @Test
+    public void shouldIgnoreTimestampTagAndMergedProperties() throws Exception {
+        final EventBuilder eventBuilder = EventBuilder
+                .create(0, "11203800-63fd-11e8-83e2-3a587d902000")
+                .tag("@timestamp", Variant.ofString("ignored"))
+                .tag("a", Variant.ofInteger(1))
+                .tag(CommonTags.PROPERTIES_TAG, Variant.ofContainer(ContainerBuilder.create()
+                        .tag("@timestamp", Variant.ofString("ignored"))
+                        .tag("nested", Variant.ofContainer(ContainerBuilder.create()
+                                .tag("@timestamp", Variant.ofString("not ignored"))
+                                .build()))
+                        .build()
+                ));
+
+        assertEquals(
+                "{\"@timestamp\":\"1970-01-01T00:00:00.000000000Z\",\"nested\":{\"@timestamp\":\"not ignored\"},\"a\":1}",
+                builderToJson(eventBuilder, true)
+        );
+    }
+
     private void assertVariantConverted(String convertedVariant, Variant variant) throws Exception {
         final EventBuilder builder = EventBuilder.create(
                 TimeUtil.UNIX_EPOCH,
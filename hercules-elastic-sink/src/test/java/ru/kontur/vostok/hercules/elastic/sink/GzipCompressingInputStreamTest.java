@@ -0,0 +1,57 @@
+package ru.kontur.vostok.hercules.elastic.sink;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class GzipCompressingInputStreamTest {
+    @Test
+    public void shouldCompressEmptyData() throws IOException {
+        assertRoundTrip(new byte[0], 16);
+    }
+
+    @Test
+    public void shouldCompressDataLargerThanBuffer() throws IOException {
+        byte[] data = new byte[100_000];
+        Random random = new Random(42);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ('a' + random.nextInt(4));
+        }
+        assertRoundTrip(data, 1024);
+    }
+
+    @Test
+    public void shouldCompressIncompressibleData() throws IOException {
+        byte[] data = new byte[10_000];
+        new Random(42).nextBytes(data);
+        assertRoundTrip(data, 100);
+    }
+
+    private static void assertRoundTrip(byte[] data, int bufferSize) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (InputStream in = new GzipCompressingInputStream(new ByteArrayInputStream(data), bufferSize)) {
+            int b;
+            /* Read by single bytes to cover all stages of the stream with reads of the minimal length */
+            while ((b = in.read()) != -1) {
+                compressed.write(b);
+            }
+        }
+
+        ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed.toByteArray()))) {
+            byte[] buffer = new byte[4096];
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                decompressed.write(buffer, 0, length);
+            }
+        }
+        assertArrayEquals(data, decompressed.toByteArray());
+    }
+}
@@ -12,6 +12,7 @@ import java.io.ByteArrayOutputStream;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class IndexToElasticJsonWriterTest {
 
@@ -90,6 +91,28 @@ public class IndexToElasticJsonWriterTest {
         );
     }
 
+    @Test
+    public void shouldResolveIndexForEachDay() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            assertTrue(writeIndex(TimeUtil.secondsToTicks(86_399)).contains("\"_index\":\"awesome-project-scope-production-1970.01.01\""));
+            assertTrue(writeIndex(TimeUtil.secondsToTicks(86_400)).contains("\"_index\":\"awesome-project-scope-production-1970.01.02\""));
+        }
+    }
+
+    @Test
+    public void shouldReturnFalseIfIndexTagHasWrongType() throws Exception {
+        final Event event = EventBuilder.create(0, "00000000-0000-1000-994f-8fcf383f0000")
+                .tag("properties", Variant.ofContainer(ContainerBuilder.create()
+                        .tag("elk-index", Variant.ofInteger(42))
+                        .build()
+                )).build();
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+
+        assertFalse(IndexToElasticJsonWriter.tryWriteIndex(stream, event));
+        assertEquals("", stream.toString());
+    }
+
     @Test
     public void shouldReturnFalseIfNoSuitableTags() throws Exception {
         final Event event = EventBuilder.create(0, "00000000-0000-1000-994f-8fcf383f0000") //TODO: fix me!
@@ -101,4 +124,19 @@ public class IndexToElasticJsonWriterTest {
         assertEquals("", stream.toString());
         assertFalse(result);
     }
+
+    private static String writeIndex(long timestamp) throws Exception {
+        final Event event = EventBuilder.create(timestamp, "00000000-0000-1000-994f-8fcf383f0000")
+                .tag("properties", Variant.ofContainer(ContainerBuilder.create()
+                        .tag("project", Variant.ofString("Awesome-Project"))
+                        .tag("elk-scope", Variant.ofString("scope"))
+                        .tag("environment", Variant.ofString("production"))
+                        .build()
+                ))
+                .build();
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        IndexToElasticJsonWriter.tryWriteIndex(stream, event);
+        return stream.toString();
+    }
 }
@@ -0,0 +1,116 @@
+package ru.kontur.vostok.hercules.http;
+
+import net.jpountz.lz4.LZ4FrameOutputStream;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Content encodings of HTTP responses are supported by Hercules.
+ * <p>
+ * LZ4 content is encoded in the LZ4 frame format.
+ */
+public final class ContentEncodings {
+    public static final String IDENTITY = "identity";
+    public static final String GZIP = "gzip";
+    public static final String LZ4 = "lz4";
+
+    /**
+     * Choose the content encoding by the value of {@code Accept-Encoding} header.
+     * <p>
+     * The encoding with the highest quality value is chosen. LZ4 is preferred over gzip and gzip is preferred over identity
+     * if they have the same quality, since compressed content is cheaper to transfer and LZ4 is cheaper to encode.
+     * The wildcard applies to gzip and identity if they are not listed explicitly, LZ4 should be always listed explicitly.
+     * Identity competes with other encodings only if it is listed explicitly or by the wildcard,
+     * thus zero quality of identity makes compression be chosen if any is acceptable.
+     * If no encoding is acceptable, then the header is ignored and identity is chosen.
+     *
+     * @param acceptEncoding the value of {@code Accept-Encoding} header or {@code null} if it is absent
+     * @return the content encoding
+     */
+    public static String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+            return IDENTITY;
+        }
+
+        double lz4Quality = 0;
+        double gzipQuality = -1;
+        double identityQuality = -1;
+        double wildcardQuality = -1;
+        for (String element : acceptEncoding.split(",")) {
+            String[] parts = element.split(";");
+            String coding = parts[0].trim().toLowerCase();
+            double quality = (parts.length > 1) ? parseQuality(parts[1].trim()) : 1.0;
+            switch (coding) {
+                case LZ4:
+                    lz4Quality = quality;
+                    break;
+                case GZIP:
+                    gzipQuality = quality;
+                    break;
+                case IDENTITY:
+                    identityQuality = quality;
+                    break;
+                case "*":
+                    wildcardQuality = quality;
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (gzipQuality < 0) {
+            gzipQuality = Math.max(wildcardQuality, 0);
+        }
+        if (identityQuality < 0) {
+            identityQuality = Math.max(wildcardQuality, 0);
+        }
+
+        if (lz4Quality > 0 && lz4Quality >= gzipQuality && lz4Quality >= identityQuality) {
+            return LZ4;
+        }
+        if (gzipQuality > 0 && gzipQuality >= identityQuality) {
+            return GZIP;
+        }
+        return IDENTITY;
+    }
+
+    /**
+     * Wrap the stream to encode content written to it.
+     * <p>
+     * Flushing of the returned stream flushes already written content, thus it can be used for streaming responses.
+     * The returned stream should be closed to finish the encoding.
+     *
+     * @param encoding the content encoding
+     * @param stream   the underlying stream
+     * @return the stream encodes content to the underlying stream
+     * @throws IOException if the encoding cannot be started
+     */
+    public static OutputStream encode(String encoding, OutputStream stream) throws IOException {
+        switch (encoding) {
+            case LZ4:
+                return new LZ4FrameOutputStream(stream);
+            case GZIP:
+                // Content is written by small portions, so it is buffered before deflating
+                return new BufferedOutputStream(new GZIPOutputStream(stream, true));
+            default:
+                return stream;
+        }
+    }
+
+    private static double parseQuality(String parameter) {
+        if (!parameter.startsWith("q=")) {
+            return 1.0;
+        }
+        try {
+            return Double.parseDouble(parameter.substring(2));
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    private ContentEncodings() {
+        /* static class */
+    }
+}
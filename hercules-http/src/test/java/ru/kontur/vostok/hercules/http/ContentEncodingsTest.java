@@ -0,0 +1,58 @@
+package ru.kontur.vostok.hercules.http;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ContentEncodingsTest {
+    @Test
+    public void shouldChooseIdentityIfHeaderIsAbsent() {
+        assertEquals(ContentEncodings.IDENTITY, ContentEncodings.negotiate(null));
+        assertEquals(ContentEncodings.IDENTITY, ContentEncodings.negotiate(""));
+    }
+
+    @Test
+    public void shouldChooseIdentityIfCompressionIsNotSupported() {
+        assertEquals(ContentEncodings.IDENTITY, ContentEncodings.negotiate("deflate, br"));
+    }
+
+    @Test
+    public void shouldPreferLz4OverGzipWithSameQuality() {
+        assertEquals(ContentEncodings.LZ4, ContentEncodings.negotiate("gzip, lz4"));
+        assertEquals(ContentEncodings.LZ4, ContentEncodings.negotiate("lz4;q=0.5, gzip;q=0.5"));
+    }
+
+    @Test
+    public void shouldChooseEncodingWithHighestQuality() {
+        assertEquals(ContentEncodings.GZIP, ContentEncodings.negotiate("lz4;q=0.5, gzip"));
+        assertEquals(ContentEncodings.IDENTITY, ContentEncodings.negotiate("gzip;q=0.5, identity"));
+    }
+
+    @Test
+    public void shouldTreatWildcardAsGzipButNotAsLz4() {
+        assertEquals(ContentEncodings.GZIP, ContentEncodings.negotiate("*"));
+        assertEquals(ContentEncodings.GZIP, ContentEncodings.negotiate("deflate, *;q=0.5"));
+    }
+
+    @Test
+    public void shouldNotOverrideExplicitlyRefusedGzipByWildcard() {
+        assertEquals(ContentEncodings.IDENTITY, ContentEncodings.negotiate("gzip;q=0, *"));
+        assertEquals(ContentEncodings.IDENTITY, ContentEncodings.negotiate("*, gzip;q=0"));
+    }
+
+    @Test
+    public void shouldCompressIfIdentityIsRefused() {
+        assertEquals(ContentEncodings.GZIP, ContentEncodings.negotiate("identity;q=0, gzip;q=0.1"));
+        assertEquals(ContentEncodings.LZ4, ContentEncodings.negotiate("lz4;q=0.1, *;q=0"));
+    }
+
+    @Test
+    public void shouldIgnoreCaseAndWhitespaces() {
+        assertEquals(ContentEncodings.LZ4, ContentEncodings.negotiate(" GZIP ; q=0.5 ,  LZ4 "));
+    }
+
+    @Test
+    public void shouldTreatMalformedQualityAsZero() {
+        assertEquals(ContentEncodings.GZIP, ContentEncodings.negotiate("lz4;q=high, gzip"));
+    }
+}
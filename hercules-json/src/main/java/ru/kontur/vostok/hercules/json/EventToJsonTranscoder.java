@@ -0,0 +1,495 @@
+package ru.kontur.vostok.hercules.json;
+
+import ru.kontur.vostok.hercules.protocol.Event;
+import ru.kontur.vostok.hercules.protocol.Type;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+/**
+ * Transcodes the Hercules binary encoding of the event directly to UTF-8 JSON.
+ * <p>
+ * Unlike {@link EventToJsonWriter} it does not use the materialized {@link ru.kontur.vostok.hercules.protocol.Container}.
+ * Strings are escaped in place as UTF-8 bytes without decoding to {@link String}, numbers are written without boxing.
+ * Output is the same as of {@link EventToJsonWriter} with the Jackson's default settings:
+ * tags are written in order of the binary encoding, non-finite floating point numbers are quoted,
+ * characters out of the Basic Multilingual Plane are escaped as surrogate pairs
+ * and malformed UTF-8 sequences are replaced with {@code U+FFFD} as {@link String#String(byte[], java.nio.charset.Charset)} does.
+ * <p>
+ * If {@code mergePropertiesTagToRoot} is set, tags of the {@code properties} container are written as root fields
+ * before other tags. Ignored tags are skipped on the root level only.
+ * <p>
+ * Transcoder is thread-safe.
+ */
+public final class EventToJsonTranscoder {
+    private static final int EVENT_HEADER_SIZE = 1 /* version */ + 8 /* timestamp */ + 16 /* uuid */;
+
+    private static final byte[] PROPERTIES_TAG = "properties".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] TRUE = "true".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] FALSE = "false".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] REPLACEMENT_CHARACTER = {(byte) 0xEF, (byte) 0xBF, (byte) 0xBD};
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ESCAPE_HEX = "0123456789ABCDEF".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Escape characters for ASCII:
+     * {@code 0} - no escaping is needed, {@code 'u'} - escape as {@code \\u00XX}, otherwise escape as {@code \\X}.
+     */
+    private static final byte[] ESCAPES = new byte[128];
+
+    static {
+        for (int i = 0; i < 0x20; i++) {
+            ESCAPES[i] = 'u';
+        }
+        ESCAPES['"'] = '"';
+        ESCAPES['\\'] = '\\';
+        ESCAPES['\b'] = 'b';
+        ESCAPES['\t'] = 't';
+        ESCAPES['\f'] = 'f';
+        ESCAPES['\n'] = 'n';
+        ESCAPES['\r'] = 'r';
+    }
+
+    private final boolean mergePropertiesTagToRoot;
+    private final byte[][] ignoredTags;
+
+    /**
+     * @param mergePropertiesTagToRoot write tags of the {@code properties} container as root fields
+     * @param ignoredTags              root tags are not written
+     */
+    public EventToJsonTranscoder(boolean mergePropertiesTagToRoot, Set<String> ignoredTags) {
+        this.mergePropertiesTagToRoot = mergePropertiesTagToRoot;
+        this.ignoredTags = ignoredTags.stream().map(tag -> tag.getBytes(StandardCharsets.UTF_8)).toArray(byte[][]::new);
+    }
+
+    /**
+     * Write the event as JSON object.
+     *
+     * @param out   the output stream
+     * @param event the event
+     * @throws IOException if I/O error occurred
+     */
+    public void writeEvent(OutputStream out, Event event) throws IOException {
+        out.write('{');
+        writeFields(out, event, false);
+        out.write('}');
+    }
+
+    /**
+     * Write tags of the event as fields of JSON object without enclosing braces.
+     *
+     * @param out              the output stream
+     * @param event            the event
+     * @param precededByFields {@code true} if some fields are already written to the object
+     * @return {@code true} if any field is written or {@code precededByFields} is set
+     * @throws IOException if I/O error occurred
+     */
+    public boolean writeFields(OutputStream out, Event event, boolean precededByFields) throws IOException {
+        return new Transcoding(event.getBytes(), out).writeEventFields(precededByFields);
+    }
+
+    private boolean isIgnored(byte[] bytes, int offset, int length) {
+        for (byte[] tag : ignoredTags) {
+            if (equals(tag, bytes, offset, length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean equals(byte[] expected, byte[] bytes, int offset, int length) {
+        if (expected.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (expected[i] != bytes[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Transcoding of the single event.
+     */
+    private final class Transcoding {
+        private final byte[] bytes;
+        private final OutputStream out;
+        private final byte[] digits = new byte[20];
+        private int position;
+
+        Transcoding(byte[] bytes, OutputStream out) {
+            this.bytes = bytes;
+            this.out = out;
+        }
+
+        boolean writeEventFields(boolean precededByFields) throws IOException {
+            boolean hasFields = precededByFields;
+
+            if (mergePropertiesTagToRoot) {
+                position = EVENT_HEADER_SIZE;
+                int size = readUnsignedShort();
+                while (0 <= --size) {
+                    int nameLength = readUnsignedByte();
+                    int nameOffset = position;
+                    position += nameLength;
+                    int type = readUnsignedByte();
+                    if (type == Type.CONTAINER.code && EventToJsonTranscoder.equals(PROPERTIES_TAG, bytes, nameOffset, nameLength)) {
+                        hasFields = writeContainerFields(hasFields, true);
+                    } else {
+                        skipValue(type);
+                    }
+                }
+            }
+
+            position = EVENT_HEADER_SIZE;
+            int size = readUnsignedShort();
+            while (0 <= --size) {
+                int nameLength = readUnsignedByte();
+                int nameOffset = position;
+                position += nameLength;
+                int type = readUnsignedByte();
+                if (isIgnored(bytes, nameOffset, nameLength)
+                        || (mergePropertiesTagToRoot && EventToJsonTranscoder.equals(PROPERTIES_TAG, bytes, nameOffset, nameLength))) {
+                    skipValue(type);
+                    continue;
+                }
+                if (hasFields) {
+                    out.write(',');
+                }
+                writeString(nameOffset, nameLength);
+                out.write(':');
+                writeValue(type);
+                hasFields = true;
+            }
+            return hasFields;
+        }
+
+        private boolean writeContainerFields(boolean precededByFields, boolean root) throws IOException {
+            boolean hasFields = precededByFields;
+            int size = readUnsignedShort();
+            while (0 <= --size) {
+                int nameLength = readUnsignedByte();
+                int nameOffset = position;
+                position += nameLength;
+                int type = readUnsignedByte();
+                if (root && isIgnored(bytes, nameOffset, nameLength)) {
+                    skipValue(type);
+                    continue;
+                }
+                if (hasFields) {
+                    out.write(',');
+                }
+                writeString(nameOffset, nameLength);
+                out.write(':');
+                writeValue(type);
+                hasFields = true;
+            }
+            return hasFields;
+        }
+
+        private void writeValue(int type) throws IOException {
+            switch (type) {
+                case 0x01:// CONTAINER
+                    out.write('{');
+                    writeContainerFields(false, false);
+                    out.write('}');
+                    break;
+                case 0x02:// BYTE
+                    writeLong(bytes[position++]);
+                    break;
+                case 0x03:// SHORT
+                    writeLong((short) readUnsignedShort());
+                    break;
+                case 0x04:// INTEGER
+                    writeLong(readInteger());
+                    break;
+                case 0x05:// LONG
+                    writeLong(readLong());
+                    break;
+                case 0x06:// FLAG
+                    out.write(bytes[position++] != 0 ? TRUE : FALSE);
+                    break;
+                case 0x07:// FLOAT
+                    writeFloatingPoint(Float.intBitsToFloat(readInteger()));
+                    break;
+                case 0x08:// DOUBLE
+                    writeFloatingPoint(Double.longBitsToDouble(readLong()));
+                    break;
+                case 0x09:// STRING
+                    int length = readInteger();
+                    writeString(position, length);
+                    position += length;
+                    break;
+                case 0x0A:// UUID
+                    writeUuid(readLong(), readLong());
+                    break;
+                case 0x0B:// NULL
+                    out.write(NULL);
+                    break;
+                case 0x80:// VECTOR
+                    int elementType = readUnsignedByte();
+                    int count = readInteger();
+                    out.write('[');
+                    for (int i = 0; i < count; i++) {
+                        if (i > 0) {
+                            out.write(',');
+                        }
+                        writeValue(elementType);
+                    }
+                    out.write(']');
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown type with code " + type);
+            }
+        }
+
+        private void skipValue(int type) {
+            switch (type) {
+                case 0x01:// CONTAINER
+                    int size = readUnsignedShort();
+                    while (0 <= --size) {
+                        int nameLength = readUnsignedByte();
+                        position += nameLength;
+                        skipValue(readUnsignedByte());
+                    }
+                    break;
+                case 0x02:// BYTE
+                case 0x06:// FLAG
+                    position += 1;
+                    break;
+                case 0x03:// SHORT
+                    position += 2;
+                    break;
+                case 0x04:// INTEGER
+                case 0x07:// FLOAT
+                    position += 4;
+                    break;
+                case 0x05:// LONG
+                case 0x08:// DOUBLE
+                    position += 8;
+                    break;
+                case 0x09:// STRING
+                    int length = readInteger();
+                    position += length;
+                    break;
+                case 0x0A:// UUID
+                    position += 16;
+                    break;
+                case 0x0B:// NULL
+                    break;
+                case 0x80:// VECTOR
+                    int elementType = readUnsignedByte();
+                    int count = readInteger();
+                    for (int i = 0; i < count; i++) {
+                        skipValue(elementType);
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown type with code " + type);
+            }
+        }
+
+        private void writeLong(long value) throws IOException {
+            if (value == Long.MIN_VALUE) {
+                writeAscii(Long.toString(value));
+                return;
+            }
+            if (value < 0) {
+                out.write('-');
+                value = -value;
+            }
+            int index = digits.length;
+            do {
+                digits[--index] = (byte) ('0' + value % 10);
+                value /= 10;
+            } while (value != 0);
+            out.write(digits, index, digits.length - index);
+        }
+
+        private void writeFloatingPoint(double value) throws IOException {
+            if (Double.isFinite(value)) {
+                writeAscii(Double.toString(value));
+            } else {
+                out.write('"');
+                writeAscii(Double.toString(value));
+                out.write('"');
+            }
+        }
+
+        private void writeFloatingPoint(float value) throws IOException {
+            if (Float.isFinite(value)) {
+                writeAscii(Float.toString(value));
+            } else {
+                out.write('"');
+                writeAscii(Float.toString(value));
+                out.write('"');
+            }
+        }
+
+        private void writeAscii(String value) throws IOException {
+            for (int i = 0; i < value.length(); i++) {
+                out.write(value.charAt(i));
+            }
+        }
+
+        private void writeUuid(long mostSigBits, long leastSigBits) throws IOException {
+            out.write('"');
+            writeHex(mostSigBits >>> 32, 8);
+            out.write('-');
+            writeHex(mostSigBits >>> 16, 4);
+            out.write('-');
+            writeHex(mostSigBits, 4);
+            out.write('-');
+            writeHex(leastSigBits >>> 48, 4);
+            out.write('-');
+            writeHex(leastSigBits, 12);
+            out.write('"');
+        }
+
+        private void writeHex(long value, int count) throws IOException {
+            for (int i = count - 1; i >= 0; i--) {
+                digits[i] = HEX[(int) (value & 0xF)];
+                value >>>= 4;
+            }
+            out.write(digits, 0, count);
+        }
+
+        /**
+         * Write UTF-8 string as JSON string. Unescaped runs of bytes are copied as is.
+         *
+         * @param offset the offset of the string
+         * @param length the length of the string in bytes
+         * @throws IOException if I/O error occurred
+         */
+        private void writeString(int offset, int length) throws IOException {
+            out.write('"');
+            int end = offset + length;
+            int from = offset;
+            int i = offset;
+            while (i < end) {
+                int b = bytes[i];
+                if (b >= 0) {
+                    byte escape = ESCAPES[b];
+                    if (escape == 0) {
+                        i++;
+                        continue;
+                    }
+                    out.write(bytes, from, i - from);
+                    if (escape == 'u') {
+                        writeUnicodeEscape(b);
+                    } else {
+                        out.write('\\');
+                        out.write(escape);
+                    }
+                    from = ++i;
+                    continue;
+                }
+
+                int sequenceLength = utf8SequenceLength(i, end);
+                if (sequenceLength == 4) {
+                    out.write(bytes, from, i - from);
+                    int codePoint = ((bytes[i] & 0x07) << 18)
+                            | ((bytes[i + 1] & 0x3F) << 12)
+                            | ((bytes[i + 2] & 0x3F) << 6)
+                            | (bytes[i + 3] & 0x3F);
+                    writeUnicodeEscape(Character.highSurrogate(codePoint));
+                    writeUnicodeEscape(Character.lowSurrogate(codePoint));
+                    from = i += 4;
+                } else if (sequenceLength > 0) {
+                    i += sequenceLength;
+                } else {
+                    out.write(bytes, from, i - from);
+                    out.write(REPLACEMENT_CHARACTER);
+                    from = i -= sequenceLength;
+                }
+            }
+            out.write(bytes, from, end - from);
+            out.write('"');
+        }
+
+        private void writeUnicodeEscape(int c) throws IOException {
+            out.write('\\');
+            out.write('u');
+            out.write(ESCAPE_HEX[(c >> 12) & 0xF]);
+            out.write(ESCAPE_HEX[(c >> 8) & 0xF]);
+            out.write(ESCAPE_HEX[(c >> 4) & 0xF]);
+            out.write(ESCAPE_HEX[c & 0xF]);
+        }
+
+        /**
+         * Validate multibyte UTF-8 sequence.
+         * <p>
+         * The malformed sequence is the maximal prefix of the valid sequence or the leading byte alone,
+         * except encoded surrogates which are malformed as a whole. It is the same as JDK's UTF-8 decoder does.
+         *
+         * @param offset the offset of the leading byte of the sequence
+         * @param end    the end of the string
+         * @return length of the sequence or negative length of the malformed sequence
+         */
+        private int utf8SequenceLength(int offset, int end) {
+            int lead = bytes[offset] & 0xFF;
+            int length;
+            int min = 0x80;
+            int max = 0xBF;
+            if (lead >= 0xC2 && lead <= 0xDF) {
+                length = 2;
+            } else if (lead >= 0xE0 && lead <= 0xEF) {
+                length = 3;
+                if (lead == 0xE0) {
+                    min = 0xA0;// Overlong encoding
+                }
+            } else if (lead >= 0xF0 && lead <= 0xF4) {
+                length = 4;
+                if (lead == 0xF0) {
+                    min = 0x90;// Overlong encoding
+                } else if (lead == 0xF4) {
+                    max = 0x8F;// Greater than U+10FFFF
+                }
+            } else {
+                return -1;
+            }
+            if (offset + 1 >= end) {
+                return -1;
+            }
+            int second = bytes[offset + 1] & 0xFF;
+            if (second < min || second > max) {
+                return -1;
+            }
+            for (int i = 2; i < length; i++) {
+                if (offset + i >= end) {
+                    return -i;
+                }
+                int b = bytes[offset + i] & 0xFF;
+                if (b < 0x80 || b > 0xBF) {
+                    return -i;
+                }
+            }
+            if (lead == 0xED && second >= 0xA0) {
+                return -3;// Surrogates
+            }
+            return length;
+        }
+
+        private int readUnsignedByte() {
+            return bytes[position++] & 0xFF;
+        }
+
+        private int readUnsignedShort() {
+            return (readUnsignedByte() << 8) | readUnsignedByte();
+        }
+
+        private int readInteger() {
+            return (readUnsignedByte() << 24) | (readUnsignedByte() << 16) | (readUnsignedByte() << 8) | readUnsignedByte();
+        }
+
+        private long readLong() {
+            return ((long) readInteger() << 32) | (readInteger() & 0xFFFFFFFFL);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package ru.kontur.vostok.hercules.json;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.junit.Test;
+import ru.kontur.vostok.hercules.protocol.Container;
+import ru.kontur.vostok.hercules.protocol.Event;
+import ru.kontur.vostok.hercules.protocol.Type;
+import ru.kontur.vostok.hercules.protocol.Variant;
+import ru.kontur.vostok.hercules.protocol.Vector;
+import ru.kontur.vostok.hercules.protocol.util.ContainerBuilder;
+import ru.kontur.vostok.hercules.protocol.util.EventBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Output of the transcoder is compared with output of {@link EventToJsonWriter} which uses Jackson.
+ */
+public class EventToJsonTranscoderTest {
+    private static final UUID RANDOM = UUID.fromString("11203800-63fd-11e8-83e2-3a587d902000");
+
+    @Test
+    public void shouldWriteScalarsAsJackson() throws IOException {
+        assertTranscodedAsJackson(EventBuilder.create(0, RANDOM)
+                .tag("byte", Variant.ofByte((byte) -128))
+                .tag("short", Variant.ofShort(Short.MIN_VALUE))
+                .tag("integer", Variant.ofInteger(Integer.MAX_VALUE))
+                .tag("long", Variant.ofLong(Long.MIN_VALUE))
+                .tag("zero", Variant.ofLong(0))
+                .tag("float", Variant.ofFloat(-1.5E-10f))
+                .tag("double", Variant.ofDouble(123456789.125))
+                .tag("negativeZero", Variant.ofDouble(-0.0))
+                .tag("flag", Variant.ofFlag(true))
+                .tag("string", Variant.ofString("value"))
+                .tag("uuid", Variant.ofUuid(UUID.fromString("0a1b2c3d-4e5f-6071-8293-a4b5c6d7e8f9")))
+                .tag("null", Variant.ofNull())
+                .build());
+    }
+
+    @Test
+    public void shouldWriteNonFiniteNumbersAsJackson() throws IOException {
+        assertTranscodedAsJackson(EventBuilder.create(0, RANDOM)
+                .tag("floatNaN", Variant.ofFloat(Float.NaN))
+                .tag("floatInfinity", Variant.ofFloat(Float.NEGATIVE_INFINITY))
+                .tag("doubleNaN", Variant.ofDouble(Double.NaN))
+                .tag("doubleInfinity", Variant.ofDouble(Double.POSITIVE_INFINITY))
+                .build());
+    }
+
+    @Test
+    public void shouldWriteVectorsAsJackson() throws IOException {
+        assertTranscodedAsJackson(EventBuilder.create(0, RANDOM)
+                .tag("bytes", Variant.ofVector(Vector.ofBytes((byte) 1, (byte) -1)))
+                .tag("shorts", Variant.ofVector(Vector.ofShorts((short) 1, (short) -1)))
+                .tag("integers", Variant.ofVector(Vector.ofIntegers(1, -1)))
+                .tag("longs", Variant.ofVector(Vector.ofLongs(Long.MAX_VALUE, -1L)))
+                .tag("floats", Variant.ofVector(Vector.ofFloats(0.1f, Float.NaN)))
+                .tag("doubles", Variant.ofVector(Vector.ofDoubles(0.1, Double.NEGATIVE_INFINITY)))
+                .tag("flags", Variant.ofVector(Vector.ofFlags(true, false)))
+                .tag("strings", Variant.ofVector(Vector.ofStrings("a", "\"b\"")))
+                .tag("uuids", Variant.ofVector(Vector.ofUuids(RANDOM, new UUID(0, 0))))
+                .tag("nulls", Variant.ofVector(Vector.ofNulls(null, null)))
+                .tag("empty", Variant.ofVector(Vector.ofIntegers()))
+                .build());
+    }
+
+    @Test
+    public void shouldWriteNestedVectorsAndContainersAsJackson() throws IOException {
+        Container inner = ContainerBuilder.create()
+                .tag("vector", Variant.ofVector(Vector.ofVectors(Vector.ofIntegers(1, 2), Vector.ofStrings("x"), Vector.ofLongs())))
+                .tag("empty", Variant.ofContainer(ContainerBuilder.create().build()))
+                .build();
+        Container outer = ContainerBuilder.create()
+                .tag("inner", Variant.ofContainer(inner))
+                .tag("containers", Variant.ofVector(Vector.ofContainers(
+                        inner,
+                        ContainerBuilder.create().tag("a", Variant.ofString("b")).build())))
+                .build();
+
+        assertTranscodedAsJackson(EventBuilder.create(0, RANDOM)
+                .tag("outer", Variant.ofContainer(outer))
+                .tag("vectors", Variant.ofVector(Vector.ofVectors(
+                        Vector.ofVectors(Vector.ofFlags(true)),
+                        Vector.ofContainers(outer))))
+                .build());
+    }
+
+    @Test
+    public void shouldEscapeControlCharactersAsJackson() throws IOException {
+        StringBuilder controls = new StringBuilder();
+        for (char c = 0; c < 0x20; c++) {
+            controls.append(c);
+        }
+        controls.append("\"\\/\u007f");
+
+        assertTranscodedAsJackson(EventBuilder.create(0, RANDOM)
+                .tag("controls", Variant.ofString(controls.toString()))
+                .tag("tag\n\"name\"", Variant.ofString("value"))
+                .tag("unicode", Variant.ofString("Привет,  мир 😀"))
+                .tag("empty", Variant.ofString(""))
+                .build());
+    }
+
+    @Test
+    public void shouldReplaceMalformedUtf8AsJackson() throws IOException {
+        byte[][] malformed = {
+                {(byte) 0x80},// Lone continuation byte
+                {'a', (byte) 0xE2, (byte) 0x82, 'b'},// Truncated sequence
+                {(byte) 0xE2, (byte) 0x82},// Truncated sequence at the end
+                {(byte) 0xC0, (byte) 0xAF},// Overlong encoding
+                {(byte) 0xE0, (byte) 0x80, (byte) 0xAF},// Overlong encoding
+                {(byte) 0xED, (byte) 0xA0, (byte) 0x80},// Surrogate
+                {(byte) 0xF4, (byte) 0x90, (byte) 0x80, (byte) 0x80},// Greater than U+10FFFF
+                {(byte) 0xF5, 'a'},// Invalid leading byte
+                {(byte) 0xF0, (byte) 0x9F, (byte) 0x98, '\n'},// Truncated sequence followed by escaped character
+                {(byte) 0xF0, (byte) 0x9F, (byte) 0x98},// Truncated sequence at the end
+                {(byte) 0xED, (byte) 0xA0, 'a'},// Truncated surrogate
+                {(byte) 0xC2},// Leading byte at the end
+        };
+        for (byte[] bytes : malformed) {
+            assertTranscodedAsJackson(EventBuilder.create(0, RANDOM)
+                    .tag("string", new Variant(Type.STRING, bytes))
+                    .tag("strings", Variant.ofVector(new Vector(Type.STRING, new byte[][]{bytes})))
+                    .build());
+        }
+    }
+
+    @Test
+    public void shouldWriteRandomBytesAsJackson() throws IOException {
+        Random random = new Random(42);
+        for (int i = 0; i < 1_000; i++) {
+            byte[] bytes = new byte[random.nextInt(16)];
+            for (int j = 0; j < bytes.length; j++) {
+                /*
+                 * Bytes of multibyte sequences are more probable to get malformed and valid sequences both
+                 */
+                bytes[j] = (byte) (random.nextBoolean() ? 0x80 + random.nextInt(0x80) : random.nextInt(0x100));
+            }
+            assertTranscodedAsJackson(EventBuilder.create(0, RANDOM)
+                    .tag("string", new Variant(Type.STRING, bytes))
+                    .build());
+        }
+    }
+
+    @Test
+    public void shouldMergePropertiesToRootAndSkipIgnoredTags() throws IOException {
+        Event event = EventBuilder.create(0, RANDOM)
+                .tag("message", Variant.ofString("text"))
+                .tag("ignored", Variant.ofString("root"))
+                .tag("properties", Variant.ofContainer(ContainerBuilder.create()
+                        .tag("project", Variant.ofString("hercules"))
+                        .tag("ignored", Variant.ofString("properties"))
+                        .tag("nested", Variant.ofContainer(ContainerBuilder.create()
+                                .tag("ignored", Variant.ofString("nested"))
+                                .build()))
+                        .build()))
+                .build();
+
+        assertEquals(
+                "{\"project\":\"hercules\",\"nested\":{\"ignored\":\"nested\"},\"message\":\"text\"}",
+                transcode(new EventToJsonTranscoder(true, Collections.singleton("ignored")), event));
+        assertEquals(
+                "{\"message\":\"text\",\"properties\":{\"project\":\"hercules\",\"ignored\":\"properties\",\"nested\":{\"ignored\":\"nested\"}}}",
+                transcode(new EventToJsonTranscoder(false, Collections.singleton("ignored")), event));
+    }
+
+    @Test
+    public void shouldWriteEmptyEvent() throws IOException {
+        assertEquals("{}", transcode(new EventToJsonTranscoder(false, Collections.emptySet()), EventBuilder.create(0, RANDOM).build()));
+    }
+
+    private static void assertTranscodedAsJackson(Event event) throws IOException {
+        assertEquals(
+                writeWithJackson(event, Collections.emptySet()),
+                transcode(new EventToJsonTranscoder(false, Collections.emptySet()), event));
+    }
+
+    private static String transcode(EventToJsonTranscoder transcoder, Event event) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        transcoder.writeEvent(stream, event);
+        return new String(stream.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String writeWithJackson(Event event, Set<String> ignoredTags) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        try (JsonGenerator generator = new JsonFactory().createGenerator(stream, JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+            for (Map.Entry<String, Variant> tag : event.getPayload()) {
+                if (!ignoredTags.contains(tag.getKey())) {
+                    EventToJsonWriter.writeVariantAsField(generator, tag.getKey(), tag.getValue());
+                }
+            }
+            generator.writeEndObject();
+        }
+        return new String(stream.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
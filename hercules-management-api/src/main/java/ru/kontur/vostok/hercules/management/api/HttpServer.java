@@ -16,6 +16,7 @@ import ru.kontur.vostok.hercules.management.api.stream.DeleteStreamHandler;
 import ru.kontur.vostok.hercules.management.api.stream.IncreasePartitionsStreamHandler;
 import ru.kontur.vostok.hercules.management.api.stream.InfoStreamHandler;
 import ru.kontur.vostok.hercules.management.api.stream.ListStreamHandler;
+import ru.kontur.vostok.hercules.management.api.timeline.ChangeTimelineStorageOptionsHandler;
 import ru.kontur.vostok.hercules.management.api.timeline.ChangeTimelineTtlHandler;
 import ru.kontur.vostok.hercules.management.api.timeline.CreateTimelineHandler;
 import ru.kontur.vostok.hercules.management.api.timeline.DeleteTimelineHandler;
@@ -82,6 +83,8 @@ public class HttpServer {
         CreateTimelineHandler createTimelineHandler = new CreateTimelineHandler(authManager, timelineTaskQueue, timelineRepository);
         DeleteTimelineHandler deleteTimelineHandler = new DeleteTimelineHandler(authManager, timelineTaskQueue, timelineRepository);
         ChangeTimelineTtlHandler changeTimelineTtlHandler = new ChangeTimelineTtlHandler(authManager, timelineTaskQueue, timelineRepository);
+        ChangeTimelineStorageOptionsHandler changeTimelineStorageOptionsHandler =
+                new ChangeTimelineStorageOptionsHandler(authManager, timelineTaskQueue, timelineRepository);
         ListTimelineHandler listTimelineHandler = new ListTimelineHandler(timelineRepository);
         InfoTimelineHandler infoTimelineHandler = new InfoTimelineHandler(timelineRepository, authManager);
 
@@ -102,6 +105,7 @@ public class HttpServer {
                 .post("/timelines/create", createTimelineHandler)
                 .post("/timelines/delete", deleteTimelineHandler)
                 .post("/timelines/changeTtl", changeTimelineTtlHandler)
+                .post("/timelines/changeStorageOptions", changeTimelineStorageOptionsHandler)
                 .get("/timelines/list", listTimelineHandler)
                 .get("/timelines/info", infoTimelineHandler)
                 .post("/rules/set", setRuleHandler)
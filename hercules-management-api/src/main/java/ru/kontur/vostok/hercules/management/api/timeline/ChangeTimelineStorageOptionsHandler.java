@@ -0,0 +1,133 @@
+package ru.kontur.vostok.hercules.management.api.timeline;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.kontur.vostok.hercules.auth.AuthManager;
+import ru.kontur.vostok.hercules.auth.AuthResult;
+import ru.kontur.vostok.hercules.meta.task.TaskFuture;
+import ru.kontur.vostok.hercules.meta.task.TaskQueue;
+import ru.kontur.vostok.hercules.meta.task.timeline.TimelineTask;
+import ru.kontur.vostok.hercules.meta.task.timeline.TimelineTaskType;
+import ru.kontur.vostok.hercules.meta.timeline.Timeline;
+import ru.kontur.vostok.hercules.meta.timeline.TimelineRepository;
+import ru.kontur.vostok.hercules.meta.timeline.TimelineStorageOptions;
+import ru.kontur.vostok.hercules.meta.timeline.validation.TimelineValidators;
+import ru.kontur.vostok.hercules.undertow.util.ExchangeUtil;
+import ru.kontur.vostok.hercules.undertow.util.ResponseUtil;
+import ru.kontur.vostok.hercules.util.validation.Validator;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Change storage options of the timeline table
+ */
+public class ChangeTimelineStorageOptionsHandler implements HttpHandler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChangeTimelineStorageOptionsHandler.class);
+
+    private static final Validator<TimelineStorageOptions> STORAGE_OPTIONS_VALIDATOR =
+            TimelineValidators.storageOptionsValidatorForHandler();
+
+    private final AuthManager authManager;
+    private final TaskQueue<TimelineTask> taskQueue;
+    private final TimelineRepository timelineRepository;
+
+    private final ObjectReader deserializer;
+
+    public ChangeTimelineStorageOptionsHandler(
+            AuthManager authManager,
+            TaskQueue<TimelineTask> taskQueue,
+            TimelineRepository timelineRepository) {
+        this.authManager = authManager;
+        this.taskQueue = taskQueue;
+        this.timelineRepository = timelineRepository;
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        this.deserializer = objectMapper.readerFor(TimelineStorageOptions.class);
+    }
+
+    @Override
+    public void handleRequest(HttpServerExchange exchange) {
+        Optional<String> optionalApiKey = ExchangeUtil.extractHeaderValue(exchange, "apiKey");
+        if (!optionalApiKey.isPresent()) {
+            ResponseUtil.unauthorized(exchange);
+            return;
+        }
+        final String apiKey = optionalApiKey.get();
+
+        Optional<String> optionalTimelineName = ExchangeUtil.extractQueryParam(exchange, "timeline");
+        if (!optionalTimelineName.isPresent()) {
+            ResponseUtil.badRequest(exchange);
+            return;
+        }
+        final String timelineName = optionalTimelineName.get();
+
+        AuthResult authResult = authManager.authManage(apiKey, timelineName);
+        if (!authResult.isSuccess()) {
+            if (authResult.isUnknown()) {
+                ResponseUtil.unauthorized(exchange);
+                return;
+            }
+            ResponseUtil.forbidden(exchange);
+            return;
+        }
+
+        Optional<Integer> optionalContentLength = ExchangeUtil.extractContentLength(exchange);
+        if (!optionalContentLength.isPresent()) {
+            ResponseUtil.lengthRequired(exchange);
+            return;
+        }
+
+        exchange.getRequestReceiver().receiveFullBytes((exch, bytes) -> {
+            try {
+                TimelineStorageOptions storageOptions = deserializer.readValue(bytes);
+                if (storageOptions == null || STORAGE_OPTIONS_VALIDATOR.validate(storageOptions).isPresent()) {
+                    ResponseUtil.badRequest(exch);
+                    return;
+                }
+
+                Optional<Timeline> optionalTimeline = timelineRepository.read(timelineName);
+                if (!optionalTimeline.isPresent()) {
+                    ResponseUtil.notFound(exch);
+                    return;
+                }
+                Timeline timeline = optionalTimeline.get();
+
+                timeline.setStorageOptions(storageOptions);
+                TaskFuture taskFuture =
+                        taskQueue.submit(
+                                new TimelineTask(timeline, TimelineTaskType.CHANGE_STORAGE_OPTIONS),
+                                timeline.getName(),
+                                10_000L,//TODO: Move to Properties or add timeout query param
+                                TimeUnit.MILLISECONDS);
+                if (taskFuture.isFailed()) {
+                    ResponseUtil.internalServerError(exch);
+                    return;
+                }
+
+                if (!ExchangeUtil.extractQueryParam(exch, "async").isPresent()) {
+                    taskFuture.await();
+                    if (taskFuture.isDone()) {
+                        ResponseUtil.ok(exch);
+                        return;
+                    }
+                    ResponseUtil.requestTimeout(exch);
+                    return;
+                }
+                ResponseUtil.ok(exch);
+            } catch (IOException e) {
+                LOGGER.error("Error on performing request", e);
+                ResponseUtil.badRequest(exch);
+            } catch (Exception e) {
+                LOGGER.error("Error on performing request", e);
+                ResponseUtil.internalServerError(exch);
+            }
+        }, (exch, exception) -> ResponseUtil.badRequest(exch));
+    }
+}
@@ -14,8 +14,11 @@ import ru.kontur.vostok.hercules.meta.task.timeline.TimelineTask;
 import ru.kontur.vostok.hercules.meta.task.timeline.TimelineTaskType;
 import ru.kontur.vostok.hercules.meta.timeline.Timeline;
 import ru.kontur.vostok.hercules.meta.timeline.TimelineRepository;
+import ru.kontur.vostok.hercules.meta.timeline.TimelineStorageOptions;
+import ru.kontur.vostok.hercules.meta.timeline.validation.TimelineValidators;
 import ru.kontur.vostok.hercules.undertow.util.ExchangeUtil;
 import ru.kontur.vostok.hercules.undertow.util.ResponseUtil;
+import ru.kontur.vostok.hercules.util.validation.Validator;
 
 import java.io.IOException;
 import java.util.Optional;
@@ -28,6 +31,9 @@ public class CreateTimelineHandler implements HttpHandler {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(CreateTimelineHandler.class);
 
+    private static final Validator<TimelineStorageOptions> STORAGE_OPTIONS_VALIDATOR =
+            TimelineValidators.storageOptionsValidatorForHandler();
+
     private final AuthManager authManager;
     private final TaskQueue<TimelineTask> taskQueue;
     private final TimelineRepository repository;
@@ -62,6 +68,11 @@ public class CreateTimelineHandler implements HttpHandler {
             try {
                 Timeline timeline = deserializer.readValue(bytes);
 
+                if (STORAGE_OPTIONS_VALIDATOR.validate(timeline.getStorageOptions()).isPresent()) {
+                    ResponseUtil.badRequest(exch);
+                    return;
+                }
+
                 AuthResult authResult = authManager.authManage(apiKey, timeline.getName());
                 if (!authResult.isSuccess()) {
                     if (authResult.isUnknown()) {
@@ -0,0 +1,108 @@
+package ru.kontur.vostok.hercules.meta;
+
+import org.apache.curator.framework.api.CuratorWatcher;
+import org.apache.zookeeper.Watcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.kontur.vostok.hercules.util.cache.Cache;
+import ru.kontur.vostok.hercules.util.cache.Cached;
+import ru.kontur.vostok.hercules.util.functional.Result;
+
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Local cache of entities are stored in ZooKeeper.
+ * <p>
+ * Cached entity is invalidated when it is changed or deleted in ZooKeeper.
+ * Connection loss does not invalidate it, thus the cached value is used while ZooKeeper is unavailable.
+ * Also, it expires after the cache lifetime in case of missed notifications.
+ *
+ * @param <T> type of entities
+ */
+public class WatchedCache<T> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(WatchedCache.class);
+
+    private final Reader<T> reader;
+    private final WatchingReader<T> watchingReader;
+
+    private final Cache<String, T> cache;
+    /**
+     * Names of entities are watched in ZooKeeper, the single watcher per name is kept.
+     */
+    private final Set<String> watchedNames = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param reader         reads the entity without a watcher
+     * @param watchingReader reads the entity and sets the watcher
+     * @param cacheLifetime  the cache lifetime in millis
+     */
+    public WatchedCache(Reader<T> reader, WatchingReader<T> watchingReader, long cacheLifetime) {
+        this.reader = reader;
+        this.watchingReader = watchingReader;
+
+        this.cache = new Cache<>(cacheLifetime);
+    }
+
+    /**
+     * Get the entity from local cache if possible or read from ZooKeeper.<br>
+     * If reading throws exception then return expired cached value or empty if it doesn't exist.
+     *
+     * @param name of the entity
+     * @return Optional of the found entity or empty otherwise
+     */
+    public Optional<T> read(String name) {
+        Cached<T> cached = cache.cacheAndGet(name, key -> {
+            boolean watch = watchedNames.add(key);
+            try {
+                Optional<T> value = watch ? watchingReader.read(key, invalidator(key)) : reader.read(key);
+                if (watch && !value.isPresent()) {
+                    // Watcher is not set for absent node
+                    watchedNames.remove(key);
+                }
+                if (value.isPresent()) {
+                    return Result.ok(value.get());
+                }
+                return Result.ok(null);
+            } catch (Exception e) {
+                if (watch) {
+                    watchedNames.remove(key);
+                }
+                LOGGER.warn("Cannot read from repository", e);
+                return Result.error("Cannot read from repository");
+            }
+        });
+        return cached.isCached() ? Optional.of(cached.get()) : Optional.empty();
+    }
+
+    private CuratorWatcher invalidator(String name) {
+        return event -> {
+            switch (event.getType()) {
+                case NodeDataChanged:
+                case NodeDeleted:
+                    watchedNames.remove(name);
+                    cache.remove(name);
+                    break;
+                case None:
+                    // Watches are lost if the session is expired, so the watch should be set again on the next read
+                    if (event.getState() == Watcher.Event.KeeperState.Expired) {
+                        watchedNames.remove(name);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        };
+    }
+
+    @FunctionalInterface
+    public interface Reader<T> {
+        Optional<T> read(String name) throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface WatchingReader<T> {
+        Optional<T> read(String name, CuratorWatcher watcher) throws Exception;
+    }
+}
@@ -1,5 +1,6 @@
 package ru.kontur.vostok.hercules.meta.stream;
 
+import org.apache.curator.framework.api.CuratorWatcher;
 import ru.kontur.vostok.hercules.curator.CuratorClient;
 import ru.kontur.vostok.hercules.curator.exception.CuratorInternalException;
 import ru.kontur.vostok.hercules.curator.exception.CuratorUnknownException;
@@ -36,6 +37,20 @@ public class StreamRepository {
         return jsonBytes.isPresent() ? Optional.of(deserializer.deserialize(jsonBytes.get())) : Optional.empty();
     }
 
+    /**
+     * Read the stream and watch for its change or deletion.
+     *
+     * @param name    the stream name
+     * @param watcher the watcher is triggered once the stream is changed or deleted
+     * @return the stream or empty if it doesn't exist
+     */
+    public Optional<Stream> read(String name, CuratorWatcher watcher)
+            throws CuratorUnknownException, CuratorInternalException, DeserializationException {
+        ReadResult readResult = curatorClient.read(zPrefix + '/' + name, watcher);
+        Optional<byte[]> jsonBytes = readResult.getData();
+        return jsonBytes.isPresent() ? Optional.of(deserializer.deserialize(jsonBytes.get())) : Optional.empty();
+    }
+
     public CreationResult create(Stream stream) throws SerializationException, CuratorUnknownException, CuratorInternalException {
         return curatorClient.create(zPrefix + '/' + stream.getName(), serializer.serialize(stream));
     }
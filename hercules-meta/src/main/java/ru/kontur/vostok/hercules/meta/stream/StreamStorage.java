@@ -1,27 +1,21 @@
 package ru.kontur.vostok.hercules.meta.stream;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import ru.kontur.vostok.hercules.util.cache.Cache;
-import ru.kontur.vostok.hercules.util.cache.Cached;
-import ru.kontur.vostok.hercules.util.functional.Result;
+import ru.kontur.vostok.hercules.meta.WatchedCache;
 
 import java.util.Optional;
 
 /**
+ * Local cache of streams.
+ * <p>
+ * Cached stream is invalidated when it is changed or deleted in ZooKeeper, see {@link WatchedCache}.
+ *
  * @author Gregory Koshelev
  */
 public class StreamStorage {
-    private static final Logger LOGGER = LoggerFactory.getLogger(StreamStorage.class);
-
-    private final StreamRepository repository;
-
-    private final Cache<String, Stream> cache;
+    private final WatchedCache<Stream> cache;
 
     public StreamStorage(StreamRepository repository, long cacheLifetime) {
-        this.repository = repository;
-
-        this.cache = new Cache<>(cacheLifetime);
+        this.cache = new WatchedCache<>(repository::read, repository::read, cacheLifetime);
     }
 
     /**
@@ -32,18 +26,6 @@ public class StreamStorage {
      * @return Optional of the found Stream or empty otherwise
      */
     public Optional<Stream> read(String name) {
-        Cached<Stream> streamCached = cache.cacheAndGet(name, key -> {
-            try {
-                Optional<Stream> stream = repository.read(key);
-                if (stream.isPresent()) {
-                    return Result.ok(stream.get());
-                }
-                return Result.ok(null);
-            } catch (Exception e) {
-                LOGGER.warn("Cannot read from repository", e);
-                return Result.error("Cannot read from repository");
-            }
-        });
-        return streamCached.isCached() ? Optional.of(streamCached.get()) : Optional.empty();
+        return cache.read(name);
     }
 }
@@ -6,5 +6,6 @@ package ru.kontur.vostok.hercules.meta.task.timeline;
 public enum TimelineTaskType {
     CREATE,
     DELETE,
-    CHANGE_TTL;
+    CHANGE_TTL,
+    CHANGE_STORAGE_OPTIONS;
 }
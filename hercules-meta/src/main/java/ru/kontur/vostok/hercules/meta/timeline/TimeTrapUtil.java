@@ -18,6 +18,18 @@ public final class TimeTrapUtil {
         return (TimeUtil.ticksToMillis(timestamp) / timeTrapSize) * timeTrapSize;
     }
 
+    /**
+     * Name of the table of non-empty Time Traps of the timeline table.
+     * <p>
+     * The index table contains slices with events for each Time Trap, so empty Cassandra partitions can be skipped on read.
+     *
+     * @param table the timeline table name
+     * @return the index table name
+     */
+    public static String toTimeTrapIndexTableName(String table) {
+        return table + "_timetraps";
+    }
+
     /**
      * Determine Time Trap (i.e. it's offset) where it's left bound is less than timestamp.
      *
@@ -13,6 +13,7 @@ public class Timeline {
     private long timetrapSize;
     private String[] streams;
     private Filter[] filters;
+    private TimelineStorageOptions storageOptions;
 
     public String getName() {
         return name;
@@ -62,4 +63,11 @@ public class Timeline {
     public void setFilters(Filter[] filters) {
         this.filters = filters;
     }
+
+    public TimelineStorageOptions getStorageOptions() {
+        return storageOptions;
+    }
+    public void setStorageOptions(TimelineStorageOptions storageOptions) {
+        this.storageOptions = storageOptions;
+    }
 }
@@ -1,5 +1,6 @@
 package ru.kontur.vostok.hercules.meta.timeline;
 
+import org.apache.curator.framework.api.CuratorWatcher;
 import ru.kontur.vostok.hercules.curator.CuratorClient;
 import ru.kontur.vostok.hercules.curator.exception.CuratorInternalException;
 import ru.kontur.vostok.hercules.curator.exception.CuratorUnknownException;
@@ -36,6 +37,20 @@ public class TimelineRepository {
         return jsonBytes.isPresent() ? Optional.of(deserializer.deserialize(jsonBytes.get())) : Optional.empty();
     }
 
+    /**
+     * Read the timeline and watch for its change or deletion.
+     *
+     * @param name    the timeline name
+     * @param watcher the watcher is triggered once the timeline is changed or deleted
+     * @return the timeline or empty if it doesn't exist
+     */
+    public Optional<Timeline> read(String name, CuratorWatcher watcher)
+            throws CuratorUnknownException, CuratorInternalException, DeserializationException {
+        ReadResult readResult = curatorClient.read(zPrefix + '/' + name, watcher);
+        Optional<byte[]> jsonBytes = readResult.getData();
+        return jsonBytes.isPresent() ? Optional.of(deserializer.deserialize(jsonBytes.get())) : Optional.empty();
+    }
+
     public CreationResult create(Timeline timeline) throws SerializationException, CuratorUnknownException, CuratorInternalException {
         return curatorClient.create(zPrefix + '/' + timeline.getName(), serializer.serialize(timeline));
     }
@@ -0,0 +1,29 @@
+package ru.kontur.vostok.hercules.meta.timeline;
+
+import ru.kontur.vostok.hercules.meta.WatchedCache;
+
+import java.util.Optional;
+
+/**
+ * Local cache of timelines.
+ * <p>
+ * Cached timeline is invalidated when it is changed or deleted in ZooKeeper, see {@link WatchedCache}.
+ */
+public class TimelineStorage {
+    private final WatchedCache<Timeline> cache;
+
+    public TimelineStorage(TimelineRepository repository, long cacheLifetime) {
+        this.cache = new WatchedCache<>(repository::read, repository::read, cacheLifetime);
+    }
+
+    /**
+     * Get Timeline from local cache if possible or read from repository.<br>
+     * If repository throws exception then return expired cached value or empty if it doesn't exist.
+     *
+     * @param name of the Timeline
+     * @return Optional of the found Timeline or empty otherwise
+     */
+    public Optional<Timeline> read(String name) {
+        return cache.read(name);
+    }
+}
@@ -0,0 +1,76 @@
+package ru.kontur.vostok.hercules.meta.timeline;
+
+/**
+ * Storage options of the timeline table in Cassandra.
+ * <p>
+ * Unspecified options are left to Cassandra defaults.
+ */
+public class TimelineStorageOptions {
+    /**
+     * Compaction strategy class, e.g. {@code TimeWindowCompactionStrategy}
+     */
+    private String compactionStrategy;
+    /**
+     * Compaction window size in millis for {@code TimeWindowCompactionStrategy}.
+     * If zero, then the window is computed from TTL and timetrap size of the timeline.
+     */
+    private long compactionWindowSize;
+    /**
+     * Compression codec class, e.g. {@code LZ4Compressor}
+     */
+    private String compressionCodec;
+    /**
+     * Compression chunk length in kilobytes, zero means default one
+     */
+    private int compressionChunkLengthKb;
+    /**
+     * Key caching: {@code ALL} or {@code NONE}
+     */
+    private String cachingKeys;
+    /**
+     * Row caching: {@code ALL}, {@code NONE} or count of rows per partition
+     */
+    private String cachingRowsPerPartition;
+
+    public String getCompactionStrategy() {
+        return compactionStrategy;
+    }
+    public void setCompactionStrategy(String compactionStrategy) {
+        this.compactionStrategy = compactionStrategy;
+    }
+
+    public long getCompactionWindowSize() {
+        return compactionWindowSize;
+    }
+    public void setCompactionWindowSize(long compactionWindowSize) {
+        this.compactionWindowSize = compactionWindowSize;
+    }
+
+    public String getCompressionCodec() {
+        return compressionCodec;
+    }
+    public void setCompressionCodec(String compressionCodec) {
+        this.compressionCodec = compressionCodec;
+    }
+
+    public int getCompressionChunkLengthKb() {
+        return compressionChunkLengthKb;
+    }
+    public void setCompressionChunkLengthKb(int compressionChunkLengthKb) {
+        this.compressionChunkLengthKb = compressionChunkLengthKb;
+    }
+
+    public String getCachingKeys() {
+        return cachingKeys;
+    }
+    public void setCachingKeys(String cachingKeys) {
+        this.cachingKeys = cachingKeys;
+    }
+
+    public String getCachingRowsPerPartition() {
+        return cachingRowsPerPartition;
+    }
+    public void setCachingRowsPerPartition(String cachingRowsPerPartition) {
+        this.cachingRowsPerPartition = cachingRowsPerPartition;
+    }
+}
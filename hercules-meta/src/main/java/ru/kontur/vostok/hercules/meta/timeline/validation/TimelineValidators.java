@@ -0,0 +1,86 @@
+package ru.kontur.vostok.hercules.meta.timeline.validation;
+
+import ru.kontur.vostok.hercules.meta.timeline.TimelineStorageOptions;
+import ru.kontur.vostok.hercules.util.validation.StringValidators;
+import ru.kontur.vostok.hercules.util.validation.Validator;
+import ru.kontur.vostok.hercules.util.validation.Validators;
+
+import java.util.Optional;
+
+/**
+ * Storage options are used to build CQL statements, thus only known values are allowed.
+ */
+public final class TimelineValidators {
+
+    private static final Validator<String> compactionStrategyValidator =
+            StringValidators.matchesWith("SizeTieredCompactionStrategy|LeveledCompactionStrategy|TimeWindowCompactionStrategy");
+    private static final Validator<Long> compactionWindowSizeValidator = Validators.greaterOrEquals(0L);
+    private static final Validator<String> compressionCodecValidator =
+            StringValidators.matchesWith("LZ4Compressor|SnappyCompressor|DeflateCompressor|ZstdCompressor");
+    private static final Validator<Integer> compressionChunkLengthKbValidator = Validators.fromPredicate(
+            value -> value >= 0 && (value & (value - 1)) == 0,
+            "Value should be zero or power of two");
+    private static final Validator<String> cachingKeysValidator = StringValidators.matchesWith("ALL|NONE");
+    private static final Validator<String> cachingRowsPerPartitionValidator =
+            StringValidators.matchesWith("ALL|NONE|[1-9][0-9]{0,8}");
+
+    private static final Validator<TimelineStorageOptions> storageOptionsValidator = storageOptionsValidator();
+
+    /**
+     * Validate storage options, absent options are valid.
+     *
+     * @return storage options validator
+     */
+    public static Validator<TimelineStorageOptions> storageOptionsValidatorForHandler() {
+        return options -> (options != null) ? storageOptionsValidator.validate(options) : Optional.empty();
+    }
+
+    private static Validator<TimelineStorageOptions> storageOptionsValidator() {
+        return options -> {
+            if (options.getCompactionStrategy() != null) {
+                final Optional<String> error = compactionStrategyValidator.validate(options.getCompactionStrategy());
+                if (error.isPresent()) {
+                    return Optional.of("Compaction strategy is invalid: " + error.get());
+                }
+            }
+
+            final Optional<String> windowError = compactionWindowSizeValidator.validate(options.getCompactionWindowSize());
+            if (windowError.isPresent()) {
+                return Optional.of("Compaction window size is invalid: " + windowError.get());
+            }
+
+            if (options.getCompressionCodec() != null) {
+                final Optional<String> error = compressionCodecValidator.validate(options.getCompressionCodec());
+                if (error.isPresent()) {
+                    return Optional.of("Compression codec is invalid: " + error.get());
+                }
+            }
+
+            final Optional<String> chunkLengthError =
+                    compressionChunkLengthKbValidator.validate(options.getCompressionChunkLengthKb());
+            if (chunkLengthError.isPresent()) {
+                return Optional.of("Compression chunk length is invalid: " + chunkLengthError.get());
+            }
+
+            if (options.getCachingKeys() != null) {
+                final Optional<String> error = cachingKeysValidator.validate(options.getCachingKeys());
+                if (error.isPresent()) {
+                    return Optional.of("Caching keys is invalid: " + error.get());
+                }
+            }
+
+            if (options.getCachingRowsPerPartition() != null) {
+                final Optional<String> error = cachingRowsPerPartitionValidator.validate(options.getCachingRowsPerPartition());
+                if (error.isPresent()) {
+                    return Optional.of("Caching rows per partition is invalid: " + error.get());
+                }
+            }
+
+            return Optional.empty();
+        };
+    }
+
+    private TimelineValidators() {
+        /* static class */
+    }
+}
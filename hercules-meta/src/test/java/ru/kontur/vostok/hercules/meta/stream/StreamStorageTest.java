@@ -0,0 +1,92 @@
+package ru.kontur.vostok.hercules.meta.stream;
+
+import org.apache.curator.framework.api.CuratorWatcher;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import ru.kontur.vostok.hercules.curator.exception.CuratorUnknownException;
+
+import java.util.Optional;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class StreamStorageTest {
+    private static final String NAME = "test_stream";
+    private static final String PATH = "/hercules/streams/" + NAME;
+
+    private StreamRepository repository;
+    private Stream stream;
+
+    @Before
+    public void setUp() throws Exception {
+        repository = mock(StreamRepository.class);
+        stream = new BaseStream();
+        stream.setName(NAME);
+        when(repository.read(eq(NAME), any(CuratorWatcher.class))).thenReturn(Optional.of(stream));
+        when(repository.read(NAME)).thenReturn(Optional.of(stream));
+    }
+
+    @Test
+    public void shouldKeepCachedStreamOnConnectionLoss() throws Exception {
+        // Negative lifetime expires cached value at once, thus the repository is read on each call
+        StreamStorage storage = new StreamStorage(repository, -1);
+        assertSame(stream, storage.read(NAME).get());
+
+        CuratorWatcher watcher = captureWatcher();
+        watcher.process(new WatchedEvent(Watcher.Event.EventType.None, Watcher.Event.KeeperState.Disconnected, null));
+
+        when(repository.read(NAME)).thenThrow(new CuratorUnknownException("Connection loss", null));
+        assertSame(stream, storage.read(NAME).get());
+    }
+
+    @Test
+    public void shouldInvalidateCachedStreamOnDeletion() throws Exception {
+        StreamStorage storage = new StreamStorage(repository, 60_000);
+        assertTrue(storage.read(NAME).isPresent());
+
+        CuratorWatcher watcher = captureWatcher();
+        when(repository.read(eq(NAME), any(CuratorWatcher.class))).thenReturn(Optional.empty());
+        watcher.process(new WatchedEvent(Watcher.Event.EventType.NodeDeleted, Watcher.Event.KeeperState.SyncConnected, PATH));
+
+        assertFalse(storage.read(NAME).isPresent());
+    }
+
+    @Test
+    public void shouldKeepSingleWatcherOnReload() throws Exception {
+        StreamStorage storage = new StreamStorage(repository, -1);
+        storage.read(NAME);
+        storage.read(NAME);
+        storage.read(NAME);
+
+        verify(repository, times(1)).read(eq(NAME), any(CuratorWatcher.class));
+        verify(repository, times(2)).read(NAME);
+    }
+
+    @Test
+    public void shouldWatchAgainAfterSessionExpiration() throws Exception {
+        StreamStorage storage = new StreamStorage(repository, -1);
+        storage.read(NAME);
+
+        CuratorWatcher watcher = captureWatcher();
+        watcher.process(new WatchedEvent(Watcher.Event.EventType.None, Watcher.Event.KeeperState.Expired, null));
+        assertTrue(storage.read(NAME).isPresent());
+
+        verify(repository, times(2)).read(eq(NAME), any(CuratorWatcher.class));
+    }
+
+    private CuratorWatcher captureWatcher() throws Exception {
+        ArgumentCaptor<CuratorWatcher> captor = ArgumentCaptor.forClass(CuratorWatcher.class);
+        verify(repository).read(eq(NAME), captor.capture());
+        return captor.getValue();
+    }
+}
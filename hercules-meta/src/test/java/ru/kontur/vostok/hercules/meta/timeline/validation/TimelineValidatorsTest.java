@@ -0,0 +1,48 @@
+package ru.kontur.vostok.hercules.meta.timeline.validation;
+
+import org.junit.Test;
+import ru.kontur.vostok.hercules.meta.timeline.TimelineStorageOptions;
+import ru.kontur.vostok.hercules.util.validation.Validator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class TimelineValidatorsTest {
+
+    @Test
+    public void shouldValidateStorageOptions() {
+        TimelineStorageOptions options = new TimelineStorageOptions();
+        options.setCompactionStrategy("TimeWindowCompactionStrategy");
+        options.setCompressionCodec("LZ4Compressor");
+        options.setCompressionChunkLengthKb(64);
+        options.setCachingKeys("ALL");
+        options.setCachingRowsPerPartition("100");
+        Validator<TimelineStorageOptions> validator = TimelineValidators.storageOptionsValidatorForHandler();
+
+        assertFalse(validator.validate(options).isPresent());
+        assertFalse(validator.validate(null).isPresent());
+    }
+
+    @Test
+    public void shouldReturnErrorOnUnknownCompactionStrategy() {
+        TimelineStorageOptions options = new TimelineStorageOptions();
+        options.setCompactionStrategy("DateTieredCompactionStrategy' AND gc_grace_seconds = 0");
+        Validator<TimelineStorageOptions> validator = TimelineValidators.storageOptionsValidatorForHandler();
+
+        assertEquals("Compaction strategy is invalid: "
+                        + "String should match the pattern "
+                        + "'SizeTieredCompactionStrategy|LeveledCompactionStrategy|TimeWindowCompactionStrategy' "
+                        + "but was 'DateTieredCompactionStrategy' AND gc_grace_seconds = 0'",
+                validator.validate(options).get());
+    }
+
+    @Test
+    public void shouldReturnErrorOnInvalidChunkLength() {
+        TimelineStorageOptions options = new TimelineStorageOptions();
+        options.setCompressionChunkLengthKb(48);
+        Validator<TimelineStorageOptions> validator = TimelineValidators.storageOptionsValidatorForHandler();
+
+        assertEquals("Compression chunk length is invalid: Value should be zero or power of two",
+                validator.validate(options).get());
+    }
+}
@@ -0,0 +1,41 @@
+package ru.kontur.vostok.hercules.protocol.decoder;
+
+import ru.kontur.vostok.hercules.protocol.Event;
+import ru.kontur.vostok.hercules.protocol.TimelineContent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads timeline content is streamed by chunks of events with the read state at the end:
+ * <pre>
+ * TimelineStreamContent    EventsChunk*, EndOfEvents, TimelineState
+ * EventsChunk              Count, Event*
+ * EndOfEvents              Count
+ * </pre>
+ * Where, {@code Count} of {@code EventsChunk} is positive and {@code Count} of {@code EndOfEvents} is {@code 0}.
+ */
+public class TimelineStreamContentReader implements Reader<TimelineContent> {
+
+    private static final TimelineStateReader STATE_READER = new TimelineStateReader();
+    private final Reader<Event> eventReader;
+
+    public TimelineStreamContentReader(Reader<Event> eventReader) {
+        this.eventReader = eventReader;
+    }
+
+    @Override
+    public TimelineContent read(Decoder decoder) {
+        List<Event> events = new ArrayList<>();
+        int count;
+        while ((count = decoder.readInteger()) > 0) {
+            for (int i = 0; i < count; i++) {
+                events.add(eventReader.read(decoder));
+            }
+        }
+        return new TimelineContent(
+                STATE_READER.read(decoder),
+                events.toArray(new Event[0])
+        );
+    }
+}
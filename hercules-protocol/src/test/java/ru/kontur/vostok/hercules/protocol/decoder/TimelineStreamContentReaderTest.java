@@ -0,0 +1,50 @@
+package ru.kontur.vostok.hercules.protocol.decoder;
+
+import org.junit.Test;
+import ru.kontur.vostok.hercules.protocol.Event;
+import ru.kontur.vostok.hercules.protocol.TimelineContent;
+import ru.kontur.vostok.hercules.protocol.TimelineSliceState;
+import ru.kontur.vostok.hercules.protocol.TimelineState;
+import ru.kontur.vostok.hercules.protocol.Variant;
+import ru.kontur.vostok.hercules.protocol.encoder.Encoder;
+import ru.kontur.vostok.hercules.protocol.encoder.TimelineStateWriter;
+import ru.kontur.vostok.hercules.protocol.util.EventBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+
+public class TimelineStreamContentReaderTest {
+
+    @Test
+    public void shouldReadChunksAndStateAtTheEnd() {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        Encoder encoder = new Encoder(stream);
+
+        encoder.writeInteger(2);
+        encoder.writeRawBytes(createEvent(1).getBytes());
+        encoder.writeRawBytes(createEvent(2).getBytes());
+        encoder.writeInteger(1);
+        encoder.writeRawBytes(createEvent(3).getBytes());
+        encoder.writeInteger(0);
+        new TimelineStateWriter().write(encoder, new TimelineState(new TimelineSliceState[]{
+                new TimelineSliceState(0, 1_000L, new byte[24])
+        }));
+
+        TimelineContent content = new TimelineStreamContentReader(EventReader.readAllTags()).read(new Decoder(stream.toByteArray()));
+
+        assertEquals(3, content.getEvents().length);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i + 1, (int) content.getEvents()[i].getPayload().get("index").getValue());
+        }
+        assertEquals(1, content.getReadState().getSliceStates().length);
+        assertEquals(1_000L, content.getReadState().getSliceStates()[0].getTtOffset());
+    }
+
+    private static Event createEvent(int index) {
+        return EventBuilder.create(0, UUID.randomUUID())
+                .tag("index", Variant.ofInteger(index))
+                .build();
+    }
+}
@@ -8,6 +8,7 @@ import ru.kontur.vostok.hercules.configuration.util.ArgsParser;
 import ru.kontur.vostok.hercules.configuration.util.PropertiesUtil;
 import ru.kontur.vostok.hercules.health.CommonMetrics;
 import ru.kontur.vostok.hercules.health.MetricsCollector;
+import ru.kontur.vostok.hercules.kafka.util.serialization.EventDeserializer;
 import ru.kontur.vostok.hercules.undertow.util.servers.ApplicationStatusHttpServer;
 import ru.kontur.vostok.hercules.util.application.ApplicationContextHolder;
 import ru.kontur.vostok.hercules.util.properties.PropertyDescription;
@@ -76,6 +77,7 @@ public abstract class AbstractSinkDaemon {
                                     daemonId,
                                     sinkProperties,
                                     sender,
+                                    createDeserializer(),
                                     metricsCollector));
             sinkPool.start();
         } catch (Throwable throwable) {
@@ -91,6 +93,15 @@ public abstract class AbstractSinkDaemon {
 
     protected abstract Sender createSender(Properties senderProperties, MetricsCollector metricsCollector);
 
+    /**
+     * Deserializer of events are passed to the sender. All tags are parsed by default.
+     *
+     * @return event deserializer
+     */
+    protected EventDeserializer createDeserializer() {
+        return EventDeserializer.parseAllTags();
+    }
+
     /**
      * Application id is used to identify across Hercules Cluster. E.g. in metrics, logging and others.
      *
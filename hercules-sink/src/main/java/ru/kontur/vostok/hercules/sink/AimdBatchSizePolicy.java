@@ -0,0 +1,84 @@
+package ru.kontur.vostok.hercules.sink;
+
+import ru.kontur.vostok.hercules.util.properties.PropertyDescription;
+import ru.kontur.vostok.hercules.util.properties.PropertyDescriptions;
+import ru.kontur.vostok.hercules.util.validation.Validators;
+
+import java.util.Properties;
+
+/**
+ * Additive-increase/multiplicative-decrease (AIMD) batch size policy.
+ * <p>
+ * Batch size grows by {@code additiveIncrease} after each full batch has been processed successfully in time.
+ * Batch size is cut by {@code decreasePercent} if processing failed (even partially) or took longer than {@code targetLatencyMs}.
+ * Batch size is bounded by {@code minBatchSize} from below and by {@code maxBatchSize} from above.
+ */
+public class AimdBatchSizePolicy implements BatchSizePolicy {
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final int additiveIncrease;
+    private final int decreasePercent;
+    private final long targetLatencyMs;
+
+    private int batchSize;
+
+    /**
+     * AIMD batch size policy. Initial batch size equals to the minimal one.
+     *
+     * @param maxBatchSize maximum batch size
+     * @param properties   policy's properties
+     */
+    public AimdBatchSizePolicy(int maxBatchSize, Properties properties) {
+        this.maxBatchSize = maxBatchSize;
+        this.minBatchSize = Math.min(Props.MIN_BATCH_SIZE.extract(properties), maxBatchSize);
+        this.additiveIncrease = Props.ADDITIVE_INCREASE.extract(properties);
+        this.decreasePercent = Props.DECREASE_PERCENT.extract(properties);
+        this.targetLatencyMs = Props.TARGET_LATENCY_MS.extract(properties);
+
+        this.batchSize = minBatchSize;
+    }
+
+    @Override
+    public int batchSize() {
+        return batchSize;
+    }
+
+    @Override
+    public void update(int size, ProcessorResult result, long processingTimeMs) {
+        if (!result.isSuccess() || result.hasFailedEvents() || processingTimeMs > targetLatencyMs) {
+            batchSize = Math.max(minBatchSize, batchSize - (int) ((long) batchSize * decreasePercent / 100));
+            return;
+        }
+
+        if (size >= batchSize) {
+            /* Increase batch size only if current limit has been reached */
+            batchSize = (int) Math.min(maxBatchSize, (long) batchSize + additiveIncrease);
+        }
+    }
+
+    private static class Props {
+        static final PropertyDescription<Integer> MIN_BATCH_SIZE =
+                PropertyDescriptions.integerProperty("minBatchSize").
+                        withDefaultValue(100).
+                        withValidator(Validators.greaterThan(0)).
+                        build();
+
+        static final PropertyDescription<Integer> ADDITIVE_INCREASE =
+                PropertyDescriptions.integerProperty("additiveIncrease").
+                        withDefaultValue(100).
+                        withValidator(Validators.greaterThan(0)).
+                        build();
+
+        static final PropertyDescription<Integer> DECREASE_PERCENT =
+                PropertyDescriptions.integerProperty("decreasePercent").
+                        withDefaultValue(50).
+                        withValidator(Validators.interval(1, 100)).
+                        build();
+
+        static final PropertyDescription<Long> TARGET_LATENCY_MS =
+                PropertyDescriptions.longProperty("targetLatencyMs").
+                        withDefaultValue(5_000L).
+                        withValidator(Validators.greaterThan(0L)).
+                        build();
+    }
+}
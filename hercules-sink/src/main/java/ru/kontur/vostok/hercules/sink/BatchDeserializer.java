@@ -0,0 +1,106 @@
+package ru.kontur.vostok.hercules.sink;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import ru.kontur.vostok.hercules.kafka.util.serialization.EventDeserializer;
+import ru.kontur.vostok.hercules.protocol.Event;
+import ru.kontur.vostok.hercules.util.concurrent.ThreadFactories;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deserializes batches of raw events polled from Kafka.
+ * <p>
+ * If parallelism is greater than {@code 1}, large batches are split into parts which are deserialized concurrently.
+ * The calling thread deserializes the last part itself, thus only {@code parallelism - 1} additional threads are used.
+ */
+class BatchDeserializer {
+    /**
+     * Batches are not split into parts are less than this size, since the overhead of task submission dominates.
+     */
+    private static final int MIN_PART_SIZE = 256;
+
+    private final EventDeserializer deserializer;
+    private final int parallelism;
+    private final ExecutorService executor;
+
+    BatchDeserializer(EventDeserializer deserializer, int parallelism) {
+        this.deserializer = deserializer;
+        this.parallelism = parallelism;
+        this.executor = (parallelism > 1)
+                ? Executors.newFixedThreadPool(parallelism - 1, ThreadFactories.newNamedThreadFactory("sink-deserializer"))
+                : null;
+    }
+
+    /**
+     * Deserialize raw events.
+     *
+     * @param records records with raw events
+     * @return array of deserialized events, where {@code null} stands for non-deserializable data
+     */
+    Event[] deserialize(List<ConsumerRecord<UUID, byte[]>> records) {
+        Event[] events = new Event[records.size()];
+
+        int partSize = Math.max(MIN_PART_SIZE, (records.size() + parallelism - 1) / parallelism);
+        if (executor == null || records.size() <= partSize) {
+            deserialize(records, events, 0, records.size());
+            return events;
+        }
+
+        List<Future<?>> futures = new ArrayList<>(parallelism - 1);
+        int from = 0;
+        while (records.size() - from > partSize) {
+            final int begin = from;
+            final int end = from + partSize;
+            futures.add(executor.submit(() -> deserialize(records, events, begin, end)));
+            from = end;
+        }
+        deserialize(records, events, from, records.size());
+
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException ex) {
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while deserializing events", ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Deserialization failed", ex.getCause());
+        }
+        return events;
+    }
+
+    /**
+     * Stop additional threads if any.
+     *
+     * @param timeout maximum time to wait
+     * @param unit    time unit of the timeout
+     */
+    void stop(long timeout, TimeUnit unit) {
+        if (executor == null) {
+            return;
+        }
+
+        executor.shutdown();
+        try {
+            executor.awaitTermination(timeout, unit);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void deserialize(List<ConsumerRecord<UUID, byte[]>> records, Event[] events, int from, int to) {
+        for (int i = from; i < to; i++) {
+            ConsumerRecord<UUID, byte[]> record = records.get(i);
+            byte[] bytes = record.value();
+            events[i] = (bytes != null) ? deserializer.deserialize(record.topic(), bytes) : null;
+        }
+    }
+}
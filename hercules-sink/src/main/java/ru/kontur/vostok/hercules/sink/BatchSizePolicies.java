@@ -0,0 +1,49 @@
+package ru.kontur.vostok.hercules.sink;
+
+import ru.kontur.vostok.hercules.util.parsing.Parsers;
+import ru.kontur.vostok.hercules.util.properties.PropertyDescription;
+import ru.kontur.vostok.hercules.util.properties.PropertyDescriptions;
+
+import java.util.Properties;
+
+public final class BatchSizePolicies {
+    /**
+     * Create batch size policy of type is defined by the property {@code type}.
+     *
+     * @param maxBatchSize maximum batch size
+     * @param properties   policy's properties
+     * @return batch size policy
+     */
+    public static BatchSizePolicy fromProperties(int maxBatchSize, Properties properties) {
+        switch (Props.TYPE.extract(properties)) {
+            case AIMD:
+                return new AimdBatchSizePolicy(maxBatchSize, properties);
+            case FIXED:
+            default:
+                return new FixedBatchSizePolicy(maxBatchSize);
+        }
+    }
+
+    public enum Type {
+        /**
+         * See {@link FixedBatchSizePolicy}
+         */
+        FIXED,
+        /**
+         * See {@link AimdBatchSizePolicy}
+         */
+        AIMD;
+    }
+
+    private BatchSizePolicies() {
+        /* static class */
+    }
+
+    private static class Props {
+        static final PropertyDescription<Type> TYPE =
+                PropertyDescriptions.propertyOfType(Type.class, "type").
+                        withParser(Parsers.enumParser(Type.class)).
+                        withDefaultValue(Type.FIXED).
+                        build();
+    }
+}
@@ -0,0 +1,25 @@
+package ru.kontur.vostok.hercules.sink;
+
+/**
+ * Batch size policy defines how many events are processed by {@link Processor} at once.
+ * <p>
+ * Policy is updated after each processing, thus it can adapt batch size to the backend's performance.
+ * Implementations are not required to be thread-safe, since each {@link Sink} uses its own policy.
+ */
+public interface BatchSizePolicy {
+    /**
+     * Current batch size.
+     *
+     * @return count of events to be processed in the next batch
+     */
+    int batchSize();
+
+    /**
+     * Update policy using result of the batch processing.
+     *
+     * @param size             count of events in the processed batch
+     * @param result           result of processing
+     * @param processingTimeMs processing time in millis
+     */
+    void update(int size, ProcessorResult result, long processingTimeMs);
+}
@@ -0,0 +1,119 @@
+package ru.kontur.vostok.hercules.sink;
+
+import com.codahale.metrics.Meter;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.kontur.vostok.hercules.health.MetricsCollector;
+import ru.kontur.vostok.hercules.kafka.util.serialization.UuidSerializer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dead-letter producer writes raw events which cannot be processed to the dead-letter stream.
+ * <p>
+ * Raw bytes of event are written as is. The reason and the source position of event are written to record headers.
+ * Events are sent asynchronously, thus the producer never blocks the caller for longer than {@code max.block.ms}.
+ * The caller may wait for acknowledgements using returned futures.
+ * <p>
+ * Delivery is best-effort: events which failed to be sent are counted and logged only.
+ */
+public class DeadLetterProducer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DeadLetterProducer.class);
+
+    public static final String REASON_HEADER = "reason";
+    public static final String SOURCE_TOPIC_HEADER = "source.topic";
+    public static final String SOURCE_PARTITION_HEADER = "source.partition";
+    public static final String SOURCE_OFFSET_HEADER = "source.offset";
+
+    private static final long DEFAULT_MAX_BLOCK_MS = 100L;
+
+    private final String stream;
+    private final KafkaProducer<UUID, byte[]> producer;
+
+    private final Meter deadLetterEventsMeter;
+    private final Meter deadLetterErrorsMeter;
+
+    /**
+     * @param stream             the dead-letter stream
+     * @param producerProperties Kafka producer's properties
+     * @param metricsCollector   metrics collector
+     */
+    public DeadLetterProducer(String stream, Properties producerProperties, MetricsCollector metricsCollector) {
+        this.stream = stream;
+
+        Properties properties = new Properties();
+        properties.put(ProducerConfig.MAX_BLOCK_MS_CONFIG, DEFAULT_MAX_BLOCK_MS);
+        properties.putAll(producerProperties);
+        this.producer = new KafkaProducer<>(properties, new UuidSerializer(), new ByteArraySerializer());
+
+        this.deadLetterEventsMeter = metricsCollector.meter("deadLetterEvents");
+        this.deadLetterErrorsMeter = metricsCollector.meter("deadLetterErrors");
+    }
+
+    /**
+     * Send raw event to the dead-letter stream.
+     *
+     * @param source the record with raw event
+     * @param reason the reason why event cannot be processed
+     * @return the future of acknowledgement of the event
+     */
+    public Future<RecordMetadata> send(ConsumerRecord<UUID, byte[]> source, Reason reason) {
+        RecordHeaders headers = new RecordHeaders();
+        headers.add(REASON_HEADER, reason.name().getBytes(StandardCharsets.UTF_8));
+        headers.add(SOURCE_TOPIC_HEADER, source.topic().getBytes(StandardCharsets.UTF_8));
+        headers.add(SOURCE_PARTITION_HEADER, String.valueOf(source.partition()).getBytes(StandardCharsets.UTF_8));
+        headers.add(SOURCE_OFFSET_HEADER, String.valueOf(source.offset()).getBytes(StandardCharsets.UTF_8));
+
+        ProducerRecord<UUID, byte[]> record = new ProducerRecord<>(stream, null, source.key(), source.value(), headers);
+        try {
+            return producer.send(record, (metadata, exception) -> {
+                if (exception == null) {
+                    deadLetterEventsMeter.mark();
+                } else {
+                    deadLetterErrorsMeter.mark();
+                    LOGGER.warn("Cannot send event to the dead-letter stream", exception);
+                }
+            });
+        } catch (Exception ex) {
+            deadLetterErrorsMeter.mark();
+            LOGGER.warn("Cannot send event to the dead-letter stream", ex);
+            CompletableFuture<RecordMetadata> result = new CompletableFuture<>();
+            result.completeExceptionally(ex);
+            return result;
+        }
+    }
+
+    public void stop(long timeout, TimeUnit unit) {
+        producer.close(timeout, unit);
+    }
+
+    /**
+     * The reason why event cannot be processed.
+     */
+    public enum Reason {
+        /**
+         * Event cannot be deserialized
+         */
+        NON_DESERIALIZABLE,
+        /**
+         * Event is rejected by processor
+         */
+        REJECTED,
+        /**
+         * Event failed to be processed and the retry limit is exceeded
+         */
+        RETRY_LIMIT_EXCEEDED;
+    }
+}
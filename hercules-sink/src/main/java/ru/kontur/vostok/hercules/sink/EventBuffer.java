@@ -0,0 +1,124 @@
+package ru.kontur.vostok.hercules.sink;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import ru.kontur.vostok.hercules.protocol.Event;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Buffer of polled but not processed events.
+ * <p>
+ * Events are taken from the buffer in batches. Events of the batch are returned back if they have not been processed.
+ * Buffer tracks offsets are safe to be committed: for each partition it is the offset of the first not processed event
+ * or the offset next to the last polled one if all events of the partition have been processed.
+ */
+class EventBuffer {
+    private final ArrayDeque<PolledEvent> events = new ArrayDeque<>();
+    private final Map<TopicPartition, Long> polledOffsets = new HashMap<>();
+    private final Map<TopicPartition, Long> committedOffsets = new HashMap<>();
+
+    /**
+     * Add polled records with corresponding deserialized events.
+     *
+     * @param records polled records
+     * @param events  deserialized events, {@code null} for non-deserializable data
+     */
+    void add(List<ConsumerRecord<UUID, byte[]>> records, Event[] events) {
+        TopicPartition partition = null;
+        for (int i = 0; i < events.length; i++) {
+            ConsumerRecord<UUID, byte[]> record = records.get(i);
+            if (partition == null || record.partition() != partition.partition() || !record.topic().equals(partition.topic())) {
+                partition = new TopicPartition(record.topic(), record.partition());
+            }
+            this.events.addLast(new PolledEvent(partition, record, events[i]));
+            polledOffsets.put(partition, record.offset() + 1);
+        }
+    }
+
+    boolean isEmpty() {
+        return events.isEmpty();
+    }
+
+    /**
+     * Take up to {@code count} events from the head of the buffer.
+     *
+     * @param count maximum count of events to take
+     * @return taken events
+     */
+    List<PolledEvent> take(int count) {
+        List<PolledEvent> batch = new ArrayList<>(Math.min(count, events.size()));
+        while (batch.size() < count && !events.isEmpty()) {
+            batch.add(events.pollFirst());
+        }
+        return batch;
+    }
+
+    /**
+     * Return not processed events back to the head of the buffer. Events order is preserved.
+     *
+     * @param batch events to be returned
+     */
+    void returnBack(List<PolledEvent> batch) {
+        ListIterator<PolledEvent> iterator = batch.listIterator(batch.size());
+        while (iterator.hasPrevious()) {
+            events.addFirst(iterator.previous());
+        }
+    }
+
+    /**
+     * Offsets to be committed. Only offsets are changed since the last commit are returned.
+     *
+     * @return offsets to be committed
+     */
+    Map<TopicPartition, OffsetAndMetadata> offsetsToCommit() {
+        Map<TopicPartition, Long> offsets = new HashMap<>(polledOffsets);
+        /* Events of the same partition are ordered by offset, thus the first one is enough */
+        Set<TopicPartition> pendingPartitions = new HashSet<>();
+        for (PolledEvent event : events) {
+            if (pendingPartitions.add(event.partition())) {
+                offsets.put(event.partition(), event.offset());
+                if (pendingPartitions.size() == polledOffsets.size()) {
+                    break;
+                }
+            }
+        }
+
+        Map<TopicPartition, OffsetAndMetadata> offsetsToCommit = new HashMap<>(offsets.size());
+        for (Map.Entry<TopicPartition, Long> offset : offsets.entrySet()) {
+            if (!offset.getValue().equals(committedOffsets.get(offset.getKey()))) {
+                offsetsToCommit.put(offset.getKey(), new OffsetAndMetadata(offset.getValue()));
+            }
+        }
+        return offsetsToCommit;
+    }
+
+    /**
+     * Mark offsets as committed.
+     *
+     * @param offsets committed offsets
+     */
+    void committed(Map<TopicPartition, OffsetAndMetadata> offsets) {
+        for (Map.Entry<TopicPartition, OffsetAndMetadata> offset : offsets.entrySet()) {
+            committedOffsets.put(offset.getKey(), offset.getValue().offset());
+        }
+    }
+
+    /**
+     * Discard all events and tracked offsets. Should be called if partitions have been revoked.
+     */
+    void clear() {
+        events.clear();
+        polledOffsets.clear();
+        committedOffsets.clear();
+    }
+}
@@ -0,0 +1,22 @@
+package ru.kontur.vostok.hercules.sink;
+
+/**
+ * Batch size is constant and does not depend on the processing results.
+ */
+public class FixedBatchSizePolicy implements BatchSizePolicy {
+    private final int batchSize;
+
+    public FixedBatchSizePolicy(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public int batchSize() {
+        return batchSize;
+    }
+
+    @Override
+    public void update(int size, ProcessorResult result, long processingTimeMs) {
+        /* batch size is constant */
+    }
+}
@@ -0,0 +1,44 @@
+package ru.kontur.vostok.hercules.sink;
+
+import ru.kontur.vostok.hercules.kafka.util.processing.BackendServiceFailedException;
+import ru.kontur.vostok.hercules.protocol.Event;
+
+import java.util.List;
+
+/**
+ * PartialSendFailureException should be thrown by {@link Sender} if backend failed to process some events only.
+ * <p>
+ * Unlike {@link BackendServiceFailedException}, it does not make sender unavailable.
+ * Events except failed ones are considered as processed or rejected, so only failed events are sent again.
+ */
+public class PartialSendFailureException extends BackendServiceFailedException {
+    private final int processedEvents;
+    private final int rejectedEvents;
+    private final List<Event> failedEvents;
+
+    /**
+     * @param processedEvents count of successfully processed events
+     * @param rejectedEvents  count of rejected events
+     * @param failedEvents    events are failed to be processed, must be the same instances as were passed to the sender
+     * @param cause           the cause of the last failure
+     */
+    public PartialSendFailureException(int processedEvents, int rejectedEvents, List<Event> failedEvents, Throwable cause) {
+        super(cause);
+
+        this.processedEvents = processedEvents;
+        this.rejectedEvents = rejectedEvents;
+        this.failedEvents = failedEvents;
+    }
+
+    public int getProcessedEvents() {
+        return processedEvents;
+    }
+
+    public int getRejectedEvents() {
+        return rejectedEvents;
+    }
+
+    public List<Event> getFailedEvents() {
+        return failedEvents;
+    }
+}
@@ -0,0 +1,66 @@
+package ru.kontur.vostok.hercules.sink;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import ru.kontur.vostok.hercules.protocol.Event;
+
+import java.util.UUID;
+
+/**
+ * Event is polled from Kafka but has not been processed yet.
+ */
+class PolledEvent {
+    private final TopicPartition partition;
+    private final ConsumerRecord<UUID, byte[]> record;
+    private final Event event;
+    private int retries;
+
+    PolledEvent(TopicPartition partition, ConsumerRecord<UUID, byte[]> record, Event event) {
+        this.partition = partition;
+        this.record = record;
+        this.event = event;
+    }
+
+    /**
+     * Raw record from Kafka.
+     *
+     * @return consumer record
+     */
+    ConsumerRecord<UUID, byte[]> record() {
+        return record;
+    }
+
+    /**
+     * Deserialized event.
+     *
+     * @return event or {@code null} if record contains non-deserializable data
+     */
+    Event event() {
+        return event;
+    }
+
+    boolean isDeserialized() {
+        return event != null;
+    }
+
+    /**
+     * Count of retries of the event after partial processing failures.
+     *
+     * @return count of retries
+     */
+    int retries() {
+        return retries;
+    }
+
+    void retried() {
+        retries++;
+    }
+
+    TopicPartition partition() {
+        return partition;
+    }
+
+    long offset() {
+        return record.offset();
+    }
+}
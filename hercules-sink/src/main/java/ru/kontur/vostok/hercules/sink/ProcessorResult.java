@@ -1,5 +1,10 @@
 package ru.kontur.vostok.hercules.sink;
 
+import ru.kontur.vostok.hercules.protocol.Event;
+
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Result of events processing.
  *
@@ -9,11 +14,20 @@ public class ProcessorResult {
     private final boolean success;
     private final int processedEvents;
     private final int rejectedEvents;
+    private final List<Event> rejectedEventList;
+    private final List<Event> failedEvents;
 
-    private ProcessorResult(boolean success, int processedEvents, int rejectedEvents) {
+    private ProcessorResult(
+            boolean success,
+            int processedEvents,
+            int rejectedEvents,
+            List<Event> rejectedEventList,
+            List<Event> failedEvents) {
         this.success = success;
         this.processedEvents = processedEvents;
         this.rejectedEvents = rejectedEvents;
+        this.rejectedEventList = rejectedEventList;
+        this.failedEvents = failedEvents;
     }
 
     public boolean isSuccess() {
@@ -38,6 +52,37 @@ public class ProcessorResult {
         return rejectedEvents;
     }
 
+    /**
+     * Rejected events are known to processor. It may be a subset of all rejected events.
+     * <p>
+     * Rejected events are the same instances as were passed to the processor.
+     *
+     * @return rejected events
+     */
+    public List<Event> getRejectedEventList() {
+        return rejectedEventList;
+    }
+
+    /**
+     * Events are failed to be processed and should be processed again.
+     * <p>
+     * Failed events are the same instances as were passed to the processor.
+     *
+     * @return failed events
+     */
+    public List<Event> getFailedEvents() {
+        return failedEvents;
+    }
+
+    /**
+     * Check if some events are failed to be processed.
+     *
+     * @return {@code true} if some events are failed to be processed, {@code false} otherwise
+     */
+    public boolean hasFailedEvents() {
+        return !failedEvents.isEmpty();
+    }
+
     /**
      * Successful processing.
      *
@@ -46,7 +91,48 @@ public class ProcessorResult {
      * @return successful result
      */
     public static ProcessorResult ok(int processedEvents, int rejectedEvents) {
-        return new ProcessorResult(true, processedEvents, rejectedEvents);
+        return new ProcessorResult(true, processedEvents, rejectedEvents, Collections.emptyList(), Collections.emptyList());
+    }
+
+    /**
+     * Successful processing.
+     *
+     * @param processedEvents   count of successfully processed events
+     * @param rejectedEvents    count of rejected events
+     * @param rejectedEventList rejected events are known to processor
+     * @return successful result
+     */
+    public static ProcessorResult ok(int processedEvents, int rejectedEvents, List<Event> rejectedEventList) {
+        return new ProcessorResult(true, processedEvents, rejectedEvents, rejectedEventList, Collections.emptyList());
+    }
+
+    /**
+     * Partially successful processing. Failed events should be processed again.
+     *
+     * @param processedEvents count of successfully processed events
+     * @param rejectedEvents  count of rejected events
+     * @param failedEvents    events are failed to be processed
+     * @return partially successful result
+     */
+    public static ProcessorResult partial(int processedEvents, int rejectedEvents, List<Event> failedEvents) {
+        return new ProcessorResult(true, processedEvents, rejectedEvents, Collections.emptyList(), failedEvents);
+    }
+
+    /**
+     * Partially successful processing. Failed events should be processed again.
+     *
+     * @param processedEvents   count of successfully processed events
+     * @param rejectedEvents    count of rejected events
+     * @param rejectedEventList rejected events are known to processor
+     * @param failedEvents      events are failed to be processed
+     * @return partially successful result
+     */
+    public static ProcessorResult partial(
+            int processedEvents,
+            int rejectedEvents,
+            List<Event> rejectedEventList,
+            List<Event> failedEvents) {
+        return new ProcessorResult(true, processedEvents, rejectedEvents, rejectedEventList, failedEvents);
     }
 
     /**
@@ -55,6 +141,6 @@ public class ProcessorResult {
      * @return failed result
      */
     public static ProcessorResult fail() {
-        return new ProcessorResult(false, 0, 0);
+        return new ProcessorResult(false, 0, 0, Collections.emptyList(), Collections.emptyList());
     }
 }
@@ -8,6 +8,7 @@ import ru.kontur.vostok.hercules.protocol.Event;
 import ru.kontur.vostok.hercules.util.properties.PropertyDescription;
 import ru.kontur.vostok.hercules.util.properties.PropertyDescriptions;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.Executors;
@@ -70,9 +71,13 @@ public abstract class Sender extends Processor {
      */
     @Override
     public final ProcessorResult process(List<Event> events) {
+        List<Event> rejectedEvents = new ArrayList<>();
         try {
-            int processedEvents = send(events);
-            return ProcessorResult.ok(processedEvents, events.size() - processedEvents);
+            int processedEvents = send(events, rejectedEvents);
+            return ProcessorResult.ok(processedEvents, events.size() - processedEvents, rejectedEvents);
+        } catch (PartialSendFailureException ex) {
+            LOGGER.warn("Backend failed to process {} of {} events", ex.getFailedEvents().size(), events.size(), ex.getCause());
+            return ProcessorResult.partial(ex.getProcessedEvents(), ex.getRejectedEvents(), rejectedEvents, ex.getFailedEvents());
         } catch (BackendServiceFailedException ex) {
             LOGGER.error("Backend failed with exception", ex);
             disable();
@@ -96,10 +101,26 @@ public abstract class Sender extends Processor {
      *
      * @param events events to be sent
      * @return count of events were successfully processed by backend
+     * @throws PartialSendFailureException   if backend failed to process some events only
      * @throws BackendServiceFailedException if backend failed
      */
     protected abstract int send(List<Event> events) throws BackendServiceFailedException;
 
+    /**
+     * Send events to some backend (storage or processing unit) and collect rejected events.
+     * <p>
+     * Override it if sender can determine which events are rejected. By default, rejected events are not collected.
+     *
+     * @param events         events to be sent
+     * @param rejectedEvents collection of rejected events, sender should add rejected events to it
+     * @return count of events were successfully processed by backend
+     * @throws PartialSendFailureException   if backend failed to process some events only
+     * @throws BackendServiceFailedException if backend failed
+     */
+    protected int send(List<Event> events, List<Event> rejectedEvents) throws BackendServiceFailedException {
+        return send(events);
+    }
+
     private static class Props {
         static final PropertyDescription<Long> PING_PERIOD_MS =
                 PropertyDescriptions.longProperty("pingPeriodMs").withDefaultValue(5_000L).build();
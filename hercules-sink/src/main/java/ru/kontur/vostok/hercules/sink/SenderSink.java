@@ -25,13 +25,26 @@ public class SenderSink extends Sink {
             Properties properties,
             Sender sender,
             MetricsCollector metricsCollector) {
+        this(executor, applicationId, properties, sender, EventDeserializer.parseAllTags(), metricsCollector);
+    }
+
+    /**
+     * Sink with custom deserializer. Sender can use it to skip parsing of tags it does not need.
+     */
+    public SenderSink(
+            ExecutorService executor,
+            String applicationId,
+            Properties properties,
+            Sender sender,
+            EventDeserializer deserializer,
+            MetricsCollector metricsCollector) {
         super(
                 executor,
                 applicationId,
                 properties,
                 sender,
                 Props.PATTERN.extract(properties).stream().map(PatternMatcher::new).collect(Collectors.toList()),
-                EventDeserializer.parseAllTags(),
+                deserializer,
                 metricsCollector);
     }
 
@@ -1,14 +1,20 @@
 package ru.kontur.vostok.hercules.sink;
 
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
 import org.apache.kafka.clients.consumer.CommitFailedException;
+import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.RecordMetadata;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ru.kontur.vostok.hercules.configuration.Scopes;
@@ -21,15 +27,23 @@ import ru.kontur.vostok.hercules.util.PatternMatcher;
 import ru.kontur.vostok.hercules.util.properties.PropertyDescription;
 import ru.kontur.vostok.hercules.util.properties.PropertyDescriptions;
 import ru.kontur.vostok.hercules.util.text.StringUtil;
+import ru.kontur.vostok.hercules.util.validation.Validators;
 
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.regex.Pattern;
 
 /**
@@ -38,6 +52,11 @@ import java.util.regex.Pattern;
 public class Sink {
     private static final Logger LOGGER = LoggerFactory.getLogger(Sink.class);
 
+    /**
+     * Poll timeout when partitions are paused. Poll is used to keep Sink in the consumer group only.
+     */
+    private static final Duration PAUSED_POLL_TIMEOUT = Duration.ofMillis(100);
+
     private volatile boolean running = false;
 
     private final ExecutorService executor;
@@ -47,16 +66,30 @@ public class Sink {
     private final List<PatternMatcher> patternMatchers;
 
     private final Duration pollTimeout;
-    private final int batchSize;
     private final long availabilityTimeoutMs;
+    private final boolean pauseOnUnavailable;
+    private final long retryBackoffMs;
+    private final long maxRetryBackoffMs;
+    private final int retryLimit;
 
     private final Pattern pattern;
-    private final KafkaConsumer<UUID, Event> consumer;
+    private final Consumer<UUID, byte[]> consumer;
+    private final BatchDeserializer batchDeserializer;
+    private final DeadLetterProducer deadLetterProducer;
+    private final long deadLetterSendTimeoutMs;
+
+    private final BatchSizePolicy batchSizePolicy;
+    private final EventBuffer buffer = new EventBuffer();
+    private boolean paused;
+    private int retryAttempt;
 
     private final Meter droppedEventsMeter;
     private final Meter processedEventsMeter;
     private final Meter rejectedEventsMeter;
+    private final Meter retriedEventsMeter;
     private final Meter totalEventsMeter;
+    private final Histogram batchSizeHistogram;
+    private final Timer processingTimeTimer;
 
     public Sink(
             ExecutorService executor,
@@ -66,6 +99,57 @@ public class Sink {
             List<PatternMatcher> patternMatchers,
             EventDeserializer deserializer,
             MetricsCollector metricsCollector) {
+        this(
+                executor,
+                applicationId,
+                properties,
+                processor,
+                patternMatchers,
+                deserializer,
+                BatchSizePolicies.fromProperties(
+                        Props.BATCH_SIZE.extract(properties),
+                        PropertiesUtil.ofScope(properties, "batchSizePolicy")),
+                metricsCollector);
+    }
+
+    /**
+     * Sink with custom batch size policy.
+     * <p>
+     * Property {@code batchSize} limits count of events are polled at once, thus the policy should not exceed it.
+     */
+    public Sink(
+            ExecutorService executor,
+            String applicationId,
+            Properties properties,
+            Processor processor,
+            List<PatternMatcher> patternMatchers,
+            EventDeserializer deserializer,
+            BatchSizePolicy batchSizePolicy,
+            MetricsCollector metricsCollector) {
+        this(
+                executor,
+                applicationId,
+                properties,
+                processor,
+                patternMatchers,
+                deserializer,
+                batchSizePolicy,
+                createConsumer(applicationId, properties, patternMatchers),
+                createDeadLetterProducer(properties, metricsCollector),
+                metricsCollector);
+    }
+
+    Sink(
+            ExecutorService executor,
+            String applicationId,
+            Properties properties,
+            Processor processor,
+            List<PatternMatcher> patternMatchers,
+            EventDeserializer deserializer,
+            BatchSizePolicy batchSizePolicy,
+            Consumer<UUID, byte[]> consumer,
+            DeadLetterProducer deadLetterProducer,
+            MetricsCollector metricsCollector) {
         this.executor = executor;
         this.applicationId = applicationId;
         this.properties = properties;
@@ -73,30 +157,28 @@ public class Sink {
         this.patternMatchers = patternMatchers;
 
         this.pollTimeout = Duration.ofMillis(Props.POLL_TIMEOUT_MS.extract(properties));
-        this.batchSize = Props.BATCH_SIZE.extract(properties);
         this.availabilityTimeoutMs = Props.AVAILABILITY_TIMEOUT_MS.extract(properties);
-
-        String consumerGroupId = Props.GROUP_ID.extract(properties);
-        if (StringUtil.isNullOrEmpty(consumerGroupId)) {
-            consumerGroupId = ConsumerUtil.toGroupId(applicationId, patternMatchers);
-        }
+        this.pauseOnUnavailable = Props.PAUSE_ON_UNAVAILABLE.extract(properties);
+        this.retryBackoffMs = Props.RETRY_BACKOFF_MS.extract(properties);
+        this.maxRetryBackoffMs = Props.MAX_RETRY_BACKOFF_MS.extract(properties);
+        this.retryLimit = Props.RETRY_LIMIT.extract(properties);
 
         this.pattern = PatternMatcher.matcherListToRegexp(patternMatchers);
 
-        Properties consumerProperties = PropertiesUtil.ofScope(properties, Scopes.CONSUMER);
-        consumerProperties.put(ConsumerConfig.GROUP_ID_CONFIG, consumerGroupId);
-        consumerProperties.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
-        consumerProperties.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, batchSize);
-
-        UuidDeserializer keyDeserializer = new UuidDeserializer();
-        EventDeserializer valueDeserializer = deserializer;
-
-        this.consumer = new KafkaConsumer<>(consumerProperties, keyDeserializer, valueDeserializer);
+        this.consumer = consumer;
+        this.batchDeserializer = new BatchDeserializer(deserializer, Props.DESERIALIZATION_PARALLELISM.extract(properties));
+        this.batchSizePolicy = batchSizePolicy;
+        this.deadLetterProducer = deadLetterProducer;
+        this.deadLetterSendTimeoutMs =
+                Props.DEAD_LETTER_SEND_TIMEOUT_MS.extract(PropertiesUtil.ofScope(properties, "deadLetter"));
 
         droppedEventsMeter = metricsCollector.meter("droppedEvents");
         processedEventsMeter = metricsCollector.meter("processedEvents");
         rejectedEventsMeter = metricsCollector.meter("rejectedEvents");
+        retriedEventsMeter = metricsCollector.meter("retriedEvents");
         totalEventsMeter = metricsCollector.meter("totalEvents");
+        batchSizeHistogram = metricsCollector.histogram("batchSize");
+        processingTimeTimer = metricsCollector.timer("processingTimeMs");
     }
 
     /**
@@ -126,6 +208,12 @@ public class Sink {
             /* ignore */
         }
 
+        batchDeserializer.stop(5_000L, TimeUnit.MILLISECONDS);
+
+        if (deadLetterProducer != null) {
+            deadLetterProducer.stop(5_000L, TimeUnit.MILLISECONDS);
+        }
+
         postStop();
     }
 
@@ -142,62 +230,38 @@ public class Sink {
      * Main Sink logic. Sink poll events from Kafka and processes them using {@link Processor} if possible.
      * <p>
      * Sink awaits availability of {@link Processor}. Also, it controls {@link #isRunning()} during operations.
+     * <p>
+     * Polled events are processed in batches of size is defined by {@link BatchSizePolicy}.
+     * <p>
+     * If {@code pauseOnUnavailable} is enabled, Sink pauses consumption instead of unsubscribing. See {@link #runPausable()}.
      */
     public final void run() {
+        if (pauseOnUnavailable) {
+            runPausable();
+            return;
+        }
+
         while (isRunning()) {
             if (processor.isAvailable()) {
                 try {
 
-                    subscribe();
+                    subscribe(new RebalanceListener());
 
                     while (processor.isAvailable()) {
-                        ConsumerRecords<UUID, Event> pollResult;
                         try {
-                            pollResult = poll();
+                            processBatch();
                         } catch (WakeupException ex) {
                             /*
                              * WakeupException is used to terminate polling
                              */
                             return;
                         }
-
-                        Set<TopicPartition> partitions = pollResult.partitions();
-
-                        // ConsumerRecords::count works for O(n), where n is partition count
-                        int eventCount = pollResult.count();
-                        List<Event> events = new ArrayList<>(eventCount);
-
-                        int droppedEvents = 0;
-
-                        for (TopicPartition partition : partitions) {
-                            List<ConsumerRecord<UUID, Event>> records = pollResult.records(partition);
-                            for (ConsumerRecord<UUID, Event> record : records) {
-                                Event event = record.value();
-                                if (event == null) {// Received non-deserializable data, should be ignored
-                                    droppedEvents++;
-                                    continue;
-                                }
-                                events.add(event);
-                            }
-                        }
-
-                        ProcessorResult result = processor.process(events);
-                        if (result.isSuccess()) {
-                            try {
-                                commit();
-                                droppedEventsMeter.mark(droppedEvents);
-                                processedEventsMeter.mark(result.getProcessedEvents());
-                                rejectedEventsMeter.mark(result.getRejectedEvents());
-                                totalEventsMeter.mark(events.size());
-                            } catch (CommitFailedException ex) {
-                                LOGGER.warn("Commit failed due to rebalancing", ex);
-                                continue;
-                            }
-                        }
                     }
                 } catch (Exception ex) {
                     LOGGER.error("Unspecified exception has been acquired", ex);
                 } finally {
+                    buffer.clear();
+                    retryAttempt = 0;
                     unsubscribe();
                 }
             }
@@ -206,6 +270,224 @@ public class Sink {
         }
     }
 
+    /**
+     * Sink logic with backpressure. Sink stays subscribed while {@link Processor} is unavailable.
+     * <p>
+     * Assigned partitions are paused and Sink keeps polling to stay in the consumer group, thus no rebalance occurs.
+     * Events which have not been processed due to unavailability of {@link Processor} are retained
+     * and are processed again when partitions are resumed. Retained events are discarded on partitions revocation,
+     * since they will be consumed from the last committed offsets by the new owner of partitions.
+     */
+    private void runPausable() {
+        while (isRunning()) {
+            try {
+                subscribe(new RebalanceListener());
+
+                while (isRunning()) {
+                    if (!processor.isAvailable()) {
+                        pause();
+                        if (!processor.awaitAvailability(availabilityTimeoutMs)) {
+                            pollPaused(PAUSED_POLL_TIMEOUT);
+                            continue;
+                        }
+                    }
+                    resume();
+
+                    processBatch();
+                }
+            } catch (WakeupException ex) {
+                /*
+                 * WakeupException is used to terminate polling
+                 */
+                return;
+            } catch (Exception ex) {
+                LOGGER.error("Unspecified exception has been acquired", ex);
+            } finally {
+                buffer.clear();
+                retryAttempt = 0;
+                paused = false;
+                unsubscribe();
+            }
+        }
+    }
+
+    /**
+     * Process the next batch of events. Poll events from Kafka if there are no events have been polled before.
+     * <p>
+     * Events of the batch are returned back to the buffer if processing failed.
+     * If processing failed partially, only failed events are returned back and are retried after backoff.
+     * Failed events are rejected when the retry limit is exceeded.
+     * <p>
+     * Events are sent to the dead-letter stream before offsets are committed. Sink waits for acknowledgements
+     * not longer than {@code deadLetter.sendTimeoutMs}, thus dead-letter delivery is best-effort:
+     * unacknowledged events are counted as dead-letter errors, but offsets are committed anyway.
+     *
+     * @throws WakeupException if poll terminated due to shutdown
+     */
+    private void processBatch() throws WakeupException {
+        if (retryAttempt > 0) {
+            backoff();
+        }
+
+        if (buffer.isEmpty()) {
+            ConsumerRecords<UUID, byte[]> pollResult = poll();
+
+            // ConsumerRecords::count works for O(n), where n is partition count
+            List<ConsumerRecord<UUID, byte[]>> records = new ArrayList<>(pollResult.count());
+            for (TopicPartition partition : pollResult.partitions()) {
+                records.addAll(pollResult.records(partition));
+            }
+            buffer.add(records, batchDeserializer.deserialize(records));
+        }
+
+        List<PolledEvent> batch = buffer.take(batchSizePolicy.batchSize());
+
+        List<Event> events = new ArrayList<>(batch.size());
+        int droppedEvents = 0;
+        for (PolledEvent event : batch) {
+            if (!event.isDeserialized()) {// Received non-deserializable data, should be ignored or sent to the dead-letter stream
+                droppedEvents++;
+                continue;
+            }
+            events.add(event.event());
+        }
+
+        long start = System.nanoTime();
+        ProcessorResult result = processor.process(events);
+        long processingTimeMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        batchSizePolicy.update(batch.size(), result, processingTimeMs);
+
+        if (!result.isSuccess()) {
+            buffer.returnBack(batch);
+            return;
+        }
+
+        int failedEvents = 0;
+        List<PolledEvent> exhaustedEvents = Collections.emptyList();
+        if (result.hasFailedEvents()) {
+            exhaustedEvents = new ArrayList<>();
+            failedEvents = returnBackFailedEvents(batch, result.getFailedEvents(), exhaustedEvents);
+            retryAttempt = (failedEvents > 0) ? retryAttempt + 1 : 0;
+        } else {
+            retryAttempt = 0;
+        }
+        if (!exhaustedEvents.isEmpty()) {
+            LOGGER.warn("Reject {} events since retry limit is exceeded", exhaustedEvents.size());
+        }
+
+        if (deadLetterProducer != null) {
+            sendToDeadLetter(batch, result.getRejectedEventList(), exhaustedEvents);
+        }
+
+        try {
+            Map<TopicPartition, OffsetAndMetadata> offsets = buffer.offsetsToCommit();
+            if (!offsets.isEmpty()) {
+                commit(offsets);
+                buffer.committed(offsets);
+            }
+        } catch (CommitFailedException ex) {
+            LOGGER.warn("Commit failed due to rebalancing", ex);
+            return;
+        }
+
+        batchSizeHistogram.update(batch.size());
+        processingTimeTimer.update(processingTimeMs, TimeUnit.MILLISECONDS);
+        droppedEventsMeter.mark(droppedEvents);
+        processedEventsMeter.mark(result.getProcessedEvents());
+        rejectedEventsMeter.mark(result.getRejectedEvents() + exhaustedEvents.size());
+        retriedEventsMeter.mark(failedEvents);
+        totalEventsMeter.mark(events.size() - failedEvents);
+    }
+
+    /**
+     * Return failed events back to the buffer to be processed again. Other events of the batch are considered as completed.
+     * <p>
+     * Failed events which have been retried {@code retryLimit} times are not returned back, they are considered as rejected.
+     *
+     * @param batch           the processed batch
+     * @param failedEvents    failed events of the batch
+     * @param exhaustedEvents collection of failed events which exceeded the retry limit
+     * @return count of events are returned back
+     */
+    private int returnBackFailedEvents(List<PolledEvent> batch, List<Event> failedEvents, List<PolledEvent> exhaustedEvents) {
+        Set<Event> failed = Collections.newSetFromMap(new IdentityHashMap<>(failedEvents.size()));
+        failed.addAll(failedEvents);
+
+        List<PolledEvent> eventsToRetry = new ArrayList<>(failed.size());
+        for (PolledEvent event : batch) {
+            if (event.isDeserialized() && failed.contains(event.event())) {
+                if (event.retries() < retryLimit) {
+                    event.retried();
+                    eventsToRetry.add(event);
+                } else {
+                    exhaustedEvents.add(event);
+                }
+            }
+        }
+        buffer.returnBack(eventsToRetry);
+        return eventsToRetry.size();
+    }
+
+    /**
+     * Send non-deserializable, rejected and exceeded the retry limit events of the batch to the dead-letter stream
+     * and wait for acknowledgements up to the dead-letter send timeout.
+     *
+     * @param batch           the processed batch
+     * @param rejectedEvents  rejected events of the batch
+     * @param exhaustedEvents failed events of the batch which exceeded the retry limit
+     */
+    private void sendToDeadLetter(List<PolledEvent> batch, List<Event> rejectedEvents, List<PolledEvent> exhaustedEvents) {
+        Set<Event> rejected = Collections.newSetFromMap(new IdentityHashMap<>(rejectedEvents.size()));
+        rejected.addAll(rejectedEvents);
+
+        List<Future<RecordMetadata>> results = new ArrayList<>();
+        for (PolledEvent event : batch) {
+            if (!event.isDeserialized()) {
+                results.add(deadLetterProducer.send(event.record(), DeadLetterProducer.Reason.NON_DESERIALIZABLE));
+            } else if (!rejected.isEmpty() && rejected.contains(event.event())) {
+                results.add(deadLetterProducer.send(event.record(), DeadLetterProducer.Reason.REJECTED));
+            }
+        }
+        for (PolledEvent event : exhaustedEvents) {
+            results.add(deadLetterProducer.send(event.record(), DeadLetterProducer.Reason.RETRY_LIMIT_EXCEEDED));
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadLetterSendTimeoutMs);
+        for (Future<RecordMetadata> result : results) {
+            try {
+                result.get(Math.max(deadline - System.nanoTime(), 0L), TimeUnit.NANOSECONDS);
+            } catch (ExecutionException ex) {
+                /* Failure is already counted by the producer */
+            } catch (TimeoutException ex) {
+                LOGGER.warn("Dead-letter events are not acknowledged in {} ms", deadLetterSendTimeoutMs);
+                return;
+            } catch (InterruptedException ex) {
+                /* Interruption during shutdown */
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Wait before retry of failed events. Backoff grows exponentially with each consecutive partial failure.
+     * <p>
+     * Assigned partitions are paused during backoff and Sink keeps polling to stay in the consumer group.
+     *
+     * @throws WakeupException if poll terminated due to shutdown
+     */
+    private void backoff() throws WakeupException {
+        long backoffMs = Math.min(maxRetryBackoffMs, retryBackoffMs << Math.min(retryAttempt - 1, 30));
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoffMs);
+        long remainingNanos;
+        pause();
+        while (isRunning() && (remainingNanos = deadline - System.nanoTime()) > 0) {
+            pollPaused(Duration.ofNanos(Math.min(remainingNanos, PAUSED_POLL_TIMEOUT.toNanos())));
+        }
+        resume();
+    }
+
     /**
      * Perform additional stop operations when Event consuming was terminated.
      */
@@ -220,6 +502,15 @@ public class Sink {
         consumer.subscribe(pattern);
     }
 
+    /**
+     * Subscribe Sink with rebalance listener. Should be called before polling
+     *
+     * @param listener rebalance listener
+     */
+    protected final void subscribe(ConsumerRebalanceListener listener) {
+        consumer.subscribe(pattern, listener);
+    }
+
     /**
      * Unsubscribe Sink. Should be called if Sink cannot process Events.
      */
@@ -238,10 +529,32 @@ public class Sink {
      * @return polled Events
      * @throws WakeupException if poll terminated due to shutdown
      */
-    protected final ConsumerRecords<UUID, Event> poll() throws WakeupException {
+    protected final ConsumerRecords<UUID, byte[]> poll() throws WakeupException {
         return consumer.poll(pollTimeout);
     }
 
+    /**
+     * Pause all assigned partitions. Subsequent polls return no Events but keep Sink in the consumer group.
+     */
+    protected final void pause() {
+        if (!paused) {
+            LOGGER.debug("Sink pause consumption");
+            paused = true;
+        }
+        consumer.pause(consumer.assignment());
+    }
+
+    /**
+     * Resume all assigned partitions if they were paused.
+     */
+    protected final void resume() {
+        if (paused) {
+            LOGGER.debug("Sink resume consumption");
+            paused = false;
+            consumer.resume(consumer.assignment());
+        }
+    }
+
     protected final void commit() {
         consumer.commitSync();
     }
@@ -250,6 +563,73 @@ public class Sink {
         consumer.commitSync(offsets);
     }
 
+    /**
+     * Poll Kafka when all assigned partitions are paused. Records must not be received in such case,
+     * but if so, positions are rewound to be polled again after resuming.
+     *
+     * @param timeout poll timeout
+     */
+    private void pollPaused(Duration timeout) {
+        ConsumerRecords<UUID, byte[]> pollResult = consumer.poll(timeout);
+        for (TopicPartition partition : pollResult.partitions()) {
+            List<ConsumerRecord<UUID, byte[]>> records = pollResult.records(partition);
+            consumer.seek(partition, records.get(0).offset());
+        }
+    }
+
+    private static Consumer<UUID, byte[]> createConsumer(
+            String applicationId,
+            Properties properties,
+            List<PatternMatcher> patternMatchers) {
+        String consumerGroupId = Props.GROUP_ID.extract(properties);
+        if (StringUtil.isNullOrEmpty(consumerGroupId)) {
+            consumerGroupId = ConsumerUtil.toGroupId(applicationId, patternMatchers);
+        }
+
+        Properties consumerProperties = PropertiesUtil.ofScope(properties, Scopes.CONSUMER);
+        consumerProperties.put(ConsumerConfig.GROUP_ID_CONFIG, consumerGroupId);
+        consumerProperties.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        consumerProperties.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, Props.BATCH_SIZE.extract(properties));
+
+        UuidDeserializer keyDeserializer = new UuidDeserializer();
+        ByteArrayDeserializer valueDeserializer = new ByteArrayDeserializer();
+
+        return new KafkaConsumer<>(consumerProperties, keyDeserializer, valueDeserializer);
+    }
+
+    private static DeadLetterProducer createDeadLetterProducer(Properties properties, MetricsCollector metricsCollector) {
+        Properties deadLetterProperties = PropertiesUtil.ofScope(properties, "deadLetter");
+        String deadLetterStream = Props.DEAD_LETTER_STREAM.extract(deadLetterProperties);
+        return !StringUtil.isNullOrEmpty(deadLetterStream)
+                ? new DeadLetterProducer(
+                        deadLetterStream,
+                        PropertiesUtil.ofScope(deadLetterProperties, Scopes.PRODUCER),
+                        metricsCollector)
+                : null;
+    }
+
+    /**
+     * Discards polled but not processed events on partitions revocation and keeps newly assigned partitions paused if needed.
+     * Callbacks are invoked in the polling thread.
+     */
+    private class RebalanceListener implements ConsumerRebalanceListener {
+        @Override
+        public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+            if (!buffer.isEmpty()) {
+                LOGGER.info("Discard polled events due to rebalancing");
+            }
+            buffer.clear();
+            retryAttempt = 0;
+        }
+
+        @Override
+        public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+            if (paused) {
+                consumer.pause(partitions);
+            }
+        }
+    }
+
     private static class Props {
         static final PropertyDescription<Long> POLL_TIMEOUT_MS =
                 PropertyDescriptions.longProperty("pollTimeoutMs").
@@ -270,5 +650,45 @@ public class Sink {
                 PropertyDescriptions.longProperty("availabilityTimeoutMs").
                         withDefaultValue(2_000L).
                         build();
+
+        static final PropertyDescription<Integer> DESERIALIZATION_PARALLELISM =
+                PropertyDescriptions.integerProperty("deserializationParallelism").
+                        withDefaultValue(1).
+                        withValidator(Validators.greaterOrEquals(1)).
+                        build();
+
+        static final PropertyDescription<Long> RETRY_BACKOFF_MS =
+                PropertyDescriptions.longProperty("retryBackoffMs").
+                        withDefaultValue(100L).
+                        withValidator(Validators.greaterOrEquals(0L)).
+                        build();
+
+        static final PropertyDescription<Long> MAX_RETRY_BACKOFF_MS =
+                PropertyDescriptions.longProperty("maxRetryBackoffMs").
+                        withDefaultValue(5_000L).
+                        withValidator(Validators.greaterOrEquals(0L)).
+                        build();
+
+        static final PropertyDescription<Integer> RETRY_LIMIT =
+                PropertyDescriptions.integerProperty("retryLimit").
+                        withDefaultValue(10).
+                        withValidator(Validators.greaterOrEquals(0)).
+                        build();
+
+        static final PropertyDescription<String> DEAD_LETTER_STREAM =
+                PropertyDescriptions.stringProperty("stream").
+                        withDefaultValue(null).
+                        build();
+
+        static final PropertyDescription<Long> DEAD_LETTER_SEND_TIMEOUT_MS =
+                PropertyDescriptions.longProperty("sendTimeoutMs").
+                        withDefaultValue(5_000L).
+                        withValidator(Validators.greaterOrEquals(0L)).
+                        build();
+
+        static final PropertyDescription<Boolean> PAUSE_ON_UNAVAILABLE =
+                PropertyDescriptions.booleanProperty("pauseOnUnavailable").
+                        withDefaultValue(false).
+                        build();
     }
 }
@@ -0,0 +1,39 @@
+package ru.kontur.vostok.hercules.sink;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Properties;
+
+public class AimdBatchSizePolicyTest {
+    @Test
+    public void shouldIncreaseAdditivelyAndDecreaseMultiplicatively() {
+        Properties properties = new Properties();
+        properties.setProperty("minBatchSize", "100");
+        properties.setProperty("additiveIncrease", "100");
+        properties.setProperty("decreasePercent", "50");
+        properties.setProperty("targetLatencyMs", "1000");
+
+        AimdBatchSizePolicy policy = new AimdBatchSizePolicy(350, properties);
+        Assert.assertEquals(100, policy.batchSize());
+
+        policy.update(100, ProcessorResult.ok(100, 0), 10);
+        Assert.assertEquals(200, policy.batchSize());
+
+        policy.update(50, ProcessorResult.ok(50, 0), 10);
+        Assert.assertEquals("Should not increase if batch is not full", 200, policy.batchSize());
+
+        policy.update(200, ProcessorResult.ok(200, 0), 10);
+        policy.update(300, ProcessorResult.ok(300, 0), 10);
+        Assert.assertEquals("Should not exceed max batch size", 350, policy.batchSize());
+
+        policy.update(350, ProcessorResult.ok(350, 0), 1500);
+        Assert.assertEquals(175, policy.batchSize());
+
+        policy.update(175, ProcessorResult.fail(), 10);
+        Assert.assertEquals(100, policy.batchSize());
+
+        policy.update(100, ProcessorResult.fail(), 10);
+        Assert.assertEquals("Should not be less than min batch size", 100, policy.batchSize());
+    }
+}
@@ -0,0 +1,59 @@
+package ru.kontur.vostok.hercules.sink;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.Assert;
+import org.junit.Test;
+import ru.kontur.vostok.hercules.kafka.util.serialization.EventDeserializer;
+import ru.kontur.vostok.hercules.protocol.Event;
+import ru.kontur.vostok.hercules.protocol.Variant;
+import ru.kontur.vostok.hercules.protocol.util.EventBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+public class BatchDeserializerTest {
+    @Test
+    public void shouldDeserializeInOrderConcurrently() {
+        List<ConsumerRecord<UUID, byte[]>> records = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) {
+            byte[] data = (i % 100 == 0) ? new byte[]{0x01, 0x02} : createEvent(i).getBytes();
+            records.add(new ConsumerRecord<>("test", 0, i, null, data));
+        }
+
+        BatchDeserializer deserializer = new BatchDeserializer(EventDeserializer.parseAllTags(), 4);
+        try {
+            Event[] events = deserializer.deserialize(records);
+
+            Assert.assertEquals(records.size(), events.length);
+            for (int i = 0; i < events.length; i++) {
+                if (i % 100 == 0) {
+                    Assert.assertNull(events[i]);
+                } else {
+                    Assert.assertEquals(i, (int) events[i].getPayload().get("index").getValue());
+                }
+            }
+        } finally {
+            deserializer.stop(1_000L, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Test
+    public void shouldTreatNullValueAsNonDeserializable() {
+        List<ConsumerRecord<UUID, byte[]>> records = new ArrayList<>();
+        records.add(new ConsumerRecord<>("test", 0, 0, null, null));
+        records.add(new ConsumerRecord<>("test", 0, 1, null, createEvent(1).getBytes()));
+
+        Event[] events = new BatchDeserializer(EventDeserializer.parseAllTags(), 1).deserialize(records);
+
+        Assert.assertNull(events[0]);
+        Assert.assertNotNull(events[1]);
+    }
+
+    private static Event createEvent(int index) {
+        return EventBuilder.create(0, UUID.randomUUID())
+                .tag("index", Variant.ofInteger(index))
+                .build();
+    }
+}
@@ -0,0 +1,46 @@
+package ru.kontur.vostok.hercules.sink;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Assert;
+import org.junit.Test;
+import ru.kontur.vostok.hercules.protocol.Event;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+public class EventBufferTest {
+    @Test
+    public void shouldCommitOffsetsOfProcessedEventsOnly() {
+        List<ConsumerRecord<UUID, byte[]>> records = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            records.add(new ConsumerRecord<>("test", 0, 10 + i, null, new byte[0]));
+            records.add(new ConsumerRecord<>("test", 1, 20 + i, null, new byte[0]));
+        }
+
+        EventBuffer buffer = new EventBuffer();
+        buffer.add(records, new Event[records.size()]);
+
+        List<PolledEvent> batch = buffer.take(3);
+        Assert.assertEquals(3, batch.size());
+
+        Map<TopicPartition, OffsetAndMetadata> offsets = buffer.offsetsToCommit();
+        Assert.assertEquals(12, offsets.get(new TopicPartition("test", 0)).offset());
+        Assert.assertEquals(21, offsets.get(new TopicPartition("test", 1)).offset());
+        buffer.committed(offsets);
+
+        batch = buffer.take(2);
+        buffer.returnBack(batch);
+        offsets = buffer.offsetsToCommit();
+        Assert.assertTrue("Nothing has been processed since the last commit", offsets.isEmpty());
+
+        buffer.take(10);
+        Assert.assertTrue(buffer.isEmpty());
+        offsets = buffer.offsetsToCommit();
+        Assert.assertEquals(13, offsets.get(new TopicPartition("test", 0)).offset());
+        Assert.assertEquals(23, offsets.get(new TopicPartition("test", 1)).offset());
+    }
+}
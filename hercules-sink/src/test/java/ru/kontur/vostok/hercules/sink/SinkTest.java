@@ -0,0 +1,338 @@
+package ru.kontur.vostok.hercules.sink;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.SlidingWindowReservoir;
+import com.codahale.metrics.Timer;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import ru.kontur.vostok.hercules.health.MetricsCollector;
+import ru.kontur.vostok.hercules.kafka.util.serialization.EventDeserializer;
+import ru.kontur.vostok.hercules.protocol.Event;
+import ru.kontur.vostok.hercules.protocol.Variant;
+import ru.kontur.vostok.hercules.protocol.util.EventBuilder;
+import ru.kontur.vostok.hercules.util.PatternMatcher;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SinkTest {
+    private static final String STREAM = "test_stream";
+    private static final TopicPartition PARTITION = new TopicPartition(STREAM, 0);
+
+    private final MockConsumer<UUID, byte[]> consumer = new MockConsumer<UUID, byte[]>(OffsetResetStrategy.EARLIEST) {
+        @Override
+        public synchronized void subscribe(Pattern pattern, ConsumerRebalanceListener listener) {
+            rebalanceListener = listener;
+            super.subscribe(pattern, listener);
+        }
+    };
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final MetricsCollector metricsCollector = mock(MetricsCollector.class);
+
+    /**
+     * Non-empty batches are passed to the processor
+     */
+    private final List<List<Event>> batches = new CopyOnWriteArrayList<>();
+    /**
+     * Committed offset of the partition when the processor is called
+     */
+    private final List<Long> committedOffsets = new CopyOnWriteArrayList<>();
+
+    /**
+     * MockConsumer does not invoke rebalance callbacks, thus they are invoked by the test
+     */
+    private volatile ConsumerRebalanceListener rebalanceListener;
+
+    private TestProcessor processor;
+    private Sink sink;
+
+    @Before
+    public void setUp() {
+        when(metricsCollector.meter(anyString())).thenReturn(new Meter());
+        when(metricsCollector.histogram(anyString())).thenReturn(new Histogram(new SlidingWindowReservoir(1)));
+        when(metricsCollector.timer(anyString())).thenReturn(new Timer());
+
+        consumer.updatePartitions(STREAM, Collections.singletonList(new PartitionInfo(STREAM, 0, null, null, null)));
+        consumer.updateBeginningOffsets(Collections.singletonMap(PARTITION, 0L));
+    }
+
+    @After
+    public void tearDown() {
+        if (sink != null) {
+            sink.stop();
+        }
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void shouldCommitProcessedEventsAndRetryFailedOnly() throws Exception {
+        List<Event> events = events(3);
+        List<Set<TopicPartition>> pausedDuringBackoff = new CopyOnWriteArrayList<>();
+        consumer.schedulePollTask(() -> addRecords(events));
+        consumer.schedulePollTask(() -> pausedDuringBackoff.add(new HashSet<>(consumer.paused())));
+
+        start(properties(10), batch -> batches.size() == 1
+                ? ProcessorResult.partial(2, 0, Collections.singletonList(batch.get(1)))
+                : ProcessorResult.ok(batch.size(), 0));
+
+        awaitCommittedOffset(3);
+
+        Assert.assertEquals(2, batches.size());
+        Assert.assertEquals(ids(events), ids(batches.get(0)));
+        Assert.assertEquals(ids(events.subList(1, 2)), ids(batches.get(1)));
+        Assert.assertEquals("Events before the failed one are committed before retry", Long.valueOf(1), committedOffsets.get(1));
+        Assert.assertEquals(
+                "Partitions are paused during backoff",
+                Collections.singletonList(Collections.singleton(PARTITION)),
+                pausedDuringBackoff);
+        Assert.assertTrue("Partitions are resumed after backoff", consumer.paused().isEmpty());
+    }
+
+    @Test
+    public void shouldRejectFailedEventsIfRetryLimitIsExceeded() throws Exception {
+        List<Event> events = events(3);
+        consumer.schedulePollTask(() -> addRecords(events));
+
+        UUID failed = events.get(1).getUuid();
+        start(properties(2), batch -> {
+            for (Event event : batch) {
+                if (event.getUuid().equals(failed)) {
+                    return ProcessorResult.partial(batch.size() - 1, 0, Collections.singletonList(event));
+                }
+            }
+            return ProcessorResult.ok(batch.size(), 0);
+        });
+
+        awaitCommittedOffset(3);
+
+        Assert.assertEquals("Event is processed once and retried twice", 3, batches.size());
+        Assert.assertEquals(ids(events.subList(1, 2)), ids(batches.get(1)));
+        Assert.assertEquals(ids(events.subList(1, 2)), ids(batches.get(2)));
+    }
+
+    @Test
+    public void shouldSendRejectedEventsToDeadLetterBeforeCommit() throws Exception {
+        List<Event> events = events(3);
+        consumer.schedulePollTask(() -> addRecords(events));
+
+        DeadLetterProducer deadLetterProducer = mock(DeadLetterProducer.class);
+        List<UUID> deadLetterEvents = new CopyOnWriteArrayList<>();
+        List<Long> offsetsOnDeadLetterSend = new CopyOnWriteArrayList<>();
+        when(deadLetterProducer.send(any(), eq(DeadLetterProducer.Reason.REJECTED))).thenAnswer(invocation -> {
+            ConsumerRecord<UUID, byte[]> record = invocation.getArgument(0);
+            deadLetterEvents.add(record.key());
+            OffsetAndMetadata committed = consumer.committed(PARTITION);
+            offsetsOnDeadLetterSend.add(committed != null ? committed.offset() : -1L);
+            return CompletableFuture.completedFuture(null);
+        });
+
+        start(properties(10), deadLetterProducer, batch -> ProcessorResult.ok(2, 1, Collections.singletonList(batch.get(1))));
+
+        awaitCommittedOffset(3);
+
+        Assert.assertEquals(ids(events.subList(1, 2)), deadLetterEvents);
+        Assert.assertEquals("Rejected event is sent before commit", Collections.singletonList(-1L), offsetsOnDeadLetterSend);
+    }
+
+    @Test
+    public void shouldKeepPartitionsPausedWhileProcessorIsUnavailableAndReplayRetainedEvents() throws Exception {
+        List<Event> events = events(3);
+        List<Set<TopicPartition>> assignedOnPausedPolls = new CopyOnWriteArrayList<>();
+        List<Set<TopicPartition>> pausedOnPausedPolls = new CopyOnWriteArrayList<>();
+        consumer.schedulePollTask(() -> addRecords(events));
+        for (int i = 0; i < 3; i++) {
+            consumer.schedulePollTask(() -> {
+                assignedOnPausedPolls.add(new HashSet<>(consumer.assignment()));
+                pausedOnPausedPolls.add(new HashSet<>(consumer.paused()));
+            });
+        }
+
+        start(pausableProperties(), batch -> {
+            if (batches.size() == 1) {
+                processor.disable();
+                return ProcessorResult.fail();
+            }
+            return ProcessorResult.ok(batch.size(), 0);
+        });
+
+        await(() -> pausedOnPausedPolls.size() == 3);
+        Assert.assertEquals("Only the first batch is processed while the processor is unavailable", 1, batches.size());
+        processor.enable();
+
+        awaitCommittedOffset(3);
+
+        Set<TopicPartition> partitions = Collections.singleton(PARTITION);
+        Assert.assertEquals(
+                "Partitions stay assigned while the processor is unavailable",
+                Collections.nCopies(3, partitions),
+                assignedOnPausedPolls);
+        Assert.assertEquals(
+                "Partitions are paused while the processor is unavailable",
+                Collections.nCopies(3, partitions),
+                pausedOnPausedPolls);
+        Assert.assertEquals(2, batches.size());
+        Assert.assertEquals("Retained events are replayed", ids(events), ids(batches.get(1)));
+        Assert.assertTrue("Partitions are resumed", consumer.paused().isEmpty());
+    }
+
+    @Test
+    public void shouldDiscardRetainedEventsOnRevocation() throws Exception {
+        List<Event> events = events(3);
+        // Events are re-consumed from the last committed offset by the new owner of the partition,
+        // distinct events are used to distinguish them from retained ones
+        List<Event> reconsumedEvents = events(3);
+        List<Set<TopicPartition>> pausedAfterRebalance = new CopyOnWriteArrayList<>();
+        consumer.schedulePollTask(() -> addRecords(events));
+        consumer.schedulePollTask(() -> {
+            Set<TopicPartition> partitions = Collections.singleton(PARTITION);
+            rebalanceListener.onPartitionsRevoked(partitions);
+            consumer.rebalance(partitions);
+            rebalanceListener.onPartitionsAssigned(partitions);
+            pausedAfterRebalance.add(new HashSet<>(consumer.paused()));
+            processor.enable();
+        });
+        consumer.schedulePollTask(() -> addRecords(reconsumedEvents));
+
+        start(pausableProperties(), batch -> {
+            if (batches.size() == 1) {
+                processor.disable();
+                return ProcessorResult.fail();
+            }
+            return ProcessorResult.ok(batch.size(), 0);
+        });
+
+        awaitCommittedOffset(3);
+
+        Assert.assertEquals(
+                "Newly assigned partitions are paused",
+                Collections.singletonList(Collections.singleton(PARTITION)),
+                pausedAfterRebalance);
+        Assert.assertEquals(2, batches.size());
+        Assert.assertEquals("Retained events are discarded", ids(reconsumedEvents), ids(batches.get(1)));
+    }
+
+    private void start(Properties properties, Function<List<Event>, ProcessorResult> result) {
+        start(properties, null, result);
+    }
+
+    private void start(
+            Properties properties,
+            DeadLetterProducer deadLetterProducer,
+            Function<List<Event>, ProcessorResult> result) {
+        processor = new TestProcessor(result);
+        sink = new Sink(
+                executor,
+                "test",
+                properties,
+                processor,
+                Collections.singletonList(new PatternMatcher(STREAM)),
+                EventDeserializer.parseAllTags(),
+                BatchSizePolicies.fromProperties(10, new Properties()),
+                consumer,
+                deadLetterProducer,
+                metricsCollector);
+        sink.start();
+    }
+
+    private void awaitCommittedOffset(long offset) throws InterruptedException {
+        await(() -> {
+            OffsetAndMetadata committed = consumer.committed(PARTITION);
+            return committed != null && committed.offset() == offset;
+        });
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            Assert.assertTrue("Condition is not met in time", System.nanoTime() < deadline);
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+    }
+
+    private void addRecords(List<Event> events) {
+        for (int i = 0; i < events.size(); i++) {
+            Event event = events.get(i);
+            consumer.addRecord(new ConsumerRecord<>(STREAM, 0, i, event.getUuid(), event.getBytes()));
+        }
+    }
+
+    private static Properties pausableProperties() {
+        Properties properties = properties(10);
+        properties.setProperty("pauseOnUnavailable", "true");
+        properties.setProperty("availabilityTimeoutMs", "10");
+        return properties;
+    }
+
+    private static Properties properties(int retryLimit) {
+        Properties properties = new Properties();
+        properties.setProperty("retryBackoffMs", "50");
+        properties.setProperty("retryLimit", String.valueOf(retryLimit));
+        return properties;
+    }
+
+    private static List<Event> events(int count) {
+        List<Event> events = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            events.add(EventBuilder.create(0, UUID.randomUUID())
+                    .tag("index", Variant.ofInteger(i))
+                    .build());
+        }
+        return events;
+    }
+
+    private static List<UUID> ids(List<Event> events) {
+        List<UUID> ids = new ArrayList<>(events.size());
+        for (Event event : events) {
+            ids.add(event.getUuid());
+        }
+        return ids;
+    }
+
+    private class TestProcessor extends Processor {
+        private final Function<List<Event>, ProcessorResult> result;
+
+        TestProcessor(Function<List<Event>, ProcessorResult> result) {
+            this.result = result;
+        }
+
+        @Override
+        public ProcessorResult process(List<Event> events) {
+            if (events.isEmpty()) {
+                return ProcessorResult.ok(0, 0);
+            }
+            OffsetAndMetadata committed = consumer.committed(PARTITION);
+            committedOffsets.add(committed != null ? committed.offset() : -1L);
+            batches.add(events);
+            return result.apply(events);
+        }
+    }
+}
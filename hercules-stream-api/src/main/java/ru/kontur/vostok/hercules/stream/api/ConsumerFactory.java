@@ -0,0 +1,62 @@
+package ru.kontur.vostok.hercules.stream.api;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.serialization.Deserializer;
+import ru.kontur.vostok.hercules.util.properties.PropertyDescription;
+import ru.kontur.vostok.hercules.util.properties.PropertyDescriptions;
+import ru.kontur.vostok.hercules.util.validation.Validators;
+
+import java.util.Properties;
+
+/**
+ * Creates Kafka consumers with the same settings for the fetch engine, the tail cache and the offset bounds cache.
+ * <p>
+ * Consumers are owned by callers, so callers are responsible for closing them.
+ *
+ * @author Gregory Koshelev
+ */
+public class ConsumerFactory<K, V> {
+    private final Deserializer<K> keyDeserializer;
+    private final Deserializer<V> valueDeserializer;
+
+    private final String bootstrapServers;
+    private final int maxPollRecords;
+
+    public ConsumerFactory(Properties properties, Deserializer<K> keyDeserializer, Deserializer<V> valueDeserializer) {
+        this.keyDeserializer = keyDeserializer;
+        this.valueDeserializer = valueDeserializer;
+
+        bootstrapServers = Props.BOOTSTRAP_SERVERS.extract(properties);
+        maxPollRecords = Props.MAX_POLL_RECORDS.extract(properties);
+    }
+
+    /**
+     * Create new consumer.
+     *
+     * @return new consumer
+     */
+    public Consumer<K, V> create() {
+        Properties consumerProperties = new Properties();
+        consumerProperties.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        consumerProperties.put(ConsumerConfig.GROUP_ID_CONFIG, "stub");
+        consumerProperties.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        consumerProperties.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, maxPollRecords);
+        // Reading from the offset which is out of range (e.g. due to retention) starts from the beginning of the partition
+        consumerProperties.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+
+        return new KafkaConsumer<K, V>(consumerProperties, keyDeserializer, valueDeserializer);
+    }
+
+    static final class Props {
+        static final PropertyDescription<String> BOOTSTRAP_SERVERS =
+                PropertyDescriptions.stringProperty("bootstrap.servers").build();
+
+        static final PropertyDescription<Integer> MAX_POLL_RECORDS =
+                PropertyDescriptions.integerProperty("max.poll.records").
+                        withDefaultValue(10_000).
+                        withValidator(Validators.interval(1, 100_000)).
+                        build();
+    }
+}
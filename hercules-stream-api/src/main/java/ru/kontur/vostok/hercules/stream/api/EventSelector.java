@@ -0,0 +1,108 @@
+package ru.kontur.vostok.hercules.stream.api;
+
+import ru.kontur.vostok.hercules.meta.filter.Filter;
+import ru.kontur.vostok.hercules.protocol.Container;
+import ru.kontur.vostok.hercules.protocol.Variant;
+import ru.kontur.vostok.hercules.protocol.decoder.Decoder;
+import ru.kontur.vostok.hercules.protocol.decoder.VariantReader;
+import ru.kontur.vostok.hercules.protocol.encoder.Encoder;
+import ru.kontur.vostok.hercules.util.Maps;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Selects events of the stream by filters and projects them to the set of tags.
+ * <p>
+ * Event is inspected on the byte level in the single pass: only tags are used by filters are decoded,
+ * other tags are skipped. Projected event is built from raw bytes of retained tags without re-encoding of them.
+ */
+public class EventSelector {
+    private static final VariantReader VARIANT_READER = VariantReader.INSTANCE;
+
+    /**
+     * Version (1 byte) + timestamp (8 bytes) + random UUID (16 bytes)
+     */
+    private static final int EVENT_HEADER_SIZE = 25;
+
+    private final Filter[] filters;
+    private final Set<String> filterTags;
+    private final Set<String> tags;
+
+    /**
+     * @param filters filters are applied with AND semantics
+     * @param tags    tags to retain in the event or {@code null} if all tags should be retained
+     */
+    public EventSelector(Filter[] filters, Set<String> tags) {
+        this.filters = filters;
+        this.filterTags = new HashSet<>(filters.length);
+        for (Filter filter : filters) {
+            filterTags.add(filter.getHPath().getRootTag());
+        }
+        this.tags = tags;
+    }
+
+    /**
+     * Apply filters and projection to the event.
+     *
+     * @param event the event bytes
+     * @return the selected event bytes or {@code null} if the event does not match filters
+     */
+    public byte[] apply(byte[] event) {
+        Decoder decoder = new Decoder(event);
+        decoder.skip(EVENT_HEADER_SIZE);
+
+        int size = decoder.readContainerSize();
+        Map<String, Variant> variants = new HashMap<>(Maps.effectiveHashMapCapacity(filterTags.size()));
+        int[] retainedRanges = (tags != null) ? new int[2 * size] : null;
+        int retainedCount = 0;
+
+        for (int i = 0; i < size; i++) {
+            int from = decoder.position();
+            String tagName = decoder.readTinyString();
+            if (filterTags.contains(tagName)) {
+                variants.put(tagName, VARIANT_READER.read(decoder));
+            } else {
+                VARIANT_READER.skip(decoder);
+            }
+            if (tags != null && tags.contains(tagName)) {
+                retainedRanges[2 * retainedCount] = from;
+                retainedRanges[2 * retainedCount + 1] = decoder.position();
+                retainedCount++;
+            }
+        }
+
+        Container container = new Container(variants);
+        for (Filter filter : filters) {
+            if (!filter.test(container)) {
+                return null;
+            }
+        }
+
+        if (tags == null) {
+            return event;
+        }
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream(event.length);
+        stream.write(event, 0, EVENT_HEADER_SIZE);
+        Encoder encoder = new Encoder(stream);
+        encoder.writeContainerSize(retainedCount);
+        for (int i = 0; i < retainedCount; i++) {
+            int from = retainedRanges[2 * i];
+            stream.write(event, from, retainedRanges[2 * i + 1] - from);
+        }
+        return stream.toByteArray();
+    }
+
+    /**
+     * Check if the selector does nothing with events.
+     *
+     * @return {@code true} if there are no filters and no projection
+     */
+    public boolean isIdentity() {
+        return filters.length == 0 && tags == null;
+    }
+}
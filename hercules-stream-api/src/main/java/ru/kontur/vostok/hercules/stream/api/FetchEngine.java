@@ -0,0 +1,383 @@
+package ru.kontur.vostok.hercules.stream.api;
+
+import com.codahale.metrics.Meter;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.kontur.vostok.hercules.health.MetricsCollector;
+import ru.kontur.vostok.hercules.util.concurrent.ThreadFactories;
+import ru.kontur.vostok.hercules.util.properties.PropertyDescription;
+import ru.kontur.vostok.hercules.util.properties.PropertyDescriptions;
+import ru.kontur.vostok.hercules.util.validation.IntegerValidators;
+import ru.kontur.vostok.hercules.util.validation.LongValidators;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Fetches events from Kafka for many concurrent readers.
+ * <p>
+ * Partitions are distributed between fetchers. Each fetcher owns the long-lived consumer and reads only its partitions.
+ * Fetch requests to the same partition are batched: the fetcher seeks to the minimal requested offset
+ * and serves all pending requests of the partition from polled records.
+ * Requests are completed asynchronously when records are fetched or the timeout is elapsed,
+ * thus readers do not hold a consumer while waiting.
+ * <p>
+ * Partitions without pending requests are paused and are unassigned if they are not requested for the idle timeout.
+ */
+public class FetchEngine {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FetchEngine.class);
+
+    private final long idleTimeoutMs;
+    private final long pollTimeoutMs;
+
+    private final Fetcher[] fetchers;
+    private final ExecutorService executor;
+
+    private final AtomicInteger pendingRequests = new AtomicInteger();
+    private final Meter fetchRequestsMeter;
+
+    private volatile boolean running;
+
+    /**
+     * @param properties       engine properties
+     * @param consumerFactory  the factory of consumers are owned by fetchers
+     * @param metricsCollector metrics collector
+     */
+    public FetchEngine(Properties properties, Supplier<Consumer<Void, byte[]>> consumerFactory, MetricsCollector metricsCollector) {
+        this.idleTimeoutMs = Props.IDLE_TIMEOUT_MS.extract(properties);
+        this.pollTimeoutMs = Props.POLL_TIMEOUT_MS.extract(properties);
+
+        int fetcherCount = Props.FETCHER_COUNT.extract(properties);
+        this.fetchers = new Fetcher[fetcherCount];
+        for (int i = 0; i < fetcherCount; i++) {
+            fetchers[i] = new Fetcher(consumerFactory.get());
+        }
+        this.executor = Executors.newFixedThreadPool(fetcherCount, ThreadFactories.newNamedThreadFactory("fetcher"));
+
+        this.fetchRequestsMeter = metricsCollector.meter("fetchRequests");
+        metricsCollector.gauge("fetchPendingRequests", pendingRequests::get);
+    }
+
+    public void start() {
+        running = true;
+        for (Fetcher fetcher : fetchers) {
+            executor.submit(fetcher);
+        }
+    }
+
+    public void stop(long timeout, TimeUnit unit) {
+        running = false;
+        for (Fetcher fetcher : fetchers) {
+            fetcher.consumer.wakeup();
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(timeout, unit)) {
+                LOGGER.warn("Fetchers did not stop in time");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Fetch records of the partition starting from the offset.
+     * <p>
+     * If the offset is out of range of the partition, then records are fetched from the beginning of it.
+     * The future is completed with the empty list if there are no records for the timeout.
+     * It can be completed by the caller too if records are not needed anymore.
+     *
+     * @param partition the partition
+     * @param offset    the offset to fetch from
+     * @param limit     the maximum count of records to fetch
+     * @param timeoutMs the maximum time to wait for records in millis
+     * @return the future of fetched records
+     */
+    public CompletableFuture<List<ConsumerRecord<Void, byte[]>>> fetch(TopicPartition partition, long offset, int limit, long timeoutMs) {
+        FetchRequest request = new FetchRequest(partition, offset, limit, System.currentTimeMillis() + timeoutMs);
+
+        pendingRequests.incrementAndGet();
+        request.future.whenComplete((r, t) -> pendingRequests.decrementAndGet());
+        fetchRequestsMeter.mark();
+
+        fetchers[Math.floorMod(partition.hashCode(), fetchers.length)].submit(request);
+        return request.future;
+    }
+
+    private static class FetchRequest {
+        private final TopicPartition partition;
+        private final long offset;
+        private final int limit;
+        private final long deadlineMs;
+        private final CompletableFuture<List<ConsumerRecord<Void, byte[]>>> future = new CompletableFuture<>();
+
+        FetchRequest(TopicPartition partition, long offset, int limit, long deadlineMs) {
+            this.partition = partition;
+            this.offset = offset;
+            this.limit = limit;
+            this.deadlineMs = deadlineMs;
+        }
+    }
+
+    private class Fetcher implements Runnable {
+        private final Consumer<Void, byte[]> consumer;
+        private final BlockingQueue<FetchRequest> incoming = new LinkedBlockingQueue<>();
+        /**
+         * The fetcher is blocked in the poll and should be woken up to accept new requests
+         */
+        private final AtomicBoolean polling = new AtomicBoolean();
+
+        /*
+         * State below is confined to the fetcher thread
+         */
+        private final Map<TopicPartition, List<FetchRequest>> pending = new HashMap<>();
+        /**
+         * Partitions are requested recently with the last request time
+         */
+        private final Map<TopicPartition, Long> lastRequestedMs = new HashMap<>();
+        /**
+         * Offsets the next records of partitions are fetched from
+         */
+        private final Map<TopicPartition, Long> positions = new HashMap<>();
+        private Set<TopicPartition> assigned = new HashSet<>();
+
+        Fetcher(Consumer<Void, byte[]> consumer) {
+            this.consumer = consumer;
+        }
+
+        /**
+         * Submit the request to the fetcher.
+         * <p>
+         * The consumer is woken up only if the fetcher is blocked in the poll, and only once per poll.
+         * The idle fetcher waits for requests on the queue, so it is not needed to wake it up.
+         *
+         * @param request the request
+         */
+        void submit(FetchRequest request) {
+            incoming.add(request);
+            if (polling.compareAndSet(true, false)) {
+                consumer.wakeup();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    long now = System.currentTimeMillis();
+                    FetchRequest request;
+                    while ((request = incoming.poll()) != null) {
+                        accept(request, now);
+                    }
+                    long timeoutMs = Math.max(0L, Math.min(pollTimeoutMs, expire(now) - now));
+                    evictIdle(now);
+
+                    if (lastRequestedMs.isEmpty()) {
+                        request = incoming.poll(pollTimeoutMs, TimeUnit.MILLISECONDS);
+                        if (request != null) {
+                            accept(request, System.currentTimeMillis());
+                        }
+                        continue;
+                    }
+
+                    updateAssignment();
+
+                    ConsumerRecords<Void, byte[]> records;
+                    polling.set(true);
+                    try {
+                        /* Requests could be submitted before the fetcher started polling and have not woken it up */
+                        if (!incoming.isEmpty()) {
+                            continue;
+                        }
+                        records = consumer.poll(Duration.ofMillis(timeoutMs));
+                    } finally {
+                        polling.set(false);
+                    }
+                    for (TopicPartition partition : records.partitions()) {
+                        dispatch(partition, records.records(partition));
+                    }
+                } catch (WakeupException ex) {
+                    /* New requests are submitted or the fetcher is stopping */
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (Exception ex) {
+                    LOGGER.error("Fetcher failed, pending requests are dropped", ex);
+                    reset(ex);
+                }
+            }
+
+            FetchRequest request;
+            while ((request = incoming.poll()) != null) {
+                accept(request, System.currentTimeMillis());
+            }
+            reset(new IllegalStateException("Fetch engine is stopped"));
+            consumer.close();
+        }
+
+        private void accept(FetchRequest request, long now) {
+            lastRequestedMs.put(request.partition, now);
+            pending.computeIfAbsent(request.partition, p -> new ArrayList<>()).add(request);
+        }
+
+        /**
+         * Complete expired requests with no records.
+         *
+         * @param now current time in millis
+         * @return the nearest deadline of pending requests
+         */
+        private long expire(long now) {
+            long nearestDeadlineMs = Long.MAX_VALUE;
+            for (Iterator<List<FetchRequest>> it = pending.values().iterator(); it.hasNext(); ) {
+                List<FetchRequest> requests = it.next();
+                for (Iterator<FetchRequest> requestIt = requests.iterator(); requestIt.hasNext(); ) {
+                    FetchRequest request = requestIt.next();
+                    if (request.deadlineMs <= now) {
+                        request.future.complete(Collections.emptyList());
+                    }
+                    if (request.future.isDone()) {
+                        requestIt.remove();
+                    } else {
+                        nearestDeadlineMs = Math.min(nearestDeadlineMs, request.deadlineMs);
+                    }
+                }
+                if (requests.isEmpty()) {
+                    it.remove();
+                }
+            }
+            return nearestDeadlineMs;
+        }
+
+        private void evictIdle(long now) {
+            lastRequestedMs.entrySet().removeIf(e -> now - e.getValue() > idleTimeoutMs && !pending.containsKey(e.getKey()));
+        }
+
+        /**
+         * Assign requested partitions, seek them to minimal requested offsets and pause partitions without requests.
+         */
+        private void updateAssignment() {
+            if (!lastRequestedMs.keySet().equals(assigned)) {
+                assigned = new HashSet<>(lastRequestedMs.keySet());
+                consumer.assign(assigned);
+                positions.keySet().retainAll(assigned);
+            }
+
+            List<TopicPartition> toPause = new ArrayList<>();
+            List<TopicPartition> toResume = new ArrayList<>();
+            for (TopicPartition partition : assigned) {
+                List<FetchRequest> requests = pending.get(partition);
+                if (requests == null) {
+                    toPause.add(partition);
+                    continue;
+                }
+
+                long offset = Long.MAX_VALUE;
+                for (FetchRequest request : requests) {
+                    offset = Math.min(offset, request.offset);
+                }
+                Long position = positions.get(partition);
+                if (position == null || position != offset) {
+                    consumer.seek(partition, offset);
+                    positions.put(partition, offset);
+                }
+                toResume.add(partition);
+            }
+            consumer.pause(toPause);
+            consumer.resume(toResume);
+        }
+
+        /**
+         * Serve pending requests of the partition from polled records.
+         * <p>
+         * Requests from the offset the records are fetched from receive records as is,
+         * even if offsets of them are greater due to out of range reset or compaction.
+         * Other requests receive records starting from their offsets.
+         */
+        private void dispatch(TopicPartition partition, List<ConsumerRecord<Void, byte[]>> records) {
+            long fetchedFrom = positions.get(partition);
+            positions.put(partition, records.get(records.size() - 1).offset() + 1);
+
+            List<FetchRequest> requests = pending.get(partition);
+            if (requests == null) {
+                return;
+            }
+            for (Iterator<FetchRequest> it = requests.iterator(); it.hasNext(); ) {
+                FetchRequest request = it.next();
+                int from = 0;
+                if (request.offset > fetchedFrom) {
+                    while (from < records.size() && records.get(from).offset() < request.offset) {
+                        from++;
+                    }
+                    if (from == records.size()) {
+                        continue;
+                    }
+                }
+                int to = Math.min(records.size(), from + request.limit);
+                request.future.complete(records.subList(from, to));
+                it.remove();
+            }
+            if (requests.isEmpty()) {
+                pending.remove(partition);
+            }
+        }
+
+        private void reset(Exception ex) {
+            for (List<FetchRequest> requests : pending.values()) {
+                for (FetchRequest request : requests) {
+                    request.future.completeExceptionally(ex);
+                }
+            }
+            pending.clear();
+            lastRequestedMs.clear();
+            positions.clear();
+            assigned = new HashSet<>();
+            try {
+                consumer.assign(Collections.emptyList());
+            } catch (Exception e) {
+                LOGGER.warn("Cannot unassign partitions", e);
+            }
+        }
+    }
+
+    private static class Props {
+        static final PropertyDescription<Integer> FETCHER_COUNT =
+                PropertyDescriptions.integerProperty("fetcherCount").
+                        withDefaultValue(4).
+                        withValidator(IntegerValidators.positive()).
+                        build();
+
+        static final PropertyDescription<Long> IDLE_TIMEOUT_MS =
+                PropertyDescriptions.longProperty("idleTimeoutMs").
+                        withDefaultValue(60_000L).
+                        withValidator(LongValidators.positive()).
+                        build();
+
+        static final PropertyDescription<Long> POLL_TIMEOUT_MS =
+                PropertyDescriptions.longProperty("pollTimeoutMs").
+                        withDefaultValue(100L).
+                        withValidator(LongValidators.positive()).
+                        build();
+    }
+}
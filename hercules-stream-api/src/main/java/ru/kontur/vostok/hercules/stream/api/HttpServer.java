@@ -1,7 +1,6 @@
 package ru.kontur.vostok.hercules.stream.api;
 
 import io.undertow.Undertow;
-import io.undertow.server.HttpHandler;
 import ru.kontur.vostok.hercules.auth.AuthManager;
 import ru.kontur.vostok.hercules.health.MetricsCollector;
 import ru.kontur.vostok.hercules.undertow.util.handlers.HerculesRoutingHandler;
@@ -28,19 +27,27 @@ public class HttpServer {
 
     private final Undertow undertow;
 
+    /**
+     * @param subscribeStreamHandler the handler of subscriptions or {@code null} if the tail cache is disabled,
+     *                               since subscriptions cannot await new events without the cache
+     */
     public HttpServer(
             Properties properties,
             AuthManager authManager,
             ReadStreamHandler readStreamHandler,
+            ReadStreamHandler subscribeStreamHandler,
             SeekToEndHandler seekToEndHandler,
             MetricsCollector metricsCollector
     ) {
         final String host = Props.HOST.extract(properties);
         final int port = Props.PORT.extract(properties);
 
-        HttpHandler handler = new HerculesRoutingHandler(metricsCollector).
+        HerculesRoutingHandler handler = new HerculesRoutingHandler(metricsCollector).
                 post("/stream/read", readStreamHandler).
                 get("/stream/seekToEnd", seekToEndHandler);
+        if (subscribeStreamHandler != null) {
+            handler.post("/stream/subscribe", subscribeStreamHandler);
+        }
 
         undertow = Undertow
                 .builder()
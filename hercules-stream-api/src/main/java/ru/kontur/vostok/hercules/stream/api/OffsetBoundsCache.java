@@ -0,0 +1,259 @@
+package ru.kontur.vostok.hercules.stream.api;
+
+import com.codahale.metrics.Meter;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.kontur.vostok.hercules.health.MetricsCollector;
+import ru.kontur.vostok.hercules.util.Maps;
+import ru.kontur.vostok.hercules.util.concurrent.ThreadFactories;
+import ru.kontur.vostok.hercules.util.properties.PropertyDescription;
+import ru.kontur.vostok.hercules.util.properties.PropertyDescriptions;
+import ru.kontur.vostok.hercules.util.validation.LongValidators;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache of beginning and end offsets of partitions.
+ * <p>
+ * Bounds of partitions are requested recently are refreshed in the background by a single batch request to brokers.
+ * Bounds are considered stale if they were not refreshed for the staleness bound, and then they are loaded on demand.
+ * Partitions are not requested for the idle timeout are evicted from the cache.
+ * <p>
+ * The consumer is used only by the single thread of the cache.
+ */
+public class OffsetBoundsCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(OffsetBoundsCache.class);
+
+    private final long refreshPeriodMs;
+    private final long maxStalenessMs;
+    private final long idleTimeoutMs;
+
+    private final Consumer<Void, byte[]> consumer;
+    private final ConcurrentHashMap<TopicPartition, Bounds> bounds = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<TopicPartition, Long> lastAccessMs = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService executor =
+            Executors.newSingleThreadScheduledExecutor(ThreadFactories.newNamedThreadFactory("offset-bounds"));
+
+    private final Meter hitsMeter;
+    private final Meter missesMeter;
+
+    public OffsetBoundsCache(Properties properties, Consumer<Void, byte[]> consumer, MetricsCollector metricsCollector) {
+        this.refreshPeriodMs = Props.REFRESH_PERIOD_MS.extract(properties);
+        this.maxStalenessMs = Props.MAX_STALENESS_MS.extract(properties);
+        this.idleTimeoutMs = Props.IDLE_TIMEOUT_MS.extract(properties);
+
+        this.consumer = consumer;
+
+        this.hitsMeter = metricsCollector.meter("offsetBoundsCacheHits");
+        this.missesMeter = metricsCollector.meter("offsetBoundsCacheMisses");
+        metricsCollector.gauge("offsetBoundsCachePartitions", bounds::size);
+    }
+
+    public void start() {
+        executor.scheduleWithFixedDelay(this::refreshAll, refreshPeriodMs, refreshPeriodMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop(long timeout, TimeUnit unit) {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(timeout, unit)) {
+                LOGGER.warn("Offset bounds cache did not stop in time");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        consumer.close();
+    }
+
+    /**
+     * Get cached bounds of partitions without waiting.
+     * <p>
+     * Missing or stale bounds are loaded in the background.
+     *
+     * @param partitions partitions
+     * @return fresh bounds of partitions, missing or stale ones are absent
+     */
+    public Map<TopicPartition, Bounds> getIfPresent(Collection<TopicPartition> partitions) {
+        Map<TopicPartition, Bounds> result = new HashMap<>(Maps.effectiveHashMapCapacity(partitions.size()));
+        List<TopicPartition> missing = collect(partitions, result);
+        if (!missing.isEmpty()) {
+            executeSafely(() -> loadStale(missing));
+        }
+        return result;
+    }
+
+    /**
+     * Get bounds of partitions.
+     * <p>
+     * Missing or stale bounds are loaded before the future is completed.
+     *
+     * @param partitions partitions
+     * @return the future of bounds of partitions, partitions are unknown to brokers are absent
+     */
+    public CompletableFuture<Map<TopicPartition, Bounds>> get(Collection<TopicPartition> partitions) {
+        Map<TopicPartition, Bounds> result = new HashMap<>(Maps.effectiveHashMapCapacity(partitions.size()));
+        List<TopicPartition> missing = collect(partitions, result);
+        if (missing.isEmpty()) {
+            return CompletableFuture.completedFuture(result);
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            loadStale(missing);
+            for (TopicPartition partition : missing) {
+                Bounds partitionBounds = bounds.get(partition);
+                if (partitionBounds != null) {
+                    result.put(partition, partitionBounds);
+                }
+            }
+            return result;
+        }, executor);
+    }
+
+    /**
+     * Force refresh of bounds of the partition, e.g. if the read from the partition hit an out of range offset.
+     *
+     * @param partition the partition
+     */
+    public void refresh(TopicPartition partition) {
+        executeSafely(() -> load(Collections.singletonList(partition)));
+    }
+
+    private List<TopicPartition> collect(Collection<TopicPartition> partitions, Map<TopicPartition, Bounds> result) {
+        long now = System.currentTimeMillis();
+        List<TopicPartition> missing = new ArrayList<>(0);
+        for (TopicPartition partition : partitions) {
+            lastAccessMs.put(partition, now);
+            Bounds partitionBounds = bounds.get(partition);
+            if (partitionBounds != null && isFresh(partitionBounds, now)) {
+                result.put(partition, partitionBounds);
+            } else {
+                missing.add(partition);
+            }
+        }
+        hitsMeter.mark(result.size());
+        missesMeter.mark(missing.size());
+        return missing;
+    }
+
+    /**
+     * Load bounds are still missing or stale, since they could be loaded by previous tasks.
+     */
+    private void loadStale(List<TopicPartition> partitions) {
+        long now = System.currentTimeMillis();
+        List<TopicPartition> stale = new ArrayList<>(partitions.size());
+        for (TopicPartition partition : partitions) {
+            Bounds partitionBounds = bounds.get(partition);
+            if (partitionBounds == null || !isFresh(partitionBounds, now)) {
+                stale.add(partition);
+            }
+        }
+        if (!stale.isEmpty()) {
+            load(stale);
+        }
+    }
+
+    private void load(Collection<TopicPartition> partitions) {
+        Map<TopicPartition, Long> beginningOffsets = consumer.beginningOffsets(partitions);
+        Map<TopicPartition, Long> endOffsets = consumer.endOffsets(partitions);
+
+        long now = System.currentTimeMillis();
+        for (TopicPartition partition : partitions) {
+            Long beginningOffset = beginningOffsets.get(partition);
+            Long endOffset = endOffsets.get(partition);
+            if (beginningOffset != null && endOffset != null) {
+                bounds.put(partition, new Bounds(beginningOffset, endOffset, now));
+            }
+        }
+    }
+
+    /**
+     * Execute the background task, failures are logged since nobody awaits the result.
+     */
+    private void executeSafely(Runnable task) {
+        executor.execute(() -> {
+            try {
+                task.run();
+            } catch (Exception ex) {
+                LOGGER.warn("Cannot refresh offset bounds", ex);
+            }
+        });
+    }
+
+    private boolean isFresh(Bounds partitionBounds, long now) {
+        return now - partitionBounds.updatedAtMs <= maxStalenessMs;
+    }
+
+    private void refreshAll() {
+        try {
+            long now = System.currentTimeMillis();
+            for (Map.Entry<TopicPartition, Long> entry : lastAccessMs.entrySet()) {
+                if (now - entry.getValue() > idleTimeoutMs) {
+                    lastAccessMs.remove(entry.getKey(), entry.getValue());
+                    bounds.remove(entry.getKey());
+                }
+            }
+
+            List<TopicPartition> partitions = new ArrayList<>(lastAccessMs.keySet());
+            if (!partitions.isEmpty()) {
+                load(partitions);
+            }
+        } catch (Exception ex) {
+            LOGGER.warn("Cannot refresh offset bounds", ex);
+        }
+    }
+
+    /**
+     * Beginning and end offsets of the partition.
+     */
+    public static final class Bounds {
+        private final long beginningOffset;
+        private final long endOffset;
+        private final long updatedAtMs;
+
+        Bounds(long beginningOffset, long endOffset, long updatedAtMs) {
+            this.beginningOffset = beginningOffset;
+            this.endOffset = endOffset;
+            this.updatedAtMs = updatedAtMs;
+        }
+
+        public long getBeginningOffset() {
+            return beginningOffset;
+        }
+
+        public long getEndOffset() {
+            return endOffset;
+        }
+    }
+
+    private static class Props {
+        static final PropertyDescription<Long> REFRESH_PERIOD_MS =
+                PropertyDescriptions.longProperty("refreshPeriodMs").
+                        withDefaultValue(1_000L).
+                        withValidator(LongValidators.positive()).
+                        build();
+
+        static final PropertyDescription<Long> MAX_STALENESS_MS =
+                PropertyDescriptions.longProperty("maxStalenessMs").
+                        withDefaultValue(3_000L).
+                        withValidator(LongValidators.positive()).
+                        build();
+
+        static final PropertyDescription<Long> IDLE_TIMEOUT_MS =
+                PropertyDescriptions.longProperty("idleTimeoutMs").
+                        withDefaultValue(60_000L).
+                        withValidator(LongValidators.positive()).
+                        build();
+    }
+}
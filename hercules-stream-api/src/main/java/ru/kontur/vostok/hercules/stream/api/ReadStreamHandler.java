@@ -1,5 +1,7 @@
 package ru.kontur.vostok.hercules.stream.api;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.util.Headers;
@@ -7,12 +9,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ru.kontur.vostok.hercules.auth.AuthManager;
 import ru.kontur.vostok.hercules.auth.AuthResult;
-import ru.kontur.vostok.hercules.curator.exception.CuratorException;
+import ru.kontur.vostok.hercules.http.ContentEncodings;
 import ru.kontur.vostok.hercules.http.MimeTypes;
-import ru.kontur.vostok.hercules.meta.serialization.DeserializationException;
+import ru.kontur.vostok.hercules.meta.filter.Filter;
 import ru.kontur.vostok.hercules.meta.stream.Stream;
-import ru.kontur.vostok.hercules.meta.stream.StreamRepository;
+import ru.kontur.vostok.hercules.meta.stream.StreamStorage;
 import ru.kontur.vostok.hercules.protocol.ByteStreamContent;
+import ru.kontur.vostok.hercules.protocol.StreamReadState;
 import ru.kontur.vostok.hercules.protocol.decoder.Decoder;
 import ru.kontur.vostok.hercules.protocol.decoder.StreamReadStateReader;
 import ru.kontur.vostok.hercules.protocol.encoder.ByteStreamContentWriter;
@@ -23,8 +26,16 @@ import ru.kontur.vostok.hercules.util.functional.Result;
 import ru.kontur.vostok.hercules.util.parsing.Parsers;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 public class ReadStreamHandler implements HttpHandler {
 
@@ -32,6 +43,7 @@ public class ReadStreamHandler implements HttpHandler {
 
     private static final StreamReadStateReader STATE_READER = new StreamReadStateReader();
     private static final ByteStreamContentWriter CONTENT_WRITER = new ByteStreamContentWriter();
+    private static final ObjectReader FILTERS_READER = new ObjectMapper().readerFor(Filter[].class);
 
     private static final String REASON_MISSING_PARAM = "Missing required parameter ";
 
@@ -39,15 +51,33 @@ public class ReadStreamHandler implements HttpHandler {
     private static final String PARAM_SHARD_INDEX = "shardIndex";
     private static final String PARAM_SHARD_COUNT = "shardCount";
     private static final String PARAM_TAKE = "take";
+    private static final String PARAM_TIMEOUT_MS = "timeoutMs";
+    private static final String PARAM_FILTER = "filter";
+    private static final String PARAM_TAGS = "tags";
+
+    private static final long DEFAULT_SUBSCRIPTION_TIMEOUT_MS = 30_000L;
+    private static final long MAX_SUBSCRIPTION_TIMEOUT_MS = 60_000L;
 
     private final AuthManager authManager;
     private final StreamReader streamReader;
-    private final StreamRepository streamRepository;
+    private final StreamStorage streamStorage;
+    private final boolean subscription;
+
+    public ReadStreamHandler(StreamReader streamReader, AuthManager authManager, StreamStorage streamStorage) {
+        this(streamReader, authManager, streamStorage, false);
+    }
 
-    public ReadStreamHandler(StreamReader streamReader, AuthManager authManager, StreamRepository streamRepository) {
+    /**
+     * @param streamReader  the stream reader
+     * @param authManager   the auth manager
+     * @param streamStorage the stream storage
+     * @param subscription  if {@code true}, then the request waits for new events if there are no events to read
+     */
+    public ReadStreamHandler(StreamReader streamReader, AuthManager authManager, StreamStorage streamStorage, boolean subscription) {
         this.streamReader = streamReader;
         this.authManager = authManager;
-        this.streamRepository = streamRepository;
+        this.streamStorage = streamStorage;
+        this.subscription = subscription;
     }
 
     @Override
@@ -131,41 +161,92 @@ public class ReadStreamHandler implements HttpHandler {
             return;
         }
 
-        Stream stream;
-        try {
-            Optional<Stream> optionalStream = streamRepository.read(streamName);
-            if (!optionalStream.isPresent()) {
-                ResponseUtil.notFound(httpServerExchange);
+        Optional<Stream> optionalStream = streamStorage.read(streamName);
+        if (!optionalStream.isPresent()) {
+            ResponseUtil.notFound(httpServerExchange);
+            return;
+        }
+        Stream stream = optionalStream.get();
+
+        long timeoutMs = 0L;
+        if (subscription) {
+            Optional<String> optionalTimeoutMs = ExchangeUtil.extractQueryParam(httpServerExchange, PARAM_TIMEOUT_MS);
+            if (optionalTimeoutMs.isPresent()) {
+                Result<Long, String> parsedTimeoutMs = Parsers.parseLong(optionalTimeoutMs.get());
+                if (!parsedTimeoutMs.isOk()) {
+                    ResponseUtil.badRequest(httpServerExchange, parsedTimeoutMs.getError() + " in parameter " + PARAM_TIMEOUT_MS);
+                    return;
+                }
+                timeoutMs = parsedTimeoutMs.get();
+                if (timeoutMs < 0 || MAX_SUBSCRIPTION_TIMEOUT_MS < timeoutMs) {
+                    ResponseUtil.badRequest(
+                            httpServerExchange,
+                            "Invalid parameter " + PARAM_TIMEOUT_MS + ": should be in range [0, " + MAX_SUBSCRIPTION_TIMEOUT_MS + "]");
+                    return;
+                }
+            } else {
+                timeoutMs = DEFAULT_SUBSCRIPTION_TIMEOUT_MS;
+            }
+        }
+        final long subscriptionTimeoutMs = timeoutMs;
+
+        Filter[] filters = new Filter[0];
+        Optional<String> optionalFilter = ExchangeUtil.extractQueryParam(httpServerExchange, PARAM_FILTER);
+        if (optionalFilter.isPresent()) {
+            try {
+                filters = FILTERS_READER.readValue(optionalFilter.get());
+            } catch (IOException | RuntimeException ex) {
+                ResponseUtil.badRequest(httpServerExchange, "Invalid parameter " + PARAM_FILTER);
                 return;
             }
-            stream = optionalStream.get();
-        } catch (CuratorException  ex) {
-            LOGGER.error("Curator exception when read Stream", ex);
-            ResponseUtil.internalServerError(httpServerExchange);
-            return;
-        } catch (DeserializationException ex) {
-            LOGGER.error("Deserialization exception of Stream", ex);
-            ResponseUtil.internalServerError(httpServerExchange);
-            return;
+            for (Filter filter : filters) {
+                if (filter == null || filter.getHPath() == null || filter.getCondition() == null) {
+                    ResponseUtil.badRequest(httpServerExchange, "Invalid parameter " + PARAM_FILTER + ": path and condition are required");
+                    return;
+                }
+            }
         }
 
+        Set<String> tags = null;
+        Optional<String> optionalTags = ExchangeUtil.extractQueryParam(httpServerExchange, PARAM_TAGS);
+        if (optionalTags.isPresent()) {
+            tags = new HashSet<>(Arrays.asList(optionalTags.get().split(",")));
+        }
+
+        final EventSelector selector = new EventSelector(filters, tags);
+
         httpServerExchange.getRequestReceiver().receiveFullBytes((exchange, message) -> {
             exchange.dispatch(() -> {
                 try {
-                    ByteStreamContent streamContent = streamReader.read(
-                            stream,
-                            STATE_READER.read(new Decoder(message)),
-                            shardIndex.get(),
-                            shardCount.get(),
-                            take.get()
-                    );
-
-                    exchange.getResponseHeaders().add(Headers.CONTENT_TYPE, MimeTypes.APPLICATION_OCTET_STREAM);
-
-                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                    Encoder encoder = new Encoder(baos);
-                    CONTENT_WRITER.write(encoder, streamContent);
-                    exchange.getResponseSender().send(ByteBuffer.wrap(baos.toByteArray()));
+                    StreamReadState requestedState = STATE_READER.read(new Decoder(message));
+                    // Subscription awaits new events by itself
+                    CompletableFuture<ByteStreamContent> read = subscription
+                            ? streamReader.read(stream, requestedState, shardIndex.get(), shardCount.get(), take.get(), 0L)
+                            : streamReader.read(stream, requestedState, shardIndex.get(), shardCount.get(), take.get());
+                    read.thenCompose(streamContent -> {
+                        if (!subscription || streamContent.getEventCount() > 0 || subscriptionTimeoutMs == 0) {
+                            return CompletableFuture.completedFuture(streamContent);
+                        }
+
+                        // Park the request without holding a worker thread and read again in the worker when new events are available
+                        StreamReadState state = streamContent.getState();
+                        return streamReader.awaitEvents(stream, state, shardIndex.get(), shardCount.get(), subscriptionTimeoutMs).
+                                thenComposeAsync(
+                                        v -> streamReader.read(stream, state, shardIndex.get(), shardCount.get(), take.get(), 0L),
+                                        exchange.getConnection().getWorker());
+                    }).whenCompleteAsync((streamContent, t) -> {
+                        if (t != null) {
+                            LOGGER.error("Error on processing request", t);
+                            ResponseUtil.internalServerError(exchange);
+                            return;
+                        }
+                        try {
+                            send(exchange, select(streamContent, selector));
+                        } catch (Exception e) {
+                            LOGGER.error("Error on processing request", e);
+                            ResponseUtil.internalServerError(exchange);
+                        }
+                    }, exchange.getConnection().getWorker());
                 } catch (IllegalArgumentException e) {
                     ResponseUtil.badRequest(exchange);
                 } catch (Exception e) {
@@ -175,4 +256,42 @@ public class ReadStreamHandler implements HttpHandler {
             });
         });
     }
+
+    /**
+     * Select events of the content. The read state is kept as is, so it points past filtered out events too.
+     */
+    private static ByteStreamContent select(ByteStreamContent streamContent, EventSelector selector) {
+        if (selector.isIdentity()) {
+            return streamContent;
+        }
+
+        List<byte[]> events = new ArrayList<>(streamContent.getEventCount());
+        for (byte[] event : streamContent.getEvents()) {
+            byte[] selected = selector.apply(event);
+            if (selected != null) {
+                events.add(selected);
+            }
+        }
+        return new ByteStreamContent(streamContent.getState(), events.toArray(new byte[0][]));
+    }
+
+    /**
+     * Send the content, it is compressed while encoding if the client accepts compressed content.
+     */
+    private static void send(HttpServerExchange exchange, ByteStreamContent streamContent) throws IOException {
+        exchange.getResponseHeaders().add(Headers.CONTENT_TYPE, MimeTypes.APPLICATION_OCTET_STREAM);
+
+        String contentEncoding = ContentEncodings.negotiate(exchange.getRequestHeaders().getFirst(Headers.ACCEPT_ENCODING));
+        if (!ContentEncodings.IDENTITY.equals(contentEncoding)) {
+            exchange.getResponseHeaders().add(Headers.CONTENT_ENCODING, contentEncoding);
+            exchange.getResponseHeaders().add(Headers.VARY, Headers.ACCEPT_ENCODING_STRING);
+        }
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (OutputStream stream = ContentEncodings.encode(contentEncoding, baos)) {
+            Encoder encoder = new Encoder(stream);
+            CONTENT_WRITER.write(encoder, streamContent);
+        }
+        exchange.getResponseSender().send(ByteBuffer.wrap(baos.toByteArray()));
+    }
 }
@@ -3,7 +3,6 @@ package ru.kontur.vostok.hercules.stream.api;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.util.Headers;
-import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.common.TopicPartition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,20 +10,21 @@ import ru.kontur.vostok.hercules.auth.AuthManager;
 import ru.kontur.vostok.hercules.auth.AuthResult;
 import ru.kontur.vostok.hercules.http.MimeTypes;
 import ru.kontur.vostok.hercules.meta.stream.Stream;
-import ru.kontur.vostok.hercules.meta.stream.StreamRepository;
+import ru.kontur.vostok.hercules.meta.stream.StreamStorage;
 import ru.kontur.vostok.hercules.partitioner.LogicalPartitioner;
 import ru.kontur.vostok.hercules.protocol.encoder.Encoder;
 import ru.kontur.vostok.hercules.protocol.encoder.StreamReadStateWriter;
 import ru.kontur.vostok.hercules.undertow.util.ExchangeUtil;
 import ru.kontur.vostok.hercules.undertow.util.ResponseUtil;
+import ru.kontur.vostok.hercules.util.Maps;
 
 import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
@@ -40,13 +40,13 @@ public class SeekToEndHandler implements HttpHandler {
     private static final String PARAM_SHARD_COUNT = "shardCount";
 
     private final AuthManager authManager;
-    private final StreamRepository repository;
-    private final ConsumerPool<Void, byte[]> consumerPool;
+    private final StreamStorage streamStorage;
+    private final OffsetBoundsCache offsetBoundsCache;
 
-    public SeekToEndHandler(AuthManager authManager, StreamRepository repository, ConsumerPool<Void, byte[]> consumerPool) {
+    public SeekToEndHandler(AuthManager authManager, StreamStorage streamStorage, OffsetBoundsCache offsetBoundsCache) {
         this.authManager = authManager;
-        this.repository = repository;
-        this.consumerPool = consumerPool;
+        this.streamStorage = streamStorage;
+        this.offsetBoundsCache = offsetBoundsCache;
     }
 
 
@@ -95,46 +95,43 @@ public class SeekToEndHandler implements HttpHandler {
             return;
         }
 
-        Optional<Stream> stream;
-        try {
-            stream = repository.read(streamName);
-        } catch (Exception ex) {
-            LOGGER.error("Cannot read stream due to exception", ex);
-            ResponseUtil.internalServerError(exchange);
-            return;
-        }
+        Optional<Stream> stream = streamStorage.read(streamName);
         if (!stream.isPresent()) {
             ResponseUtil.notFound(exchange);
             return;
         }
 
-        Consumer<Void, byte[]> consumer = null;
-        try {
-            consumer = consumerPool.acquire(5_000, TimeUnit.MILLISECONDS);
-
-            List<TopicPartition> partitions = Arrays.stream(
-                    LogicalPartitioner.getPartitionsForLogicalSharding(
-                            stream.get(),
-                            optionalShardIndex.get(),
-                            optionalShardCount.get())).
-                    mapToObj(partition -> new TopicPartition(streamName, partition)).
-                    collect(Collectors.toList());
-            Map<TopicPartition, Long> endOffsets = consumer.endOffsets(partitions);
-
-            exchange.getResponseHeaders().add(Headers.CONTENT_TYPE, MimeTypes.APPLICATION_OCTET_STREAM);
-
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            Encoder encoder = new Encoder(outputStream);
-            CONTENT_WRITER.write(encoder, StreamReadStateUtil.stateFromMap(streamName, endOffsets));
-
-            exchange.getResponseSender().send(ByteBuffer.wrap(outputStream.toByteArray()));
-        } catch (Exception ex) {
-            LOGGER.error("Error on processing request", ex);
-            ResponseUtil.internalServerError(exchange);
-        } finally {
-            if (consumer != null) {
-                consumerPool.release(consumer);
+        List<TopicPartition> partitions = Arrays.stream(
+                LogicalPartitioner.getPartitionsForLogicalSharding(
+                        stream.get(),
+                        optionalShardIndex.get(),
+                        optionalShardCount.get())).
+                mapToObj(partition -> new TopicPartition(streamName, partition)).
+                collect(Collectors.toList());
+
+        exchange.dispatch(() -> offsetBoundsCache.get(partitions).whenCompleteAsync((bounds, t) -> {
+            if (t != null) {
+                LOGGER.error("Error on processing request", t);
+                ResponseUtil.internalServerError(exchange);
+                return;
             }
-        }
+            try {
+                Map<TopicPartition, Long> endOffsets = new HashMap<>(Maps.effectiveHashMapCapacity(bounds.size()));
+                for (Map.Entry<TopicPartition, OffsetBoundsCache.Bounds> entry : bounds.entrySet()) {
+                    endOffsets.put(entry.getKey(), entry.getValue().getEndOffset());
+                }
+
+                exchange.getResponseHeaders().add(Headers.CONTENT_TYPE, MimeTypes.APPLICATION_OCTET_STREAM);
+
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                Encoder encoder = new Encoder(outputStream);
+                CONTENT_WRITER.write(encoder, StreamReadStateUtil.stateFromMap(streamName, endOffsets));
+
+                exchange.getResponseSender().send(ByteBuffer.wrap(outputStream.toByteArray()));
+            } catch (Exception ex) {
+                LOGGER.error("Error on processing request", ex);
+                ResponseUtil.internalServerError(exchange);
+            }
+        }, exchange.getConnection().getWorker()));
     }
 }
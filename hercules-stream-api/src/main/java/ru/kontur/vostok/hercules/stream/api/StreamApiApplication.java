@@ -13,7 +13,10 @@ import ru.kontur.vostok.hercules.health.CommonMetrics;
 import ru.kontur.vostok.hercules.health.MetricsCollector;
 import ru.kontur.vostok.hercules.kafka.util.serialization.VoidDeserializer;
 import ru.kontur.vostok.hercules.meta.stream.StreamRepository;
+import ru.kontur.vostok.hercules.meta.stream.StreamStorage;
 import ru.kontur.vostok.hercules.util.application.ApplicationContextHolder;
+import ru.kontur.vostok.hercules.util.properties.PropertyDescription;
+import ru.kontur.vostok.hercules.util.properties.PropertyDescriptions;
 
 import java.util.Map;
 import java.util.Properties;
@@ -24,9 +27,17 @@ public class StreamApiApplication {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(StreamApiApplication.class);
 
+    /**
+     * Cached streams are invalidated on change, so the lifetime is a fallback in case of missed notifications
+     */
+    private static final long METADATA_CACHE_LIFETIME_MS = 300_000L;
+
     private static HttpServer server;
     private static CuratorClient curatorClient;
-    private static ConsumerPool<Void, byte[]> consumerPool;
+    private static ConsumerFactory<Void, byte[]> consumerFactory;
+    private static FetchEngine fetchEngine;
+    private static OffsetBoundsCache offsetBoundsCache;
+    private static TailCache tailCache;
     private static AuthManager authManager;
     private static MetricsCollector metricsCollector;
 
@@ -49,17 +60,39 @@ public class StreamApiApplication {
             curatorClient = new CuratorClient(curatorProperties);
             curatorClient.start();
 
-            consumerPool = new ConsumerPool<>(consumerProperties, new VoidDeserializer(), new ByteArrayDeserializer());
-            consumerPool.start();
+            consumerFactory = new ConsumerFactory<>(consumerProperties, new VoidDeserializer(), new ByteArrayDeserializer());
 
-            StreamRepository repository = new StreamRepository(curatorClient);
+            StreamStorage streamStorage = new StreamStorage(new StreamRepository(curatorClient), METADATA_CACHE_LIFETIME_MS);
 
             metricsCollector = new MetricsCollector(metricsProperties);
             metricsCollector.start();
 
+            Properties readerProperties = PropertiesUtil.ofScope(properties, "stream.api.reader");
+            if (Props.TAIL_CACHE_ENABLE.extract(readerProperties)) {
+                tailCache = new TailCache(
+                        PropertiesUtil.ofScope(readerProperties, "tailCache"),
+                        consumerFactory.create(),
+                        metricsCollector);
+                tailCache.start();
+            }
+
+            offsetBoundsCache = new OffsetBoundsCache(
+                    PropertiesUtil.ofScope(properties, "stream.api.offsetBoundsCache"),
+                    consumerFactory.create(),
+                    metricsCollector);
+            offsetBoundsCache.start();
+
+            fetchEngine = new FetchEngine(
+                    PropertiesUtil.ofScope(readerProperties, "fetcher"),
+                    consumerFactory::create,
+                    metricsCollector);
+            fetchEngine.start();
+
             StreamReader streamReader = new StreamReader(
-                    PropertiesUtil.ofScope(properties, "stream.api.reader"),
-                    consumerPool,
+                    readerProperties,
+                    fetchEngine,
+                    offsetBoundsCache,
+                    tailCache,
                     metricsCollector);
 
             authManager = new AuthManager(curatorClient);
@@ -70,8 +103,9 @@ public class StreamApiApplication {
             server = new HttpServer(
                     httpServerProperties,
                     authManager,
-                    new ReadStreamHandler(streamReader, authManager, repository),
-                    new SeekToEndHandler(authManager, repository, consumerPool),
+                    new ReadStreamHandler(streamReader, authManager, streamStorage),
+                    tailCache != null ? new ReadStreamHandler(streamReader, authManager, streamStorage, true) : null,
+                    new SeekToEndHandler(authManager, streamStorage, offsetBoundsCache),
                     metricsCollector
             );
             server.start();
@@ -115,12 +149,27 @@ public class StreamApiApplication {
         }
 
         try {
-            if (consumerPool != null) {
-                consumerPool.stop(5_000, TimeUnit.MILLISECONDS);
+            if (tailCache != null) {
+                tailCache.stop(5_000, TimeUnit.MILLISECONDS);
             }
         } catch (Throwable t) {
-            LOGGER.error("Error on stopping consumer pool", t);
-            //TODO: Process error
+            LOGGER.error("Error on stopping tail cache", t);
+        }
+
+        try {
+            if (fetchEngine != null) {
+                fetchEngine.stop(5_000, TimeUnit.MILLISECONDS);
+            }
+        } catch (Throwable t) {
+            LOGGER.error("Error on stopping fetch engine", t);
+        }
+
+        try {
+            if (offsetBoundsCache != null) {
+                offsetBoundsCache.stop(5_000, TimeUnit.MILLISECONDS);
+            }
+        } catch (Throwable t) {
+            LOGGER.error("Error on stopping offset bounds cache", t);
         }
 
         try {
@@ -134,4 +183,11 @@ public class StreamApiApplication {
 
         LOGGER.info("Finished Stream API shutdown for {} millis", System.currentTimeMillis() - start);
     }
+
+    private static class Props {
+        static final PropertyDescription<Boolean> TAIL_CACHE_ENABLE =
+                PropertyDescriptions.booleanProperty("tailCache.enable").
+                        withDefaultValue(false).
+                        build();
+    }
 }
@@ -1,12 +1,8 @@
 package ru.kontur.vostok.hercules.stream.api;
 
 import com.codahale.metrics.Meter;
-import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
-import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.common.TopicPartition;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import ru.kontur.vostok.hercules.health.MetricsCollector;
 import ru.kontur.vostok.hercules.meta.stream.Stream;
 import ru.kontur.vostok.hercules.protocol.ByteStreamContent;
@@ -14,138 +10,224 @@ import ru.kontur.vostok.hercules.protocol.StreamReadState;
 import ru.kontur.vostok.hercules.util.Maps;
 import ru.kontur.vostok.hercules.util.properties.PropertyDescription;
 import ru.kontur.vostok.hercules.util.properties.PropertyDescriptions;
-import ru.kontur.vostok.hercules.util.time.StopwatchUtil;
 import ru.kontur.vostok.hercules.util.validation.LongValidators;
 
-import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author Gregory Koshelev
  */
 public class StreamReader {
-    private static final Logger LOGGER = LoggerFactory.getLogger(StreamReader.class);
-
     private final Properties properties;
     private final Meter receivedEvents;
-    private final ConsumerPool<Void, byte[]> consumerPool;
+    private final FetchEngine fetchEngine;
+    private final OffsetBoundsCache offsetBoundsCache;
+    private final TailCache tailCache;
 
     private final long readTimeoutMs;
 
     public StreamReader(Properties properties,
-                        ConsumerPool<Void, byte[]> consumerPool,
+                        FetchEngine fetchEngine,
+                        OffsetBoundsCache offsetBoundsCache,
+                        MetricsCollector metricsCollector) {
+        this(properties, fetchEngine, offsetBoundsCache, null, metricsCollector);
+    }
+
+    /**
+     * @param properties        reader properties
+     * @param fetchEngine       the engine to fetch events from Kafka
+     * @param offsetBoundsCache the cache of offset bounds of partitions
+     * @param tailCache         the cache of the latest events or {@code null} if the cache is disabled
+     * @param metricsCollector  metrics collector
+     */
+    public StreamReader(Properties properties,
+                        FetchEngine fetchEngine,
+                        OffsetBoundsCache offsetBoundsCache,
+                        TailCache tailCache,
                         MetricsCollector metricsCollector) {
         this.properties = properties;
-        this.consumerPool = consumerPool;
+        this.fetchEngine = fetchEngine;
+        this.offsetBoundsCache = offsetBoundsCache;
+        this.tailCache = tailCache;
         this.receivedEvents = metricsCollector.meter("receivedEvents");
 
         readTimeoutMs = Props.READ_TIMEOUT_MS.extract(properties);
     }
 
-    public ByteStreamContent read(Stream stream, StreamReadState state, int shardIndex, int shardCount, int take) {
-        List<TopicPartition> partitions = StreamUtil.getTopicPartitions(stream, shardIndex, shardCount);
-
-        long elapsedTimeMs = 0L;
-        long remainingTimeMs = readTimeoutMs;
-        final long readStartedMs = System.currentTimeMillis();
-
-        Consumer<Void, byte[]> consumer = null;
-        try {
-            consumer = consumerPool.acquire(remainingTimeMs, TimeUnit.MILLISECONDS);
+    /**
+     * Read events of the stream.
+     * <p>
+     * If the tail cache is enabled, then partitions are read from the cache if requested offsets are in the cached window.
+     * Other partitions are fetched from Kafka asynchronously. Fetching is completed when {@code take} events are fetched,
+     * all partitions respond or the read timeout is elapsed.
+     * <p>
+     * If all partitions are read from the cache up to the end, then new events are awaited up to the read timeout
+     * as fetching from Kafka does.
+     */
+    public CompletableFuture<ByteStreamContent> read(Stream stream, StreamReadState state, int shardIndex, int shardCount, int take) {
+        return read(stream, state, shardIndex, shardCount, take, readTimeoutMs);
+    }
 
-            Map<TopicPartition, Long> beginningOffsets = consumer.beginningOffsets(partitions);
+    /**
+     * Read events of the stream, see {@link #read(Stream, StreamReadState, int, int, int)}.
+     * <p>
+     * If all partitions are read from the tail cache up to the end, then new events are awaited up to the timeout
+     * and partitions are read again.
+     *
+     * @param stream         the stream
+     * @param state          the read state
+     * @param shardIndex     the logical shard index
+     * @param shardCount     the logical shard count
+     * @param take           the maximum count of events to read
+     * @param awaitTimeoutMs the maximum time to wait for new events in the tail cache in millis,
+     *                       the cache is read once if it is {@code 0}
+     * @return the future of read events and the next read state
+     */
+    public CompletableFuture<ByteStreamContent> read(
+            Stream stream,
+            StreamReadState state,
+            int shardIndex,
+            int shardCount,
+            int take,
+            long awaitTimeoutMs) {
+        List<TopicPartition> partitions = StreamUtil.getTopicPartitions(stream, shardIndex, shardCount);
 
-            Map<TopicPartition, Long> requestedOffsets = StreamReadStateUtil.stateToMap(stream.getName(), state);
+        Map<TopicPartition, Long> requestedOffsets = StreamReadStateUtil.stateToMap(stream.getName(), state);
 
-            // New offsets for new StreamReadState
-            Map<TopicPartition, Long> nextOffsets = new HashMap<>(Maps.effectiveHashMapCapacity(partitions.size()));
-            List<TopicPartition> partitionsToRead = new ArrayList<>(partitions.size());
+        // New offsets for new StreamReadState
+        Map<TopicPartition, Long> nextOffsets = new HashMap<>(Maps.effectiveHashMapCapacity(partitions.size()));
+        List<byte[]> events = new ArrayList<>(take);
 
+        List<TopicPartition> uncachedPartitions = partitions;
+        if (tailCache != null) {
+            uncachedPartitions = new ArrayList<>(partitions.size());
             for (TopicPartition partition : partitions) {
-                Long beginningOffset = beginningOffsets.get(partition);
-                Long requestedOffset = requestedOffsets.getOrDefault(partition, 0L);
-
-                // If no events are available, then nothing to read. But should preserve requested offset in new StreamReadState.
-                if (beginningOffset == null) {
-                    nextOffsets.put(partition, requestedOffset);
-                    continue;
-                }
-
-                // If events are unavailable anymore (due to retention), then read from the beginning (available once).
-                if (requestedOffset < beginningOffset) {
-                    requestedOffset = beginningOffset;
+                long requestedOffset = requestedOffsets.getOrDefault(partition, 0L);
+                long nextOffset = tailCache.read(partition, requestedOffset, take - events.size(), events);
+                if (nextOffset < 0) {
+                    uncachedPartitions.add(partition);
+                } else {
+                    nextOffsets.put(partition, nextOffset);
                 }
+            }
+        }
 
-                partitionsToRead.add(partition);
-                nextOffsets.put(partition, requestedOffset);
+        if (events.size() >= take || uncachedPartitions.isEmpty()) {
+            if (events.isEmpty() && take > 0 && !partitions.isEmpty() && awaitTimeoutMs > 0) {
+                return awaitEvents(stream, state, shardIndex, shardCount, awaitTimeoutMs).
+                        thenCompose(v -> read(stream, state, shardIndex, shardCount, take, 0L));
             }
+            for (TopicPartition partition : uncachedPartitions) {
+                nextOffsets.put(partition, requestedOffsets.getOrDefault(partition, 0L));
+            }
+            return CompletableFuture.completedFuture(toContent(stream, nextOffsets, events));
+        }
 
-            consumer.assign(partitionsToRead);
-            seekToNextOffsets(consumer, partitionsToRead, nextOffsets);
+        return fetch(uncachedPartitions, requestedOffsets, nextOffsets, take - events.size(), events).
+                thenApply(v -> toContent(stream, nextOffsets, events));
+    }
 
-            elapsedTimeMs = StopwatchUtil.elapsedTime(readStartedMs);
-            remainingTimeMs = StopwatchUtil.remainingTimeOrZero(readTimeoutMs, elapsedTimeMs);
+    /**
+     * Wait for new events of the stream.
+     * <p>
+     * If the tail cache is disabled, then the future is completed immediately.
+     *
+     * @param stream     the stream
+     * @param state      the read state to wait events after
+     * @param shardIndex the logical shard index
+     * @param shardCount the logical shard count
+     * @param timeoutMs  the maximum time to wait in millis
+     * @return the future is completed when new events are available or the timeout is elapsed
+     */
+    public CompletableFuture<Void> awaitEvents(Stream stream, StreamReadState state, int shardIndex, int shardCount, long timeoutMs) {
+        if (tailCache == null) {
+            return CompletableFuture.completedFuture(null);
+        }
 
-            List<byte[]> events = pollAndUpdateNextOffsets(consumer, nextOffsets, take, remainingTimeMs);
-            receivedEvents.mark(events.size());
+        List<TopicPartition> partitions = StreamUtil.getTopicPartitions(stream, shardIndex, shardCount);
+        Map<TopicPartition, Long> requestedOffsets = StreamReadStateUtil.stateToMap(stream.getName(), state);
+        Map<TopicPartition, Long> offsets = new HashMap<>(Maps.effectiveHashMapCapacity(partitions.size()));
+        for (TopicPartition partition : partitions) {
+            offsets.put(partition, requestedOffsets.getOrDefault(partition, 0L));
+        }
+        return tailCache.awaitEvents(offsets, timeoutMs);
+    }
 
-            return new ByteStreamContent(
-                    StreamReadStateUtil.stateFromMap(stream.getName(), nextOffsets),
-                    events.toArray(new byte[0][]));
-        } catch (InterruptedException | TimeoutException ex) {
-            throw new RuntimeException(ex);
-        } finally {
-            if (consumer != null) {
-                consumerPool.release(consumer);
+    private CompletableFuture<Void> fetch(
+            List<TopicPartition> partitions,
+            Map<TopicPartition, Long> requestedOffsets,
+            Map<TopicPartition, Long> nextOffsets,
+            int take,
+            List<byte[]> events) {
+        // If events are unavailable anymore (due to retention), then read from the beginning (available once)
+        Map<TopicPartition, OffsetBoundsCache.Bounds> bounds = offsetBoundsCache.getIfPresent(partitions);
+        long[] offsets = new long[partitions.size()];
+        List<CompletableFuture<List<ConsumerRecord<Void, byte[]>>>> fetches = new ArrayList<>(partitions.size());
+        for (int i = 0; i < partitions.size(); i++) {
+            TopicPartition partition = partitions.get(i);
+            long offset = requestedOffsets.getOrDefault(partition, 0L);
+            OffsetBoundsCache.Bounds partitionBounds = bounds.get(partition);
+            if (partitionBounds != null && offset < partitionBounds.getBeginningOffset()) {
+                offset = partitionBounds.getBeginningOffset();
             }
+            offsets[i] = offset;
+            fetches.add(fetchEngine.fetch(partition, offset, take, readTimeoutMs));
         }
-    }
 
-    private static <K, V> void seekToNextOffsets(Consumer<K, V> consumer, List<TopicPartition> partitions, Map<TopicPartition, Long> nextOffsets) {
-        for (TopicPartition partition : partitions) {
-            consumer.seek(partition, nextOffsets.get(partition));
+        CompletableFuture<Void> fetched = new CompletableFuture<>();
+        AtomicInteger fetchedCount = new AtomicInteger();
+        AtomicInteger completedCount = new AtomicInteger();
+        for (CompletableFuture<List<ConsumerRecord<Void, byte[]>>> fetch : fetches) {
+            fetch.whenComplete((records, t) -> {
+                if (t != null) {
+                    fetched.completeExceptionally(t);
+                    return;
+                }
+                int count = fetchedCount.addAndGet(records.size());
+                if (completedCount.incrementAndGet() == fetches.size() || count >= take) {
+                    fetched.complete(null);
+                }
+            });
         }
-    }
 
-    private static <K, V> List<V> pollAndUpdateNextOffsets(Consumer<K, V> consumer, Map<TopicPartition, Long> nextOffsets, int take, long timeoutMs) {
-        List<V> events = new ArrayList<>(take);
-        int count = 0;
-
-        long elapsedTimeMs = 0L;
-        long remainingTimeMs = timeoutMs;
-        final long pollStartedAt = System.currentTimeMillis();
-        do {
-            Duration timeout = Duration.ofMillis(remainingTimeMs);
-
-            ConsumerRecords<K, V> records = consumer.poll(timeout);
-            for (TopicPartition partition : records.partitions()) {
-                long nextOffset = nextOffsets.get(partition);
-                for (ConsumerRecord<K, V> record : records.records(partition)) {
-                    if (++count <= take) {
-                        events.add(record.value());
-                        nextOffset = record.offset() + 1;
-                    } else {
-                        break;
-                    }
+        return fetched.thenRun(() -> {
+            int remaining = take;
+            for (int i = 0; i < partitions.size(); i++) {
+                TopicPartition partition = partitions.get(i);
+                CompletableFuture<List<ConsumerRecord<Void, byte[]>>> fetch = fetches.get(i);
+
+                // Fetches are still in progress are not needed anymore
+                fetch.complete(Collections.emptyList());
+                List<ConsumerRecord<Void, byte[]>> records = fetch.join();
+
+                // Records are fetched past the offset if it was out of range, thus cached bounds are outdated
+                if (!records.isEmpty() && records.get(0).offset() > offsets[i]) {
+                    offsetBoundsCache.refresh(partition);
                 }
-                nextOffsets.put(partition, nextOffset);
-                if (count == take) {
-                    break;
+
+                int count = Math.min(remaining, records.size());
+                for (int j = 0; j < count; j++) {
+                    events.add(records.get(j).value());
                 }
+                nextOffsets.put(partition, (count > 0) ? records.get(count - 1).offset() + 1 : offsets[i]);
+                remaining -= count;
             }
+        });
+    }
 
-            elapsedTimeMs = StopwatchUtil.elapsedTime(pollStartedAt);
-            remainingTimeMs = StopwatchUtil.remainingTimeOrZero(timeoutMs, elapsedTimeMs);
-        }
-        while ((count < take) && (remainingTimeMs > 0));
+    private ByteStreamContent toContent(Stream stream, Map<TopicPartition, Long> nextOffsets, List<byte[]> events) {
+        receivedEvents.mark(events.size());
 
-        return events;
+        return new ByteStreamContent(
+                StreamReadStateUtil.stateFromMap(stream.getName(), nextOffsets),
+                events.toArray(new byte[0][]));
     }
 
     static class Props {
@@ -0,0 +1,315 @@
+package ru.kontur.vostok.hercules.stream.api;
+
+import com.codahale.metrics.Meter;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.kontur.vostok.hercules.health.MetricsCollector;
+import ru.kontur.vostok.hercules.util.concurrent.ThreadFactories;
+import ru.kontur.vostok.hercules.util.properties.PropertyDescription;
+import ru.kontur.vostok.hercules.util.properties.PropertyDescriptions;
+import ru.kontur.vostok.hercules.util.validation.IntegerValidators;
+import ru.kontur.vostok.hercules.util.validation.LongValidators;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory cache of the latest events of partitions.
+ * <p>
+ * Partition is registered in the cache on the first read of it. The background consumer starts reading
+ * the partition from the end and keeps the latest events in the ring buffer of the partition.
+ * Partitions are not read for the idle timeout are evicted from the cache.
+ * <p>
+ * Readers which have read all cached events can wait for new ones without holding a Kafka consumer.
+ */
+public class TailCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TailCache.class);
+
+    private final int capacity;
+    private final int maxPartitions;
+    private final long idleTimeoutMs;
+    private final long pollTimeoutMs;
+
+    private final Consumer<Void, byte[]> consumer;
+    private final ConcurrentHashMap<TopicPartition, PartitionTail> tails = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(ThreadFactories.newNamedThreadFactory("tail-cache"));
+    private final ScheduledExecutorService timeoutScheduler =
+            Executors.newSingleThreadScheduledExecutor(ThreadFactories.newNamedThreadFactory("tail-cache-timeout"));
+
+    private final Meter hitsMeter;
+    private final Meter missesMeter;
+
+    private volatile boolean running;
+
+    public TailCache(Properties properties, Consumer<Void, byte[]> consumer, MetricsCollector metricsCollector) {
+        this.capacity = Props.CAPACITY.extract(properties);
+        this.maxPartitions = Props.MAX_PARTITIONS.extract(properties);
+        this.idleTimeoutMs = Props.IDLE_TIMEOUT_MS.extract(properties);
+        this.pollTimeoutMs = Props.POLL_TIMEOUT_MS.extract(properties);
+
+        this.consumer = consumer;
+
+        this.hitsMeter = metricsCollector.meter("tailCacheHits");
+        this.missesMeter = metricsCollector.meter("tailCacheMisses");
+        metricsCollector.gauge("tailCachePartitions", tails::size);
+    }
+
+    public void start() {
+        running = true;
+        executor.submit(this::run);
+    }
+
+    public void stop(long timeout, TimeUnit unit) {
+        running = false;
+        consumer.wakeup();
+        executor.shutdown();
+        timeoutScheduler.shutdownNow();
+        try {
+            if (!executor.awaitTermination(timeout, unit)) {
+                LOGGER.warn("Tail cache consumer did not stop in time");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Read cached events of the partition starting from the offset.
+     * <p>
+     * The partition is registered in the cache if it is absent.
+     *
+     * @param partition the partition
+     * @param offset    the offset to read from
+     * @param limit     the maximum count of events to read
+     * @param events    the list to add read events to
+     * @return the next offset to read or {@code -1} if the offset is out of the cached window
+     */
+    public long read(TopicPartition partition, long offset, int limit, List<byte[]> events) {
+        PartitionTail tail = tails.get(partition);
+        if (tail == null) {
+            if (tails.size() < maxPartitions) {
+                tails.putIfAbsent(partition, new PartitionTail(capacity));
+            }
+            missesMeter.mark();
+            return -1;
+        }
+
+        long nextOffset = tail.read(offset, limit, events);
+        if (nextOffset < 0) {
+            missesMeter.mark();
+        } else {
+            hitsMeter.mark();
+        }
+        return nextOffset;
+    }
+
+    /**
+     * Wait for new events in any of partitions.
+     * <p>
+     * The future is completed immediately if some partition is not cached or has cached events after the offset,
+     * since they should be read without waiting.
+     *
+     * @param offsets   offsets of partitions the reader is going to read from
+     * @param timeoutMs the maximum time to wait in millis
+     * @return the future is completed when new events are available or the timeout is elapsed
+     */
+    public CompletableFuture<Void> awaitEvents(Map<TopicPartition, Long> offsets, long timeoutMs) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        for (Map.Entry<TopicPartition, Long> entry : offsets.entrySet()) {
+            PartitionTail tail = tails.get(entry.getKey());
+            if (tail == null || !tail.await(entry.getValue(), future)) {
+                future.complete(null);
+                return future;
+            }
+        }
+
+        ScheduledFuture<?> timeout = timeoutScheduler.schedule(() -> future.complete(null), timeoutMs, TimeUnit.MILLISECONDS);
+        future.whenComplete((v, t) -> timeout.cancel(false));
+        return future;
+    }
+
+    private void run() {
+        Set<TopicPartition> assigned = new HashSet<>();
+        while (running) {
+            try {
+                evictIdle();
+
+                Set<TopicPartition> partitions = new HashSet<>(tails.keySet());
+                if (!partitions.equals(assigned)) {
+                    consumer.assign(partitions);
+                    for (TopicPartition partition : partitions) {
+                        if (!assigned.contains(partition)) {
+                            consumer.seekToEnd(Collections.singleton(partition));
+                            tails.get(partition).reset(consumer.position(partition));
+                        }
+                    }
+                    assigned = partitions;
+                }
+
+                if (assigned.isEmpty()) {
+                    TimeUnit.MILLISECONDS.sleep(pollTimeoutMs);
+                    continue;
+                }
+
+                ConsumerRecords<Void, byte[]> records = consumer.poll(Duration.ofMillis(pollTimeoutMs));
+                for (TopicPartition partition : records.partitions()) {
+                    PartitionTail tail = tails.get(partition);
+                    if (tail == null) {
+                        continue;
+                    }
+                    // Waiters are completed outside of the lock, since readers continue in the completing thread
+                    for (CompletableFuture<Void> waiter : tail.append(records.records(partition))) {
+                        waiter.complete(null);
+                    }
+                }
+            } catch (WakeupException | InterruptedException ex) {
+                /* Tail cache is stopping */
+            } catch (Exception ex) {
+                LOGGER.error("Tail cache consumer failed, cached partitions are dropped", ex);
+                tails.clear();
+                assigned = new HashSet<>();
+            }
+        }
+        consumer.close();
+    }
+
+    private void evictIdle() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<TopicPartition, PartitionTail> entry : tails.entrySet()) {
+            if (now - entry.getValue().lastAccessMs > idleTimeoutMs) {
+                tails.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Ring buffer of the latest events of the partition.
+     * <p>
+     * Contains events with offsets from {@code firstOffset} inclusive to {@code nextOffset} exclusive.
+     * If offsets have a gap, then the buffer is restarted from the offset after the gap.
+     */
+    private static class PartitionTail {
+        private final byte[][] events;
+
+        private long firstOffset = -1;
+        private long nextOffset = -1;
+
+        private volatile long lastAccessMs = System.currentTimeMillis();
+
+        /**
+         * Readers are waiting for new events
+         */
+        private final List<CompletableFuture<Void>> waiters = new ArrayList<>();
+
+        PartitionTail(int capacity) {
+            this.events = new byte[capacity][];
+        }
+
+        synchronized void reset(long offset) {
+            firstOffset = offset;
+            nextOffset = offset;
+        }
+
+        /**
+         * Append records to the buffer.
+         *
+         * @param records records of the partition
+         * @return waiters should be completed since new events are available
+         */
+        synchronized List<CompletableFuture<Void>> append(List<ConsumerRecord<Void, byte[]>> records) {
+            for (ConsumerRecord<Void, byte[]> record : records) {
+                long offset = record.offset();
+                if (offset != nextOffset) {
+                    reset(offset);
+                }
+                events[(int) (offset % events.length)] = record.value();
+                nextOffset = offset + 1;
+                if (nextOffset - firstOffset > events.length) {
+                    firstOffset = nextOffset - events.length;
+                }
+            }
+
+            if (records.isEmpty() || waiters.isEmpty()) {
+                return Collections.emptyList();
+            }
+            List<CompletableFuture<Void>> completed = new ArrayList<>(waiters);
+            waiters.clear();
+            return completed;
+        }
+
+        /**
+         * Register the waiter if all cached events before the offset are read.
+         *
+         * @param offset the offset the reader is going to read from
+         * @param waiter the waiter is completed on new events
+         * @return {@code true} if the waiter is registered, otherwise the reader should not wait
+         */
+        synchronized boolean await(long offset, CompletableFuture<Void> waiter) {
+            lastAccessMs = System.currentTimeMillis();
+
+            if (nextOffset < 0 || offset != nextOffset) {
+                return false;
+            }
+            waiters.removeIf(CompletableFuture::isDone);
+            waiters.add(waiter);
+            return true;
+        }
+
+        synchronized long read(long offset, int limit, List<byte[]> events) {
+            lastAccessMs = System.currentTimeMillis();
+
+            if (nextOffset < 0 || offset < firstOffset || offset > nextOffset) {
+                return -1;
+            }
+            long endOffset = Math.min(nextOffset, offset + limit);
+            for (long o = offset; o < endOffset; o++) {
+                events.add(this.events[(int) (o % this.events.length)]);
+            }
+            return endOffset;
+        }
+    }
+
+    private static class Props {
+        static final PropertyDescription<Integer> CAPACITY =
+                PropertyDescriptions.integerProperty("capacity").
+                        withDefaultValue(1_000).
+                        withValidator(IntegerValidators.positive()).
+                        build();
+
+        static final PropertyDescription<Integer> MAX_PARTITIONS =
+                PropertyDescriptions.integerProperty("maxPartitions").
+                        withDefaultValue(128).
+                        withValidator(IntegerValidators.positive()).
+                        build();
+
+        static final PropertyDescription<Long> IDLE_TIMEOUT_MS =
+                PropertyDescriptions.longProperty("idleTimeoutMs").
+                        withDefaultValue(60_000L).
+                        withValidator(LongValidators.positive()).
+                        build();
+
+        static final PropertyDescription<Long> POLL_TIMEOUT_MS =
+                PropertyDescriptions.longProperty("pollTimeoutMs").
+                        withDefaultValue(100L).
+                        withValidator(LongValidators.positive()).
+                        build();
+    }
+}
@@ -0,0 +1,132 @@
+package ru.kontur.vostok.hercules.stream.api;
+
+import org.junit.Test;
+import ru.kontur.vostok.hercules.meta.filter.Conditions;
+import ru.kontur.vostok.hercules.meta.filter.Filter;
+import ru.kontur.vostok.hercules.protocol.Container;
+import ru.kontur.vostok.hercules.protocol.Event;
+import ru.kontur.vostok.hercules.protocol.Variant;
+import ru.kontur.vostok.hercules.protocol.Vector;
+import ru.kontur.vostok.hercules.protocol.decoder.Decoder;
+import ru.kontur.vostok.hercules.protocol.decoder.EventReader;
+import ru.kontur.vostok.hercules.protocol.util.EventBuilder;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class EventSelectorTest {
+    private static final long TIMESTAMP = 15_276_799_200_000_000L;
+    private static final UUID RANDOM = UUID.fromString("11203800-63fd-11e8-83e2-3a587d902000");
+
+    @Test
+    public void shouldReturnSameEventIfNoFiltersAndProjection() {
+        EventSelector selector = new EventSelector(new Filter[0], null);
+        byte[] event = createEvent("hercules", 200).getBytes();
+
+        assertTrue(selector.isIdentity());
+        assertSame(event, selector.apply(event));
+    }
+
+    @Test
+    public void shouldFilterEventsByNestedTag() {
+        EventSelector selector = new EventSelector(new Filter[]{new Filter("properties/project", stringEquality("hercules"))}, null);
+        assertFalse(selector.isIdentity());
+
+        byte[] matched = createEvent("hercules", 200).getBytes();
+        assertSame(matched, selector.apply(matched));
+        assertNull(selector.apply(createEvent("vostok", 200).getBytes()));
+    }
+
+    @Test
+    public void shouldApplyFiltersWithAndSemantics() {
+        EventSelector selector = new EventSelector(
+                new Filter[]{
+                        new Filter("properties/project", stringEquality("hercules")),
+                        new Filter("code", numericalEquality(200))},
+                null);
+
+        assertNotNull(selector.apply(createEvent("hercules", 200).getBytes()));
+        assertNull(selector.apply(createEvent("hercules", 500).getBytes()));
+        assertNull(selector.apply(createEvent("vostok", 200).getBytes()));
+    }
+
+    @Test
+    public void shouldNotMatchIfFilteredTagIsAbsent() {
+        EventSelector selector = new EventSelector(new Filter[]{new Filter("absent", new Conditions.Exist())}, null);
+
+        assertNull(selector.apply(createEvent("hercules", 200).getBytes()));
+    }
+
+    @Test
+    public void shouldProjectEventToTags() {
+        EventSelector selector = new EventSelector(new Filter[0], new HashSet<>(Arrays.asList("code", "tags", "absent")));
+
+        Event projected = read(selector.apply(createEvent("hercules", 200).getBytes()));
+
+        assertEquals(TIMESTAMP, projected.getTimestamp());
+        assertEquals(RANDOM, projected.getUuid());
+        assertEquals(2, projected.getPayload().size());
+        assertEquals(200L, projected.getPayload().get("code").getValue());
+        Vector tags = (Vector) projected.getPayload().get("tags").getValue();
+        assertArrayEquals(new byte[][]{"a".getBytes(), "b".getBytes()}, (byte[][]) tags.getValue());
+    }
+
+    @Test
+    public void shouldProjectEventToNoTags() {
+        EventSelector selector = new EventSelector(new Filter[0], Collections.emptySet());
+
+        Event projected = read(selector.apply(createEvent("hercules", 200).getBytes()));
+
+        assertEquals(TIMESTAMP, projected.getTimestamp());
+        assertEquals(0, projected.getPayload().size());
+    }
+
+    @Test
+    public void shouldFilterByTagIsNotRetainedByProjection() {
+        EventSelector selector = new EventSelector(
+                new Filter[]{new Filter("properties/project", stringEquality("hercules"))},
+                Collections.singleton("code"));
+
+        Event projected = read(selector.apply(createEvent("hercules", 200).getBytes()));
+        assertEquals(1, projected.getPayload().size());
+        assertEquals(200L, projected.getPayload().get("code").getValue());
+
+        assertNull(selector.apply(createEvent("vostok", 200).getBytes()));
+    }
+
+    private static Event createEvent(String project, int code) {
+        return EventBuilder.create(TIMESTAMP, RANDOM)
+                .tag("message", Variant.ofString("Request is processed"))
+                .tag("properties", Variant.ofContainer(new Container(Collections.singletonMap("project", Variant.ofString(project)))))
+                .tag("code", Variant.ofLong(code))
+                .tag("tags", Variant.ofVector(Vector.ofStrings("a", "b")))
+                .build();
+    }
+
+    private static Event read(byte[] bytes) {
+        assertNotNull(bytes);
+        return EventReader.readAllTags().read(new Decoder(bytes));
+    }
+
+    private static Conditions.StringEquality stringEquality(String value) {
+        Conditions.StringEquality condition = new Conditions.StringEquality();
+        condition.setValue(value);
+        return condition;
+    }
+
+    private static Conditions.NumericalEquality numericalEquality(long value) {
+        Conditions.NumericalEquality condition = new Conditions.NumericalEquality();
+        condition.setValue(value);
+        return condition;
+    }
+}
@@ -0,0 +1,120 @@
+package ru.kontur.vostok.hercules.stream.api;
+
+import com.codahale.metrics.Meter;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ru.kontur.vostok.hercules.health.MetricsCollector;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class FetchEngineTest {
+    private static final TopicPartition PARTITION = new TopicPartition("test_stream", 0);
+
+    private final MockConsumer<Void, byte[]> consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+    private FetchEngine engine;
+
+    @Before
+    public void setUp() {
+        consumer.updateBeginningOffsets(Collections.singletonMap(PARTITION, 0L));
+
+        MetricsCollector metricsCollector = mock(MetricsCollector.class);
+        when(metricsCollector.meter(anyString())).thenReturn(new Meter());
+
+        Properties properties = new Properties();
+        properties.setProperty("fetcherCount", "1");
+        engine = new FetchEngine(properties, () -> consumer, metricsCollector);
+    }
+
+    @After
+    public void tearDown() {
+        engine.stop(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void shouldServeRequestsOfPartitionAtDifferentOffsetsByTheSingleFetch() throws Exception {
+        addRecordsOnPoll(0, 5);
+
+        CompletableFuture<List<ConsumerRecord<Void, byte[]>>> fromBeginning = engine.fetch(PARTITION, 0, 10, 5_000);
+        CompletableFuture<List<ConsumerRecord<Void, byte[]>>> fromMiddle = engine.fetch(PARTITION, 2, 10, 5_000);
+        CompletableFuture<List<ConsumerRecord<Void, byte[]>>> limited = engine.fetch(PARTITION, 1, 2, 5_000);
+        engine.start();
+
+        assertEquals(offsets(0, 5), offsets(fromBeginning.get(1, TimeUnit.SECONDS)));
+        assertEquals(offsets(2, 5), offsets(fromMiddle.get(1, TimeUnit.SECONDS)));
+        assertEquals(offsets(1, 3), offsets(limited.get(1, TimeUnit.SECONDS)));
+    }
+
+    @Test
+    public void shouldCompleteRequestWithNoRecordsWhenTimeoutIsElapsed() throws Exception {
+        addRecordsOnPoll(0, 5);
+
+        CompletableFuture<List<ConsumerRecord<Void, byte[]>>> served = engine.fetch(PARTITION, 0, 10, 5_000);
+        CompletableFuture<List<ConsumerRecord<Void, byte[]>>> ahead = engine.fetch(PARTITION, 10, 10, 200);
+        engine.start();
+
+        assertEquals(offsets(0, 5), offsets(served.get(1, TimeUnit.SECONDS)));
+        assertFalse("Request is waiting for records until the timeout", ahead.isDone());
+        assertTrue(ahead.get(1, TimeUnit.SECONDS).isEmpty());
+    }
+
+    @Test
+    public void shouldServeRequestSubmittedWhileFetcherIsPolling() throws Exception {
+        engine.start();
+        assertTrue(engine.fetch(PARTITION, 0, 10, 200).get(1, TimeUnit.SECONDS).isEmpty());
+
+        addRecordsOnPoll(0, 3);
+        assertEquals(offsets(0, 3), offsets(engine.fetch(PARTITION, 0, 10, 5_000).get(1, TimeUnit.SECONDS)));
+    }
+
+    /**
+     * Add records on the poll when the partition is resumed, since records of paused partitions are discarded by the mock.
+     */
+    private void addRecordsOnPoll(long from, long to) {
+        consumer.schedulePollTask(() -> {
+            if (!consumer.assignment().contains(PARTITION) || consumer.paused().contains(PARTITION)) {
+                addRecordsOnPoll(from, to);
+                return;
+            }
+            addRecords(from, to);
+        });
+    }
+
+    private void addRecords(long from, long to) {
+        for (long offset = from; offset < to; offset++) {
+            consumer.addRecord(new ConsumerRecord<>(PARTITION.topic(), PARTITION.partition(), offset, null, new byte[0]));
+        }
+    }
+
+    private static List<Long> offsets(long from, long to) {
+        List<Long> offsets = new ArrayList<>();
+        for (long offset = from; offset < to; offset++) {
+            offsets.add(offset);
+        }
+        return offsets;
+    }
+
+    private static List<Long> offsets(List<ConsumerRecord<Void, byte[]>> records) {
+        List<Long> offsets = new ArrayList<>(records.size());
+        for (ConsumerRecord<Void, byte[]> record : records) {
+            offsets.add(record.offset());
+        }
+        return offsets;
+    }
+}
@@ -0,0 +1,155 @@
+package ru.kontur.vostok.hercules.stream.api;
+
+import com.codahale.metrics.Meter;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ru.kontur.vostok.hercules.health.MetricsCollector;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class OffsetBoundsCacheTest {
+    private static final TopicPartition PARTITION = new TopicPartition("test_stream", 0);
+    private static final List<TopicPartition> PARTITIONS = Collections.singletonList(PARTITION);
+
+    private final MockConsumer<Void, byte[]> consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+    private OffsetBoundsCache cache;
+
+    @Before
+    public void setUp() {
+        setBounds(0, 10);
+    }
+
+    @After
+    public void tearDown() {
+        cache.stop(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void shouldLoadMissingBoundsOnGet() throws Exception {
+        cache = createCache(60_000, 60_000, 60_000);
+
+        assertBounds(0, 10, cache.get(PARTITIONS).get(1, TimeUnit.SECONDS));
+
+        setBounds(5, 20);
+        assertBounds(0, 10, cache.getIfPresent(PARTITIONS));
+    }
+
+    @Test
+    public void shouldLoadMissingBoundsInBackground() throws Exception {
+        cache = createCache(60_000, 60_000, 60_000);
+
+        assertTrue(cache.getIfPresent(PARTITIONS).isEmpty());
+
+        assertBounds(0, 10, awaitBounds(0, 10));
+    }
+
+    @Test
+    public void shouldReloadStaleBoundsOnGet() throws Exception {
+        cache = createCache(60_000, 50, 60_000);
+        cache.get(PARTITIONS).get(1, TimeUnit.SECONDS);
+
+        setBounds(5, 20);
+        TimeUnit.MILLISECONDS.sleep(100);
+
+        assertTrue("Stale bounds are not returned", cache.getIfPresent(PARTITIONS).isEmpty());
+        assertBounds(5, 20, cache.get(PARTITIONS).get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shouldReloadBoundsOnForcedRefresh() throws Exception {
+        cache = createCache(60_000, 60_000, 60_000);
+        cache.get(PARTITIONS).get(1, TimeUnit.SECONDS);
+
+        setBounds(5, 20);
+        cache.refresh(PARTITION);
+
+        assertBounds(5, 20, awaitBounds(5, 20));
+    }
+
+    @Test
+    public void shouldRefreshRequestedBoundsPeriodically() throws Exception {
+        cache = createCache(10, 60_000, 60_000);
+        cache.start();
+        cache.get(PARTITIONS).get(1, TimeUnit.SECONDS);
+
+        setBounds(5, 20);
+
+        assertBounds(5, 20, awaitBounds(5, 20));
+    }
+
+    @Test
+    public void shouldLoadBoundsInBackgroundAfterFailedLoad() throws Exception {
+        cache = createCache(60_000, 60_000, 60_000);
+        TopicPartition unknownPartition = new TopicPartition("unknown_stream", 0);
+
+        assertTrue(cache.getIfPresent(Collections.singletonList(unknownPartition)).isEmpty());
+
+        assertBounds(0, 10, awaitBounds(0, 10));
+    }
+
+    @Test
+    public void shouldEvictIdlePartitions() throws Exception {
+        cache = createCache(10, 60_000, 50);
+        cache.start();
+        cache.get(PARTITIONS).get(1, TimeUnit.SECONDS);
+
+        TimeUnit.MILLISECONDS.sleep(200);
+
+        assertTrue(cache.getIfPresent(PARTITIONS).isEmpty());
+    }
+
+    private OffsetBoundsCache createCache(long refreshPeriodMs, long maxStalenessMs, long idleTimeoutMs) {
+        MetricsCollector metricsCollector = mock(MetricsCollector.class);
+        when(metricsCollector.meter(anyString())).thenReturn(new Meter());
+
+        Properties properties = new Properties();
+        properties.setProperty("refreshPeriodMs", String.valueOf(refreshPeriodMs));
+        properties.setProperty("maxStalenessMs", String.valueOf(maxStalenessMs));
+        properties.setProperty("idleTimeoutMs", String.valueOf(idleTimeoutMs));
+        return new OffsetBoundsCache(properties, consumer, metricsCollector);
+    }
+
+    private void setBounds(long beginningOffset, long endOffset) {
+        consumer.updateBeginningOffsets(Collections.singletonMap(PARTITION, beginningOffset));
+        consumer.updateEndOffsets(Collections.singletonMap(PARTITION, endOffset));
+    }
+
+    /**
+     * Wait until cached bounds of the partition are equal to expected ones.
+     */
+    private Map<TopicPartition, OffsetBoundsCache.Bounds> awaitBounds(long beginningOffset, long endOffset)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (true) {
+            Map<TopicPartition, OffsetBoundsCache.Bounds> bounds = cache.getIfPresent(PARTITIONS);
+            OffsetBoundsCache.Bounds partitionBounds = bounds.get(PARTITION);
+            if (partitionBounds != null
+                    && partitionBounds.getBeginningOffset() == beginningOffset
+                    && partitionBounds.getEndOffset() == endOffset) {
+                return bounds;
+            }
+            assertTrue("Bounds are not loaded in time", System.nanoTime() < deadline);
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+    }
+
+    private static void assertBounds(long beginningOffset, long endOffset, Map<TopicPartition, OffsetBoundsCache.Bounds> bounds) {
+        assertEquals(1, bounds.size());
+        assertEquals(beginningOffset, bounds.get(PARTITION).getBeginningOffset());
+        assertEquals(endOffset, bounds.get(PARTITION).getEndOffset());
+    }
+}
@@ -0,0 +1,200 @@
+package ru.kontur.vostok.hercules.stream.api;
+
+import io.undertow.Undertow;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import ru.kontur.vostok.hercules.auth.AuthManager;
+import ru.kontur.vostok.hercules.curator.CuratorClient;
+import ru.kontur.vostok.hercules.meta.stream.BaseStream;
+import ru.kontur.vostok.hercules.meta.stream.Stream;
+import ru.kontur.vostok.hercules.meta.stream.StreamStorage;
+import ru.kontur.vostok.hercules.protocol.ByteStreamContent;
+import ru.kontur.vostok.hercules.protocol.StreamReadState;
+import ru.kontur.vostok.hercules.protocol.StreamShardReadState;
+import ru.kontur.vostok.hercules.protocol.decoder.Decoder;
+import ru.kontur.vostok.hercules.protocol.decoder.StreamReadStateReader;
+import ru.kontur.vostok.hercules.protocol.encoder.Encoder;
+import ru.kontur.vostok.hercules.protocol.encoder.StreamReadStateWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ReadStreamHandlerTest {
+    private static final String STREAM = "test_stream";
+    private static final String API_KEY = "test_api_key";
+
+    private final StreamReader streamReader = mock(StreamReader.class);
+    private final StreamStorage streamStorage = mock(StreamStorage.class);
+
+    private static AuthManager authManager;
+
+    private Stream stream;
+    private Undertow undertow;
+    private String url;
+
+    @BeforeClass
+    public static void setUpAuth() throws Exception {
+        CuratorClient curatorClient = mock(CuratorClient.class);
+        when(curatorClient.children("/hercules/auth/rules")).thenReturn(Collections.singletonList(API_KEY + "." + STREAM + ".read"));
+        when(curatorClient.children("/hercules/auth/blacklist")).thenReturn(Collections.emptyList());
+        authManager = new AuthManager(curatorClient);
+        authManager.start();
+        awaitRules();
+    }
+
+    @AfterClass
+    public static void tearDownAuth() {
+        authManager.stop();
+    }
+
+    @Before
+    public void setUp() {
+        stream = new BaseStream();
+        stream.setName(STREAM);
+        stream.setPartitions(1);
+
+        when(streamStorage.read(STREAM)).thenReturn(Optional.of(stream));
+
+        undertow = Undertow.builder().
+                addHttpListener(0, "localhost").
+                setHandler(new ReadStreamHandler(streamReader, authManager, streamStorage, true)).
+                build();
+        undertow.start();
+        InetSocketAddress address = (InetSocketAddress) undertow.getListenerInfo().get(0).getAddress();
+        url = "http://localhost:" + address.getPort() + "/stream/subscribe?stream=" + STREAM + "&shardIndex=0&shardCount=1&take=10";
+    }
+
+    @After
+    public void tearDown() {
+        undertow.stop();
+    }
+
+    @Test
+    public void shouldRespondBadRequestIfTimeoutIsInvalid() throws IOException {
+        assertEquals(400, post("&timeoutMs=abc", state(0)).code);
+        assertEquals(400, post("&timeoutMs=-1", state(0)).code);
+        assertEquals(400, post("&timeoutMs=60001", state(0)).code);
+        verify(streamReader, never()).read(any(), any(), anyInt(), anyInt(), anyInt(), anyLong());
+    }
+
+    @Test
+    public void shouldNotAwaitIfTimeoutIsZero() throws IOException {
+        when(streamReader.read(eq(stream), any(), eq(0), eq(1), eq(10), eq(0L))).
+                thenReturn(CompletableFuture.completedFuture(new ByteStreamContent(state(5), new byte[0][])));
+
+        Response response = post("&timeoutMs=0", state(5));
+
+        assertEquals(200, response.code);
+        assertEquals(0, response.eventCount);
+        assertEquals(5, response.offset);
+        verify(streamReader, never()).awaitEvents(any(), any(), anyInt(), anyInt(), anyLong());
+    }
+
+    @Test
+    public void shouldReadAgainFromReturnedStateAfterNewEventsAreAvailable() throws IOException {
+        StreamReadState returnedState = state(7);
+        when(streamReader.read(eq(stream), any(), eq(0), eq(1), eq(10), eq(0L))).thenReturn(
+                CompletableFuture.completedFuture(new ByteStreamContent(returnedState, new byte[0][])),
+                CompletableFuture.completedFuture(new ByteStreamContent(state(8), new byte[][]{{1, 2, 3}})));
+        when(streamReader.awaitEvents(stream, returnedState, 0, 1, 1_000L)).
+                thenReturn(CompletableFuture.completedFuture(null));
+
+        Response response = post("&timeoutMs=1000", state(5));
+
+        assertEquals(200, response.code);
+        assertEquals(1, response.eventCount);
+        assertEquals(8, response.offset);
+        verify(streamReader).read(eq(stream), same(returnedState), eq(0), eq(1), eq(10), eq(0L));
+    }
+
+    @Test
+    public void shouldRespondEmptyContentIfTimeoutIsElapsed() throws IOException {
+        StreamReadState returnedState = state(7);
+        when(streamReader.read(eq(stream), any(), eq(0), eq(1), eq(10), eq(0L))).
+                thenReturn(CompletableFuture.completedFuture(new ByteStreamContent(returnedState, new byte[0][])));
+        when(streamReader.awaitEvents(stream, returnedState, 0, 1, 30_000L)).
+                thenReturn(CompletableFuture.completedFuture(null));
+
+        Response response = post("", state(5));
+
+        assertEquals(200, response.code);
+        assertEquals(0, response.eventCount);
+        assertEquals(7, response.offset);
+        verify(streamReader).awaitEvents(stream, returnedState, 0, 1, 30_000L);
+    }
+
+    private static void awaitRules() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000L;
+        while (!authManager.authRead(API_KEY, STREAM).isSuccess() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private Response post(String params, StreamReadState state) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        new StreamReadStateWriter().write(new Encoder(body), state);
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(url + params).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("apiKey", API_KEY);
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(body.size());
+        try (OutputStream out = connection.getOutputStream()) {
+            body.writeTo(out);
+        }
+
+        Response response = new Response();
+        response.code = connection.getResponseCode();
+        if (response.code == 200) {
+            Decoder decoder = new Decoder(readAll(connection.getInputStream()));
+            response.offset = new StreamReadStateReader().read(decoder).getShardStates()[0].getOffset();
+            response.eventCount = decoder.readInteger();
+        }
+        connection.disconnect();
+        return response;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        try (InputStream stream = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static StreamReadState state(long offset) {
+        return new StreamReadState(new StreamShardReadState[]{new StreamShardReadState(0, offset)});
+    }
+
+    private static class Response {
+        int code;
+        long offset;
+        int eventCount;
+    }
+}
@@ -0,0 +1,118 @@
+package ru.kontur.vostok.hercules.stream.api;
+
+import com.codahale.metrics.Meter;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Before;
+import org.junit.Test;
+import ru.kontur.vostok.hercules.health.MetricsCollector;
+import ru.kontur.vostok.hercules.meta.stream.BaseStream;
+import ru.kontur.vostok.hercules.meta.stream.Stream;
+import ru.kontur.vostok.hercules.protocol.ByteStreamContent;
+import ru.kontur.vostok.hercules.protocol.StreamReadState;
+import ru.kontur.vostok.hercules.protocol.StreamShardReadState;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class StreamReaderTest {
+    private static final String STREAM = "test_stream";
+    private static final TopicPartition PARTITION = new TopicPartition(STREAM, 0);
+    private static final long OFFSET = 5;
+    private static final byte[] EVENT = {1, 2, 3};
+
+    private final FetchEngine fetchEngine = mock(FetchEngine.class);
+    private final OffsetBoundsCache offsetBoundsCache = mock(OffsetBoundsCache.class);
+    private final TailCache tailCache = mock(TailCache.class);
+
+    private Stream stream;
+    private StreamReader reader;
+
+    @Before
+    public void setUp() {
+        MetricsCollector metricsCollector = mock(MetricsCollector.class);
+        when(metricsCollector.meter(anyString())).thenReturn(new Meter());
+
+        stream = new BaseStream();
+        stream.setName(STREAM);
+        stream.setPartitions(1);
+
+        Properties properties = new Properties();
+        properties.setProperty("readTimeoutMs", "500");
+        reader = new StreamReader(properties, fetchEngine, offsetBoundsCache, tailCache, metricsCollector);
+    }
+
+    @Test
+    public void shouldAwaitNewEventsIfAllPartitionsAreReadFromCacheUpToTheEnd() throws Exception {
+        when(tailCache.read(eq(PARTITION), eq(OFFSET), anyInt(), any())).thenReturn(OFFSET);
+        CompletableFuture<Void> newEvents = new CompletableFuture<>();
+        when(tailCache.awaitEvents(Collections.singletonMap(PARTITION, OFFSET), 500L)).thenReturn(newEvents);
+
+        CompletableFuture<ByteStreamContent> content = reader.read(stream, state(OFFSET), 0, 1, 10);
+        assertFalse("Reader waits up to the read timeout", content.isDone());
+
+        when(tailCache.read(eq(PARTITION), eq(OFFSET), anyInt(), any())).thenAnswer(invocation -> {
+            List<byte[]> events = invocation.getArgument(3);
+            events.add(EVENT);
+            return OFFSET + 1;
+        });
+        newEvents.complete(null);
+
+        assertTrue(content.isDone());
+        assertEquals(1, content.get().getEventCount());
+        assertArrayEquals(EVENT, content.get().getEvents()[0]);
+        assertEquals(OFFSET + 1, content.get().getState().getShardStates()[0].getOffset());
+        verify(fetchEngine, never()).fetch(any(), anyLong(), anyInt(), anyLong());
+    }
+
+    @Test
+    public void shouldReturnEmptyContentIfNoEventsAreCachedAfterTimeout() throws Exception {
+        when(tailCache.read(eq(PARTITION), eq(OFFSET), anyInt(), any())).thenReturn(OFFSET);
+        when(tailCache.awaitEvents(Collections.singletonMap(PARTITION, OFFSET), 500L)).
+                thenReturn(CompletableFuture.completedFuture(null));
+
+        ByteStreamContent content = reader.read(stream, state(OFFSET), 0, 1, 10).get();
+
+        assertEquals(0, content.getEventCount());
+        assertEquals(OFFSET, content.getState().getShardStates()[0].getOffset());
+    }
+
+    @Test
+    public void shouldNotAwaitIfCachedEventsAreRead() {
+        when(tailCache.read(eq(PARTITION), eq(OFFSET), anyInt(), any())).thenAnswer(invocation -> {
+            List<byte[]> events = invocation.getArgument(3);
+            events.add(EVENT);
+            return OFFSET + 1;
+        });
+
+        assertTrue(reader.read(stream, state(OFFSET), 0, 1, 10).isDone());
+        verify(tailCache, never()).awaitEvents(any(), anyLong());
+    }
+
+    @Test
+    public void shouldReadCacheOnceIfAwaitTimeoutIsZero() {
+        when(tailCache.read(eq(PARTITION), eq(OFFSET), anyInt(), any())).thenReturn(OFFSET);
+
+        assertTrue(reader.read(stream, state(OFFSET), 0, 1, 10, 0L).isDone());
+        verify(tailCache, never()).awaitEvents(any(), anyLong());
+    }
+
+    private static StreamReadState state(long offset) {
+        return new StreamReadState(new StreamShardReadState[]{new StreamShardReadState(PARTITION.partition(), offset)});
+    }
+}
@@ -0,0 +1,157 @@
+package ru.kontur.vostok.hercules.stream.api;
+
+import com.codahale.metrics.Meter;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ru.kontur.vostok.hercules.health.MetricsCollector;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TailCacheTest {
+    private static final TopicPartition PARTITION = new TopicPartition("test_stream", 0);
+    private static final long END_OFFSET = 5;
+
+    private final MockConsumer<Void, byte[]> consumer = new MockConsumer<>(OffsetResetStrategy.LATEST);
+    private TailCache cache;
+
+    @Before
+    public void setUp() {
+        consumer.updateBeginningOffsets(Collections.singletonMap(PARTITION, 0L));
+        consumer.updateEndOffsets(Collections.singletonMap(PARTITION, END_OFFSET));
+    }
+
+    @After
+    public void tearDown() {
+        cache.stop(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void shouldRegisterPartitionOnMissAndCacheItFromTheEnd() throws Exception {
+        start(10);
+
+        assertEquals(-1, cache.read(PARTITION, END_OFFSET, 10, new ArrayList<>()));
+
+        awaitCached(END_OFFSET);
+        List<byte[]> events = new ArrayList<>();
+        assertEquals(END_OFFSET, cache.read(PARTITION, END_OFFSET, 10, events));
+        assertTrue(events.isEmpty());
+        assertEquals("Events before the end are not cached", -1, cache.read(PARTITION, 0, 10, new ArrayList<>()));
+    }
+
+    @Test
+    public void shouldReadCachedEvents() throws Exception {
+        start(10);
+        consumer.schedulePollTask(() -> addRecords(END_OFFSET, 8));
+        cache.read(PARTITION, END_OFFSET, 10, new ArrayList<>());
+
+        awaitCached(8);
+        List<byte[]> events = new ArrayList<>();
+        assertEquals(8, cache.read(PARTITION, END_OFFSET, 10, events));
+        assertEvents(END_OFFSET, 8, events);
+
+        events.clear();
+        assertEquals("Read is limited", 7, cache.read(PARTITION, 6, 1, events));
+        assertEvents(6, 7, events);
+    }
+
+    @Test
+    public void shouldKeepOnlyLatestEventsUpToCapacity() throws Exception {
+        start(2);
+        consumer.schedulePollTask(() -> addRecords(END_OFFSET, 10));
+        cache.read(PARTITION, END_OFFSET, 10, new ArrayList<>());
+
+        awaitCached(10);
+        assertEquals(-1, cache.read(PARTITION, END_OFFSET, 10, new ArrayList<>()));
+
+        List<byte[]> events = new ArrayList<>();
+        assertEquals(10, cache.read(PARTITION, 8, 10, events));
+        assertEvents(8, 10, events);
+    }
+
+    @Test
+    public void shouldCompleteAwaitOnNewEvents() throws Exception {
+        start(10);
+        cache.read(PARTITION, END_OFFSET, 10, new ArrayList<>());
+        awaitCached(END_OFFSET);
+
+        CompletableFuture<Void> future = cache.awaitEvents(Collections.singletonMap(PARTITION, END_OFFSET), 10_000);
+        assertFalse("Reader waits since all cached events are read", future.isDone());
+
+        consumer.schedulePollTask(() -> addRecords(END_OFFSET, 6));
+        future.get(1, TimeUnit.SECONDS);
+        awaitCached(6);
+    }
+
+    @Test
+    public void shouldNotAwaitIfEventsCanBeReadAlready() throws Exception {
+        start(10);
+
+        assertTrue("Partition is not cached", cache.awaitEvents(Collections.singletonMap(PARTITION, 0L), 10_000).isDone());
+
+        cache.read(PARTITION, END_OFFSET, 10, new ArrayList<>());
+        awaitCached(END_OFFSET);
+        assertTrue("Offset is behind the tail", cache.awaitEvents(Collections.singletonMap(PARTITION, 0L), 10_000).isDone());
+    }
+
+    @Test
+    public void shouldCompleteAwaitOnTimeout() throws Exception {
+        start(10);
+        cache.read(PARTITION, END_OFFSET, 10, new ArrayList<>());
+        awaitCached(END_OFFSET);
+
+        cache.awaitEvents(Collections.singletonMap(PARTITION, END_OFFSET), 100).get(1, TimeUnit.SECONDS);
+    }
+
+    private void start(int capacity) {
+        MetricsCollector metricsCollector = mock(MetricsCollector.class);
+        when(metricsCollector.meter(anyString())).thenReturn(new Meter());
+
+        Properties properties = new Properties();
+        properties.setProperty("capacity", String.valueOf(capacity));
+        properties.setProperty("pollTimeoutMs", "10");
+        cache = new TailCache(properties, consumer, metricsCollector);
+        cache.start();
+    }
+
+    /**
+     * Wait until events are cached up to the offset exclusive.
+     */
+    private void awaitCached(long nextOffset) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (cache.read(PARTITION, nextOffset, 1, new ArrayList<>()) != nextOffset) {
+            assertTrue("Events are not cached in time", System.nanoTime() < deadline);
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+    }
+
+    private void addRecords(long from, long to) {
+        for (long offset = from; offset < to; offset++) {
+            consumer.addRecord(new ConsumerRecord<>(PARTITION.topic(), PARTITION.partition(), offset, null, new byte[]{(byte) offset}));
+        }
+    }
+
+    private static void assertEvents(long from, long to, List<byte[]> events) {
+        assertEquals(to - from, events.size());
+        for (int i = 0; i < events.size(); i++) {
+            assertArrayEquals(new byte[]{(byte) (from + i)}, events.get(i));
+        }
+    }
+}
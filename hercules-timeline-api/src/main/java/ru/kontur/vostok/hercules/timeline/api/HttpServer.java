@@ -32,13 +32,15 @@ public class HttpServer {
             Properties properties,
             AuthManager authManager,
             ReadTimelineHandler readTimelineHandler,
+            ReadTimelineHandler streamTimelineHandler,
             MetricsCollector metricsCollector
     ) {
         final String host = Props.HOST.extract(properties);
         final int port = Props.PORT.extract(properties);
 
         HttpHandler handler = new HerculesRoutingHandler(metricsCollector)
-                .post("/timeline/read", readTimelineHandler);
+                .post("/timeline/read", readTimelineHandler)
+                .post("/timeline/stream", streamTimelineHandler);
 
         undertow = Undertow
                 .builder()
@@ -2,18 +2,21 @@ package ru.kontur.vostok.hercules.timeline.api;
 
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ru.kontur.vostok.hercules.auth.AuthManager;
 import ru.kontur.vostok.hercules.auth.AuthResult;
+import ru.kontur.vostok.hercules.http.ContentEncodings;
 import ru.kontur.vostok.hercules.meta.timeline.Timeline;
-import ru.kontur.vostok.hercules.meta.timeline.TimelineRepository;
+import ru.kontur.vostok.hercules.meta.timeline.TimelineStorage;
 import ru.kontur.vostok.hercules.protocol.TimelineByteContent;
 import ru.kontur.vostok.hercules.protocol.TimelineState;
 import ru.kontur.vostok.hercules.protocol.decoder.Decoder;
 import ru.kontur.vostok.hercules.protocol.decoder.TimelineStateReader;
 import ru.kontur.vostok.hercules.protocol.encoder.Encoder;
 import ru.kontur.vostok.hercules.protocol.encoder.TimelineByteContentWriter;
+import ru.kontur.vostok.hercules.protocol.encoder.TimelineStateWriter;
 import ru.kontur.vostok.hercules.undertow.util.ExchangeUtil;
 import ru.kontur.vostok.hercules.undertow.util.ResponseUtil;
 import ru.kontur.vostok.hercules.util.functional.Result;
@@ -21,15 +24,31 @@ import ru.kontur.vostok.hercules.util.parsing.Parsers;
 import ru.kontur.vostok.hercules.util.time.TimeUtil;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.util.Optional;
 
+/**
+ * Read timeline content.
+ * <p>
+ * If the handler is streaming, then events are sent to the client with chunked transfer encoding as soon as they are read.
+ * Streaming response consists of chunks of events and the read state at the end:
+ * <pre>
+ * ResponseBody    EventsChunk*, EndOfEvents, TimelineState
+ * EventsChunk     Count, Event*
+ * EndOfEvents     Count
+ * </pre>
+ * Where, {@code Count} of {@code EventsChunk} is positive and {@code Count} of {@code EndOfEvents} is {@code 0}.
+ */
 public class ReadTimelineHandler implements HttpHandler {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ReadTimelineHandler.class);
 
     private static final TimelineStateReader STATE_READER = new TimelineStateReader();
     private static final TimelineByteContentWriter CONTENT_WRITER = new TimelineByteContentWriter();
+    private static final TimelineStateWriter STATE_WRITER = new TimelineStateWriter();
 
     private static final String REASON_MISSING_PARAM = "Missing required parameter ";
 
@@ -40,16 +59,27 @@ public class ReadTimelineHandler implements HttpHandler {
     private static final String PARAM_FROM = "from";
     private static final String PARAM_TO = "to";
 
-    private final TimelineRepository timelineRepository;
+    private final TimelineStorage timelineStorage;
     private final TimelineReader timelineReader;
     private final AuthManager authManager;
     private final int timetrapCountLimit;
+    private final boolean streaming;
 
-    public ReadTimelineHandler(TimelineRepository timelineRepository, TimelineReader timelineReader, AuthManager authManager, int timetrapCountLimit) {
-        this.timelineRepository = timelineRepository;
+    public ReadTimelineHandler(TimelineStorage timelineStorage, TimelineReader timelineReader, AuthManager authManager, int timetrapCountLimit) {
+        this(timelineStorage, timelineReader, authManager, timetrapCountLimit, false);
+    }
+
+    public ReadTimelineHandler(
+            TimelineStorage timelineStorage,
+            TimelineReader timelineReader,
+            AuthManager authManager,
+            int timetrapCountLimit,
+            boolean streaming) {
+        this.timelineStorage = timelineStorage;
         this.timelineReader = timelineReader;
         this.authManager = authManager;
         this.timetrapCountLimit = timetrapCountLimit;
+        this.streaming = streaming;
     }
 
     public static boolean isTimetrapCountLimitExceeded(long from, long to, long timetrapSize, int timetrapCountLimit) {
@@ -149,7 +179,7 @@ public class ReadTimelineHandler implements HttpHandler {
             return;
         }
 
-        Optional<Timeline> optionalTimeline = timelineRepository.read(optionalTimelineName.get());
+        Optional<Timeline> optionalTimeline = timelineStorage.read(optionalTimelineName.get());
         if (!optionalTimeline.isPresent()) {
             ResponseUtil.notFound(httpServerExchange);
             return;
@@ -164,6 +194,10 @@ public class ReadTimelineHandler implements HttpHandler {
         }
 
         httpServerExchange.getRequestReceiver().receiveFullBytes((exchange, message) -> {
+            if (streaming) {
+                exchange.dispatch(() -> stream(exchange, message, timeline, shardIndex.get(), shardCount.get(), take.get(), from.get(), to.get()));
+                return;
+            }
             exchange.dispatch(() -> {
                 try {
                     TimelineState readState = STATE_READER.read(new Decoder(message));
@@ -176,11 +210,14 @@ public class ReadTimelineHandler implements HttpHandler {
                             from.get(),
                             to.get());
 
-                    ByteArrayOutputStream stream = new ByteArrayOutputStream();
-                    Encoder encoder = new Encoder(stream);
-                    CONTENT_WRITER.write(encoder, byteContent);
+                    String contentEncoding = negotiateContentEncoding(exchange);
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    try (OutputStream stream = ContentEncodings.encode(contentEncoding, bytes)) {
+                        Encoder encoder = new Encoder(stream);
+                        CONTENT_WRITER.write(encoder, byteContent);
+                    }
 
-                    exchange.getResponseSender().send(ByteBuffer.wrap(stream.toByteArray()));
+                    exchange.getResponseSender().send(ByteBuffer.wrap(bytes.toByteArray()));
                 } catch (Exception e) {
                     LOGGER.error("Error on processing request", e);
                     ResponseUtil.internalServerError(exchange);
@@ -190,4 +227,70 @@ public class ReadTimelineHandler implements HttpHandler {
             });
         });
     }
+
+    private void stream(
+            HttpServerExchange exchange,
+            byte[] message,
+            Timeline timeline,
+            int shardIndex,
+            int shardCount,
+            int take,
+            long from,
+            long to) {
+        try {
+            TimelineState readState = STATE_READER.read(new Decoder(message));
+
+            exchange.startBlocking();
+            exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/octet-stream");
+            OutputStream stream = ContentEncodings.encode(negotiateContentEncoding(exchange), exchange.getOutputStream());
+            Encoder encoder = new Encoder(stream);
+
+            TimelineState state = timelineReader.readTimeline(
+                    timeline,
+                    readState,
+                    shardIndex,
+                    shardCount,
+                    take,
+                    from,
+                    to,
+                    events -> {
+                        encoder.writeInteger(events.length);
+                        for (byte[] event : events) {
+                            encoder.writeRawBytes(event);
+                        }
+                        flush(stream);
+                    });
+
+            encoder.writeInteger(0);
+            STATE_WRITER.write(encoder, state);
+            stream.close();
+        } catch (Exception e) {
+            LOGGER.error("Error on processing request", e);
+            if (!exchange.isResponseStarted()) {
+                ResponseUtil.internalServerError(exchange);
+            }
+        } finally {
+            exchange.endExchange();
+        }
+    }
+
+    /**
+     * Choose the content encoding the client accepts and set the response header if the content is compressed.
+     */
+    private static String negotiateContentEncoding(HttpServerExchange exchange) {
+        String contentEncoding = ContentEncodings.negotiate(exchange.getRequestHeaders().getFirst(Headers.ACCEPT_ENCODING));
+        if (!ContentEncodings.IDENTITY.equals(contentEncoding)) {
+            exchange.getResponseHeaders().put(Headers.CONTENT_ENCODING, contentEncoding);
+            exchange.getResponseHeaders().put(Headers.VARY, Headers.ACCEPT_ENCODING_STRING);
+        }
+        return contentEncoding;
+    }
+
+    private static void flush(OutputStream stream) {
+        try {
+            stream.flush();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
 }
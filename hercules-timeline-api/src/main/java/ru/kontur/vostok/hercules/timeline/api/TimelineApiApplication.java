@@ -12,6 +12,7 @@ import ru.kontur.vostok.hercules.curator.CuratorClient;
 import ru.kontur.vostok.hercules.health.CommonMetrics;
 import ru.kontur.vostok.hercules.health.MetricsCollector;
 import ru.kontur.vostok.hercules.meta.timeline.TimelineRepository;
+import ru.kontur.vostok.hercules.meta.timeline.TimelineStorage;
 import ru.kontur.vostok.hercules.util.application.ApplicationContextHolder;
 import ru.kontur.vostok.hercules.util.properties.PropertyDescription;
 import ru.kontur.vostok.hercules.util.properties.PropertyDescriptions;
@@ -23,6 +24,11 @@ public class TimelineApiApplication {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(TimelineApiApplication.class);
 
+    /**
+     * Cached timelines are invalidated on change, so the lifetime is a fallback in case of missed notifications
+     */
+    private static final long METADATA_CACHE_LIFETIME_MS = 300_000L;
+
     private static HttpServer server;
     private static CuratorClient curatorClient;
     private static TimelineReader timelineReader;
@@ -54,19 +60,25 @@ public class TimelineApiApplication {
             cassandraConnector = new CassandraConnector(cassandraProperties);
             cassandraConnector.connect();
 
-            timelineReader = new TimelineReader(cassandraConnector);
-
-            authManager = new AuthManager(curatorClient);
-            authManager.start();
-
             metricsCollector = new MetricsCollector(metricsProperties);
             metricsCollector.start();
             CommonMetrics.registerCommonMetrics(metricsCollector);
 
+            timelineReader = new TimelineReader(
+                    PropertiesUtil.ofScope(properties, "timelineApi.reader"),
+                    cassandraConnector,
+                    metricsCollector);
+
+            authManager = new AuthManager(curatorClient);
+            authManager.start();
+
+            TimelineStorage timelineStorage =
+                    new TimelineStorage(new TimelineRepository(curatorClient), METADATA_CACHE_LIFETIME_MS);
             server = new HttpServer(
                     httpServerProperties,
                     authManager,
-                    new ReadTimelineHandler(new TimelineRepository(curatorClient), timelineReader, authManager, timetrapCountLimit),
+                    new ReadTimelineHandler(timelineStorage, timelineReader, authManager, timetrapCountLimit),
+                    new ReadTimelineHandler(timelineStorage, timelineReader, authManager, timetrapCountLimit, true),
                     metricsCollector
             );
             server.start();
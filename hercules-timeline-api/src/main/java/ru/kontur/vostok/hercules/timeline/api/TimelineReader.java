@@ -1,12 +1,13 @@
 package ru.kontur.vostok.hercules.timeline.api;
 
 import com.datastax.oss.driver.api.core.CqlSession;
-import com.datastax.oss.driver.api.core.cql.ResultSet;
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
 import com.datastax.oss.driver.api.core.cql.Row;
-import com.datastax.oss.driver.api.core.cql.SimpleStatement;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import ru.kontur.vostok.hercules.cassandra.util.CassandraConnector;
+import ru.kontur.vostok.hercules.configuration.util.PropertiesUtil;
+import ru.kontur.vostok.hercules.health.MetricsCollector;
 import ru.kontur.vostok.hercules.meta.timeline.TimeTrapUtil;
 import ru.kontur.vostok.hercules.meta.timeline.Timeline;
 import ru.kontur.vostok.hercules.partitioner.LogicalPartitioner;
@@ -15,25 +16,42 @@ import ru.kontur.vostok.hercules.protocol.TimelineSliceState;
 import ru.kontur.vostok.hercules.protocol.TimelineState;
 import ru.kontur.vostok.hercules.protocol.util.EventUtil;
 import ru.kontur.vostok.hercules.util.bytes.ByteUtil;
+import ru.kontur.vostok.hercules.util.properties.PropertyDescription;
+import ru.kontur.vostok.hercules.util.properties.PropertyDescriptions;
 import ru.kontur.vostok.hercules.util.time.TimeUtil;
+import ru.kontur.vostok.hercules.util.validation.IntegerValidators;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.NoSuchElementException;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
  * Read event timeline from Cassandra cluster
- *
- * FIXME: Should be revised and refactored
+ * <p>
+ * Timetrap offsets are read sequentially, so all slices of the timetrap offset are read before the next one.
+ * Slices of the timetrap offset are read concurrently, but the count of slices are read at the same time is bounded.
+ * Fetched events are passed to the caller as soon as possible.
+ * <p>
+ * If the timeline has the index table of non-empty timetraps, then empty {@code (slice, tt_offset)} partitions are skipped.
+ * <p>
+ * If the cache is enabled, then rows of closed timetraps are cached, see {@link TimetrapCache}.
  */
 public class TimelineReader {
-
-    private static final Logger LOGGER = LoggerFactory.getLogger(TimelineReader.class);
-
     /**
      * Utility class to store shard read offset
      */
@@ -47,79 +65,15 @@ public class TimelineReader {
         }
     }
 
-    /**
-     * Iterable values for GridIterator
-     */
-    private static class Parameters {
-        final int slice;
-        final long ttOffset;
-
-        public Parameters(int slice, long ttOffset) {
-            this.slice = slice;
-            this.ttOffset = ttOffset;
-        }
-    }
-
-    /**
-     * GridIterator iterate over slice and tt_offset parameters grid
-     */
-    private static class GridIterator implements Iterator<Parameters> {
-        int[] slices;
-        long[] ttOffsets;
-
-        int sliceCurrentIdx = 0;
-        int ttOffsetCurrentIdx = 0;
-
-        public GridIterator(int[] slices, long[] ttOffsets) {
-            this.slices = slices;
-            this.ttOffsets = ttOffsets;
-        }
-
-        @Override
-        public boolean hasNext() {
-            return ttOffsetCurrentIdx < ttOffsets.length;
-        }
-
-        @Override
-        public Parameters next() {
-            if (ttOffsets.length <= ttOffsetCurrentIdx) {
-                throw new NoSuchElementException();
-            }
-            Parameters result = new Parameters(slices[sliceCurrentIdx], ttOffsets[ttOffsetCurrentIdx]);
-            ++sliceCurrentIdx;
-            if (sliceCurrentIdx == slices.length) {
-                ++ttOffsetCurrentIdx;
-                sliceCurrentIdx = 0;
-            }
-            return result;
-        }
-    }
-
-    /**
-     * Iterable to create GridIterator
-     */
-    private static class Grid implements Iterable<Parameters> {
-        int[] slices;
-        long[] ttOffsets;
-
-        public Grid(int[] slices, long[] ttOffsets) {
-            this.slices = slices;
-            this.ttOffsets = ttOffsets;
-        }
-
-        @Override
-        public Iterator<Parameters> iterator() {
-            return new GridIterator(slices, ttOffsets);
-        }
-    }
-
     private static final byte[] NIL = new byte[24];
+    private static final byte[][] END_OF_PAGES = new byte[0][];
     private static boolean isNil(byte[] eventId) {
         return Arrays.equals(NIL, eventId);
     }
 
     private static final String EVENT_ID = "event_id";
     private static final String PAYLOAD = "payload";
+    private static final String SLICE = "slice";
 
     private static final String SELECT_EVENTS = "" +
             "SELECT" +
@@ -130,15 +84,15 @@ public class TimelineReader {
             " %s" +
             " " +
             "WHERE" +
-            " slice = %d AND" +
-            " tt_offset = %d AND" +
-            " event_id > %s AND" + // Lower bound
-            " event_id < %s" + // Upper bound
+            " slice = ? AND" +
+            " tt_offset = ? AND" +
+            " event_id > ? AND" + // Lower bound
+            " event_id < ?" + // Upper bound
             " " +
             "ORDER BY" +
             " event_id" +
             " " +
-            "LIMIT %d;";
+            "LIMIT ?;";
 
     private static final String SELECT_EVENTS_START_READING_SLICE = "" +
             "SELECT" +
@@ -149,24 +103,51 @@ public class TimelineReader {
             " %s" +
             " " +
             "WHERE" +
-            " slice = %d AND" +
-            " tt_offset = %d AND" +
-            " event_id >= %s AND" + // Lower bound
-            " event_id < %s" + // Upper bound
+            " slice = ? AND" +
+            " tt_offset = ? AND" +
+            " event_id >= ? AND" + // Lower bound
+            " event_id < ?" + // Upper bound
             " " +
             "ORDER BY" +
             " event_id" +
             " " +
-            "LIMIT %d;";
+            "LIMIT ?;";
 
+    private static final String SELECT_TIMETRAP_SLICES = "" +
+            "SELECT" +
+            " slice" +
+            " " +
+            "FROM" +
+            " %s" +
+            " " +
+            "WHERE" +
+            " tt_offset = ?;";
+
+    private final CassandraConnector connector;
     private final CqlSession session;
+    private final int maxConcurrentSlices;
+    private final TimetrapCache cache;
 
-    public TimelineReader(CassandraConnector connector) {
+    /**
+     * Prepared statements by timeline table
+     */
+    private final Map<String, Statements> statements = new ConcurrentHashMap<>();
+
+    public TimelineReader(Properties properties, CassandraConnector connector, MetricsCollector metricsCollector) {
+        this.connector = connector;
         this.session = connector.session();
+        this.maxConcurrentSlices = Props.MAX_CONCURRENT_SLICES.extract(properties);
+        this.cache = Props.CACHE_ENABLE.extract(properties)
+                ? new TimetrapCache(PropertiesUtil.ofScope(properties, "cache"), metricsCollector)
+                : null;
     }
 
     /**
      * Read timeline content from Cassandra cluster
+     * <p>
+     * Read events are collected, so use {@link #readTimeline(Timeline, TimelineState, int, int, int, long, long, Consumer)}
+     * to stream them.
+     *
      * @param timeline timeline info
      * @param readState offsets data
      * @param shardIndex parameter for logical partitioning
@@ -184,85 +165,206 @@ public class TimelineReader {
             int take,
             long from,
             long to
+    ) {
+        List<byte[]> events = new ArrayList<>();
+        TimelineState state = readTimeline(
+                timeline,
+                readState,
+                shardIndex,
+                shardCount,
+                take,
+                from,
+                to,
+                page -> events.addAll(Arrays.asList(page)));
+        return new TimelineByteContent(state, events.toArray(new byte[0][]));
+    }
+
+    /**
+     * Read timeline content from Cassandra cluster and pass events to the consumer as soon as Cassandra pages are fetched.
+     * <p>
+     * Slices share the budget of {@code take} events, so no more than {@code take} events are passed to the consumer.
+     * Pages are passed in the calling thread. Events of the same slice are passed in order,
+     * but pages of different slices are interleaved.
+     *
+     * @param timeline timeline info
+     * @param readState offsets data
+     * @param shardIndex parameter for logical partitioning
+     * @param shardCount parameter for logical partitioning
+     * @param take fetch size
+     * @param from lower timestamp bound in 100-ns ticks from Unix epoch
+     * @param to upper timestamp bound exclusive in 100-ns ticks from Unix epoch
+     * @param consumer consumer of event pages
+     * @return read state after all passed events
+     */
+    public TimelineState readTimeline(
+            Timeline timeline,
+            TimelineState readState,
+            int shardIndex,
+            int shardCount,
+            int take,
+            long from,
+            long to,
+            Consumer<byte[][]> consumer
     ) {
         long toInclusive = to - 1;
         long timetrapSize = timeline.getTimetrapSize();
 
         int[] partitions = LogicalPartitioner.getPartitionsForLogicalSharding(timeline, shardIndex, shardCount);
         if (partitions.length == 0) {
-            return new TimelineByteContent(readState, new byte[][]{});
+            return readState;
         }
         long[] timetrapOffsets = TimeTrapUtil.getTimetrapOffsets(from, toInclusive, timetrapSize);
+        if (timetrapOffsets.length == 0) {
+            return readState;
+        }
 
         Map<Integer, TimelineShardReadStateOffset> offsetMap = toMap(readState);
 
-        List<byte[]> result = new LinkedList<>();
-
-        for (Parameters params : new Grid(partitions, timetrapOffsets)) {
-            TimelineShardReadStateOffset offset = offsetMap.computeIfAbsent(
-                    params.slice,
-                    i -> getEmptyReadStateOffset(params.ttOffset)
-            );
-            if (params.ttOffset < offset.ttOffset) {
-                continue; // Skip already red timetrap offsets
-            } else if (offset.ttOffset < params.ttOffset ) {
-                offsetMap.put(params.slice, getEmptyReadStateOffset(params.ttOffset));
-                offset = offsetMap.get(params.slice);
+        Statements statements = statements(timeline);
+        List<Set<Integer>> nonEmptySlices = readNonEmptySlices(statements, timetrapOffsets);
+
+        AtomicInteger remaining = new AtomicInteger(take);
+        BlockingQueue<byte[][]> pages = new LinkedBlockingQueue<>();
+
+        SliceRead[] reads = new SliceRead[partitions.length];
+        for (int i = 0; i < partitions.length; i++) {
+            TimelineShardReadStateOffset offset =
+                    offsetMap.getOrDefault(partitions[i], getEmptyReadStateOffset(timetrapOffsets[0]));
+            boolean[] nonEmptyTimetraps = null;
+            if (nonEmptySlices != null) {
+                nonEmptyTimetraps = new boolean[timetrapOffsets.length];
+                for (int j = 0; j < timetrapOffsets.length; j++) {
+                    nonEmptyTimetraps[j] = nonEmptySlices.get(j).contains(partitions[i]);
+                }
             }
+            reads[i] = new SliceRead(
+                    statements,
+                    timeline,
+                    partitions[i],
+                    offset,
+                    timetrapOffsets,
+                    nonEmptyTimetraps,
+                    remaining,
+                    pages,
+                    from,
+                    to);
+        }
 
-            SimpleStatement statement = generateStatement(timeline, params, offset, take, from, to);
-
-            LOGGER.info("Executing '{}'", statement.toString());
-
-            ResultSet rows = session.execute(statement);
-            for (Row row : rows) {
-                offset.eventId = ByteUtil.fromByteBuffer(row.getByteBuffer(EVENT_ID));
-                result.add(row.getByteBuffer(PAYLOAD).array());
-                --take;
-            }
-            // If no rows were fetched increment tt_offset to mark partition (slice, offset_id) as red
-            if (isNil(offset.eventId)) {
-                offset.ttOffset += timeline.getTimetrapSize();
-            }
+        CompletableFuture<Void> completed = readTimetrap(reads, timetrapOffsets.length, 0, remaining);
+        completed.whenComplete((v, t) -> pages.add(END_OF_PAGES));
 
-            if (take <= 0) {
-                break;
+        try {
+            byte[][] page;
+            while ((page = pages.take()) != END_OF_PAGES) {
+                consumer.accept(page);
             }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reading timeline", ex);
         }
+        completed.join();
 
-        return new TimelineByteContent(toState(offsetMap), result.toArray(new byte[0][]));
+        for (SliceRead read : reads) {
+            offsetMap.put(read.slice, read.offset);
+        }
+        return toState(offsetMap);
     }
 
     public void shutdown() {
         session.close();
     }
 
-    private static TimelineShardReadStateOffset getEmptyReadStateOffset(long ttOffset) {
-        return new TimelineShardReadStateOffset(ttOffset, NIL);
+    private Statements statements(Timeline timeline) {
+        return statements.computeIfAbsent(timeline.getName(), table -> {
+            String indexTable = TimeTrapUtil.toTimeTrapIndexTableName(table);
+            return new Statements(
+                    session.prepare(String.format(SELECT_EVENTS, table)),
+                    session.prepare(String.format(SELECT_EVENTS_START_READING_SLICE, table)),
+                    connector.metadata(indexTable).isPresent()
+                            ? session.prepare(String.format(SELECT_TIMETRAP_SLICES, indexTable))
+                            : null);
+        });
+    }
+
+    /**
+     * Read non-empty slices of timetraps from the index table.
+     *
+     * @param statements      prepared statements of the timeline
+     * @param timetrapOffsets timetrap offsets
+     * @return non-empty slices for each timetrap offset or {@code null} if the timeline has no index table
+     */
+    private List<Set<Integer>> readNonEmptySlices(Statements statements, long[] timetrapOffsets) {
+        if (statements.selectTimetrapSlices == null) {
+            return null;
+        }
+
+        List<Set<Integer>> nonEmptySlices = new ArrayList<>(timetrapOffsets.length);
+        CompletableFuture<?>[] results = new CompletableFuture<?>[timetrapOffsets.length];
+        for (int i = 0; i < timetrapOffsets.length; i++) {
+            Set<Integer> slices = new HashSet<>();
+            nonEmptySlices.add(slices);
+            results[i] = session.executeAsync(statements.selectTimetrapSlices.bind(timetrapOffsets[i])).
+                    thenCompose(resultSet -> consumeSlices(resultSet, slices)).
+                    toCompletableFuture();
+        }
+        CompletableFuture.allOf(results).join();
+        return nonEmptySlices;
     }
 
-    private static SimpleStatement generateStatement(Timeline timeline, Parameters params, TimelineShardReadStateOffset offset, int take, long from, long to) {
-        if (!isNil(offset.eventId)) {
-            return SimpleStatement.builder(String.format(
-                    SELECT_EVENTS,
-                    timeline.getName(),
-                    params.slice,
-                    params.ttOffset,
-                    EventUtil.eventIdOfBytesAsHexString(offset.eventId),
-                    EventUtil.minEventIdForTimestampAsHexString(Math.min(to, TimeUtil.millisToTicks(params.ttOffset + timeline.getTimetrapSize()))),
-                    take
-            )).setPageSize(take).build();
-        } else {
-            return SimpleStatement.builder(String.format(
-                    SELECT_EVENTS_START_READING_SLICE,
-                    timeline.getName(),
-                    params.slice,
-                    params.ttOffset,
-                    EventUtil.minEventIdForTimestampAsHexString(Math.max(from, TimeUtil.millisToTicks(params.ttOffset))),
-                    EventUtil.minEventIdForTimestampAsHexString(Math.min(to, TimeUtil.millisToTicks(params.ttOffset + timeline.getTimetrapSize()))),
-                    take
-            )).setPageSize(take).build();
+    private static CompletionStage<Void> consumeSlices(AsyncResultSet resultSet, Set<Integer> slices) {
+        for (Row row : resultSet.currentPage()) {
+            slices.add(row.getInt(SLICE));
+        }
+        if (resultSet.hasMorePages()) {
+            return resultSet.fetchNextPage().thenCompose(nextPage -> consumeSlices(nextPage, slices));
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Read slices of the timetrap offset and then of the next ones while the shared budget allows.
+     *
+     * @param reads                slices to read
+     * @param timetrapOffsetsCount count of timetrap offsets
+     * @param ttOffsetIdx          index of the timetrap offset
+     * @param remaining            the shared budget
+     * @return future is completed when timetrap offsets are read
+     */
+    private CompletableFuture<Void> readTimetrap(
+            SliceRead[] reads,
+            int timetrapOffsetsCount,
+            int ttOffsetIdx,
+            AtomicInteger remaining) {
+        if (ttOffsetIdx >= timetrapOffsetsCount || remaining.get() <= 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        Queue<SliceRead> pendingReads = new ConcurrentLinkedQueue<>(Arrays.asList(reads));
+        CompletableFuture<?>[] lanes = new CompletableFuture<?>[Math.min(maxConcurrentSlices, reads.length)];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = readNext(pendingReads, ttOffsetIdx);
         }
+        return CompletableFuture.allOf(lanes).
+                thenCompose(v -> readTimetrap(reads, timetrapOffsetsCount, ttOffsetIdx + 1, remaining));
+    }
+
+    /**
+     * Start reading of the next pending slice when previous one is completed.
+     *
+     * @param pendingReads slices to read
+     * @param ttOffsetIdx  index of the timetrap offset
+     * @return future is completed when there are no pending slices
+     */
+    private static CompletableFuture<Void> readNext(Queue<SliceRead> pendingReads, int ttOffsetIdx) {
+        SliceRead read = pendingReads.poll();
+        if (read == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return read.read(ttOffsetIdx).thenCompose(v -> readNext(pendingReads, ttOffsetIdx)).toCompletableFuture();
+    }
+
+    private static TimelineShardReadStateOffset getEmptyReadStateOffset(long ttOffset) {
+        return new TimelineShardReadStateOffset(ttOffset, NIL);
     }
 
     private static Map<Integer, TimelineShardReadStateOffset> toMap(TimelineState readState) {
@@ -287,4 +389,243 @@ public class TimelineReader {
         );
     }
 
+    /**
+     * Prepared statements of the timeline table
+     */
+    private static class Statements {
+        final PreparedStatement selectEvents;
+        final PreparedStatement selectEventsStartReadingSlice;
+        final PreparedStatement selectTimetrapSlices;
+
+        Statements(
+                PreparedStatement selectEvents,
+                PreparedStatement selectEventsStartReadingSlice,
+                PreparedStatement selectTimetrapSlices) {
+            this.selectEvents = selectEvents;
+            this.selectEventsStartReadingSlice = selectEventsStartReadingSlice;
+            this.selectTimetrapSlices = selectTimetrapSlices;
+        }
+    }
+
+    /**
+     * Read of timetrap offsets of the slice.
+     * <p>
+     * Fetched events are passed to the page queue as long as the shared budget allows,
+     * so read state of the slice points to the last passed event.
+     */
+    private class SliceRead {
+        final Statements statements;
+        final Timeline timeline;
+        final int slice;
+        final TimelineShardReadStateOffset offset;
+        final long[] timetrapOffsets;
+        final boolean[] nonEmptyTimetraps;
+        final AtomicInteger remaining;
+        final Queue<byte[][]> pages;
+        final long from;
+        final long to;
+
+        /**
+         * Fetched events are not passed due to the budget is exhausted, thus the read should be stopped
+         */
+        boolean exhausted;
+
+        SliceRead(
+                Statements statements,
+                Timeline timeline,
+                int slice,
+                TimelineShardReadStateOffset offset,
+                long[] timetrapOffsets,
+                boolean[] nonEmptyTimetraps,
+                AtomicInteger remaining,
+                Queue<byte[][]> pages,
+                long from,
+                long to) {
+            this.statements = statements;
+            this.timeline = timeline;
+            this.slice = slice;
+            this.offset = offset;
+            this.timetrapOffsets = timetrapOffsets;
+            this.nonEmptyTimetraps = nonEmptyTimetraps;
+            this.remaining = remaining;
+            this.pages = pages;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * Read the timetrap offset of the slice.
+         *
+         * @param ttOffsetIdx index of the timetrap offset
+         * @return future is completed when the timetrap offset of the slice is read
+         */
+        CompletionStage<Void> read(int ttOffsetIdx) {
+            if (exhausted || remaining.get() <= 0) {
+                return CompletableFuture.completedFuture(null);
+            }
+
+            long ttOffset = timetrapOffsets[ttOffsetIdx];
+            if (ttOffset < offset.ttOffset) {
+                return CompletableFuture.completedFuture(null); // Skip already red timetrap offset
+            } else if (offset.ttOffset < ttOffset) {
+                offset.ttOffset = ttOffset;
+                offset.eventId = NIL;
+            }
+
+            if (nonEmptyTimetraps != null && !nonEmptyTimetraps[ttOffsetIdx]) {
+                // Skip empty partition as if no rows were fetched
+                if (isNil(offset.eventId)) {
+                    offset.ttOffset += timeline.getTimetrapSize();
+                }
+                return CompletableFuture.completedFuture(null);
+            }
+
+            int limit = remaining.get();
+            byte[] upperBound = EventUtil.minEventIdForTimestampAsBytes(
+                    Math.min(to, TimeUtil.millisToTicks(ttOffset + timeline.getTimetrapSize())));
+            boolean lowerBoundInclusive = isNil(offset.eventId);
+            byte[] lowerBound = lowerBoundInclusive
+                    ? EventUtil.minEventIdForTimestampAsBytes(Math.max(from, TimeUtil.millisToTicks(ttOffset)))
+                    : offset.eventId;
+            BoundStatement statement = statement(ttOffset, lowerBound, lowerBoundInclusive, upperBound, limit);
+
+            CompletionStage<Void> fetched;
+            if (cache != null && cache.isCacheable(ttOffset, timeline.getTimetrapSize())) {
+                TimetrapCache.Key key =
+                        new TimetrapCache.Key(timeline.getName(), slice, ttOffset, lowerBound, lowerBoundInclusive, upperBound);
+                TimetrapCache.Rows rows = cache.get(key, limit);
+                if (rows != null) {
+                    accept(rows.eventIds, rows.payloads);
+                    fetched = CompletableFuture.completedFuture(null);
+                } else {
+                    fetched = session.executeAsync(statement).
+                            thenCompose(resultSet -> fetch(resultSet, limit, new ArrayList<>(), new ArrayList<>())).
+                            thenAccept(fetchedRows -> {
+                                cache.put(key, fetchedRows);
+                                accept(fetchedRows.eventIds, fetchedRows.payloads);
+                            });
+                }
+            } else {
+                fetched = session.executeAsync(statement).thenCompose(this::consume);
+            }
+
+            return fetched.
+                    thenRun(() -> {
+                        // If no rows were fetched increment tt_offset to mark partition (slice, offset_id) as red
+                        if (!exhausted && isNil(offset.eventId)) {
+                            offset.ttOffset += timeline.getTimetrapSize();
+                        }
+                    });
+        }
+
+        /**
+         * Consume fetched rows page by page as soon as they are fetched.
+         */
+        private CompletionStage<Void> consume(AsyncResultSet resultSet) {
+            int rows = resultSet.remaining();
+            byte[][] eventIds = new byte[rows][];
+            byte[][] payloads = new byte[rows][];
+            int i = 0;
+            for (Row row : resultSet.currentPage()) {
+                eventIds[i] = ByteUtil.fromByteBuffer(row.getByteBuffer(EVENT_ID));
+                payloads[i] = ByteUtil.fromByteBuffer(row.getByteBuffer(PAYLOAD));
+                i++;
+            }
+            accept(eventIds, payloads);
+            if (!exhausted && resultSet.hasMorePages() && remaining.get() > 0) {
+                return resultSet.fetchNextPage().thenCompose(this::consume);
+            }
+            return CompletableFuture.completedFuture(null);
+        }
+
+        /**
+         * Fetch all rows up to the limit to cache them.
+         */
+        private CompletionStage<TimetrapCache.Rows> fetch(
+                AsyncResultSet resultSet,
+                int limit,
+                List<byte[]> eventIds,
+                List<byte[]> payloads) {
+            for (Row row : resultSet.currentPage()) {
+                eventIds.add(ByteUtil.fromByteBuffer(row.getByteBuffer(EVENT_ID)));
+                payloads.add(ByteUtil.fromByteBuffer(row.getByteBuffer(PAYLOAD)));
+            }
+            if (resultSet.hasMorePages() && eventIds.size() < limit) {
+                return resultSet.fetchNextPage().thenCompose(nextPage -> fetch(nextPage, limit, eventIds, payloads));
+            }
+            return CompletableFuture.completedFuture(new TimetrapCache.Rows(
+                    eventIds.toArray(new byte[0][]),
+                    payloads.toArray(new byte[0][]),
+                    eventIds.size() < limit));
+        }
+
+        /**
+         * Pass rows to the page queue as long as the shared budget allows.
+         * Stop the read if some rows are not passed.
+         *
+         * @param eventIds event ids of rows
+         * @param payloads payloads of rows
+         */
+        private void accept(byte[][] eventIds, byte[][] payloads) {
+            int rows = eventIds.length;
+            if (rows == 0) {
+                return;
+            }
+            int reserved = reserve(rows);
+            if (reserved > 0) {
+                offset.eventId = eventIds[reserved - 1];
+                pages.add((reserved == rows) ? payloads : Arrays.copyOf(payloads, reserved));
+            }
+            if (reserved < rows) {
+                exhausted = true;
+            }
+        }
+
+        /**
+         * Reserve events from the shared budget.
+         *
+         * @param count count of events to reserve
+         * @return count of reserved events
+         */
+        private int reserve(int count) {
+            int current;
+            int reserved;
+            do {
+                current = remaining.get();
+                reserved = Math.min(current, count);
+            } while (!remaining.compareAndSet(current, current - reserved));
+            return reserved;
+        }
+
+        private BoundStatement statement(
+                long ttOffset,
+                byte[] lowerBound,
+                boolean lowerBoundInclusive,
+                byte[] upperBound,
+                int limit) {
+            PreparedStatement statement = lowerBoundInclusive
+                    ? statements.selectEventsStartReadingSlice
+                    : statements.selectEvents;
+            return statement.bind(
+                    slice,
+                    ttOffset,
+                    ByteBuffer.wrap(lowerBound),
+                    ByteBuffer.wrap(upperBound),
+                    limit
+            ).setPageSize(limit);
+        }
+    }
+
+    private static class Props {
+        static final PropertyDescription<Integer> MAX_CONCURRENT_SLICES =
+                PropertyDescriptions.integerProperty("maxConcurrentSlices").
+                        withDefaultValue(16).
+                        withValidator(IntegerValidators.positive()).
+                        build();
+
+        static final PropertyDescription<Boolean> CACHE_ENABLE =
+                PropertyDescriptions.booleanProperty("cache.enable").
+                        withDefaultValue(false).
+                        build();
+    }
 }
@@ -0,0 +1,173 @@
+package ru.kontur.vostok.hercules.timeline.api;
+
+import com.codahale.metrics.Meter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import ru.kontur.vostok.hercules.health.MetricsCollector;
+import ru.kontur.vostok.hercules.util.properties.PropertyDescription;
+import ru.kontur.vostok.hercules.util.properties.PropertyDescriptions;
+import ru.kontur.vostok.hercules.util.validation.LongValidators;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache of rows are read from closed timetraps.
+ * <p>
+ * Timetrap is closed if it ended more than the safety lag ago, so rows of it are considered immutable.
+ * The cache is bounded by the total size of rows in bytes, least recently used rows are evicted first.
+ */
+class TimetrapCache {
+    private final long safetyLagMs;
+    private final Cache<Key, Rows> cache;
+
+    private final Meter hitsMeter;
+    private final Meter missesMeter;
+
+    TimetrapCache(Properties properties, MetricsCollector metricsCollector) {
+        this.safetyLagMs = Props.SAFETY_LAG_MS.extract(properties);
+        this.cache = CacheBuilder.newBuilder().
+                maximumWeight(Props.MAX_SIZE_BYTES.extract(properties)).
+                weigher((Key key, Rows rows) -> key.sizeBytes() + rows.sizeBytes).
+                expireAfterWrite(Props.EXPIRATION_MS.extract(properties), TimeUnit.MILLISECONDS).
+                build();
+
+        this.hitsMeter = metricsCollector.meter("timetrapCacheHits");
+        this.missesMeter = metricsCollector.meter("timetrapCacheMisses");
+        metricsCollector.gauge("timetrapCacheHitRate", () -> {
+            long hits = hitsMeter.getCount();
+            long requests = hits + missesMeter.getCount();
+            return (requests > 0) ? (double) hits / requests : 0.0;
+        });
+        metricsCollector.gauge("timetrapCacheSize", cache::size);
+    }
+
+    /**
+     * Check if rows of the timetrap can be cached.
+     *
+     * @param ttOffset     the timetrap offset in millis
+     * @param timetrapSize the timetrap size in millis
+     * @return {@code true} if the timetrap is closed, otherwise {@code false}
+     */
+    boolean isCacheable(long ttOffset, long timetrapSize) {
+        return ttOffset + timetrapSize + safetyLagMs <= System.currentTimeMillis();
+    }
+
+    /**
+     * Get cached rows if they are enough to satisfy the limit.
+     *
+     * @param key   the key
+     * @param limit the maximum count of rows are requested
+     * @return cached rows or {@code null} if there are no cached rows or they are not enough
+     */
+    Rows get(Key key, int limit) {
+        Rows rows = cache.getIfPresent(key);
+        if (rows != null && (rows.complete || rows.eventIds.length >= limit)) {
+            hitsMeter.mark();
+            return rows;
+        }
+        missesMeter.mark();
+        return null;
+    }
+
+    void put(Key key, Rows rows) {
+        cache.put(key, rows);
+    }
+
+    /**
+     * Rows of the {@code (slice, tt_offset)} partition in the event id range.
+     */
+    static final class Key {
+        private final String table;
+        private final int slice;
+        private final long ttOffset;
+        private final byte[] lowerBound;
+        private final boolean lowerBoundInclusive;
+        private final byte[] upperBound;
+
+        Key(String table, int slice, long ttOffset, byte[] lowerBound, boolean lowerBoundInclusive, byte[] upperBound) {
+            this.table = table;
+            this.slice = slice;
+            this.ttOffset = ttOffset;
+            this.lowerBound = lowerBound;
+            this.lowerBoundInclusive = lowerBoundInclusive;
+            this.upperBound = upperBound;
+        }
+
+        int sizeBytes() {
+            return table.length() + lowerBound.length + upperBound.length + 32;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return slice == key.slice
+                    && ttOffset == key.ttOffset
+                    && lowerBoundInclusive == key.lowerBoundInclusive
+                    && table.equals(key.table)
+                    && Arrays.equals(lowerBound, key.lowerBound)
+                    && Arrays.equals(upperBound, key.upperBound);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = Objects.hash(table, slice, ttOffset, lowerBoundInclusive);
+            result = 31 * result + Arrays.hashCode(lowerBound);
+            result = 31 * result + Arrays.hashCode(upperBound);
+            return result;
+        }
+    }
+
+    /**
+     * Rows are read with the limit.
+     */
+    static final class Rows {
+        final byte[][] eventIds;
+        final byte[][] payloads;
+        /**
+         * Rows are read completely if the limit was not reached
+         */
+        final boolean complete;
+        final int sizeBytes;
+
+        Rows(byte[][] eventIds, byte[][] payloads, boolean complete) {
+            this.eventIds = eventIds;
+            this.payloads = payloads;
+            this.complete = complete;
+
+            int size = 0;
+            for (int i = 0; i < eventIds.length; i++) {
+                size += eventIds[i].length + payloads[i].length;
+            }
+            this.sizeBytes = size;
+        }
+    }
+
+    private static class Props {
+        static final PropertyDescription<Long> MAX_SIZE_BYTES =
+                PropertyDescriptions.longProperty("maxSizeBytes").
+                        withDefaultValue(128L * 1024 * 1024).
+                        withValidator(LongValidators.positive()).
+                        build();
+
+        static final PropertyDescription<Long> SAFETY_LAG_MS =
+                PropertyDescriptions.longProperty("safetyLagMs").
+                        withDefaultValue(60_000L).
+                        withValidator(LongValidators.positive()).
+                        build();
+
+        static final PropertyDescription<Long> EXPIRATION_MS =
+                PropertyDescriptions.longProperty("expirationMs").
+                        withDefaultValue(600_000L).
+                        withValidator(LongValidators.positive()).
+                        build();
+    }
+}
@@ -1,82 +1,84 @@
 package ru.kontur.vostok.hercules.timeline.api;
 
+import com.codahale.metrics.Meter;
 import com.datastax.oss.driver.api.core.CqlSession;
-import com.datastax.oss.driver.api.core.cql.ResultSet;
-import com.datastax.oss.driver.api.core.cql.SimpleStatement;
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.cql.Row;
+import com.datastax.oss.driver.api.core.metadata.schema.TableMetadata;
 import org.junit.Before;
 import org.junit.Test;
-import org.mockito.ArgumentMatcher;
-import org.mockito.internal.matchers.Matches;
 import ru.kontur.vostok.hercules.cassandra.util.CassandraConnector;
+import ru.kontur.vostok.hercules.health.MetricsCollector;
 import ru.kontur.vostok.hercules.meta.timeline.Timeline;
+import ru.kontur.vostok.hercules.protocol.TimelineByteContent;
 import ru.kontur.vostok.hercules.protocol.TimelineSliceState;
 import ru.kontur.vostok.hercules.protocol.TimelineState;
 import ru.kontur.vostok.hercules.protocol.util.EventUtil;
 import ru.kontur.vostok.hercules.util.time.TimeUtil;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class TimelineReaderTest {
 
-    private static class StatementMatcher implements ArgumentMatcher<SimpleStatement> {
-
-        private final ArgumentMatcher<Object> cqlMatcher;
-        private final String regexp;
-
-        public StatementMatcher(String regexp) {
-            this.cqlMatcher = new Matches(regexp);
-            this.regexp = regexp;
-        }
-
-        @Override
-        public boolean matches(SimpleStatement argument) {
-            return cqlMatcher.matches(argument.getQuery());
-        }
-
-        @Override
-        public String toString() {
-            return "Expression matches \"" + regexp + "\"";
-        }
-    }
-
-    private static final String EVENT_ID_REGEXP = "0x[0-9a-zA-Z]{48}";
-
     private static final Timeline TIMELINE = new Timeline();
     static {
-        TIMELINE.setName("test-timeline");
+        TIMELINE.setName("test_timeline");
         TIMELINE.setSlices(1);
         TIMELINE.setTimetrapSize(1_000);
     }
 
     private TimelineReader timelineReader;
     private CqlSession session = mock(CqlSession.class);
-    private ResultSet resultSet = mock(ResultSet.class);
+    private PreparedStatement selectEvents = mock(PreparedStatement.class);
+    private PreparedStatement selectEventsStartReadingSlice = mock(PreparedStatement.class);
+    private PreparedStatement selectTimetrapSlices = mock(PreparedStatement.class);
+    private CassandraConnector connector = mock(CassandraConnector.class);
+    private MetricsCollector metricsCollector = mock(MetricsCollector.class);
 
     @Before
-    public void setUp() throws Exception {
-        CassandraConnector connector = mock(CassandraConnector.class);
+    public void setUp() {
         when(connector.session()).thenReturn(session);
+        when(metricsCollector.meter(anyString())).thenReturn(new Meter());
 
-        mockIterable(resultSet);
-
-        when(session.execute(any(SimpleStatement.class))).thenReturn(resultSet);
+        when(session.prepare(anyString())).thenAnswer(invocation -> {
+            String query = invocation.getArgument(0);
+            if (query.contains("_timetraps")) {
+                return selectTimetrapSlices;
+            }
+            return query.contains("event_id >= ?") ? selectEventsStartReadingSlice : selectEvents;
+        });
+        mockSlice(selectEvents, null);
+        mockSlice(selectEventsStartReadingSlice, null);
 
-        timelineReader = new TimelineReader(connector);
+        timelineReader = new TimelineReader(new Properties(), connector, metricsCollector);
     }
 
     @Test
     public void shouldRequestTwoSlices() {
         Timeline timeline = new Timeline();
-        timeline.setName("test-timeline");
+        timeline.setName("test_timeline");
         timeline.setSlices(2);
         timeline.setTimetrapSize(1_000);
 
@@ -90,8 +92,8 @@ public class TimelineReaderTest {
                 10_000_000
         );
 
-        verify(session).execute(argThat(cql(".+ slice = 0 .+")));
-        verify(session).execute(argThat(cql(".+ slice = 1 .+")));
+        verify(selectEventsStartReadingSlice).bind(eq(0), eq(0L), any(), any(), eq(10));
+        verify(selectEventsStartReadingSlice).bind(eq(1), eq(0L), any(), any(), eq(10));
     }
 
     @Test
@@ -106,17 +108,21 @@ public class TimelineReaderTest {
                 10_000_000
         );
 
-        verify(session).execute(argThat(cql(
-                ".+ event_id >= " + EVENT_ID_REGEXP + " AND event_id < " + EVENT_ID_REGEXP + " .+"
-        )));
+        verify(selectEventsStartReadingSlice).bind(
+                eq(0),
+                eq(0L),
+                eq(ByteBuffer.wrap(EventUtil.minEventIdForTimestampAsBytes(0))),
+                eq(ByteBuffer.wrap(EventUtil.minEventIdForTimestampAsBytes(10_000_000))),
+                eq(1));
     }
 
     @Test
     public void shouldNotIncludeMinimalEventIdInRequestIfPartitionReadStatePassed() {
+        byte[] eventId = EventUtil.eventIdAsBytes(122_192_928_000_000_000L, UUID.fromString("13814000-1dd2-11b2-8000-000000000000"));
         timelineReader.readTimeline(
                 TIMELINE,
                 new TimelineState(new TimelineSliceState[]{
-                        new TimelineSliceState(0, 0, EventUtil.eventIdAsBytes(122_192_928_000_000_000L, UUID.fromString("13814000-1dd2-11b2-8000-000000000000")))
+                        new TimelineSliceState(0, 0, eventId)
                 }),
                 0,
                 1,
@@ -125,9 +131,7 @@ public class TimelineReaderTest {
                 10_000_000
         );
 
-        verify(session).execute(argThat(cql(
-                ".+ event_id > " + EVENT_ID_REGEXP + " AND event_id < " + EVENT_ID_REGEXP + " .+"
-        )));
+        verify(selectEvents).bind(eq(0), eq(0L), eq(ByteBuffer.wrap(eventId)), any(), eq(1));
     }
 
     @Test
@@ -143,35 +147,220 @@ public class TimelineReaderTest {
                 from,
                 to);
 
-        verify(session).execute(argThat(cql(
-                ".+ event_id >= " + EventUtil.minEventIdForTimestampAsHexString(from) + " AND " +
-                        "event_id < " + EventUtil.minEventIdForTimestampAsHexString(to) + " .+")));
+        verify(selectEventsStartReadingSlice).bind(
+                eq(0),
+                eq(0L),
+                eq(ByteBuffer.wrap(EventUtil.minEventIdForTimestampAsBytes(from))),
+                eq(ByteBuffer.wrap(EventUtil.minEventIdForTimestampAsBytes(to))),
+                eq(1));
     }
 
-    public static <T> void mockIterable(Iterable<T> iterable, T... values) {
-        Iterator<T> mockIterator = mock(Iterator.class);
-        when(iterable.iterator()).thenReturn(mockIterator);
-
-        if (values.length == 0) {
-            when(mockIterator.hasNext()).thenReturn(false);
-            return;
-        } else if (values.length == 1) {
-            when(mockIterator.hasNext()).thenReturn(true, false);
-            when(mockIterator.next()).thenReturn(values[0]);
-        } else {
-            // build boolean array for hasNext()
-            Boolean[] hasNextResponses = new Boolean[values.length];
-            for (int i = 0; i < hasNextResponses.length - 1; i++) {
-                hasNextResponses[i] = true;
-            }
-            hasNextResponses[hasNextResponses.length - 1] = false;
-            when(mockIterator.hasNext()).thenReturn(true, hasNextResponses);
-            T[] valuesMinusTheFirst = Arrays.copyOfRange(values, 1, values.length);
-            when(mockIterator.next()).thenReturn(values[0], valuesMinusTheFirst);
+    @Test
+    public void shouldReadSlicesUpToTake() {
+        Timeline timeline = new Timeline();
+        timeline.setName("test_timeline");
+        timeline.setSlices(2);
+        timeline.setTimetrapSize(1_000);
+
+        mockSlice(selectEventsStartReadingSlice, 0, eventId(1), eventId(2));
+        mockSlice(selectEventsStartReadingSlice, 1, eventId(3), eventId(4));
+
+        TimelineByteContent content = timelineReader.readTimeline(
+                timeline,
+                new TimelineState(new TimelineSliceState[]{}),
+                0,
+                1,
+                3,
+                0,
+                10_000_000
+        );
+
+        assertEquals(3, content.getRawEvents().length);
+        assertArrayEquals(eventId(1), content.getRawEvents()[0]);
+        assertArrayEquals(eventId(2), content.getRawEvents()[1]);
+        assertArrayEquals(eventId(3), content.getRawEvents()[2]);
+
+        TimelineSliceState[] sliceStates = content.getReadState().getSliceStates();
+        Arrays.sort(sliceStates, (a, b) -> Integer.compare(a.getSlice(), b.getSlice()));
+        assertEquals(2, sliceStates.length);
+        assertArrayEquals(eventId(2), sliceStates[0].getEventId());
+        assertArrayEquals(eventId(3), sliceStates[1].getEventId());
+    }
+
+    @Test
+    public void shouldPrepareStatementsOnce() {
+        for (int i = 0; i < 2; i++) {
+            timelineReader.readTimeline(
+                    TIMELINE,
+                    new TimelineState(new TimelineSliceState[]{}),
+                    0,
+                    1,
+                    1,
+                    0,
+                    10_000_000
+            );
         }
+
+        verify(session, times(2)).prepare(anyString());
+    }
+
+    @Test
+    public void shouldSkipEmptyTimetrapsIfIndexExists() {
+        Timeline timeline = new Timeline();
+        timeline.setName("test_timeline");
+        timeline.setSlices(2);
+        timeline.setTimetrapSize(1_000);
+
+        when(connector.metadata("test_timeline_timetraps")).thenReturn(Optional.of(mock(TableMetadata.class)));
+        Row row = mock(Row.class);
+        when(row.getInt("slice")).thenReturn(1);
+        AsyncResultSet resultSet = mock(AsyncResultSet.class);
+        when(resultSet.currentPage()).thenReturn(Collections.singletonList(row));
+        when(resultSet.remaining()).thenReturn(1);
+        BoundStatement boundStatement = mock(BoundStatement.class);
+        when(selectTimetrapSlices.bind(0L)).thenReturn(boundStatement);
+        when(session.executeAsync(boundStatement)).thenReturn(CompletableFuture.completedFuture(resultSet));
+
+        TimelineByteContent content = timelineReader.readTimeline(
+                timeline,
+                new TimelineState(new TimelineSliceState[]{}),
+                0,
+                1,
+                10,
+                0,
+                10_000_000
+        );
+
+        verify(selectEventsStartReadingSlice, never()).bind(eq(0), any(), any(), any(), any());
+        verify(selectEventsStartReadingSlice).bind(eq(1), eq(0L), any(), any(), eq(10));
+
+        TimelineSliceState[] sliceStates = content.getReadState().getSliceStates();
+        Arrays.sort(sliceStates, (a, b) -> Integer.compare(a.getSlice(), b.getSlice()));
+        assertEquals(1_000L, sliceStates[0].getTtOffset());
+    }
+
+    @Test
+    public void shouldReadClosedTimetrapFromCache() {
+        Properties properties = new Properties();
+        properties.setProperty("cache.enable", "true");
+        TimelineReader cachingReader = new TimelineReader(properties, connector, metricsCollector);
+
+        mockSlice(selectEventsStartReadingSlice, 0, eventId(1), eventId(2));
+
+        for (int i = 0; i < 2; i++) {
+            TimelineByteContent content = cachingReader.readTimeline(
+                    TIMELINE,
+                    new TimelineState(new TimelineSliceState[]{}),
+                    0,
+                    1,
+                    10,
+                    0,
+                    10_000_000
+            );
+            assertEquals(2, content.getRawEvents().length);
+        }
+
+        verify(session, times(1)).executeAsync(any(BoundStatement.class));
+    }
+
+    @Test
+    public void shouldReadAllSlicesIfIndexTableIsAbsent() {
+        Timeline timeline = new Timeline();
+        timeline.setName("test_timeline");
+        timeline.setSlices(2);
+        timeline.setTimetrapSize(1_000);
+
+        when(connector.metadata("test_timeline_timetraps")).thenReturn(Optional.empty());
+
+        timelineReader.readTimeline(
+                timeline,
+                new TimelineState(new TimelineSliceState[]{}),
+                0,
+                1,
+                10,
+                0,
+                10_000_000
+        );
+
+        verify(selectTimetrapSlices, never()).bind(any());
+        verify(selectEventsStartReadingSlice).bind(eq(0), eq(0L), any(), any(), eq(10));
+        verify(selectEventsStartReadingSlice).bind(eq(1), eq(0L), any(), any(), eq(10));
+    }
+
+    @Test
+    public void shouldReadAllSlicesOfTimetrapBeforeNextOne() {
+        Timeline timeline = new Timeline();
+        timeline.setName("test_timeline");
+        timeline.setSlices(2);
+        timeline.setTimetrapSize(1_000);
+
+        Properties properties = new Properties();
+        properties.setProperty("maxConcurrentSlices", "1");
+        TimelineReader reader = new TimelineReader(properties, connector, metricsCollector);
+
+        mockSlice(selectEventsStartReadingSlice, 0, 0L, eventId(1));
+        mockSlice(selectEventsStartReadingSlice, 0, 1_000L, eventId(2));
+        mockSlice(selectEventsStartReadingSlice, 1, 0L, eventId(3));
+
+        TimelineByteContent content = reader.readTimeline(
+                timeline,
+                new TimelineState(new TimelineSliceState[]{}),
+                0,
+                1,
+                2,
+                0,
+                TimeUtil.millisToTicks(2_000)
+        );
+
+        assertEquals(2, content.getRawEvents().length);
+        assertArrayEquals(eventId(1), content.getRawEvents()[0]);
+        assertArrayEquals(eventId(3), content.getRawEvents()[1]);
+        verify(selectEventsStartReadingSlice, never()).bind(eq(0), eq(1_000L), any(), any(), any());
+
+        TimelineSliceState[] sliceStates = content.getReadState().getSliceStates();
+        Arrays.sort(sliceStates, (a, b) -> Integer.compare(a.getSlice(), b.getSlice()));
+        assertEquals(0L, sliceStates[0].getTtOffset());
+        assertArrayEquals(eventId(1), sliceStates[0].getEventId());
+        assertEquals(0L, sliceStates[1].getTtOffset());
+        assertArrayEquals(eventId(3), sliceStates[1].getEventId());
+    }
+
+    /**
+     * Mock reading of the slice, payload of each row is the same as its event id.
+     * Any slice is matched if {@code slice} is {@code null}.
+     */
+    private void mockSlice(PreparedStatement statement, Integer slice, byte[]... eventIds) {
+        mockSlice(statement, slice, null, eventIds);
+    }
+
+    /**
+     * Mock reading of the timetrap offset of the slice, payload of each row is the same as its event id.
+     * Any slice or timetrap offset is matched if {@code slice} or {@code ttOffset} is {@code null} respectively.
+     */
+    private void mockSlice(PreparedStatement statement, Integer slice, Long ttOffset, byte[]... eventIds) {
+        List<Row> rows = new ArrayList<>(eventIds.length);
+        for (byte[] eventId : eventIds) {
+            Row row = mock(Row.class);
+            when(row.getByteBuffer(anyString())).thenAnswer(invocation -> ByteBuffer.wrap(eventId));
+            rows.add(row);
+        }
+
+        AsyncResultSet resultSet = mock(AsyncResultSet.class);
+        when(resultSet.currentPage()).thenReturn(rows.isEmpty() ? Collections.emptyList() : rows);
+        when(resultSet.remaining()).thenReturn(rows.size());
+
+        BoundStatement boundStatement = mock(BoundStatement.class);
+        when(boundStatement.setPageSize(anyInt())).thenReturn(boundStatement);
+        when(statement.bind(
+                (slice != null) ? eq(slice) : anyInt(),
+                (ttOffset != null) ? eq(ttOffset) : any(),
+                any(),
+                any(),
+                any())).thenReturn(boundStatement);
+        when(session.executeAsync(boundStatement)).thenReturn(CompletableFuture.completedFuture(resultSet));
     }
 
-    public static StatementMatcher cql(String regexp) {
-        return new StatementMatcher(regexp);
+    private static byte[] eventId(long timestamp) {
+        return EventUtil.eventIdAsBytes(timestamp, UUID.fromString("13814000-1dd2-11b2-8000-000000000000"));
     }
 }
@@ -2,6 +2,12 @@ package ru.kontur.vostok.hercules.timeline.manager;
 
 import com.datastax.oss.driver.api.core.CqlSession;
 import ru.kontur.vostok.hercules.cassandra.util.CassandraConnector;
+import ru.kontur.vostok.hercules.meta.timeline.TimeTrapUtil;
+import ru.kontur.vostok.hercules.meta.timeline.Timeline;
+import ru.kontur.vostok.hercules.meta.timeline.TimelineStorageOptions;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * @author Gregory Koshelev
@@ -14,14 +20,28 @@ public class CassandraManager {
     }
 
     /**
-     * Create the table with TTL if it doesn't exist
+     * Recommended count of compaction windows per TTL for {@code TimeWindowCompactionStrategy}
+     */
+    private static final int COMPACTION_WINDOWS_PER_TTL = 30;
+
+    /**
+     * Create the table and the index table of non-empty timetraps with TTL if they don't exist.
+     * <p>
+     * Storage options of the timeline are applied to the table.
+     * <p>
+     * The index table is partitioned by {@code tt_offset} only, so the timetrap is read by the single query.
+     * Thus, the partition of the current timetrap is hot: each sink writes distinct slices of every sent batch to it,
+     * that is up to {@code slices} idempotent rows per batch per sink. The partition holds at most {@code slices} rows,
+     * and the write rate is bounded by the rate of batches rather than events, which is accepted for this table.
      *
-     * @param table the table name
-     * @param ttl   TTL in millis
+     * @param timeline the timeline
      */
-    public void createTable(String table, long ttl) {
+    public void createTable(Timeline timeline) {
         CqlSession session = connector.session();
 
+        String table = timeline.getName();
+        long ttl = timeline.getTtl();
+
         //TODO: What if table already exists?
         // Create table if it doesn't exist
         session.execute("CREATE TABLE IF NOT EXISTS " + table + " (\n"
@@ -30,11 +50,18 @@ public class CassandraManager {
                 + "event_id blob,"
                 + "payload blob,"
                 + "PRIMARY KEY ((slice, tt_offset), event_id))\n"
+                + "WITH default_time_to_live = " + (ttl / 1000)
+                + storageOptions(timeline, " AND ") + ";");
+
+        session.execute("CREATE TABLE IF NOT EXISTS " + TimeTrapUtil.toTimeTrapIndexTableName(table) + " (\n"
+                + "tt_offset bigint,"
+                + "slice int,"
+                + "PRIMARY KEY (tt_offset, slice))\n"
                 + "WITH default_time_to_live = " + (ttl / 1000) + ";");
     }
 
     /**
-     * Delete the table if exists
+     * Delete the table and the index table if exist
      *
      * @param table the table name
      */
@@ -42,10 +69,13 @@ public class CassandraManager {
         CqlSession session = connector.session();
 
         session.execute("DROP TABLE IF EXISTS " + table);
+        session.execute("DROP TABLE IF EXISTS " + TimeTrapUtil.toTimeTrapIndexTableName(table));
     }
 
     /**
-     * Alter ttl in the table
+     * Alter ttl in the table and the index table if exists.
+     * <p>
+     * Timelines created before timetrap index was introduced have no index table.
      *
      * @param table the table name
      * @param ttl TTL in millis
@@ -54,5 +84,80 @@ public class CassandraManager {
         CqlSession session = connector.session();
 
         session.execute("ALTER TABLE " + table + " WITH default_time_to_live = " + (ttl / 1000) + ";");
+
+        String indexTable = TimeTrapUtil.toTimeTrapIndexTableName(table);
+        if (connector.metadata(indexTable).isPresent()) {
+            session.execute("ALTER TABLE " + indexTable + " WITH default_time_to_live = " + (ttl / 1000) + ";");
+        }
+    }
+
+    /**
+     * Alter storage options of the table if they are specified.
+     *
+     * @param timeline the timeline
+     */
+    public void changeStorageOptions(Timeline timeline) {
+        String options = storageOptions(timeline, " WITH ");
+        if (options.isEmpty()) {
+            return;
+        }
+        connector.session().execute("ALTER TABLE " + timeline.getName() + options + ";");
+    }
+
+    /**
+     * Build CQL table options from storage options of the timeline.
+     * <p>
+     * If compaction window of {@code TimeWindowCompactionStrategy} is not specified,
+     * then it is aligned with the timetrap size so that TTL is covered by about {@link #COMPACTION_WINDOWS_PER_TTL} windows.
+     *
+     * @param timeline the timeline
+     * @param prefix   the prefix is used if any option is specified
+     * @return table options or empty string if there are no storage options
+     */
+    private static String storageOptions(Timeline timeline, String prefix) {
+        TimelineStorageOptions storageOptions = timeline.getStorageOptions();
+        if (storageOptions == null) {
+            return "";
+        }
+
+        List<String> options = new ArrayList<>(3);
+
+        String compactionStrategy = storageOptions.getCompactionStrategy();
+        if (compactionStrategy != null) {
+            StringBuilder compaction = new StringBuilder("compaction = {'class': '").append(compactionStrategy).append("'");
+            if ("TimeWindowCompactionStrategy".equals(compactionStrategy)) {
+                long windowMs = storageOptions.getCompactionWindowSize();
+                if (windowMs == 0) {
+                    long timetrapSize = timeline.getTimetrapSize();
+                    long windows = (timeline.getTtl() / COMPACTION_WINDOWS_PER_TTL + timetrapSize - 1) / timetrapSize;
+                    windowMs = Math.max(windows, 1) * timetrapSize;
+                }
+                long windowMinutes = Math.max((windowMs + 59_999) / 60_000, 1);
+                compaction.append(", 'compaction_window_unit': 'MINUTES', 'compaction_window_size': ").append(windowMinutes);
+            }
+            options.add(compaction.append("}").toString());
+        }
+
+        String compressionCodec = storageOptions.getCompressionCodec();
+        int chunkLengthKb = storageOptions.getCompressionChunkLengthKb();
+        if (compressionCodec != null || chunkLengthKb > 0) {
+            StringBuilder compression = new StringBuilder("compression = {");
+            compression.append("'class': '").append(compressionCodec != null ? compressionCodec : "LZ4Compressor").append("'");
+            if (chunkLengthKb > 0) {
+                compression.append(", 'chunk_length_in_kb': ").append(chunkLengthKb);
+            }
+            options.add(compression.append("}").toString());
+        }
+
+        String cachingKeys = storageOptions.getCachingKeys();
+        String cachingRowsPerPartition = storageOptions.getCachingRowsPerPartition();
+        if (cachingKeys != null || cachingRowsPerPartition != null) {
+            options.add("caching = {"
+                    + "'keys': '" + (cachingKeys != null ? cachingKeys : "ALL") + "', "
+                    + "'rows_per_partition': '" + (cachingRowsPerPartition != null ? cachingRowsPerPartition : "NONE") + "'"
+                    + "}");
+        }
+
+        return options.isEmpty() ? "" : prefix + String.join(" AND ", options);
     }
 }
@@ -39,7 +39,7 @@ public class TimelineTaskExecutor extends TaskExecutor<TimelineTask> {
     protected boolean execute(TimelineTask task) {
         switch (task.getType()) {
             case CREATE:
-                cassandraManager.createTable(task.getTimeline().getName(), task.getTimeline().getTtl());//TODO: process creation error
+                cassandraManager.createTable(task.getTimeline());//TODO: process creation error
                 LOGGER.info("Created table '{}'", task.getTimeline().getName());
                 try {
                     timelineRepository.create(task.getTimeline());
@@ -62,6 +62,8 @@ public class TimelineTaskExecutor extends TaskExecutor<TimelineTask> {
                 return true;
             case CHANGE_TTL:
                 cassandraManager.changeTtl(task.getTimeline().getName(), task.getTimeline().getTtl());
+                // Compaction window may depend on TTL
+                cassandraManager.changeStorageOptions(task.getTimeline());
                 try {
                     timelineRepository.update(task.getTimeline());
                 } catch (Exception e) {
@@ -70,6 +72,17 @@ public class TimelineTaskExecutor extends TaskExecutor<TimelineTask> {
                 }
                 updateTimelineCount.mark();
                 return true;
+            case CHANGE_STORAGE_OPTIONS:
+                cassandraManager.changeStorageOptions(task.getTimeline());
+                LOGGER.info("Changed storage options of table '{}'", task.getTimeline().getName());
+                try {
+                    timelineRepository.update(task.getTimeline());
+                } catch (Exception e) {
+                    LOGGER.error("Timeline update failed with exception", e);
+                    return false;
+                }
+                updateTimelineCount.mark();
+                return true;
             default:
                 LOGGER.error("Unknown task type {}", task.getType());
                 return false;
@@ -0,0 +1,158 @@
+package ru.kontur.vostok.hercules.timeline.manager;
+
+import com.datastax.oss.driver.api.core.CqlSession;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import ru.kontur.vostok.hercules.cassandra.util.CassandraConnector;
+import ru.kontur.vostok.hercules.meta.timeline.Timeline;
+import ru.kontur.vostok.hercules.meta.timeline.TimelineStorageOptions;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CassandraManagerTest {
+    private static final long TTL_MS = 2 * 24 * 60 * 60 * 1000L;
+    private static final long TIMETRAP_SIZE_MS = 60 * 60 * 1000L;
+
+    private final CqlSession session = mock(CqlSession.class);
+    private final CassandraConnector connector = mock(CassandraConnector.class);
+    private CassandraManager cassandraManager;
+
+    @Before
+    public void setUp() {
+        when(connector.session()).thenReturn(session);
+        cassandraManager = new CassandraManager(connector);
+    }
+
+    @Test
+    public void shouldCreateTableWithoutStorageOptions() {
+        cassandraManager.createTable(timeline(null));
+
+        assertEquals("WITH default_time_to_live = 172800;", tableOptions(createTableQuery()));
+    }
+
+    @Test
+    public void shouldDeriveCompactionWindowFromTtlAndTimetrapSize() {
+        TimelineStorageOptions options = new TimelineStorageOptions();
+        options.setCompactionStrategy("TimeWindowCompactionStrategy");
+
+        cassandraManager.createTable(timeline(options));
+
+        // TTL / 30 = 96 minutes is rounded up to 2 timetraps
+        assertEquals(
+                "WITH default_time_to_live = 172800 AND compaction = {'class': 'TimeWindowCompactionStrategy', "
+                        + "'compaction_window_unit': 'MINUTES', 'compaction_window_size': 120};",
+                tableOptions(createTableQuery()));
+    }
+
+    @Test
+    public void shouldRoundUpCompactionWindowToMinutes() {
+        TimelineStorageOptions options = new TimelineStorageOptions();
+        options.setCompactionStrategy("TimeWindowCompactionStrategy");
+        options.setCompactionWindowSize(90_000L);
+
+        cassandraManager.createTable(timeline(options));
+
+        assertEquals(
+                "WITH default_time_to_live = 172800 AND compaction = {'class': 'TimeWindowCompactionStrategy', "
+                        + "'compaction_window_unit': 'MINUTES', 'compaction_window_size': 2};",
+                tableOptions(createTableQuery()));
+    }
+
+    @Test
+    public void shouldNotSpecifyCompactionWindowForOtherStrategies() {
+        TimelineStorageOptions options = new TimelineStorageOptions();
+        options.setCompactionStrategy("LeveledCompactionStrategy");
+        options.setCompactionWindowSize(90_000L);
+
+        cassandraManager.createTable(timeline(options));
+
+        assertEquals(
+                "WITH default_time_to_live = 172800 AND compaction = {'class': 'LeveledCompactionStrategy'};",
+                tableOptions(createTableQuery()));
+    }
+
+    @Test
+    public void shouldUseDefaultCompressionCodecIfOnlyChunkLengthIsSpecified() {
+        TimelineStorageOptions options = new TimelineStorageOptions();
+        options.setCompressionChunkLengthKb(64);
+
+        cassandraManager.createTable(timeline(options));
+
+        assertEquals(
+                "WITH default_time_to_live = 172800 AND compression = {'class': 'LZ4Compressor', 'chunk_length_in_kb': 64};",
+                tableOptions(createTableQuery()));
+    }
+
+    @Test
+    public void shouldUseDefaultCachingOptionIfOnlyOneIsSpecified() {
+        TimelineStorageOptions options = new TimelineStorageOptions();
+        options.setCachingRowsPerPartition("10");
+
+        cassandraManager.createTable(timeline(options));
+
+        assertEquals(
+                "WITH default_time_to_live = 172800 AND caching = {'keys': 'ALL', 'rows_per_partition': '10'};",
+                tableOptions(createTableQuery()));
+
+        options.setCachingRowsPerPartition(null);
+        options.setCachingKeys("NONE");
+
+        cassandraManager.changeStorageOptions(timeline(options));
+
+        verify(session).execute("ALTER TABLE test_timeline WITH caching = {'keys': 'NONE', 'rows_per_partition': 'NONE'};");
+    }
+
+    @Test
+    public void shouldAlterAllStorageOptions() {
+        TimelineStorageOptions options = new TimelineStorageOptions();
+        options.setCompactionStrategy("SizeTieredCompactionStrategy");
+        options.setCompressionCodec("ZstdCompressor");
+        options.setCachingKeys("ALL");
+        options.setCachingRowsPerPartition("ALL");
+
+        cassandraManager.changeStorageOptions(timeline(options));
+
+        verify(session).execute("ALTER TABLE test_timeline WITH "
+                + "compaction = {'class': 'SizeTieredCompactionStrategy'} AND "
+                + "compression = {'class': 'ZstdCompressor'} AND "
+                + "caching = {'keys': 'ALL', 'rows_per_partition': 'ALL'};");
+    }
+
+    @Test
+    public void shouldNotAlterTableWithoutStorageOptions() {
+        cassandraManager.changeStorageOptions(timeline(null));
+        cassandraManager.changeStorageOptions(timeline(new TimelineStorageOptions()));
+
+        verify(session, never()).execute(anyString());
+    }
+
+    private String createTableQuery() {
+        ArgumentCaptor<String> queries = ArgumentCaptor.forClass(String.class);
+        verify(session, times(2)).execute(queries.capture());
+        return queries.getAllValues().get(0);
+    }
+
+    /**
+     * Extract table options of the create table query.
+     */
+    private static String tableOptions(String createTableQuery) {
+        return createTableQuery.substring(createTableQuery.indexOf("WITH "));
+    }
+
+    private static Timeline timeline(TimelineStorageOptions options) {
+        Timeline timeline = new Timeline();
+        timeline.setName("test_timeline");
+        timeline.setSlices(1);
+        timeline.setTtl(TTL_MS);
+        timeline.setTimetrapSize(TIMETRAP_SIZE_MS);
+        timeline.setStorageOptions(options);
+        return timeline;
+    }
+}
@@ -1,6 +1,11 @@
 package ru.kontur.vostok.hercules.timeline.sink;
 
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import ru.kontur.vostok.hercules.cassandra.sink.CassandraSender;
+import ru.kontur.vostok.hercules.cassandra.util.CassandraConnector;
 import ru.kontur.vostok.hercules.cassandra.util.Slicer;
 import ru.kontur.vostok.hercules.health.MetricsCollector;
 import ru.kontur.vostok.hercules.kafka.util.processing.BackendServiceFailedException;
@@ -9,43 +14,86 @@ import ru.kontur.vostok.hercules.meta.timeline.TimeTrapUtil;
 import ru.kontur.vostok.hercules.meta.timeline.Timeline;
 import ru.kontur.vostok.hercules.protocol.Event;
 import ru.kontur.vostok.hercules.protocol.util.EventUtil;
+import ru.kontur.vostok.hercules.sink.PartialSendFailureException;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.Properties;
+import java.util.Set;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 /**
+ * Sends events of the timeline to Cassandra.
+ * <p>
+ * If the timeline has the index table of non-empty timetraps, then slices of sent events are indexed before events themselves.
+ * Thus, the index never misses non-empty {@code (slice, tt_offset)} partitions.
  *
  * @author Gregory Koshelev
  */
 public class TimelineSender extends CassandraSender {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TimelineSender.class);
+
     private final Timeline timeline;
     private final Slicer slicer;
     private final Predicate<Event> predicate;
 
+    private volatile PreparedStatement indexStatement;
+
     public TimelineSender(Timeline timeline, Slicer slicer, Properties properties, MetricsCollector metricsCollector) {
         super(properties, metricsCollector);
 
         this.timeline = timeline;
         this.slicer = slicer;
+        this.predicate = predicate(timeline);
+    }
 
-        final Filter[] filters = timeline.getFilters();
-        this.predicate = event -> {
-            for (Filter filter : filters) {
-                if (!filter.test(event.getPayload())) {
-                    return false;
-                }
-            }
-            return true;
-        };
+    TimelineSender(
+            Timeline timeline,
+            Slicer slicer,
+            Properties properties,
+            CassandraConnector cassandraConnector,
+            MetricsCollector metricsCollector) {
+        super(properties, cassandraConnector, metricsCollector);
+
+        this.timeline = timeline;
+        this.slicer = slicer;
+
+        this.predicate = predicate(timeline);
+    }
+
+    @Override
+    protected int send(List<Event> events, List<Event> rejectedEvents) throws BackendServiceFailedException {
+        List<Event> filteredEvents = filter(events);
+        index(filteredEvents);
+        try {
+            return super.send(filteredEvents, rejectedEvents);
+        } catch (PartialSendFailureException ex) {
+            /* Filtered out events are considered as rejected ones */
+            throw new PartialSendFailureException(
+                    ex.getProcessedEvents(),
+                    ex.getRejectedEvents() + events.size() - filteredEvents.size(),
+                    ex.getFailedEvents(),
+                    ex.getCause());
+        }
     }
 
     @Override
-    protected int send(List<Event> events) throws BackendServiceFailedException {
-        return super.send(filter(events));
+    protected void prepare(CassandraConnector connector) {
+        String indexTable = TimeTrapUtil.toTimeTrapIndexTableName(TimelineUtil.timelineToTableName(timeline));
+        if (!connector.metadata(indexTable).isPresent()) {
+            LOGGER.warn("Index table '{}' does not exist, timetraps will not be indexed", indexTable);
+            return;
+        }
+
+        indexStatement = connector.session().prepare("INSERT INTO " + indexTable + " (" +
+                " tt_offset," +
+                " slice" +
+                ") " +
+                "VALUES (?, ?)");
     }
 
     @Override
@@ -74,6 +122,34 @@ public class TimelineSender extends CassandraSender {
         });
     }
 
+    /**
+     * Write distinct {@code (slice, tt_offset)} pairs of events to the index table.
+     * <p>
+     * Index entries are rewritten on each send, so they expire not earlier than events of the same partition.
+     * Entries are written with the same limit of in-flight requests, timeout and retries as events.
+     *
+     * @param events events to be sent
+     * @throws BackendServiceFailedException if the index cannot be written
+     */
+    private void index(List<Event> events) throws BackendServiceFailedException {
+        if (indexStatement == null || events.isEmpty()) {
+            return;
+        }
+
+        Set<Timetrap> timetraps = new HashSet<>();
+        for (Event event : events) {
+            timetraps.add(new Timetrap(
+                    slicer.slice(event),
+                    TimeTrapUtil.toTimeTrapOffset(timeline.getTimetrapSize(), event.getTimestamp())));
+        }
+
+        List<BoundStatement> statements = new ArrayList<>(timetraps.size());
+        for (Timetrap timetrap : timetraps) {
+            statements.add(indexStatement.bind(timetrap.ttOffset, timetrap.slice));
+        }
+        executeAll(statements);
+    }
+
     private List<Event> filter(List<Event> events) {
         if (timeline.getFilters().length == 0) {
             return events;
@@ -81,4 +157,46 @@ public class TimelineSender extends CassandraSender {
 
         return events.stream().filter(predicate).collect(Collectors.toList());
     }
+
+    private static Predicate<Event> predicate(Timeline timeline) {
+        final Filter[] filters = timeline.getFilters();
+        return event -> {
+            for (Filter filter : filters) {
+                if (!filter.test(event.getPayload())) {
+                    return false;
+                }
+            }
+            return true;
+        };
+    }
+
+    /**
+     * Cassandra partition of the timeline table.
+     */
+    private static class Timetrap {
+        private final int slice;
+        private final long ttOffset;
+
+        Timetrap(int slice, long ttOffset) {
+            this.slice = slice;
+            this.ttOffset = ttOffset;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Timetrap timetrap = (Timetrap) o;
+            return slice == timetrap.slice && ttOffset == timetrap.ttOffset;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * slice + Long.hashCode(ttOffset);
+        }
+    }
 }
@@ -0,0 +1,154 @@
+package ru.kontur.vostok.hercules.timeline.sink;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.DriverTimeoutException;
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
+import com.datastax.oss.driver.api.core.cql.BatchStatement;
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.cql.Statement;
+import com.datastax.oss.driver.api.core.metadata.schema.TableMetadata;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import ru.kontur.vostok.hercules.cassandra.util.CassandraConnector;
+import ru.kontur.vostok.hercules.cassandra.util.Slicer;
+import ru.kontur.vostok.hercules.health.MetricsCollector;
+import ru.kontur.vostok.hercules.kafka.util.processing.BackendServiceFailedException;
+import ru.kontur.vostok.hercules.meta.filter.Filter;
+import ru.kontur.vostok.hercules.meta.timeline.Timeline;
+import ru.kontur.vostok.hercules.protocol.Event;
+import ru.kontur.vostok.hercules.protocol.util.EventBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TimelineSenderTest {
+    private static final long TIMETRAP_SIZE_MS = 1_000;
+    private static final long TICKS_PER_MS = 10_000;
+
+    private CqlSession session = mock(CqlSession.class);
+    private PreparedStatement insertEvent = mock(PreparedStatement.class);
+    private PreparedStatement insertTimetrap = mock(PreparedStatement.class);
+    private BoundStatement indexEntry = mock(BoundStatement.class);
+    private CassandraConnector connector = mock(CassandraConnector.class);
+    private MetricsCollector metricsCollector = mock(MetricsCollector.class);
+    private Slicer slicer = mock(Slicer.class);
+
+    private TimelineSender sender;
+
+    @Before
+    public void setUp() {
+        when(connector.session()).thenReturn(session);
+        when(connector.metadata("test_timeline_timetraps")).thenReturn(Optional.of(mock(TableMetadata.class)));
+        when(connector.batchSizeBytesLimit()).thenReturn(50 * 1024);
+        when(connector.batchSizeBytesMinimum()).thenReturn(12);
+        when(connector.computeInnerBatchStatementSizeBytes(any())).thenReturn(100);
+
+        when(metricsCollector.meter(anyString())).thenReturn(new Meter());
+        when(metricsCollector.timer(anyString())).thenReturn(new Timer());
+
+        when(session.prepare(anyString())).thenAnswer(invocation ->
+                ((String) invocation.getArgument(0)).contains("_timetraps") ? insertTimetrap : insertEvent);
+        when(insertTimetrap.bind(anyLong(), anyInt())).thenReturn(indexEntry);
+        when(insertEvent.bind(any())).thenAnswer(invocation -> {
+            BoundStatement statement = mock(BoundStatement.class);
+            when(statement.getRoutingKey()).thenReturn(ByteBuffer.wrap(new byte[]{0}));
+            return statement;
+        });
+        when(session.executeAsync(any(Statement.class))).thenReturn(completed());
+
+        Timeline timeline = new Timeline();
+        timeline.setName("test_timeline");
+        timeline.setSlices(2);
+        timeline.setTimetrapSize(TIMETRAP_SIZE_MS);
+        timeline.setFilters(new Filter[0]);
+
+        sender = new TimelineSender(timeline, slicer, new Properties(), connector, metricsCollector);
+        sender.start();
+    }
+
+    @After
+    public void tearDown() {
+        sender.stop(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void shouldIndexDistinctTimetrapsBeforeEvents() throws Exception {
+        List<Event> events = Arrays.asList(
+                event(0, 0),
+                event(0, 500),
+                event(1, 2_000));
+
+        assertEquals(3, sender.send(events, new ArrayList<>()));
+
+        verify(insertTimetrap, times(1)).bind(0L, 0);
+        verify(insertTimetrap, times(1)).bind(2_000L, 1);
+
+        InOrder inOrder = inOrder(session);
+        inOrder.verify(session, times(2)).executeAsync(indexEntry);
+        inOrder.verify(session).executeAsync(any(BatchStatement.class));
+    }
+
+    @Test
+    public void shouldRetryFailedIndexEntry() throws Exception {
+        when(session.executeAsync(indexEntry))
+                .thenReturn(failed(new DriverTimeoutException("Query timed out")))
+                .thenReturn(completed());
+
+        assertEquals(1, sender.send(Arrays.asList(event(0, 0)), new ArrayList<>()));
+
+        verify(session, times(2)).executeAsync(indexEntry);
+    }
+
+    @Test(expected = BackendServiceFailedException.class)
+    public void shouldNotSendEventsIfIndexFailed() throws Exception {
+        when(session.executeAsync(indexEntry)).thenReturn(failed(new IllegalStateException("No node was available")));
+
+        try {
+            sender.send(Arrays.asList(event(0, 0)), new ArrayList<>());
+        } finally {
+            verify(session, never()).executeAsync(any(BatchStatement.class));
+            verify(insertEvent, never()).bind(any());
+        }
+    }
+
+    private Event event(int slice, long timestampMs) {
+        Event event = EventBuilder.create(timestampMs * TICKS_PER_MS, UUID.randomUUID()).build();
+        when(slicer.slice(event)).thenReturn(slice);
+        return event;
+    }
+
+    private static CompletableFuture<AsyncResultSet> completed() {
+        return CompletableFuture.completedFuture(mock(AsyncResultSet.class));
+    }
+
+    private static CompletableFuture<AsyncResultSet> failed(Throwable throwable) {
+        CompletableFuture<AsyncResultSet> future = new CompletableFuture<>();
+        future.completeExceptionally(throwable);
+        return future;
+    }
+}